@@ -2,16 +2,24 @@ package book.store;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.context.metrics.buffering.BufferingApplicationStartup;
+import org.springframework.boot.context.properties.ConfigurationPropertiesScan;
 
 /* The following code is a basic set up for a Spring Boot application
+ *
+ * @ConfigurationPropertiesScan picks up the classes in book.store.config that bind the book-store.* settings
+ * from application.yaml.
  *
  * public class BookStore Application is the definition of the class 
  */
 
 
 @SpringBootApplication
+@ConfigurationPropertiesScan
 public class BookStoreApplication {
 
+	private static final int STARTUP_STEP_CAPACITY = 10000;
+
 /*	Main method declaration, standard signature for the main method in Java.  
  * It is public, meaning it can be accessed from outside the class. It is static, 
  * so it can be called without creating an instance of the class. 
@@ -19,9 +27,13 @@ public class BookStoreApplication {
 	
 	public static void main(String[] args) {
 		
-// This line is responsible for launching the Spring Boot application.
+/* These lines are responsible for launching the Spring Boot application. The BufferingApplicationStartup records
+ * how long each startup step took, which the StartupTimingReporter and /actuator/startup report on.
+ */
 		
-		SpringApplication.run(BookStoreApplication.class, args);
+		SpringApplication application = new SpringApplication(BookStoreApplication.class);
+		application.setApplicationStartup(new BufferingApplicationStartup(STARTUP_STEP_CAPACITY));
+		application.run(args);
 
 	}
 
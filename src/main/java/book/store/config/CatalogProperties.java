@@ -0,0 +1,30 @@
+package book.store.config;
+
+import java.time.Duration;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import lombok.Data;
+
+/* The CatalogProperties class binds the book-store.catalog settings from application.yaml.
+ *
+ * enabled: turns on hot catalog mode, in which publisher reads are answered from an in-memory snapshot of all
+ * publishers, book stores and memberships instead of the database.
+ *
+ * rebuildInterval: how often the whole snapshot is rebuilt from the database. This also picks up changes made
+ * through other instances, which the incremental refresh does not see.
+ *
+ * refreshInterval: how often the publishers touched by writes on this instance are reloaded into the snapshot.
+ *
+ * segmentSize: publishers per snapshot segment. An incremental refresh only rebuilds the segments it touches.
+ *
+ * fetchSize: JDBC fetch size for the rebuild queries. MySQL only honours it with useCursorFetch=true on the URL.
+ */
+
+@Data
+@ConfigurationProperties(prefix = "book-store.catalog")
+public class CatalogProperties {
+	private boolean enabled = false;
+	private Duration rebuildInterval = Duration.ofMinutes(10);
+	private Duration refreshInterval = Duration.ofSeconds(1);
+	private int segmentSize = 1024;
+	private int fetchSize = 1000;
+}
@@ -0,0 +1,23 @@
+package book.store.config;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import book.store.controller.model.BookStorePublisher;
+import book.store.service.PublisherRead;
+import book.store.service.SingleFlight;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/* The CoalescingConfiguration class creates the SingleFlight used by BookStoreService.retrievPublisherById, so that
+ * many simultaneous GET /publisher/{publisherId} requests for the same ID share one database load.
+ */
+
+@Configuration
+public class CoalescingConfiguration {
+
+	@Bean
+	public SingleFlight<PublisherRead, BookStorePublisher> publisherReadFlight(CoalescingProperties properties,
+			MeterRegistry meterRegistry) {
+		return new SingleFlight<>("publisher", properties.isEnabled(), properties.getWaitTimeout(),
+				properties.getMaxTrackedKeys(), meterRegistry);
+	}
+}
@@ -0,0 +1,24 @@
+package book.store.config;
+
+import java.time.Duration;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import lombok.Data;
+
+/* The CoalescingProperties class binds the book-store.coalescing settings from application.yaml.
+ *
+ * enabled: when false every publisher read goes straight to the database, as before.
+ *
+ * waitTimeout: how long a request that joined someone else's in-flight load will wait for the result before
+ * giving up with a 503 instead of holding its request thread.
+ *
+ * maxTrackedKeys: upper bound on the number of publisher IDs that get their own collapsed-request counter, so a
+ * scan over many IDs cannot grow the statistics map without limit.
+ */
+
+@Data
+@ConfigurationProperties(prefix = "book-store.coalescing")
+public class CoalescingProperties {
+	private boolean enabled = true;
+	private Duration waitTimeout = Duration.ofSeconds(5);
+	private int maxTrackedKeys = 1000;
+}
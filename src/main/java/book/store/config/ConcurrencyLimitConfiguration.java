@@ -0,0 +1,26 @@
+package book.store.config;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import book.store.service.AdaptiveConcurrencyLimiter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/* The ConcurrencyLimitConfiguration class creates one AdaptiveConcurrencyLimiter for read methods and one for write
+ * methods of BookStoreService. Each limiter adapts on its own, so slow writes cannot starve reads.
+ */
+
+@Configuration
+public class ConcurrencyLimitConfiguration {
+
+	@Bean
+	public AdaptiveConcurrencyLimiter readConcurrencyLimiter(ConcurrencyLimitProperties properties,
+			MeterRegistry meterRegistry) {
+		return new AdaptiveConcurrencyLimiter("read", properties.isEnabled(), properties.getReads(), meterRegistry);
+	}
+
+	@Bean
+	public AdaptiveConcurrencyLimiter writeConcurrencyLimiter(ConcurrencyLimitProperties properties,
+			MeterRegistry meterRegistry) {
+		return new AdaptiveConcurrencyLimiter("write", properties.isEnabled(), properties.getWrites(), meterRegistry);
+	}
+}
@@ -0,0 +1,42 @@
+package book.store.config;
+
+import java.time.Duration;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import lombok.Data;
+
+/* The ConcurrencyLimitProperties class binds the book-store.concurrency-limit settings from application.yaml.
+ *
+ * Reads and writes each get their own Limit settings, because a burst of slow writes waiting on row locks should
+ * not use up the capacity that cheap reads need (and the other way around).
+ *
+ * initialLimit, minLimit and maxLimit: the starting number of concurrent calls and the range the adaptive limit is
+ * allowed to move in.
+ *
+ * smoothing: how much of each new estimate is blended into the current limit (0 to 1, higher reacts faster).
+ *
+ * rttTolerance: how much slower than the long term average latency a call may be before the limit starts to
+ * shrink. 1.5 means latency has to rise 50% above the baseline.
+ *
+ * backoffRatio: the factor the limit is multiplied by when a call fails with a timeout from the database.
+ *
+ * retryAfter: the value sent in the Retry-After header when a call is rejected.
+ */
+
+@Data
+@ConfigurationProperties(prefix = "book-store.concurrency-limit")
+public class ConcurrencyLimitProperties {
+	private boolean enabled = true;
+	private Limit reads = new Limit();
+	private Limit writes = new Limit();
+
+	@Data
+	public static class Limit {
+		private int initialLimit = 20;
+		private int minLimit = 4;
+		private int maxLimit = 200;
+		private double smoothing = 0.2;
+		private double rttTolerance = 1.5;
+		private double backoffRatio = 0.9;
+		private Duration retryAfter = Duration.ofSeconds(1);
+	}
+}
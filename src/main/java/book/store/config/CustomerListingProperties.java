@@ -0,0 +1,23 @@
+package book.store.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import lombok.Data;
+
+/* The CustomerListingProperties class binds the book-store.customers settings from application.yaml.
+ *
+ * embedLimit: GET /publisher/{publisherId}?embedCustomers=true still lists the customers inside a book store that
+ * has at most this many of them. Larger stores only carry their customerCount and are read page by page from
+ * GET /bookStore/{bookStoreId}/customers. 0 turns embedding off.
+ *
+ * defaultPageSize: customers per page when the request does not pass a limit.
+ *
+ * maxPageSize: the largest limit a request may ask for; larger limits are cut to it.
+ */
+
+@Data
+@ConfigurationProperties(prefix = "book-store.customers")
+public class CustomerListingProperties {
+	private int embedLimit = 50;
+	private int defaultPageSize = 100;
+	private int maxPageSize = 1000;
+}
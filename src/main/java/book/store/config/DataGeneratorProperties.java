@@ -0,0 +1,49 @@
+package book.store.config;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import lombok.Data;
+
+/* The DataGeneratorProperties class binds the book-store.data-generator settings from application.yaml. The
+ * DataGenerator only runs when enabled is on; it is meant for load-test databases, not for production.
+ *
+ * seed: the same seed, shard count and starting IDs always produce the same data, however many threads are used.
+ * Only the customer IDs, which the database assigns, can come out in a different order.
+ *
+ * publishers, customers: how many to create, spread evenly over the shards.
+ *
+ * minStoresPerPublisher, maxStoresPerPublisher: every publisher gets a uniformly drawn number of book stores.
+ *
+ * meanStoresPerCustomer, maxStoresPerCustomer: how many book stores a customer joins (at least one, geometrically
+ * distributed around the mean).
+ *
+ * storeZipfExponent: how skewed store popularity is. The store of popularity rank r is joined with a probability
+ * proportional to 1 / r^exponent, so with 1.0 a few stores get most of the customers. 0 makes all stores equal.
+ *
+ * states, stateZipfExponent: the states the book stores are in, the first being the most common. Each state comes
+ * with its capital and zip code range.
+ *
+ * rowsPerStatement: rows in one multi-row INSERT. chunkSize: publishers or customers written per transaction.
+ * threads: chunks written at the same time; 0 uses one per processor. Keep it below the connection pool size.
+ */
+
+@Data
+@ConfigurationProperties(prefix = "book-store.data-generator")
+public class DataGeneratorProperties {
+	private boolean enabled = false;
+	private long seed = 42;
+	private int publishers = 100;
+	private int minStoresPerPublisher = 1;
+	private int maxStoresPerPublisher = 20;
+	private int customers = 100_000;
+	private double meanStoresPerCustomer = 2.0;
+	private int maxStoresPerCustomer = 20;
+	private double storeZipfExponent = 1.0;
+	private List<String> states = new ArrayList<>(List.of("CA", "TX", "FL", "NY", "PA", "IL", "OH", "GA", "NC",
+		"MI", "WA", "AZ", "MA", "CO", "ID"));
+	private double stateZipfExponent = 1.0;
+	private int rowsPerStatement = 1000;
+	private int chunkSize = 10_000;
+	private int threads = 0;
+}
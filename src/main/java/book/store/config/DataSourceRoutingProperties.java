@@ -0,0 +1,38 @@
+package book.store.config;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import lombok.Data;
+
+/* The DataSourceRoutingProperties class binds the book-store.datasource settings from application.yaml. The primary
+ * database is still configured with the normal spring.datasource settings.
+ *
+ * replicas: the read replicas that read-only transactions are sent to. With no replicas everything goes to the
+ * primary, exactly as before.
+ *
+ * healthCheckInterval: how often every replica is checked with Connection.isValid. A replica that fails the check
+ * (or fails to hand out a connection) gets no reads until it passes again.
+ *
+ * readYourWritesWindow: for this long after a client sends a POST, PUT or DELETE its reads go to the primary, so it
+ * does not read stale data from a replica that has not caught up yet. Zero turns it off.
+ */
+
+@Data
+@ConfigurationProperties(prefix = "book-store.datasource")
+public class DataSourceRoutingProperties {
+	private List<Replica> replicas = new ArrayList<>();
+	private Duration healthCheckInterval = Duration.ofSeconds(5);
+	private Duration healthCheckTimeout = Duration.ofSeconds(2);
+	private Duration readYourWritesWindow = Duration.ZERO;
+
+	@Data
+	public static class Replica {
+		private String name;
+		private String url;
+		private String username;
+		private String password;
+		private int maximumPoolSize = 10;
+	}
+}
@@ -0,0 +1,31 @@
+package book.store.config;
+
+import java.time.Duration;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+import lombok.Data;
+
+/* The ExportProperties class binds the book-store.exports settings from application.yaml.
+ *
+ * directory: where the CSV files are written. It is created when it does not exist.
+ *
+ * maxConcurrentJobs: exports that run at the same time. Further exports wait in the queue. Each running export
+ * holds one database connection for as long as it reads.
+ *
+ * fetchSize: rows the JDBC driver fetches per round trip while streaming, on databases other than MySQL. On MySQL
+ * the export reads a Connector/J streaming result row by row, so it needs neither this nor useCursorFetch=true.
+ *
+ * bufferSize: rows are collected in a buffer of this size and written to the file when it is full.
+ *
+ * retention: how long a finished, failed or cancelled export and its file are kept.
+ */
+
+@Data
+@ConfigurationProperties(prefix = "book-store.exports")
+public class ExportProperties {
+	private String directory = System.getProperty("java.io.tmpdir") + "/book-store-exports";
+	private int maxConcurrentJobs = 2;
+	private int fetchSize = 10000;
+	private DataSize bufferSize = DataSize.ofKilobytes(256);
+	private Duration retention = Duration.ofDays(2);
+}
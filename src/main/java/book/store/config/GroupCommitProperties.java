@@ -0,0 +1,29 @@
+package book.store.config;
+
+import java.time.Duration;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import lombok.Data;
+
+/* The GroupCommitProperties class binds the book-store.group-commit settings from application.yaml.
+ *
+ * enabled: when true, new customers sent to POST /publisher/{bookStoreId}/customer are queued and written in
+ * micro-batches by the CustomerEnrollmentQueue instead of one transaction per request.
+ *
+ * maxBatchSize and maxDelay: a batch is written as soon as it holds maxBatchSize enrollments or its first
+ * enrollment has waited maxDelay, whichever comes first. maxDelay is the extra latency a caller may see.
+ *
+ * queueCapacity: enrollments waiting beyond this are rejected with a 503 instead of queuing without limit.
+ *
+ * writerThreads: how many batches may be written at the same time.
+ */
+
+@Data
+@ConfigurationProperties(prefix = "book-store.group-commit")
+public class GroupCommitProperties {
+	private boolean enabled = false;
+	private int maxBatchSize = 200;
+	private Duration maxDelay = Duration.ofMillis(5);
+	private int queueCapacity = 10000;
+	private int writerThreads = 1;
+	private Duration retryAfter = Duration.ofSeconds(1);
+}
@@ -0,0 +1,17 @@
+package book.store.config;
+
+import java.time.Duration;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import lombok.Data;
+
+/* The IdempotencyProperties class binds the book-store.idempotency settings from application.yaml.
+ *
+ * retention: how long an Idempotency-Key is remembered. A retry sent after that is treated as a new request (the
+ * upsert by email still keeps it from creating a duplicate customer).
+ */
+
+@Data
+@ConfigurationProperties(prefix = "book-store.idempotency")
+public class IdempotencyProperties {
+	private Duration retention = Duration.ofHours(24);
+}
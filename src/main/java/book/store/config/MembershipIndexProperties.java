@@ -0,0 +1,28 @@
+package book.store.config;
+
+import java.time.Duration;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import lombok.Data;
+
+/* The MembershipIndexProperties class binds the book-store.membership-index settings from application.yaml.
+ *
+ * enabled: keeps a compressed bitmap of customer IDs for every book store in memory and answers
+ * POST /bookStore/audience from it.
+ *
+ * rebuildInterval: how often the whole index is rebuilt from book_store_customer. This also picks up memberships
+ * written through other instances.
+ *
+ * refreshInterval: how often the book stores of changed publishers, and stores the index did not know yet, are
+ * loaded. Customers added on this instance are applied straight away.
+ *
+ * fetchSize: JDBC fetch size for the rebuild queries. MySQL only honours it with useCursorFetch=true on the URL.
+ */
+
+@Data
+@ConfigurationProperties(prefix = "book-store.membership-index")
+public class MembershipIndexProperties {
+	private boolean enabled = false;
+	private Duration rebuildInterval = Duration.ofMinutes(10);
+	private Duration refreshInterval = Duration.ofSeconds(1);
+	private int fetchSize = 10000;
+}
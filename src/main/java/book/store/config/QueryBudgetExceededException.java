@@ -0,0 +1,14 @@
+package book.store.config;
+
+/* QueryBudgetExceededException is thrown by the QueryTracker, in FAIL mode, when a request runs more SQL
+ * statements than the budget for its endpoint allows.
+ */
+
+public class QueryBudgetExceededException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	public QueryBudgetExceededException(String message) {
+		super(message);
+	}
+}
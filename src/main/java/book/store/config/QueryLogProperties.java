@@ -0,0 +1,36 @@
+package book.store.config;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import lombok.Data;
+
+/* The QueryLogProperties class binds the book-store.query-log settings from application.yaml.
+ *
+ * slowThreshold: statements that take at least this long are written to the book.store.slowquery log.
+ *
+ * maxSqlLength: longer SQL is cut off in the slow query log.
+ *
+ * defaultBudget: how many statements one request may run when its endpoint has no entry in budgets.
+ *
+ * budgets: statement budget per endpoint, keyed by HTTP method and mapping pattern, for example
+ * "[GET /publisher/{publisherId}]": 5 (the square brackets keep the key intact in YAML).
+ *
+ * budgetMode: WARN logs a request that went over its budget; FAIL stops it with a QueryBudgetExceededException as
+ * soon as it runs one statement too many, so a test that adds an N+1 query fails.
+ */
+
+@Data
+@ConfigurationProperties(prefix = "book-store.query-log")
+public class QueryLogProperties {
+	private Duration slowThreshold = Duration.ofMillis(200);
+	private int maxSqlLength = 2000;
+	private int defaultBudget = 25;
+	private Map<String, Integer> budgets = new HashMap<>();
+	private BudgetMode budgetMode = BudgetMode.WARN;
+
+	public enum BudgetMode {
+		WARN, FAIL
+	}
+}
@@ -0,0 +1,150 @@
+package book.store.config;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+
+/* The QueryTracker receives every SQL statement seen by the QueryTrackingDataSource, replacing show-sql.
+ *
+ * Every statement is timed into the bookstore.jdbc.statements timer (tagged select, insert, update, delete or
+ * other). Only statements slower than slowThreshold are logged, to the book.store.slowquery logger, together with
+ * their bind and batch counts and the endpoint of the request that ran them. That logger writes through an
+ * AsyncAppender (see logback-spring.xml) so request threads never wait on console or file output.
+ *
+ * While a web request is running (started and ended by the QueryBudgetInterceptor) the tracker counts its
+ * statements against the endpoint's budget. In FAIL mode the statement that goes over the budget is refused with a
+ * QueryBudgetExceededException; in WARN mode the request finishes and is logged once at the end. The number of
+ * statements per request is recorded in the bookstore.request.queries summary.
+ */
+
+@Component
+@Slf4j
+public class QueryTracker {
+
+private static final String[] STATEMENT_TYPES = {"select", "insert", "update", "delete"};
+
+private static final Logger slowQueryLog = LoggerFactory.getLogger("book.store.slowquery");
+
+private final ThreadLocal<RequestQueries> currentRequest = new ThreadLocal<>();
+private final Map<String, Timer> statementTimers = new ConcurrentHashMap<>();
+
+private final QueryLogProperties properties;
+private final MeterRegistry meterRegistry;
+
+public QueryTracker(QueryLogProperties properties, MeterRegistry meterRegistry) {
+	this.properties = properties;
+	this.meterRegistry = meterRegistry;
+}
+
+/* Starts counting statements for a request to the given endpoint, for example "GET /publisher/{publisherId}". */
+
+public void startRequest(String endpoint) {
+	int budget = properties.getBudgets().getOrDefault(endpoint, properties.getDefaultBudget());
+	currentRequest.set(new RequestQueries(endpoint, budget));
+}
+
+/* Stops counting for the current request, records its statement count and warns if it was over budget. */
+
+public void endRequest() {
+	RequestQueries request = currentRequest.get();
+	currentRequest.remove();
+
+	if(request == null) {
+		return;
+	}
+
+	DistributionSummary.builder("bookstore.request.queries")
+		.tag("endpoint", request.endpoint)
+		.description("SQL statements run per request")
+		.register(meterRegistry)
+		.record(request.statements);
+
+	if(request.statements > request.budget) {
+		log.warn("Query budget exceeded: endpoint={} statements={} budget={} totalMs={}", request.endpoint,
+			request.statements, request.budget, request.totalNanos / 1_000_000);
+	}
+}
+
+/* Called right before a statement runs. Counts it against the request's budget and, in FAIL mode, refuses it if
+ * the budget is already used up.
+ */
+
+void beforeStatement(String sql) {
+	RequestQueries request = currentRequest.get();
+
+	if(request == null) {
+		return;
+	}
+
+	request.statements++;
+
+	if(request.statements > request.budget && properties.getBudgetMode() == QueryLogProperties.BudgetMode.FAIL) {
+		throw new QueryBudgetExceededException("Statement " + request.statements + " exceeds the budget of "
+			+ request.budget + " for " + request.endpoint + ": " + truncate(sql));
+	}
+}
+
+/* Called after a statement ran (or failed) with how long it took, how many parameters were bound and how many
+ * rows were in the batch.
+ */
+
+void afterStatement(String sql, long elapsedNanos, int bindCount, int batchSize) {
+	statementTimers.computeIfAbsent(statementType(sql), type -> Timer.builder("bookstore.jdbc.statements")
+		.tag("type", type)
+		.description("SQL statement execution time")
+		.register(meterRegistry))
+		.record(elapsedNanos, TimeUnit.NANOSECONDS);
+
+	RequestQueries request = currentRequest.get();
+
+	if(request != null) {
+		request.totalNanos += elapsedNanos;
+	}
+
+	if(elapsedNanos >= properties.getSlowThreshold().toNanos()) {
+		slowQueryLog.warn("slow query durationMs={} binds={} batch={} endpoint={} sql={}",
+			elapsedNanos / 1_000_000, bindCount, batchSize, request == null ? "-" : request.endpoint, truncate(sql));
+	}
+}
+
+private String statementType(String sql) {
+	if(sql == null) {
+		return "other";
+	}
+
+	String trimmed = sql.stripLeading();
+
+	for(String type : STATEMENT_TYPES) {
+		if(trimmed.regionMatches(true, 0, type, 0, type.length())) {
+			return type;
+		}
+	}
+	return "other";
+}
+
+private String truncate(String sql) {
+	if(sql == null || sql.length() <= properties.getMaxSqlLength()) {
+		return sql;
+	}
+	return sql.substring(0, properties.getMaxSqlLength()) + "...";
+}
+
+private static class RequestQueries {
+	private final String endpoint;
+	private final int budget;
+	private int statements;
+	private long totalNanos;
+
+	private RequestQueries(String endpoint, int budget) {
+		this.endpoint = endpoint;
+		this.budget = budget;
+	}
+}
+}
@@ -0,0 +1,172 @@
+package book.store.config;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Set;
+import javax.sql.DataSource;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+/* QueryTrackingDataSource wraps every connection, and every statement created from it, in a JDK dynamic proxy so
+ * the QueryTracker sees each statement that runs: its SQL, how long it took, how many parameters were bound and,
+ * for batches, how many rows were sent. All other JDBC calls are passed straight through.
+ *
+ * It sits between the LazyConnectionDataSourceProxy and the ReadWriteRoutingDataSource, so statements are timed
+ * against the real connection that was routed to the primary or a replica.
+ */
+
+public class QueryTrackingDataSource extends DelegatingDataSource {
+
+	/*
+	 * setXxx methods on a statement that configure it rather than bind a parameter.
+	 */
+	private static final Set<String> NON_BIND_SETTERS = Set.of("setFetchSize", "setFetchDirection", "setMaxRows",
+			"setLargeMaxRows", "setMaxFieldSize", "setQueryTimeout", "setEscapeProcessing", "setCursorName",
+			"setPoolable");
+
+	private final QueryTracker queryTracker;
+
+	public QueryTrackingDataSource(DataSource targetDataSource, QueryTracker queryTracker) {
+		super(targetDataSource);
+		this.queryTracker = queryTracker;
+	}
+
+	@Override
+	public Connection getConnection() throws SQLException {
+		return wrapConnection(obtainTargetDataSource().getConnection());
+	}
+
+	@Override
+	public Connection getConnection(String username, String password) throws SQLException {
+		return wrapConnection(obtainTargetDataSource().getConnection(username, password));
+	}
+
+	private Connection wrapConnection(Connection connection) {
+		return (Connection)Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {Connection.class},
+				new ConnectionHandler(connection));
+	}
+
+	private static Object invokeTarget(Object target, Method method, Object[] args) throws Throwable {
+		try {
+			return method.invoke(target, args);
+		}
+		catch(InvocationTargetException e) {
+			throw e.getTargetException();
+		}
+	}
+
+	private class ConnectionHandler implements InvocationHandler {
+		private final Connection target;
+
+		private ConnectionHandler(Connection target) {
+			this.target = target;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			switch(method.getName()) {
+				case "equals":
+					return proxy == args[0];
+				case "hashCode":
+					return System.identityHashCode(proxy);
+				case "toString":
+					return "QueryTracking[" + target + "]";
+				default:
+					break;
+			}
+
+			Object result = invokeTarget(target, method, args);
+
+			if(result instanceof CallableStatement statement) {
+				return wrapStatement(proxy, statement, CallableStatement.class, (String)args[0]);
+			}
+			if(result instanceof PreparedStatement statement) {
+				return wrapStatement(proxy, statement, PreparedStatement.class, (String)args[0]);
+			}
+			if(result instanceof Statement statement) {
+				return wrapStatement(proxy, statement, Statement.class, null);
+			}
+			return result;
+		}
+
+		private Object wrapStatement(Object connectionProxy, Statement statement, Class<?> type, String sql) {
+			return Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {type},
+					new StatementHandler(connectionProxy, statement, sql));
+		}
+	}
+
+	private class StatementHandler implements InvocationHandler {
+		private final Object connectionProxy;
+		private final Statement target;
+		private final String preparedSql;
+		private String batchSql;
+		private int bindCount;
+		private int batchSize;
+
+		private StatementHandler(Object connectionProxy, Statement target, String preparedSql) {
+			this.connectionProxy = connectionProxy;
+			this.target = target;
+			this.preparedSql = preparedSql;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+
+			switch(name) {
+				case "equals":
+					return proxy == args[0];
+				case "hashCode":
+					return System.identityHashCode(proxy);
+				case "getConnection":
+					return connectionProxy;
+				case "clearParameters":
+					bindCount = 0;
+					break;
+				case "addBatch":
+					batchSize++;
+					if(args != null && args.length == 1 && args[0] instanceof String sql) {
+						batchSql = sql;
+					}
+					break;
+				case "clearBatch":
+					batchSize = 0;
+					break;
+				default:
+					if(name.startsWith("set") && args != null && args.length >= 2 && !NON_BIND_SETTERS.contains(name)) {
+						bindCount++;
+					}
+			}
+
+			if(!name.startsWith("execute")) {
+				return invokeTarget(target, method, args);
+			}
+
+			String sql = args != null && args.length > 0 && args[0] instanceof String statementSql ? statementSql
+					: preparedSql != null ? preparedSql : batchSql;
+			boolean batch = name.startsWith("executeBatch") || name.startsWith("executeLargeBatch");
+
+			queryTracker.beforeStatement(sql);
+			long start = System.nanoTime();
+
+			try {
+				return invokeTarget(target, method, args);
+			}
+			finally {
+				queryTracker.afterStatement(sql, System.nanoTime() - start, bindCount, batch ? batchSize : 1);
+
+				bindCount = 0;
+
+				if(batch) {
+					batchSize = 0;
+				}
+			}
+		}
+	}
+}
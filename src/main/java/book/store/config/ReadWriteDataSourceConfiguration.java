@@ -0,0 +1,128 @@
+package book.store.config;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.sql.DataSource;
+import org.flywaydb.core.Flyway;
+import org.springframework.boot.autoconfigure.flyway.FlywayProperties;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.env.Environment;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+/* The ReadWriteDataSourceConfiguration class replaces the single auto-configured DataSource with a
+ * ShardRoutingDataSource over one ReadWriteRoutingDataSource per shard.
+ *
+ * Shard 0's primary pool is built from the usual spring.datasource settings (including spring.datasource.hikari),
+ * and one read-only pool is built for every entry under book-store.datasource.replicas. Every entry under
+ * book-store.sharding.shards adds a shard with its own primary and replicas. Flyway is run on the additional
+ * shards here, with the spring.flyway settings, because the auto-configured migration only covers shard 0; their
+ * id_sequence rows are then raised to the start of the shard's ID range.
+ *
+ * The DataSource that JPA uses is a LazyConnectionDataSourceProxy around the routers, so the choice of shard, and
+ * between primary and replica, is made when the first statement runs and both the ShardContext and the
+ * transaction's read-only flag are known. In between sits the QueryTrackingDataSource, which times every statement
+ * for the slow query log and the query budgets.
+ */
+
+@Configuration
+@Slf4j
+public class ReadWriteDataSourceConfiguration {
+
+	@Bean
+	public ReadWriteRoutingDataSource readWriteRoutingDataSource(DataSourceProperties dataSourceProperties,
+			DataSourceRoutingProperties routingProperties, Environment environment, MeterRegistry meterRegistry) {
+		HikariDataSource primary = dataSourceProperties.initializeDataSourceBuilder()
+				.type(HikariDataSource.class).build();
+		Binder.get(environment).bind("spring.datasource.hikari", Bindable.ofInstance(primary));
+		primary.setPoolName("primary");
+
+		return new ReadWriteRoutingDataSource("shard-0", primary, replicaPools("", routingProperties.getReplicas()),
+				routingProperties.getHealthCheckInterval(), routingProperties.getHealthCheckTimeout(), meterRegistry);
+	}
+
+	@Bean
+	public ShardRoutingDataSource shardRoutingDataSource(ReadWriteRoutingDataSource readWriteRoutingDataSource,
+			ShardingProperties shardingProperties, DataSourceRoutingProperties routingProperties,
+			FlywayProperties flywayProperties, MeterRegistry meterRegistry) {
+		List<ReadWriteRoutingDataSource> additionalShards = new ArrayList<>();
+		int shard = 1;
+
+		for(ShardingProperties.Shard config : shardingProperties.getShards()) {
+			String name = config.getName() == null ? "shard-" + shard : config.getName();
+
+			HikariDataSource primary = DataSourceBuilder.create().type(HikariDataSource.class)
+					.url(config.getUrl()).username(config.getUsername()).password(config.getPassword()).build();
+			primary.setPoolName(name + "-primary");
+			primary.setMaximumPoolSize(config.getMaximumPoolSize());
+
+			migrate(primary, flywayProperties);
+			raiseIdSequences(primary, (long)shard << shardingProperties.getIdRangeBits());
+
+			additionalShards.add(new ReadWriteRoutingDataSource(name, primary,
+					replicaPools(name + "-", config.getReplicas()), routingProperties.getHealthCheckInterval(),
+					routingProperties.getHealthCheckTimeout(), meterRegistry));
+			log.info("Shard {} ({}) is ready", shard, name);
+			shard++;
+		}
+
+		return new ShardRoutingDataSource(readWriteRoutingDataSource, additionalShards);
+	}
+
+	@Bean
+	@Primary
+	public DataSource dataSource(ShardRoutingDataSource shardRoutingDataSource, QueryTracker queryTracker) {
+		return new LazyConnectionDataSourceProxy(new QueryTrackingDataSource(shardRoutingDataSource, queryTracker));
+	}
+
+	private Map<String, HikariDataSource> replicaPools(String namePrefix,
+			List<DataSourceRoutingProperties.Replica> replicaProperties) {
+		Map<String, HikariDataSource> replicas = new LinkedHashMap<>();
+		int index = 1;
+
+		for(DataSourceRoutingProperties.Replica replica : replicaProperties) {
+			String name = namePrefix + (replica.getName() == null ? "replica-" + index : replica.getName());
+			index++;
+
+			HikariDataSource dataSource = DataSourceBuilder.create().type(HikariDataSource.class)
+					.url(replica.getUrl()).username(replica.getUsername()).password(replica.getPassword()).build();
+			dataSource.setPoolName(name);
+			dataSource.setMaximumPoolSize(replica.getMaximumPoolSize());
+			dataSource.setReadOnly(true);
+
+			replicas.put(name, dataSource);
+		}
+		return replicas;
+	}
+
+	private void migrate(DataSource dataSource, FlywayProperties flywayProperties) {
+		Flyway.configure()
+				.dataSource(dataSource)
+				.locations(flywayProperties.getLocations().toArray(String[]::new))
+				.baselineOnMigrate(flywayProperties.isBaselineOnMigrate())
+				.baselineVersion(flywayProperties.getBaselineVersion())
+				.validateOnMigrate(flywayProperties.isValidateOnMigrate())
+				.load()
+				.migrate();
+	}
+
+/* Publisher and book store IDs generated on shard n have to start at n << idRangeBits. The sequences are only
+ * ever raised, so rows that already exist on the shard are never given a second time.
+ */
+
+	private void raiseIdSequences(DataSource dataSource, long rangeStart) {
+		new JdbcTemplate(dataSource).update("UPDATE id_sequence SET next_val = ? WHERE next_val < ?", rangeStart,
+				rangeStart);
+	}
+}
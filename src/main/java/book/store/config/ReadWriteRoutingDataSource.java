@@ -0,0 +1,191 @@
+package book.store.config;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+/* ReadWriteRoutingDataSource hands out connections from the primary pool for writes and from one of the replica
+ * pools for read-only transactions (for example BookStoreService.retrievPublisherById).
+ *
+ * It has to sit behind a LazyConnectionDataSourceProxy. The JPA transaction manager asks for a connection while
+ * the transaction is starting, before the read-only flag is visible through TransactionSynchronizationManager; the
+ * lazy proxy delays the real getConnection call until the first statement, when the flag is set.
+ *
+ * Replicas are picked round robin among the ones that are currently healthy. A background task checks every
+ * replica with Connection.isValid on a fixed interval, and a replica that fails to hand out a connection is marked
+ * unhealthy straight away and the next one is tried. When no replica is healthy reads fall back to the primary.
+ *
+ * Reads also go to the primary while ReadYourWritesContext says the client has just written something.
+ *
+ * There is one ReadWriteRoutingDataSource per shard; its meters are tagged with the shard name.
+ */
+
+@Slf4j
+public class ReadWriteRoutingDataSource extends AbstractDataSource implements DisposableBean {
+
+	private final HikariDataSource primary;
+	private final List<ReplicaTarget> replicas;
+	private final AtomicInteger nextReplica = new AtomicInteger();
+	private final int healthCheckTimeoutSeconds;
+	private final ScheduledExecutorService healthChecker;
+
+	private final Counter primaryConnections;
+	private final Counter fallbackConnections;
+
+	public ReadWriteRoutingDataSource(String shardName, HikariDataSource primary,
+			Map<String, HikariDataSource> replicaDataSources, Duration healthCheckInterval, Duration healthCheckTimeout,
+			MeterRegistry meterRegistry) {
+		this.primary = primary;
+		this.healthCheckTimeoutSeconds = (int)Math.max(1, healthCheckTimeout.toSeconds());
+
+		primaryConnections = Counter.builder("bookstore.datasource.connections").tag("shard", shardName)
+				.tag("target", "primary").register(meterRegistry);
+		fallbackConnections = Counter.builder("bookstore.datasource.replica.fallbacks")
+				.description("Read-only connections served by the primary because no replica was available")
+				.tag("shard", shardName).register(meterRegistry);
+
+		List<ReplicaTarget> targets = new ArrayList<>();
+		replicaDataSources.forEach((name, dataSource) -> targets.add(new ReplicaTarget(name, dataSource,
+				Counter.builder("bookstore.datasource.connections").tag("shard", shardName).tag("target", name)
+						.register(meterRegistry))));
+		this.replicas = List.copyOf(targets);
+
+		if(replicas.isEmpty()) {
+			healthChecker = null;
+		}
+		else {
+			healthChecker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "replica-health-check-" + shardName);
+				thread.setDaemon(true);
+				return thread;
+			});
+			healthChecker.scheduleWithFixedDelay(this::checkReplicas, healthCheckInterval.toMillis(),
+					healthCheckInterval.toMillis(), TimeUnit.MILLISECONDS);
+		}
+	}
+
+/* The getConnection method decides where the connection comes from. Writes, transactions that are not read-only
+ * and clients inside their read-your-writes window get a primary connection; everything else gets a replica
+ * connection if any replica can hand one out.
+ */
+
+	@Override
+	public Connection getConnection() throws SQLException {
+		if(replicas.isEmpty() || !TransactionSynchronizationManager.isCurrentTransactionReadOnly()
+				|| ReadYourWritesContext.isPinnedToPrimary()) {
+			primaryConnections.increment();
+			return primary.getConnection();
+		}
+
+		for(int attempt = 0; attempt < replicas.size(); attempt++) {
+			ReplicaTarget replica = nextHealthyReplica();
+
+			if(replica == null) {
+				break;
+			}
+
+			try {
+				Connection connection = replica.dataSource.getConnection();
+				replica.connections.increment();
+				return connection;
+			}
+			catch(SQLException e) {
+				log.warn("Replica {} failed to hand out a connection, marking it unhealthy: {}", replica.name,
+						e.toString());
+				replica.healthy = false;
+			}
+		}
+
+		fallbackConnections.increment();
+		primaryConnections.increment();
+		return primary.getConnection();
+	}
+
+	@Override
+	public Connection getConnection(String username, String password) throws SQLException {
+		return primary.getConnection(username, password);
+	}
+
+	private ReplicaTarget nextHealthyReplica() {
+		int size = replicas.size();
+		int start = Math.floorMod(nextReplica.getAndIncrement(), size);
+
+		for(int offset = 0; offset < size; offset++) {
+			ReplicaTarget replica = replicas.get((start + offset) % size);
+
+			if(replica.healthy) {
+				return replica;
+			}
+		}
+		return null;
+	}
+
+	void checkReplicas() {
+		for(ReplicaTarget replica : replicas) {
+			boolean healthy;
+
+			try(Connection connection = replica.dataSource.getConnection()) {
+				healthy = connection.isValid(healthCheckTimeoutSeconds);
+			}
+			catch(SQLException e) {
+				healthy = false;
+			}
+
+			if(healthy != replica.healthy) {
+				log.info("Replica {} is now {}", replica.name, healthy ? "healthy" : "unhealthy");
+			}
+			replica.healthy = healthy;
+		}
+	}
+
+/* Returns the health of every replica by name, used by the ReplicaHealthIndicator. */
+
+	public Map<String, Boolean> replicaHealth() {
+		Map<String, Boolean> result = new LinkedHashMap<>();
+
+		for(ReplicaTarget replica : replicas) {
+			result.put(replica.name, replica.healthy);
+		}
+		return result;
+	}
+
+	@Override
+	public void destroy() {
+		if(healthChecker != null) {
+			healthChecker.shutdownNow();
+		}
+
+		for(ReplicaTarget replica : replicas) {
+			replica.dataSource.close();
+		}
+		primary.close();
+	}
+
+	private static class ReplicaTarget {
+		private final String name;
+		private final HikariDataSource dataSource;
+		private final Counter connections;
+		private volatile boolean healthy = true;
+
+		private ReplicaTarget(String name, HikariDataSource dataSource, Counter connections) {
+			this.name = name;
+			this.dataSource = dataSource;
+			this.connections = connections;
+		}
+	}
+}
@@ -0,0 +1,26 @@
+package book.store.config;
+
+/* ReadYourWritesContext remembers, for the request running on the current thread, whether the client wrote
+ * something recently. The ReadYourWritesFilter sets it and the ReadWriteRoutingDataSource reads it: while it is
+ * active even read-only transactions use the primary database.
+ */
+
+public final class ReadYourWritesContext {
+
+	private static final ThreadLocal<Boolean> PINNED_TO_PRIMARY = new ThreadLocal<>();
+
+	private ReadYourWritesContext() {
+	}
+
+	public static void pinToPrimary() {
+		PINNED_TO_PRIMARY.set(Boolean.TRUE);
+	}
+
+	public static boolean isPinnedToPrimary() {
+		return Boolean.TRUE.equals(PINNED_TO_PRIMARY.get());
+	}
+
+	public static void clear() {
+		PINNED_TO_PRIMARY.remove();
+	}
+}
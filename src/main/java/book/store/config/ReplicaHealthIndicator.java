@@ -0,0 +1,32 @@
+package book.store.config;
+
+import java.util.Map;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.stereotype.Component;
+
+/* The ReplicaHealthIndicator adds a "replicas" entry to /actuator/health with the health of each read replica of
+ * every shard.
+ * An unhealthy replica only reduces read capacity (reads fall back to the primary), so the application stays UP
+ * and only the details show which replica is out of rotation.
+ */
+
+@Component("replicas")
+public class ReplicaHealthIndicator implements HealthIndicator {
+
+@Autowired
+private ShardRoutingDataSource shardRoutingDataSource;
+
+@Override
+public Health health() {
+	Map<String, Boolean> replicas = shardRoutingDataSource.replicaHealth();
+	long healthy = replicas.values().stream().filter(Boolean::booleanValue).count();
+
+	return Health.up()
+		.withDetail("healthy", healthy)
+		.withDetail("total", replicas.size())
+		.withDetail("replicas", replicas)
+		.build();
+}
+}
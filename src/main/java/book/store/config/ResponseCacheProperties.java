@@ -0,0 +1,25 @@
+package book.store.config;
+
+import java.time.Duration;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+import lombok.Data;
+
+/* The ResponseCacheProperties class binds the book-store.response-cache settings from application.yaml.
+ *
+ * enabled: keeps the serialized body of GET /publisher/{publisherId} responses in memory.
+ *
+ * ttl: the longest a cached response is used. Writes on this instance drop the affected responses straight away;
+ * the ttl limits how long a write made through another instance can go unnoticed. It also limits how long a body
+ * read from a lagging replica, just after a write, can keep being served.
+ *
+ * maxSize: total size of the cached bodies. When it is exceeded the publishers that were cached first are dropped.
+ */
+
+@Data
+@ConfigurationProperties(prefix = "book-store.response-cache")
+public class ResponseCacheProperties {
+	private boolean enabled = false;
+	private Duration ttl = Duration.ofSeconds(30);
+	private DataSize maxSize = DataSize.ofMegabytes(64);
+}
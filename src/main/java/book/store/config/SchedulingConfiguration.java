@@ -0,0 +1,11 @@
+package book.store.config;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+/* The SchedulingConfiguration class turns on Spring's @Scheduled support for the background housekeeping tasks. */
+
+@Configuration
+@EnableScheduling
+public class SchedulingConfiguration {
+}
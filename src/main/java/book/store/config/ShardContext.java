@@ -0,0 +1,51 @@
+package book.store.config;
+
+import java.util.function.Supplier;
+
+/* ShardContext holds the shard that database work on the current thread should use. The ShardingAspect sets it
+ * around every sharded service method, and the ShardRoutingDataSource reads it when a connection is opened.
+ * Without a shard set, shard 0 is used.
+ */
+
+public final class ShardContext {
+
+	private static final ThreadLocal<Integer> CURRENT_SHARD = new ThreadLocal<>();
+
+	private ShardContext() {
+	}
+
+	public static int currentShard() {
+		Integer shard = CURRENT_SHARD.get();
+		return shard == null ? 0 : shard;
+	}
+
+/* Sets the shard for the current thread and returns the one that was set before, to be passed to restore. */
+
+	public static Integer use(int shard) {
+		Integer previous = CURRENT_SHARD.get();
+		CURRENT_SHARD.set(shard);
+		return previous;
+	}
+
+	public static void restore(Integer previous) {
+		if(previous == null) {
+			CURRENT_SHARD.remove();
+		}
+		else {
+			CURRENT_SHARD.set(previous);
+		}
+	}
+
+/* Runs work with the given shard set and puts the previous shard back afterwards. */
+
+	public static <T> T callOn(int shard, Supplier<T> work) {
+		Integer previous = use(shard);
+
+		try {
+			return work.get();
+		}
+		finally {
+			restore(previous);
+		}
+	}
+}
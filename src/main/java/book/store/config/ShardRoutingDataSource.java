@@ -0,0 +1,75 @@
+package book.store.config;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+
+/* ShardRoutingDataSource hands out connections from the shard selected by ShardContext. Every shard is a
+ * ReadWriteRoutingDataSource, so within a shard reads and writes are still split between its primary and replicas.
+ *
+ * Like the read/write router it sits behind the LazyConnectionDataSourceProxy, so the shard only has to be set
+ * before the first statement of a transaction runs, not before the transaction starts.
+ */
+
+public class ShardRoutingDataSource extends AbstractDataSource implements DisposableBean {
+
+	private final List<ReadWriteRoutingDataSource> shards;
+	private final List<ReadWriteRoutingDataSource> additionalShards;
+
+	public ShardRoutingDataSource(ReadWriteRoutingDataSource shardZero,
+			List<ReadWriteRoutingDataSource> additionalShards) {
+		List<ReadWriteRoutingDataSource> all = new ArrayList<>();
+		all.add(shardZero);
+		all.addAll(additionalShards);
+
+		this.shards = List.copyOf(all);
+		this.additionalShards = List.copyOf(additionalShards);
+	}
+
+	@Override
+	public Connection getConnection() throws SQLException {
+		return shard(ShardContext.currentShard()).getConnection();
+	}
+
+	@Override
+	public Connection getConnection(String username, String password) throws SQLException {
+		return shard(ShardContext.currentShard()).getConnection(username, password);
+	}
+
+	public int getShardCount() {
+		return shards.size();
+	}
+
+/* Returns the health of the replicas of all shards by replica name. */
+
+	public Map<String, Boolean> replicaHealth() {
+		Map<String, Boolean> result = new LinkedHashMap<>();
+
+		for(ReadWriteRoutingDataSource shard : shards) {
+			result.putAll(shard.replicaHealth());
+		}
+		return result;
+	}
+
+	private ReadWriteRoutingDataSource shard(int shard) {
+		if(shard < 0 || shard >= shards.size()) {
+			throw new IllegalStateException("Shard " + shard + " is not configured; there are " + shards.size()
+					+ " shards.");
+		}
+		return shards.get(shard);
+	}
+
+/* Shard 0 is a bean of its own and is closed by Spring; the additional shards are closed here. */
+
+	@Override
+	public void destroy() {
+		for(ReadWriteRoutingDataSource shard : additionalShards) {
+			shard.destroy();
+		}
+	}
+}
@@ -0,0 +1,51 @@
+package book.store.config;
+
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.id.enhanced.TableGenerator;
+import org.hibernate.service.ServiceRegistry;
+import org.hibernate.type.Type;
+
+/* ShardedTableGenerator hands out publisher and book store IDs from the id_sequence table in blocks of
+ * increment_size, keeping one block per shard.
+ *
+ * A plain TableGenerator with a pooled optimizer keeps a single block for the whole application, so a block read
+ * from one shard's id_sequence would also be used for rows saved on another shard, and their IDs would route to
+ * the wrong shard. Without an optimizer every ID costs a row lock on id_sequence, which serializes all writers of
+ * a shard. Here the table is still advanced by increment_size per access (the "none" optimizer returns the value
+ * it read, which is the start of the block), and the block is kept for the shard of the ShardContext the table
+ * was read on. Unused IDs of a block are lost on restart, like with any pooled generator.
+ */
+
+public class ShardedTableGenerator extends TableGenerator {
+
+	private final Map<Integer, Block> blocks = new ConcurrentHashMap<>();
+	private int blockSize;
+
+	@Override
+	public void configure(Type type, Properties parameters, ServiceRegistry serviceRegistry) {
+		parameters.setProperty(OPT_PARAM, "none");
+		super.configure(type, parameters, serviceRegistry);
+		blockSize = getIncrementSize();
+	}
+
+	@Override
+	public Object generate(SharedSessionContractImplementor session, Object object) {
+		Block block = blocks.computeIfAbsent(ShardContext.currentShard(), shard -> new Block());
+
+		synchronized(block) {
+			if(block.next >= block.end) {
+				block.next = ((Number)super.generate(session, object)).longValue();
+				block.end = block.next + blockSize;
+			}
+			return block.next++;
+		}
+	}
+
+	private static class Block {
+		private long next;
+		private long end;
+	}
+}
@@ -0,0 +1,48 @@
+package book.store.config;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import lombok.Data;
+
+/* The ShardingProperties class binds the book-store.sharding settings from application.yaml.
+ *
+ * Shard 0 is always the database configured with spring.datasource (and its replicas under
+ * book-store.datasource), so an installation without sharding keeps working unchanged. Every entry in shards adds
+ * one more shard: shards[0] becomes shard 1, shards[1] shard 2 and so on. Each shard has its own primary and
+ * optional replicas and holds complete publisher subtrees (publisher, its book stores, their customers).
+ *
+ * idRangeBits: publisher and book store IDs generated on shard n start at n << idRangeBits, so the shard of any
+ * ID can be worked out from the ID itself. Moved publishers and stores are recorded in the shard_assignment table
+ * instead.
+ *
+ * assignmentRefreshInterval: how often every instance reloads shard_assignment, so a move done through one
+ * instance is seen by the others.
+ *
+ * moveSettleTime: how long a move waits after marking a publisher as moving before it copies anything, so that
+ * every instance has reloaded shard_assignment and stopped writing to the publisher, and writes that were already
+ * running have committed. It has to be longer than assignmentRefreshInterval.
+ *
+ * scatterThreads: threads used to query all shards at the same time for GET /publisher.
+ */
+
+@Data
+@ConfigurationProperties(prefix = "book-store.sharding")
+public class ShardingProperties {
+	private List<Shard> shards = new ArrayList<>();
+	private int idRangeBits = 40;
+	private Duration assignmentRefreshInterval = Duration.ofSeconds(30);
+	private Duration moveSettleTime = Duration.ofSeconds(35);
+	private int scatterThreads = 8;
+
+	@Data
+	public static class Shard {
+		private String name;
+		private String url;
+		private String username;
+		private String password;
+		private int maximumPoolSize = 10;
+		private List<DataSourceRoutingProperties.Replica> replicas = new ArrayList<>();
+	}
+}
@@ -0,0 +1,39 @@
+package book.store.config;
+
+import java.time.Duration;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import lombok.Data;
+
+/* The SimilarityProperties class binds the book-store.similarity settings from application.yaml.
+ *
+ * enabled: runs the StoreSimilarityEngine, which keeps the book_store_similarity table filled.
+ *
+ * topK: how many similar book stores are kept for every book store.
+ *
+ * fullInterval: how often the lists of all book stores are computed again. The first run starts right away.
+ *
+ * incrementalInterval: how often the lists of the book stores whose customers changed on this instance, and of
+ * the stores that share customers with them, are computed again.
+ *
+ * parallelism: threads of the fork/join pool. 0 uses one per processor.
+ *
+ * maxStoresPerCustomer: customers who belong to more book stores than this are left out. They say little about
+ * which stores are alike and would make the work grow with the square of their store count.
+ *
+ * minSharedCustomers: two stores need at least this many customers in common to be listed as similar.
+ *
+ * fetchSize: JDBC fetch size for reading book_store_customer. MySQL only honours it with useCursorFetch=true.
+ */
+
+@Data
+@ConfigurationProperties(prefix = "book-store.similarity")
+public class SimilarityProperties {
+	private boolean enabled = false;
+	private int topK = 10;
+	private Duration fullInterval = Duration.ofHours(24);
+	private Duration incrementalInterval = Duration.ofMinutes(5);
+	private int parallelism = 0;
+	private int maxStoresPerCustomer = 1000;
+	private int minSharedCustomers = 1;
+	private int fetchSize = 10000;
+}
@@ -0,0 +1,23 @@
+package book.store.config;
+
+import org.springframework.boot.LazyInitializationExcludeFilter;
+import org.springframework.boot.autoconfigure.flyway.FlywayMigrationInitializer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/* The StartupConfiguration class lists the beans that must still be created while the application starts when
+ * the fast-startup profile turns on lazy initialization: the Flyway migration (the schema has to be current before
+ * the first request) and the routing DataSources (so replica health checks are running before reads arrive, and
+ * the additional shards are migrated before they are used).
+ * Everything else is created the first time it is used.
+ */
+
+@Configuration
+public class StartupConfiguration {
+
+	@Bean
+	static LazyInitializationExcludeFilter criticalStartupBeans() {
+		return LazyInitializationExcludeFilter.forBeanTypes(FlywayMigrationInitializer.class,
+				ReadWriteRoutingDataSource.class, ShardRoutingDataSource.class);
+	}
+}
@@ -0,0 +1,106 @@
+package book.store.config;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.boot.context.metrics.buffering.BufferingApplicationStartup;
+import org.springframework.boot.context.metrics.buffering.StartupTimeline;
+import org.springframework.context.ApplicationListener;
+import org.springframework.core.metrics.ApplicationStartup;
+import org.springframework.core.metrics.StartupStep;
+import org.springframework.stereotype.Component;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+/* The StartupTimingReporter breaks the time it took to start the application into phases once the application is
+ * ready, logs the breakdown and publishes every phase as a bookstore.startup.phase gauge (in seconds, tagged with
+ * the phase) so cold start time can be tracked per pod.
+ *
+ * The phases come from the BufferingApplicationStartup installed in BookStoreApplication.main:
+ *  jvm          - from JVM launch until SpringApplication was created
+ *  environment  - reading application.yaml and the active profiles
+ *  refresh      - creating the application context and all eager beans
+ *  flyway       - applying (or skipping) schema migrations
+ *  jpa          - building the EntityManagerFactory, when it is created during startup
+ *  total        - JVM launch until the application is ready
+ *
+ * flyway and jpa run inside refresh, so the phases overlap and do not add up to the total. The full step by step
+ * timeline is also available from /actuator/startup.
+ */
+
+@Component
+@Slf4j
+public class StartupTimingReporter implements ApplicationListener<ApplicationReadyEvent> {
+
+private final Map<String, Double> phaseSeconds = new LinkedHashMap<>();
+
+private final MeterRegistry meterRegistry;
+
+public StartupTimingReporter(MeterRegistry meterRegistry) {
+	this.meterRegistry = meterRegistry;
+}
+
+@Override
+public void onApplicationEvent(ApplicationReadyEvent event) {
+	ApplicationStartup applicationStartup = event.getApplicationContext().getApplicationStartup();
+
+	if(applicationStartup instanceof BufferingApplicationStartup bufferingStartup) {
+		StartupTimeline timeline = bufferingStartup.getBufferedTimeline();
+		long jvmStart = ManagementFactory.getRuntimeMXBean().getStartTime();
+
+		record("jvm", Duration.ofMillis(timeline.getStartTime().toEpochMilli() - jvmStart));
+
+		for(StartupTimeline.TimelineEvent timelineEvent : timeline.getEvents()) {
+			StartupStep step = timelineEvent.getStartupStep();
+
+			switch(step.getName()) {
+				case "spring.boot.application.environment-prepared" -> add("environment", timelineEvent.getDuration());
+				case "spring.context.refresh" -> add("refresh", timelineEvent.getDuration());
+				case "spring.beans.instantiate" -> {
+					String beanName = beanName(step);
+
+					if("flywayInitializer".equals(beanName)) {
+						add("flyway", timelineEvent.getDuration());
+					}
+					else if("entityManagerFactory".equals(beanName)) {
+						add("jpa", timelineEvent.getDuration());
+					}
+				}
+				default -> {
+				}
+			}
+		}
+	}
+
+	record("total", Duration.ofMillis(ManagementFactory.getRuntimeMXBean().getUptime()));
+
+	phaseSeconds.keySet().forEach(phase -> Gauge
+		.builder("bookstore.startup.phase", phaseSeconds, phases -> phases.getOrDefault(phase, 0.0))
+		.tag("phase", phase)
+		.baseUnit("seconds")
+		.description("Time spent in each startup phase")
+		.register(meterRegistry));
+
+	log.info("Startup phases (seconds): {}", phaseSeconds);
+}
+
+private String beanName(StartupStep step) {
+	for(StartupStep.Tag tag : step.getTags()) {
+		if("beanName".equals(tag.getKey())) {
+			return tag.getValue();
+		}
+	}
+	return null;
+}
+
+private void add(String phase, Duration duration) {
+	phaseSeconds.merge(phase, duration.toNanos() / 1e9, Double::sum);
+}
+
+private void record(String phase, Duration duration) {
+	phaseSeconds.put(phase, duration.toNanos() / 1e9);
+}
+}
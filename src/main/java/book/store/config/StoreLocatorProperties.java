@@ -0,0 +1,32 @@
+package book.store.config;
+
+import java.time.Duration;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import lombok.Data;
+
+/* The StoreLocatorProperties class binds the book-store.store-locator settings from application.yaml.
+ *
+ * zipCentroids: location of the zip code centroid file, for example file:/data/2023_Gaz_zcta_national.txt. The
+ * file is the Census Bureau's ZCTA Gazetteer file (tab separated, columns GEOID, INTPTLAT and INTPTLONG) or a CSV
+ * with zip, latitude and longitude columns. Without it book stores get no coordinates and the locator finds no zip.
+ *
+ * enabled: keeps a spatial index of all located book stores in memory and answers GET /bookStore/near from it.
+ *
+ * defaultResults, maxResults: stores returned when the request passes no k, and the most it may ask for.
+ *
+ * rebuildInterval: how often the whole index is rebuilt from book_store, which also picks up stores written through
+ * other instances.
+ *
+ * refreshInterval: how often the book stores of publishers changed on this instance are loaded again.
+ */
+
+@Data
+@ConfigurationProperties(prefix = "book-store.store-locator")
+public class StoreLocatorProperties {
+	private String zipCentroids;
+	private boolean enabled = false;
+	private int defaultResults = 10;
+	private int maxResults = 100;
+	private Duration rebuildInterval = Duration.ofMinutes(10);
+	private Duration refreshInterval = Duration.ofSeconds(1);
+}
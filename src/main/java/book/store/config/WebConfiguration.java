@@ -0,0 +1,21 @@
+package book.store.config;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+import book.store.controller.QueryBudgetInterceptor;
+
+/* The WebConfiguration class registers the Spring MVC interceptors used by the controllers. */
+
+@Configuration
+public class WebConfiguration implements WebMvcConfigurer {
+
+	@Autowired
+	private QueryBudgetInterceptor queryBudgetInterceptor;
+
+	@Override
+	public void addInterceptors(InterceptorRegistry registry) {
+		registry.addInterceptor(queryBudgetInterceptor);
+	}
+}
@@ -2,21 +2,31 @@ package book.store.controller;
 
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
 import book.store.controller.model.BookStoreCustomer;
 import book.store.controller.model.BookStoreData;
 import book.store.controller.model.BookStorePublisher;
+import book.store.controller.model.PublisherLookup;
+import book.store.controller.model.PublisherQuery;
 import book.store.service.BookStoreService;
+import book.store.service.CustomerEnrollmentQueue;
+import book.store.service.PublisherResponseCache;
 import lombok.extern.slf4j.Slf4j;
 
 /* @RestController Annotation: This annotation is used to define a controller in a Spring Boot application. 
@@ -47,6 +57,14 @@ public class BookStoreController {
 @Autowired
 private BookStoreService bookStoreService;
 
+@Autowired
+//Saves new customers directly or, in group-commit mode, in micro-batches
+private CustomerEnrollmentQueue customerEnrollmentQueue;
+
+@Autowired
+//Serialized GET /publisher/{publisherId} responses, ready to be written out
+private PublisherResponseCache publisherResponseCache;
+
 /* @PostMapping is a Spring MVC annotation used to map HTTP POST requests to specific methods in a controller,
  * simplifying the process of handling POST requests in web applications.
  *  
@@ -109,10 +127,14 @@ public BookStorePublisher updatePublisher(@PathVariable Long publisherId,
  * 
  * The method is public, meaning it can be accessed from outside the class. It returns a List of BookStorePublisher
  * objects, which suggests that it retrieves multiple publisher records.
+ * 
+ * The optional afterPublisherId and limit parameters page through the publishers by ID: pass the last publisherId
+ * of one page as afterPublisherId to get the next page. Without them all publishers are returned.
  */
   
 @GetMapping
-public List<BookStorePublisher> retrieveAllPublishers() {
+public List<BookStorePublisher> retrieveAllPublishers(@RequestParam(required = false) Long afterPublisherId,
+  @RequestParam(required = false) Integer limit) {
 
 /* Log.info("Retrieving all publishers") This line logs an informational message indicating that the process of retrieving all publishers is starting.
  * 
@@ -120,19 +142,63 @@ public List<BookStorePublisher> retrieveAllPublishers() {
  */
 	
 	log.info("Retrieving all publishers");
-return bookStoreService.retrieveAllPublishers();
+return bookStoreService.retrieveAllPublishers(afterPublisherId, limit);
+}
+
+/* GET /publisher?ids=1,2,3 returns several publishers with their book stores in one call, as a list of
+ * PublisherLookup entries in the order of the IDs. An ID that does not exist gets an entry with found=false and a
+ * message instead of turning the whole response into a 404. embedCustomers works as on GET /publisher/{publisherId}.
+ * Without the ids parameter GET /publisher lists the publishers as above.
+ */
+
+@GetMapping(params = "ids")
+public List<PublisherLookup> retrievePublishersByIds(@RequestParam List<Long> ids,
+  @RequestParam(defaultValue = "false") boolean embedCustomers) {
+	log.info("Retrieving {} publishers by ID", ids.size());
+	return bookStoreService.retrievePublishersByIds(ids, embedCustomers);
+}
+
+/* POST /publisher/query is the same multi-get with the IDs in the request body, for lists too long for a URL. */
+
+@PostMapping("/query")
+public List<PublisherLookup> queryPublishers(@RequestBody PublisherQuery publisherQuery) {
+	log.info("Retrieving {} publishers by ID", publisherQuery.getIds().size());
+	return bookStoreService.retrievePublishersByIds(publisherQuery.getIds(), publisherQuery.isEmbedCustomers());
 }
 
 /* This code defines a method in a Spring Boot application that handles HTTP GET requests to retrieve a publisher's information by their ID. 
  * 
  * When a request is made to the end point with a specific publisherId, the method logs the retrieval action and calls a service method to fetch the publisher's 
- * details from the database or another data source. The retrieved publisher information is then returned as a BookStorePublisher object.
+ * details from the database or another data source.
+ * 
+ * The response body comes from the publisherResponseCache as finished bytes; the service is only called when the cache does not have them.
+ * The optional fields parameter (for example fields=publisherId,publisherName) limits the response to those top-level fields. Clients that
+ * accept gzip (or x-gzip) with a non-zero q-value in Accept-Encoding get the compressed body that was cached, with Content-Encoding: gzip.
+ * 
+ * Every book store in the response has a customerCount. With embedCustomers=true the stores with no more than
+ * book-store.customers.embed-limit customers also list them; the customers of larger stores are read from
+ * GET /bookStore/{bookStoreId}/customers.
  */
 
 @GetMapping("/{publisherId}")
-public BookStorePublisher retrievePublisherById(@PathVariable Long publisherId) {
+public ResponseEntity<byte[]> retrievePublisherById(@PathVariable Long publisherId,
+  @RequestParam(required = false) String fields,
+  @RequestParam(defaultValue = "false") boolean embedCustomers,
+  @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
 	log.info("Retrieving publisher with Id={}", publisherId);
-	return bookStoreService.retrievPublisherById(publisherId);
+	
+	PublisherResponseCache.Format format = PublisherResponseCache.Format.forAcceptEncoding(acceptEncoding);
+	byte[] body = publisherResponseCache.get(publisherId, format, fields, embedCustomers,
+		() -> bookStoreService.retrievPublisherById(publisherId, embedCustomers));
+	
+	ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+		.contentType(MediaType.APPLICATION_JSON)
+		.header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+	
+	if(format == PublisherResponseCache.Format.JSON_GZIP) {
+		response.header(HttpHeaders.CONTENT_ENCODING, "gzip");
+	}
+	return response.body(body);
 }
 
 /* The code is a method in a Spring Boot application that handles HTTP DELETE requests to delete a publisher by their ID.
@@ -185,19 +251,24 @@ public BookStoreData insertBookStore(@PathVariable Long publisherId, @RequestBod
  * @RequestBody BookStoreCustomer bookStoreCustomer: This parameter binds the HTTP request body to a BookStoreCustomer object. It represents the customer data that is 
  * being sent in the request.
  * 
+ * @RequestHeader("Idempotency-Key"): an optional header. A client that retries the same request with the same key gets the customer from
+ * the first request back instead of the work being done again.
+ * 
  * Logging: The method logs an informational message indicating that a customer is being added to a bookstore, including the customer details and the bookstore ID.
  * 
- * Return Statement: The method calls bookStoreService.saveCustomer(bookStoreId, bookStoreCustomer) to save the customer to the specified bookstore. It returns the 
- * BookStoreCustomer object, which likely contains the saved customer details.
+ * Return Statement: The method calls customerEnrollmentQueue.enroll(bookStoreId, bookStoreCustomer, idempotencyKey) to save the customer to the specified bookstore.
+ * It returns a CompletableFuture of the saved BookStoreCustomer. Spring MVC sends the response when the future completes, so in group-commit mode the
+ * request thread is free while the customer waits for its batch to commit.
  */
 
 @PostMapping("/{bookStoreId}/customer")
 @ResponseStatus(code= HttpStatus.CREATED)
-public BookStoreCustomer addCustomerToBookStore(@PathVariable Long bookStoreId,	
-  @RequestBody BookStoreCustomer bookStoreCustomer) {
+public CompletableFuture<BookStoreCustomer> addCustomerToBookStore(@PathVariable Long bookStoreId,	
+  @RequestBody BookStoreCustomer bookStoreCustomer,
+  @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey) {
 	 log.info("Adding customer {} to book store with ID={}", bookStoreCustomer, 
 			bookStoreId);
 	 
-	 return bookStoreService.saveCustomer(bookStoreId, bookStoreCustomer);
+	 return customerEnrollmentQueue.enroll(bookStoreId, bookStoreCustomer, idempotencyKey);
   }
 }
\ No newline at end of file
@@ -0,0 +1,97 @@
+package book.store.controller;
+
+import java.util.List;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import book.store.controller.model.AudienceQuery;
+import book.store.controller.model.AudienceResult;
+import book.store.controller.model.BookStoreCustomerPage;
+import book.store.controller.model.NearbyBookStore;
+import book.store.controller.model.SimilarBookStore;
+import book.store.service.BookStoreService;
+import book.store.service.MembershipIndex;
+import book.store.service.StoreLocator;
+import lombok.extern.slf4j.Slf4j;
+
+/* The BookStoreCustomerController handles the requests under /bookStore, which work on one book store directly
+ * instead of through its publisher.
+ *
+ * GET /bookStore/{bookStoreId}/customers returns the store's customers a page at a time, in customerId order. The
+ * publisher responses only carry each store's customerCount, so this is how the members of a large store are read.
+ *
+ * POST /bookStore/audience answers set questions over the members of several stores from the MembershipIndex.
+ *
+ * GET /bookStore/{bookStoreId}/similar returns the stores with the most customers in common, as precomputed by the
+ * StoreSimilarityEngine.
+ *
+ * GET /bookStore/near returns the book stores closest to a zip code from the StoreLocator's in-memory index.
+ */
+
+@RestController
+@RequestMapping("/bookStore")
+@Slf4j
+public class BookStoreCustomerController {
+
+@Autowired
+private BookStoreService bookStoreService;
+
+@Autowired
+//Bitmaps of the customers of every book store, for audience queries
+private MembershipIndex membershipIndex;
+
+@Autowired
+//Spatial index of the located book stores
+private StoreLocator storeLocator;
+
+/* The optional afterCustomerId and limit parameters page through the customers by ID: pass the nextAfterCustomerId
+ * of one page as afterCustomerId to get the next page. Without a limit book-store.customers.default-page-size
+ * customers are returned, and no more than max-page-size are returned however large the limit is.
+ */
+
+@GetMapping("/{bookStoreId}/customers")
+public BookStoreCustomerPage retrieveCustomers(@PathVariable Long bookStoreId,
+  @RequestParam(required = false) Long afterCustomerId,
+  @RequestParam(required = false) Integer limit) {
+	log.info("Retrieving customers of book store with ID={} after customer ID={}", bookStoreId, afterCustomerId);
+	return bookStoreService.retrieveCustomers(bookStoreId, afterCustomerId, limit);
+}
+
+/* The optional limit returns only the most similar stores; without it all of the stored ones are returned. */
+
+@GetMapping("/{bookStoreId}/similar")
+public List<SimilarBookStore> retrieveSimilarBookStores(@PathVariable Long bookStoreId,
+  @RequestParam(required = false) Integer limit) {
+	log.info("Retrieving book stores similar to book store with ID={}", bookStoreId);
+	return bookStoreService.retrieveSimilarBookStores(bookStoreId, limit);
+}
+
+/* The zip parameter is a five digit zip code (ZIP+4 is accepted), and the optional k is how many stores to return,
+ * book-store.store-locator.default-results when it is left out and never more than max-results. An unknown zip code
+ * is a 404; while book-store.store-locator.enabled is off, or before the index is built, the answer is a 503.
+ */
+
+@GetMapping("/near")
+public List<NearbyBookStore> retrieveNearbyBookStores(@RequestParam String zip,
+  @RequestParam(required = false) Integer k) {
+	log.info("Retrieving book stores near zip code {}", zip);
+	return storeLocator.findNearest(zip, k);
+}
+
+/* The request body is a set expression over book stores (see AudienceQuery), for example
+ * {"allOf": [1, 2], "noneOf": [3]} for the customers of stores 1 and 2 who are not customers of store 3. The response
+ * has the number of matching customers and a page of their IDs. It is answered from memory without touching the
+ * database; while book-store.membership-index.enabled is off, or before the index is built, the answer is a 503.
+ */
+
+@PostMapping("/audience")
+public AudienceResult queryAudience(@RequestBody AudienceQuery audienceQuery) {
+	log.info("Querying audience {}", audienceQuery);
+	return membershipIndex.query(audienceQuery);
+}
+}
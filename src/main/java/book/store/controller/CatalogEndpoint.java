@@ -0,0 +1,25 @@
+package book.store.controller;
+
+import java.util.Map;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+import book.store.service.HotCatalog;
+
+/* The CatalogEndpoint exposes GET /actuator/catalog. It reports the size of the hot catalog snapshot, its estimated
+ * memory footprint, when it was last rebuilt and refreshed, and how many changes are waiting to be applied.
+ */
+
+@Component
+@Endpoint(id = "catalog")
+public class CatalogEndpoint {
+
+@Autowired
+private HotCatalog hotCatalog;
+
+@ReadOperation
+public Map<String, Object> catalog() {
+	return hotCatalog.describe();
+}
+}
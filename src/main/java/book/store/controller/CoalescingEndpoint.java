@@ -0,0 +1,42 @@
+package book.store.controller;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+import book.store.controller.model.BookStorePublisher;
+import book.store.service.PublisherRead;
+import book.store.service.SingleFlight;
+
+/* The CoalescingEndpoint exposes GET /actuator/coalescing. It reports how many publisher loads actually ran, how
+ * many requests were collapsed into someone else's load, how many gave up waiting, and the publisher IDs that were
+ * collapsed most often (an ID read with embedCustomers=true is listed as "{publisherId}+customers").
+ */
+
+@Component
+@Endpoint(id = "coalescing")
+public class CoalescingEndpoint {
+
+private static final int TOP_KEYS = 20;
+
+@Autowired
+private SingleFlight<PublisherRead, BookStorePublisher> publisherReadFlight;
+
+@ReadOperation
+public Map<String, Object> coalescing() {
+	Map<String, Object> result = new LinkedHashMap<>();
+
+	result.put("flight", publisherReadFlight.getName());
+	result.put("enabled", publisherReadFlight.isEnabled());
+	result.put("loads", publisherReadFlight.getLoadCount());
+	result.put("collapsed", publisherReadFlight.getCollapsedCount());
+	result.put("timeouts", publisherReadFlight.getTimeoutCount());
+	result.put("inFlight", publisherReadFlight.getInFlightCount());
+	result.put("collapsedUntrackedKeys", publisherReadFlight.getCollapsedUntrackedCount());
+	result.put("topCollapsedKeys", publisherReadFlight.topCollapsedKeys(TOP_KEYS));
+
+	return result;
+}
+}
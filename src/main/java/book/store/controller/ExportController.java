@@ -0,0 +1,100 @@
+package book.store.controller;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.bind.annotation.RestController;
+import book.store.controller.model.ExportStatus;
+import book.store.service.ExportService;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.extern.slf4j.Slf4j;
+
+/* The ExportController handles the requests under /exports, which run CSV exports of all customers with their
+ * book store memberships in the background.
+ *
+ * POST /exports queues an export and answers 202 (Accepted) with its status. GET /exports/{exportId} reports its
+ * progress, DELETE /exports/{exportId} cancels it (or deletes the file of an export that has ended), and
+ * GET /exports/{exportId}/file downloads the finished file.
+ */
+
+@RestController
+@RequestMapping("/exports")
+@Slf4j
+public class ExportController {
+
+private static final String SENDFILE_SUPPORTED = "org.apache.tomcat.sendfile.support";
+private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+@Autowired
+private ExportService exportService;
+
+@PostMapping
+@ResponseStatus(code = HttpStatus.ACCEPTED)
+public ExportStatus startExport() {
+	log.info("Starting customer export");
+	return exportService.startExport();
+}
+
+@GetMapping("/{exportId}")
+public ExportStatus retrieveExport(@PathVariable String exportId) {
+	log.info("Retrieving export with ID={}", exportId);
+	return exportService.retrieveExport(exportId);
+}
+
+@DeleteMapping("/{exportId}")
+public ExportStatus cancelExport(@PathVariable String exportId) {
+	log.info("Cancelling export with ID={}", exportId);
+	return exportService.cancelExport(exportId);
+}
+
+/* The file is handed to Tomcat's sendfile support when the connector offers it, so the kernel copies it from the
+ * page cache to the socket without it passing through the JVM. Otherwise FileChannel.transferTo writes it to the
+ * response stream. While the export still runs the answer is a 503 with a Retry-After estimated from its progress.
+ */
+
+@GetMapping("/{exportId}/file")
+public void downloadExport(@PathVariable String exportId, HttpServletRequest request,
+  HttpServletResponse response) throws IOException {
+	log.info("Downloading export with ID={}", exportId);
+	Path file = exportService.retrieveExportFile(exportId);
+	long size = Files.size(file);
+
+	response.setContentType("text/csv;charset=UTF-8");
+	response.setHeader(HttpHeaders.CONTENT_DISPOSITION,
+		ContentDisposition.attachment().filename("customers-" + exportId + ".csv").build().toString());
+	response.setContentLengthLong(size);
+
+	if(Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORTED))) {
+		request.setAttribute(SENDFILE_FILENAME, file.toString());
+		request.setAttribute(SENDFILE_START, 0L);
+		request.setAttribute(SENDFILE_END, size);
+		return;
+	}
+
+	try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+		WritableByteChannel target = Channels.newChannel(response.getOutputStream());
+		long position = 0;
+
+		while(position < size) {
+			position += channel.transferTo(position, size - position, target);
+		}
+	}
+}
+}
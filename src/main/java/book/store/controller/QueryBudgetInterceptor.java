@@ -0,0 +1,55 @@
+package book.store.controller;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+import book.store.config.QueryTracker;
+import jakarta.servlet.DispatcherType;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/* The QueryBudgetInterceptor tells the QueryTracker which endpoint the current request belongs to, as the HTTP
+ * method plus the mapping pattern (for example "GET /publisher/{publisherId}"), so the statements it runs are
+ * counted against that endpoint's budget and slow statements are logged with it. Using the pattern rather than the
+ * raw path keeps all publisher IDs under one budget and one metric tag. A request without a pattern is counted as
+ * "UNMAPPED", so arbitrary paths cannot add endpoint tags.
+ *
+ * Handlers that return a CompletableFuture (adding a customer to a book store) are asynchronous: afterCompletion only
+ * runs after the redispatch, on another thread. The statements such a handler runs before it returns are therefore
+ * counted and checked in afterConcurrentHandlingStarted, which also clears the request off the Tomcat thread, and
+ * the redispatch is not counted again. Statements run later on other threads, such as a group-commit batch, are not
+ * part of any request.
+ */
+
+@Component
+public class QueryBudgetInterceptor implements AsyncHandlerInterceptor {
+
+@Autowired
+private QueryTracker queryTracker;
+
+@Override
+public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+	if(request.getDispatcherType() == DispatcherType.ASYNC) {
+		return true;
+	}
+
+	Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+	String path = pattern == null ? "UNMAPPED" : pattern.toString();
+
+	queryTracker.startRequest(request.getMethod() + " " + path);
+	return true;
+}
+
+@Override
+public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler,
+	Exception ex) {
+	queryTracker.endRequest();
+}
+
+@Override
+public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response,
+	Object handler) {
+	queryTracker.endRequest();
+}
+}
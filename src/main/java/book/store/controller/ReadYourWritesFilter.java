@@ -0,0 +1,89 @@
+package book.store.controller;
+
+import java.io.IOException;
+import java.time.Duration;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import book.store.config.DataSourceRoutingProperties;
+import book.store.config.ReadYourWritesContext;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.Cookie;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/* The ReadYourWritesFilter keeps a client on the primary database for a short time after it writes, so a GET right
+ * after a POST, PUT or DELETE does not read from a replica that has not replicated the change yet.
+ *
+ * Every write request gets a cookie that holds the time of the write and expires after the read-your-writes window.
+ * While a request carries an unexpired cookie the filter sets ReadYourWritesContext for the request thread, and the
+ * ReadWriteRoutingDataSource sends its read-only transactions to the primary. Because the state lives in the cookie
+ * it works no matter which application instance the next request reaches.
+ */
+
+@Component
+public class ReadYourWritesFilter extends OncePerRequestFilter {
+
+private static final String COOKIE_NAME = "bookstore-last-write";
+
+@Autowired
+private DataSourceRoutingProperties routingProperties;
+
+@Override
+protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response,
+	FilterChain filterChain) throws ServletException, IOException {
+	Duration window = routingProperties.getReadYourWritesWindow();
+
+	if(window.isZero() || window.isNegative()) {
+		filterChain.doFilter(request, response);
+		return;
+	}
+
+	long now = System.currentTimeMillis();
+
+	if(isWrite(request)) {
+		Cookie cookie = new Cookie(COOKIE_NAME, Long.toString(now));
+		cookie.setPath("/");
+		cookie.setHttpOnly(true);
+		cookie.setMaxAge((int)Math.max(1, (window.toMillis() + 999) / 1000));
+		response.addCookie(cookie);
+	}
+
+	if(isWrite(request) || wroteWithin(request, window, now)) {
+		ReadYourWritesContext.pinToPrimary();
+	}
+
+	try {
+		filterChain.doFilter(request, response);
+	}
+	finally {
+		ReadYourWritesContext.clear();
+	}
+}
+
+private boolean isWrite(HttpServletRequest request) {
+	String method = request.getMethod();
+	return "POST".equals(method) || "PUT".equals(method) || "DELETE".equals(method) || "PATCH".equals(method);
+}
+
+private boolean wroteWithin(HttpServletRequest request, Duration window, long now) {
+	Cookie[] cookies = request.getCookies();
+
+	if(cookies == null) {
+		return false;
+	}
+
+	for(Cookie cookie : cookies) {
+		if(COOKIE_NAME.equals(cookie.getName())) {
+			try {
+				return now - Long.parseLong(cookie.getValue()) < window.toMillis();
+			}
+			catch(NumberFormatException e) {
+				return false;
+			}
+		}
+	}
+	return false;
+}
+}
@@ -0,0 +1,54 @@
+package book.store.controller;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.InvalidEndpointRequestException;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+import book.store.service.ShardRebalancer;
+import book.store.service.ShardRouter;
+
+/* The ShardsEndpoint exposes /actuator/shards.
+ *
+ * GET reports how many shards are configured and, for a publisherId query parameter, which shard that publisher
+ * lives on.
+ *
+ * POST with a JSON body such as {"publisherId": 17, "targetShard": 2} moves the publisher and its book stores to
+ * another shard with the ShardRebalancer and returns what was moved.
+ */
+
+@Component
+@Endpoint(id = "shards")
+public class ShardsEndpoint {
+
+@Autowired
+private ShardRouter shardRouter;
+
+@Autowired
+private ShardRebalancer shardRebalancer;
+
+@ReadOperation
+public Map<String, Object> shards(@Nullable Long publisherId) {
+	Map<String, Object> result = new LinkedHashMap<>();
+	result.put("shards", shardRouter.getShardCount());
+
+	if(publisherId != null) {
+		result.put("publisherId", publisherId);
+		result.put("shard", shardRouter.shardForPublisher(publisherId));
+	}
+	return result;
+}
+
+@WriteOperation
+public Map<String, Object> movePublisher(long publisherId, int targetShard) {
+	if(targetShard < 0 || targetShard >= shardRouter.getShardCount()) {
+		throw new InvalidEndpointRequestException("Shard " + targetShard + " is not configured",
+			"targetShard must be between 0 and " + (shardRouter.getShardCount() - 1));
+	}
+	return shardRebalancer.movePublisher(publisherId, targetShard);
+}
+}
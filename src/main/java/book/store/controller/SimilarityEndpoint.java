@@ -0,0 +1,32 @@
+package book.store.controller;
+
+import java.util.Map;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.stereotype.Component;
+import book.store.service.StoreSimilarityEngine;
+
+/* The SimilarityEndpoint exposes /actuator/similarity. GET reports when the similar book stores were last computed
+ * and how many stores with new customers are waiting; POST queues a full run, for example after a bulk import.
+ */
+
+@Component
+@Endpoint(id = "similarity")
+public class SimilarityEndpoint {
+
+@Autowired
+private StoreSimilarityEngine storeSimilarityEngine;
+
+@ReadOperation
+public Map<String, Object> similarity() {
+	return storeSimilarityEngine.describe();
+}
+
+@WriteOperation
+public Map<String, Object> recompute() {
+	storeSimilarityEngine.requestFullRun();
+	return storeSimilarityEngine.describe();
+}
+}
@@ -2,10 +2,16 @@ package book.store.controller.error;
 
 import java.util.Map;
 import java.util.NoSuchElementException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestControllerAdvice;
+import book.store.service.IdempotencyKeyReusedException;
+import book.store.service.InvalidAudienceQueryException;
+import book.store.service.ServiceUnavailableException;
 import lombok.extern.slf4j.Slf4j;
 
 /* This is a Java class that acts as a global error handler for a Spring Boot application.
@@ -25,6 +31,18 @@ import lombok.extern.slf4j.Slf4j;
  * 
  * It then returns a Map containing a single entry with the key "message" and the value being the 
  * exception's string representation. This map is typically converted to a JSON response body.
+ * 
+ * The method handleServiceUnavailableException turns a ServiceUnavailableException into a 503 (Service Unavailable)
+ * and sets the Retry-After header so well behaved clients back off instead of retrying immediately.
+ * 
+ * The method handleDataIntegrityViolationException returns 409 (Conflict) when a write breaks a unique key, for example a
+ * customer updated to an email another customer already has, or two requests racing with the same Idempotency-Key.
+ * 
+ * The method handleIdempotencyKeyReusedException returns 422 (Unprocessable Entity) when an Idempotency-Key is sent again
+ * with a different request.
+ * 
+ * The method handleInvalidAudienceQueryException returns 400 (Bad Request) for an audience query that cannot be answered
+ * as it was asked.
  */
 
 @RestControllerAdvice
@@ -39,4 +57,37 @@ public class GlobalErrorHandler {
 	 
  }
 
+ @ExceptionHandler(ServiceUnavailableException.class)
+ public ResponseEntity<Map<String,String>>handleServiceUnavailableException(
+		 ServiceUnavailableException ex) {
+	 log.warn("Exception: {}", ex.toString());
+	 return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+			 .header(HttpHeaders.RETRY_AFTER, String.valueOf(ex.getRetryAfterSeconds()))
+			 .body(Map.of("message", ex.toString()));
+ }
+
+ @ExceptionHandler(DataIntegrityViolationException.class)
+ @ResponseStatus(code = HttpStatus.CONFLICT)
+ public Map<String,String>handleDataIntegrityViolationException(
+		 DataIntegrityViolationException ex) {
+	 log.error("Exception: {}", ex.toString());
+	 return Map.of("message", ex.getMostSpecificCause().toString());
+ }
+
+ @ExceptionHandler(IdempotencyKeyReusedException.class)
+ @ResponseStatus(code = HttpStatus.UNPROCESSABLE_ENTITY)
+ public Map<String,String>handleIdempotencyKeyReusedException(
+		 IdempotencyKeyReusedException ex) {
+	 log.error("Exception: {}", ex.toString());
+	 return Map.of("message", ex.toString());
+ }
+
+ @ExceptionHandler(InvalidAudienceQueryException.class)
+ @ResponseStatus(code = HttpStatus.BAD_REQUEST)
+ public Map<String,String>handleInvalidAudienceQueryException(
+		 InvalidAudienceQueryException ex) {
+	 log.error("Exception: {}", ex.toString());
+	 return Map.of("message", ex.toString());
+ }
+
  }
@@ -0,0 +1,32 @@
+package book.store.controller.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/* The AudienceQuery class is the request body of POST /bookStore/audience, a set expression over the customers of
+ * book stores:
+ *
+ * allOf: customers who are members of every one of these book stores.
+ * anyOf: customers who are members of at least one of these book stores.
+ * noneOf: customers who are members of none of these book stores.
+ *
+ * When both allOf and anyOf are given the result is in both. allOfPublisherId and anyOfPublisherId add all of a
+ * publisher's book stores to allOf or anyOf, so "customers shared by every store of publisher X" is just
+ * allOfPublisherId=X.
+ *
+ * afterCustomerId and limit page through the matching customer IDs, in ID order. A limit of 0 only counts them.
+ */
+
+@Data
+@NoArgsConstructor
+public class AudienceQuery {
+	private List<Long> allOf = new ArrayList<>();
+	private List<Long> anyOf = new ArrayList<>();
+	private List<Long> noneOf = new ArrayList<>();
+	private Long allOfPublisherId;
+	private Long anyOfPublisherId;
+	private Long afterCustomerId;
+	private Integer limit;
+}
@@ -0,0 +1,20 @@
+package book.store.controller.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/* The AudienceResult class is the response of POST /bookStore/audience.
+ *
+ * count is the number of customers matching the whole query, not just this page. customerIds holds one page of
+ * them in ID order, and nextAfterCustomerId is the afterCustomerId for the next page, or null on the last page.
+ */
+
+@Data
+@NoArgsConstructor
+public class AudienceResult {
+	private long count;
+	private List<Long> customerIds = new ArrayList<>();
+	private Long nextAfterCustomerId;
+}
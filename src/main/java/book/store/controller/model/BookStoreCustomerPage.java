@@ -0,0 +1,20 @@
+package book.store.controller.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/* The BookStoreCustomerPage class is the response of GET /bookStore/{bookStoreId}/customers: one page of a book
+ * store's customers in customerId order.
+ *
+ * nextAfterCustomerId is the value to pass as afterCustomerId to get the next page. It is null on the last page.
+ */
+
+@Data
+@NoArgsConstructor
+public class BookStoreCustomerPage {
+	private Long bookStoreId;
+	private List<BookStoreCustomer> customers = new ArrayList<>();
+	private Long nextAfterCustomerId;
+}
@@ -1,10 +1,8 @@
 package book.store.controller.model;
 
-import java.util.HashSet;
 import java.util.Set;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import book.store.entity.BookStore;
-import book.store.entity.Customer;
-import book.store.entity.Publisher;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
@@ -15,7 +13,7 @@ import lombok.NoArgsConstructor;
  * Used when you need a default constructor but don’t want to manually write it out.
  * 
  * The BookStoreData class is a data transfer object (DTO) that encapsulates information about a bookstore, including its details 
- * and associated customers. BookStoreData that is designed to represent data related to a bookstore. 
+ * and how many customers it has. BookStoreData that is designed to represent data related to a bookstore. 
  */
 
 @Data
@@ -32,20 +30,22 @@ public class BookStoreData {
 	private String bookStoreZip;
 	private String bookStorePhone;
 	
-/* Declaration: private Set<BookStoreCustomer> customers;
- * This line declares a variable named customers that is a Set of BookStoreCustomer objects.
- * The Set interface in Java is a part of the Java Collections Framework and is used to store a collection of unique elements. It does not allow duplicate entries.
+/* customerCount: how many customers are members of the book store. The customers themselves are read page by page
+ * from GET /bookStore/{bookStoreId}/customers, because a large store can have far too many to send in one response.
  * 
- * Initialization: = new HashSet<>();
- * This part initializes the customers variable with a new instance of HashSet.
- * HashSet is a class that implements the Set interface. It is backed by a hash table and does not guarantee any specific order of elements.
- * using HashSet, the customers set will store unique BookStoreCustomer objects, and it will not maintain any order of insertion.
+ * customers: only filled in for stores with no more than book-store.customers.embed-limit customers, and only sent
+ * when the request asks for it with embedCustomers=true. @JsonInclude(NON_NULL) leaves it out of the JSON otherwise.
  */
 	
-private Set<BookStoreCustomer> customers = new HashSet<>();
+private Long customerCount;
+
+@JsonInclude(JsonInclude.Include.NON_NULL)
+private Set<BookStoreCustomer> customers;
 
 /*This code is a constructor for a class named BookStoreData. The constructor takes an object of type BookStore as a 
  * parameter and initializes the fields of the BookStoreData class with the corresponding values from the BookStore object. 
+ * The customers are not copied, so the store's customer collection is not loaded; BookStoreService fills in
+ * customerCount, and customers for small stores, with one query for all of a publisher's stores.
  */
 
 public BookStoreData(BookStore bookStore) {
@@ -56,16 +56,5 @@ public BookStoreData(BookStore bookStore) {
 	bookStoreState = bookStore.getBookStoreState();
 	bookStoreZip = bookStore.getBookStoreZip();
 	bookStorePhone = bookStore.getBookStorePhone();
-	
-/* The code iterates over a collection of Customer objects obtained from a method call 
- * bookStore.getCustomers(). For each Customer object in this collection, it creates a new BookStoreCustomer object using the 
- * Customer object as a parameter to the constructor. It then adds this newly created BookStoreCustomer object to a collection named customers.	
- */
-	for(Customer customer : bookStore.getCustomers() ) {
-		customers.add(new BookStoreCustomer(customer));
-	}
-	
-
-			
 }
 }
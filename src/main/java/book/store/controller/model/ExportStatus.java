@@ -0,0 +1,33 @@
+package book.store.controller.model;
+
+import java.time.Instant;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/* The ExportStatus class is the response of the /exports requests: where an export job is and how fast it goes.
+ *
+ * totalRows is the number of customers counted when the export started, so percentComplete can drift slightly
+ * from 100 when customers are added or removed while it runs. rowsPerSecond is the average since the job started.
+ * downloadUrl is set once the file is complete.
+ */
+
+@Data
+@NoArgsConstructor
+public class ExportStatus {
+	private String exportId;
+	private State state;
+	private Instant createdAt;
+	private Instant startedAt;
+	private Instant finishedAt;
+	private long rowsWritten;
+	private Long totalRows;
+	private Double percentComplete;
+	private Double rowsPerSecond;
+	private long bytesWritten;
+	private String downloadUrl;
+	private String message;
+
+	public enum State {
+		QUEUED, RUNNING, FINISHED, FAILED, CANCELLED
+	}
+}
@@ -0,0 +1,24 @@
+package book.store.controller.model;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/* The NearbyBookStore class is one entry of the response of GET /bookStore/near, nearest first.
+ *
+ * latitude and longitude are the centroid of the store's zip code, and distanceMiles is the great circle distance
+ * from the centroid of the zip code that was asked for. Stores in the same zip code are 0 miles away.
+ */
+
+@Data
+@NoArgsConstructor
+public class NearbyBookStore {
+	private Long bookStoreId;
+	private Long publisherId;
+	private String bookStoreName;
+	private String bookStoreCity;
+	private String bookStoreState;
+	private String bookStoreZip;
+	private double latitude;
+	private double longitude;
+	private double distanceMiles;
+}
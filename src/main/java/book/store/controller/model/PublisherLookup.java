@@ -0,0 +1,25 @@
+package book.store.controller.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/* The PublisherLookup class is one entry of the response of GET /publisher?ids=... and POST /publisher/query, in
+ * the order the IDs were asked for.
+ *
+ * found tells whether the publisher exists. publisher is only sent when it does, and message only when it does not,
+ * so one unknown ID does not fail the whole request.
+ */
+
+@Data
+@NoArgsConstructor
+public class PublisherLookup {
+	private Long publisherId;
+	private boolean found;
+
+	@JsonInclude(JsonInclude.Include.NON_NULL)
+	private BookStorePublisher publisher;
+
+	@JsonInclude(JsonInclude.Include.NON_NULL)
+	private String message;
+}
@@ -0,0 +1,17 @@
+package book.store.controller.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/* The PublisherQuery class is the request body of POST /publisher/query, the multi-get for ID lists too long for a
+ * query string. embedCustomers has the same meaning as on GET /publisher/{publisherId}.
+ */
+
+@Data
+@NoArgsConstructor
+public class PublisherQuery {
+	private List<Long> ids = new ArrayList<>();
+	private boolean embedCustomers;
+}
@@ -0,0 +1,24 @@
+package book.store.controller.model;
+
+import java.time.Instant;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/* The SimilarBookStore class is one entry of GET /bookStore/{bookStoreId}/similar: a book store whose customers
+ * overlap with the requested store's.
+ *
+ * similarity is the Jaccard index of the two customer sets (shared customers divided by the customers of either
+ * store), sharedCustomers the number of customers they have in common and computedAt when this was worked out.
+ */
+
+@Data
+@NoArgsConstructor
+public class SimilarBookStore {
+	private Long bookStoreId;
+	private String bookStoreName;
+	private String bookStoreCity;
+	private String bookStoreState;
+	private double similarity;
+	private int sharedCustomers;
+	private Instant computedAt;
+}
@@ -1,14 +1,30 @@
 package book.store.dao;
 
+import java.util.Collection;
+import java.util.List;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
 import book.store.entity.BookStore;
 
 /*  The code shows a BookStoreDao interface as a Spring Data JPA repository that provides CRUD operations for BookStore 
  *  entities with a primary key of type Long. It leverages the capabilities of JpaRepository to simplify data access
  *  in a Spring application.
+ *  
+ *  countCustomers counts the members of several book stores at once straight from the book_store_customer join
+ *  table; each row is {bookStoreId, count}. Stores without customers are not returned.
+ *  
+ *  findCustomers returns the members of several book stores as {bookStoreId, Customer} rows in one query. It is
+ *  only used for stores that are small enough to embed.
  */
 
 public interface BookStoreDao extends JpaRepository<BookStore, Long> {
 
+@Query(value = "SELECT book_store_id, COUNT(*) FROM book_store_customer WHERE book_store_id IN (:bookStoreIds)"
+	+ " GROUP BY book_store_id", nativeQuery = true)
+List<Object[]> countCustomers(@Param("bookStoreIds") Collection<Long> bookStoreIds);
+
+@Query("select b.bookStoreId, c from BookStore b join b.customers c where b.bookStoreId in :bookStoreIds")
+List<Object[]> findCustomers(@Param("bookStoreIds") Collection<Long> bookStoreIds);
 }
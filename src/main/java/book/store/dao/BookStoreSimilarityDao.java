@@ -0,0 +1,55 @@
+package book.store.dao;
+
+import java.util.Collection;
+import java.util.List;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import book.store.controller.model.SimilarBookStore;
+
+/* BookStoreSimilarityDao reads and writes the book_store_similarity table with a JdbcTemplate, on the shard set in
+ * the ShardContext and inside the caller's transaction.
+ *
+ * findSimilar returns the stored list of a book store, most similar first, with the name and place of each similar
+ * store. replace swaps the lists of a group of book stores for newly computed ones with batched statements.
+ */
+
+@Repository
+public class BookStoreSimilarityDao {
+
+private static final String FIND_SQL = "SELECT s.similar_book_store_id, b.book_store_name, b.book_store_city, "
+	+ "b.book_store_state, s.similarity, s.shared_customers, s.computed_at FROM book_store_similarity s "
+	+ "JOIN book_store b ON b.book_store_id = s.similar_book_store_id WHERE s.book_store_id = ? "
+	+ "ORDER BY s.similarity DESC, s.similar_book_store_id LIMIT ?";
+
+private static final String INSERT_SQL = "INSERT INTO book_store_similarity (book_store_id, similar_book_store_id, "
+	+ "similarity, shared_customers, computed_at) VALUES (?, ?, ?, ?, ?)";
+
+@Autowired
+private JdbcTemplate jdbcTemplate;
+
+public List<SimilarBookStore> findSimilar(Long bookStoreId, int limit) {
+	return jdbcTemplate.query(FIND_SQL, (rs, rowNum) -> {
+		SimilarBookStore similar = new SimilarBookStore();
+		similar.setBookStoreId(rs.getLong(1));
+		similar.setBookStoreName(rs.getString(2));
+		similar.setBookStoreCity(rs.getString(3));
+		similar.setBookStoreState(rs.getString(4));
+		similar.setSimilarity(rs.getDouble(5));
+		similar.setSharedCustomers(rs.getInt(6));
+		similar.setComputedAt(rs.getTimestamp(7).toInstant());
+		return similar;
+	}, bookStoreId, limit);
+}
+
+/* Each row is {bookStoreId, similarBookStoreId, similarity, sharedCustomers, computedAt as a Timestamp}. */
+
+public void replace(Collection<Long> bookStoreIds, List<Object[]> rows) {
+	jdbcTemplate.batchUpdate("DELETE FROM book_store_similarity WHERE book_store_id = ?",
+		bookStoreIds.stream().map(id -> new Object[] {id}).toList());
+
+	if(!rows.isEmpty()) {
+		jdbcTemplate.batchUpdate(INSERT_SQL, rows);
+	}
+}
+}
@@ -1,14 +1,28 @@
 package book.store.dao;
 
+import java.util.List;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
 import book.store.entity.Customer;
 
 /* The code declares an interface named CustomerDao CustomerDao extends JpaRepository<Customer, Long>. This means that CustomerDao 
  * inherits all the methods provided by the JpaRepository interface. JpaRepository is a part of the Spring Data JPA framework, 
  * which provides a set of methods for performing CRUD (Create, Read, Update, Delete) operations and more on a database.
+ * 
+ * It also extends CustomerDaoCustom for the insert-or-update by email, which is written with JDBC.
  */
 
-public interface CustomerDao extends JpaRepository<Customer, Long> {
+public interface CustomerDao extends JpaRepository<Customer, Long>, CustomerDaoCustom {
 
+/* Keyset page of a book store's customers: the members with an ID after afterCustomerId, in ID order. The primary
+ * key of book_store_customer is (book_store_id, customer_id), so the page is a range read of that index no matter
+ * how deep into the store it is.
+ */
+@Query("select c from Customer c join c.bookStores b where b.bookStoreId = :bookStoreId"
+	+ " and c.customerId > :afterCustomerId order by c.customerId")
+List<Customer> findPageOfBookStore(@Param("bookStoreId") Long bookStoreId,
+	@Param("afterCustomerId") Long afterCustomerId, Limit limit);
 }
@@ -0,0 +1,38 @@
+package book.store.dao;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import book.store.entity.Customer;
+
+/* CustomerDaoCustom declares the customer operations that are written with plain JDBC instead of JPA, because
+ * they depend on MySQL statements that JPA cannot express. CustomerDao extends it, and Spring Data picks up the
+ * implementation from CustomerDaoCustomImpl.
+ */
+
+public interface CustomerDaoCustom {
+
+/* Inserts a customer, or updates the names of the customer that already has this email, in one statement.
+ * Returns the ID of the inserted or updated customer.
+ */
+Long upsertByEmail(String customerEmail, String customerFirstName, String customerLastName);
+
+/* Adds the customer to the book store unless it is already a member. */
+void addToBookStore(Long bookStoreId, Long customerId);
+
+/* Inserts or updates all of the customers by email with one JDBC batch and returns their IDs by email. The emails
+ * must already be normalized. When the same email appears more than once the last names sent win.
+ */
+Map<String, Long> upsertAllByEmail(List<Customer> customers);
+
+/* Adds the customers to their book stores with one JDBC batch, skipping the ones that are already members. */
+void addAllToBookStores(Map<Long, ? extends Collection<Long>> customerIdsByBookStore);
+
+/* Reads every customer of the current shard with the IDs of its book stores, one row per membership (a customer
+ * without stores comes with a null book store), in customer ID order, so the rows of one customer are next to each
+ * other. The rows are streamed to the handler instead of being collected in memory: on MySQL as a Connector/J
+ * streaming result, elsewhere with the given JDBC fetch size.
+ */
+void streamWithBookStores(int fetchSize, RowCallbackHandler handler);
+}
@@ -0,0 +1,151 @@
+package book.store.dao;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
+import book.store.entity.Customer;
+
+/* CustomerDaoCustomImpl implements CustomerDaoCustom with a JdbcTemplate. It shares the connection and transaction
+ * of the JPA transaction that calls it.
+ *
+ * The upsert relies on the unique index on customer_email: INSERT ... ON DUPLICATE KEY UPDATE either inserts the
+ * row or updates the existing one, and customer_id = LAST_INSERT_ID(customer_id) makes MySQL report the existing
+ * ID as the generated key, so the ID comes back in the same round trip. When the update changes nothing MySQL
+ * reports no affected row and no key, and the ID is looked up by email instead.
+ *
+ * The export stream walks customer in primary key order and finds the memberships of each customer through the
+ * index on book_store_customer.customer_id, so MySQL does not have to sort the result before sending it.
+ *
+ * On MySQL the statement is a Connector/J streaming result (forward only, read only, fetch size Integer.MIN_VALUE):
+ * the driver hands over one row at a time as it arrives instead of buffering the whole result, which it does for
+ * any other fetch size unless useCursorFetch=true is on the URL. No other statement may run on the connection until
+ * the stream is read to the end, and the handler must keep reading, or the server gives up after net_write_timeout.
+ * A handler that stops early has to cancel the statement (rs.getStatement().cancel()) before it throws: closing a
+ * streaming result otherwise reads all of the remaining rows first. Other databases get the given fetch size.
+ */
+
+public class CustomerDaoCustomImpl implements CustomerDaoCustom {
+
+private static final String UPSERT_SQL = "INSERT INTO customer (customer_email, customer_first_name, customer_last_name) "
+	+ "VALUES (?, ?, ?) ON DUPLICATE KEY UPDATE "
+	+ "customer_first_name = VALUES(customer_first_name), "
+	+ "customer_last_name = VALUES(customer_last_name), "
+	+ "customer_id = LAST_INSERT_ID(customer_id)";
+
+private static final String BATCH_UPSERT_SQL = "INSERT INTO customer (customer_email, customer_first_name, "
+	+ "customer_last_name) VALUES (?, ?, ?) ON DUPLICATE KEY UPDATE "
+	+ "customer_first_name = VALUES(customer_first_name), "
+	+ "customer_last_name = VALUES(customer_last_name)";
+
+// Most emails looked up in one IN list by upsertAllByEmail
+private static final int IN_LIST_SIZE = 1000;
+
+private static final String ADD_MEMBERSHIP_SQL =
+	"INSERT IGNORE INTO book_store_customer (book_store_id, customer_id) VALUES (?, ?)";
+
+private static final String WITH_BOOK_STORES_SQL = "SELECT c.customer_id, c.customer_email, "
+	+ "c.customer_first_name, c.customer_last_name, bsc.book_store_id FROM customer c "
+	+ "LEFT JOIN book_store_customer bsc ON bsc.customer_id = c.customer_id ORDER BY c.customer_id";
+
+@Autowired
+private JdbcTemplate jdbcTemplate;
+
+@Override
+public Long upsertByEmail(String customerEmail, String customerFirstName, String customerLastName) {
+	KeyHolder keyHolder = new GeneratedKeyHolder();
+
+	jdbcTemplate.update(connection -> {
+		PreparedStatement statement = connection.prepareStatement(UPSERT_SQL, Statement.RETURN_GENERATED_KEYS);
+		statement.setString(1, customerEmail);
+		statement.setString(2, customerFirstName);
+		statement.setString(3, customerLastName);
+		return statement;
+	}, keyHolder);
+
+	Number key = keyHolder.getKey();
+
+	if(Objects.nonNull(key)) {
+		return key.longValue();
+	}
+	return jdbcTemplate.queryForObject("SELECT customer_id FROM customer WHERE customer_email = ?", Long.class,
+		customerEmail);
+}
+
+@Override
+public void addToBookStore(Long bookStoreId, Long customerId) {
+	jdbcTemplate.update(ADD_MEMBERSHIP_SQL, bookStoreId, customerId);
+}
+
+/* The batch leaves out the LAST_INSERT_ID trick: a batch reports no usable key per row, so the IDs are read back
+ * by email afterwards, IN_LIST_SIZE emails per statement.
+ */
+
+@Override
+public Map<String, Long> upsertAllByEmail(List<Customer> customers) {
+	List<Object[]> rows = new ArrayList<>(customers.size());
+	Set<String> emails = new LinkedHashSet<>();
+
+	for(Customer customer : customers) {
+		rows.add(new Object[] {customer.getCustomerEmail(), customer.getCustomerFirstName(),
+			customer.getCustomerLastName()});
+		emails.add(customer.getCustomerEmail());
+	}
+	jdbcTemplate.batchUpdate(BATCH_UPSERT_SQL, rows);
+
+	Map<String, Long> customerIds = new HashMap<>();
+	NamedParameterJdbcTemplate namedTemplate = new NamedParameterJdbcTemplate(jdbcTemplate);
+	List<String> emailList = new ArrayList<>(emails);
+
+	for(int start = 0; start < emailList.size(); start += IN_LIST_SIZE) {
+		List<String> chunk = emailList.subList(start, Math.min(emailList.size(), start + IN_LIST_SIZE));
+		namedTemplate.query("SELECT customer_id, customer_email FROM customer WHERE customer_email IN (:emails)",
+			Map.of("emails", chunk), rs -> {
+				customerIds.put(rs.getString(2), rs.getLong(1));
+			});
+	}
+	return customerIds;
+}
+
+@Override
+public void addAllToBookStores(Map<Long, ? extends Collection<Long>> customerIdsByBookStore) {
+	List<Object[]> rows = new ArrayList<>();
+
+	customerIdsByBookStore.forEach((bookStoreId, customerIds) -> {
+		for(Long customerId : customerIds) {
+			rows.add(new Object[] {bookStoreId, customerId});
+		}
+	});
+	jdbcTemplate.batchUpdate(ADD_MEMBERSHIP_SQL, rows);
+}
+
+@Override
+public void streamWithBookStores(int fetchSize, RowCallbackHandler handler) {
+	jdbcTemplate.query(connection -> {
+		PreparedStatement statement = connection.prepareStatement(WITH_BOOK_STORES_SQL, ResultSet.TYPE_FORWARD_ONLY,
+			ResultSet.CONCUR_READ_ONLY);
+		statement.setFetchSize(isMySql(connection) ? Integer.MIN_VALUE : fetchSize);
+		return statement;
+	}, handler);
+}
+
+private static boolean isMySql(Connection connection) throws SQLException {
+	return connection.getMetaData().getDriverName().toLowerCase(Locale.ROOT).contains("mysql");
+}
+}
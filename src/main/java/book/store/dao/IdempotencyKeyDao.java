@@ -0,0 +1,20 @@
+package book.store.dao;
+
+import java.time.Instant;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import book.store.entity.IdempotencyKey;
+
+/* The IdempotencyKeyDao interface is a Spring Data JPA repository for IdempotencyKey entities, whose primary key
+ * is the Idempotency-Key header value. deleteCreatedBefore removes expired keys with a single bulk delete instead
+ * of loading them first.
+ */
+
+public interface IdempotencyKeyDao extends JpaRepository<IdempotencyKey, String> {
+
+@Modifying
+@Query("delete from IdempotencyKey k where k.createdAt < :cutoff")
+int deleteCreatedBefore(@Param("cutoff") Instant cutoff);
+}
@@ -1,6 +1,11 @@
 package book.store.dao;
 
+import java.util.Collection;
+import java.util.List;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
 import book.store.entity.Publisher;
 
@@ -9,4 +14,14 @@ import book.store.entity.Publisher;
  */
 public interface PublisherDao extends JpaRepository<Publisher, Long> {
 
+/* Keyset page of publishers: the ones with an ID after afterPublisherId, in ID order. Every shard returns its own
+ * page and BookStoreService merges them.
+ */
+	List<Publisher> findByPublisherIdGreaterThanOrderByPublisherIdAsc(Long afterPublisherId, Limit limit);
+
+/* Several publishers with their book stores fetched in the same query, for the multi-get. IDs that do not exist
+ * are simply missing from the result.
+ */
+	@Query("select distinct p from Publisher p left join fetch p.bookStores where p.publisherId in :publisherIds")
+	List<Publisher> findWithBookStoresByPublisherIdIn(@Param("publisherIds") Collection<Long> publisherIds);
 }
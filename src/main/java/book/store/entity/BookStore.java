@@ -2,10 +2,12 @@ package book.store.entity;
 
 import java.util.HashSet;
 import java.util.Set;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+import book.store.config.ShardedTableGenerator;
 import jakarta.persistence.CascadeType;
 import jakarta.persistence.Entity;
 import jakarta.persistence.GeneratedValue;
-import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
 import jakarta.persistence.JoinColumn;
 import jakarta.persistence.JoinTable;
@@ -29,12 +31,18 @@ public class BookStore {
 	
 /* @Id: This annotation indicates that the field bookStore Id is the primary key of the entity
  * 
- * @GeneratedValue(strategy = GenerationType.IDENTITY): This annotation specifies that the value
- * of the primary key should be automatically generated by the database
+ * @GeneratedValue(generator = "book_store_id"): like the publisher ID, the book store ID comes from the
+ * id_sequence table of its shard, in blocks of 50, so it can be routed to that shard by the ID alone.
  */
 	
 @Id	
-@GeneratedValue(strategy=GenerationType.IDENTITY)
+@GeneratedValue(generator = "book_store_id")
+@GenericGenerator(name = "book_store_id", type = ShardedTableGenerator.class, parameters = {
+	@Parameter(name = "table_name", value = "id_sequence"),
+	@Parameter(name = "segment_column_name", value = "sequence_name"),
+	@Parameter(name = "value_column_name", value = "next_val"),
+	@Parameter(name = "segment_value", value = "book_store"),
+	@Parameter(name = "increment_size", value = "50")})
 private Long bookStoreId;  //The unique identifier for each book store
 
 
@@ -49,6 +57,13 @@ private String bookStoreState;
 private String bookStoreZip;
 private String bookStorePhone;
 
+/* The centroid of the store's zip code, filled in by saveBookStore for the store locator. Both are null when the
+ * zip code could not be located.
+ */
+
+private Double bookStoreLatitude;
+private Double bookStoreLongitude;
+
 /* @EqualsAndHashCode.Exclude: This annotation is from the Lombok library. It indicates that the 
  * customers field should be excluded from the equals and hashCode methods generated by Lombok.
  * 
@@ -4,6 +4,7 @@ import java.util.HashSet;
 import java.util.Set;
 
 import jakarta.persistence.CascadeType;
+import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
@@ -37,12 +38,14 @@ public class Customer {
 @GeneratedValue(strategy = GenerationType.IDENTITY)
 	
 /* The code defines part of an entity class with fields for storing a customers's ID, first name,
- * last name, and email address. 
+ * last name, and email address. The email address is the natural key of a customer: it is stored
+ * trimmed and in lower case and the uk_customer_email index keeps it unique.
  */
 
 	private Long customerId;
 	private String customerFirstName;
 	private String customerLastName;
+	@Column(unique = true)
 	private String customerEmail;
 	
 
@@ -0,0 +1,30 @@
+package book.store.entity;
+
+import java.time.Instant;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import lombok.Data;
+
+/* @Entity: This annotation is part of the Java Persistence API (JPA). It 
+ * indicates that the class IdempotencyKey is an entity and is mapped to the idempotency_key table.
+ * 
+ * @Data: generates all the boilerplate code that is typically associated with simple Java objects
+ * 
+ * An IdempotencyKey records that a request carrying the given Idempotency-Key header already added a customer to
+ * a book store. requestHash is a SHA-256 of the request, so the same key cannot be reused for a different request,
+ * and customerId is the customer the first request returned. Rows older than the retention period are deleted
+ * by the IdempotencyKeyCleanup task.
+ */
+
+@Entity
+@Data
+public class IdempotencyKey {
+
+@Id
+private String idempotencyKey;
+
+private Long bookStoreId;
+private String requestHash;
+private Long customerId;
+private Instant createdAt;
+}
@@ -2,10 +2,12 @@ package book.store.entity;
 
 import java.util.HashSet;
 import java.util.Set;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+import book.store.config.ShardedTableGenerator;
 import jakarta.persistence.CascadeType;
 import jakarta.persistence.Entity;
 import jakarta.persistence.GeneratedValue;
-import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
 import jakarta.persistence.OneToMany;
 import lombok.Data;
@@ -26,12 +28,19 @@ public class Publisher {
 
 /* @Id: This annotation indicates that the field publisherId is the primary key of the entity
  * 
- * @GeneratedValue(strategy = GenerationType.IDENTITY): This annotation specifies that the value
- * of the primary key should be automatically generated by the database
+ * @GeneratedValue(generator = "publisher_id"): The ID is taken from the publisher row of the id_sequence
+ * table of the shard the publisher is saved on, so the ID tells which shard the publisher was created on.
+ * The ShardedTableGenerator reserves 50 IDs at a time and keeps a separate block for every shard.
  */
 	
 @Id
-@GeneratedValue(strategy = GenerationType.IDENTITY)
+@GeneratedValue(generator = "publisher_id")
+@GenericGenerator(name = "publisher_id", type = ShardedTableGenerator.class, parameters = {
+	@Parameter(name = "table_name", value = "id_sequence"),
+	@Parameter(name = "segment_column_name", value = "sequence_name"),
+	@Parameter(name = "value_column_name", value = "next_val"),
+	@Parameter(name = "segment_value", value = "publisher"),
+	@Parameter(name = "increment_size", value = "50")})
 	
  /* The code defines part of an entity class with fields for storing a publisher's ID, name,
   * phone number, and email address. 
@@ -0,0 +1,184 @@
+package book.store.service;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import book.store.config.ConcurrencyLimitProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/* AdaptiveConcurrencyLimiter caps how many calls may run at the same time and moves that cap up or down based on
+ * the latency it observes, in the style of the gradient limiters described for Netflix's concurrency-limits.
+ *
+ * Every finished call reports its round trip time. The limiter keeps a short term average (the last handful of
+ * calls) and a long term average (the last several hundred calls). While the short term latency stays close to
+ * the long term baseline the gradient is 1 and the limit grows by about sqrt(limit) per sample. When the database
+ * slows down the short term latency rises above the baseline, the gradient drops towards 0.5 and the limit shrinks.
+ * Calls that fail with a database timeout shrink the limit by backoffRatio straight away.
+ *
+ * A call that arrives while the number of calls in flight is already at the limit is rejected at once with a
+ * ServiceUnavailableException (503 with Retry-After) instead of waiting, so requests do not pile up behind locks.
+ *
+ * The current limit, the calls in flight and the number of rejections are published as Micrometer meters tagged
+ * with the name of the limiter.
+ */
+
+public class AdaptiveConcurrencyLimiter {
+
+	private static final double SHORT_WINDOW = 10;
+	private static final double LONG_WINDOW = 600;
+
+	private final String name;
+	private final boolean enabled;
+	private final int minLimit;
+	private final int maxLimit;
+	private final double smoothing;
+	private final double rttTolerance;
+	private final double backoffRatio;
+	private final long retryAfterSeconds;
+
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private volatile double limit;
+
+	// Guarded by this
+	private double shortRttNanos;
+	private double longRttNanos;
+
+	private final Counter rejected;
+
+	public AdaptiveConcurrencyLimiter(String name, boolean enabled, ConcurrencyLimitProperties.Limit settings,
+			MeterRegistry meterRegistry) {
+		this.name = name;
+		this.enabled = enabled;
+		this.minLimit = settings.getMinLimit();
+		this.maxLimit = settings.getMaxLimit();
+		this.smoothing = settings.getSmoothing();
+		this.rttTolerance = settings.getRttTolerance();
+		this.backoffRatio = settings.getBackoffRatio();
+		this.retryAfterSeconds = Math.max(1, settings.getRetryAfter().toSeconds());
+		this.limit = clamp(settings.getInitialLimit());
+
+		Gauge.builder("bookstore.concurrency.limit", this, AdaptiveConcurrencyLimiter::getLimit).tag("limiter", name)
+				.description("Current adaptive concurrency limit").register(meterRegistry);
+		Gauge.builder("bookstore.concurrency.in.flight", inFlight, AtomicInteger::get).tag("limiter", name)
+				.description("Calls currently holding a permit").register(meterRegistry);
+		rejected = Counter.builder("bookstore.concurrency.rejected").tag("limiter", name)
+				.description("Calls rejected because the limit was reached").register(meterRegistry);
+	}
+
+/* The acquire method hands out a Permit if fewer than limit calls are in flight. Otherwise it throws a
+ * ServiceUnavailableException right away. The caller must finish the permit with release, dropped or ignore.
+ */
+
+	public Permit acquire() {
+		if(!enabled) {
+			return new Permit(System.nanoTime(), 0, false);
+		}
+
+		while(true) {
+			int current = inFlight.get();
+
+			if(current >= getLimit()) {
+				rejected.increment();
+				throw new ServiceUnavailableException(
+						"Too many concurrent " + name + " requests (limit=" + getLimit() + ")", retryAfterSeconds);
+			}
+
+			if(inFlight.compareAndSet(current, current + 1)) {
+				return new Permit(System.nanoTime(), current + 1, true);
+			}
+		}
+	}
+
+	private synchronized void onSample(long rttNanos, int inFlightAtStart) {
+		if(longRttNanos == 0) {
+			shortRttNanos = rttNanos;
+			longRttNanos = rttNanos;
+		}
+		else {
+			shortRttNanos += (rttNanos - shortRttNanos) / SHORT_WINDOW;
+			longRttNanos += (rttNanos - longRttNanos) / LONG_WINDOW;
+		}
+
+		/*
+		 * After a long slow period the baseline has crept up. Let it fall back faster once latency recovers so the
+		 * limit is not held down by an out of date baseline.
+		 */
+		if(longRttNanos / shortRttNanos > 2) {
+			longRttNanos *= 0.95;
+		}
+
+		/*
+		 * When far fewer calls are running than the limit allows, the latency says nothing about the limit, so do
+		 * not let it grow without bound while the service is idle.
+		 */
+		if(inFlightAtStart < limit / 2) {
+			return;
+		}
+
+		double gradient = Math.max(0.5, Math.min(1.0, rttTolerance * longRttNanos / shortRttNanos));
+		double newLimit = limit * gradient + Math.sqrt(limit);
+
+		limit = clamp(limit * (1 - smoothing) + newLimit * smoothing);
+	}
+
+	private synchronized void onDropped() {
+		limit = clamp(limit * backoffRatio);
+	}
+
+	private double clamp(double value) {
+		return Math.max(minLimit, Math.min(maxLimit, value));
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getLimit() {
+		return (int)limit;
+	}
+
+	public int getInFlight() {
+		return inFlight.get();
+	}
+
+	public long getRejectedCount() {
+		return (long)rejected.count();
+	}
+
+/* A Permit is one admitted call. release reports a normal completion with its latency, dropped reports a call that
+ * failed because the database was overloaded, and ignore gives the slot back without touching the limit (used for
+ * failures such as an unknown ID that say nothing about load).
+ */
+
+	public class Permit {
+		private final long startNanos;
+		private final int inFlightAtStart;
+		private final boolean counted;
+
+		private Permit(long startNanos, int inFlightAtStart, boolean counted) {
+			this.startNanos = startNanos;
+			this.inFlightAtStart = inFlightAtStart;
+			this.counted = counted;
+		}
+
+		public void release() {
+			if(counted) {
+				inFlight.decrementAndGet();
+				onSample(System.nanoTime() - startNanos, inFlightAtStart);
+			}
+		}
+
+		public void dropped() {
+			if(counted) {
+				inFlight.decrementAndGet();
+				onDropped();
+			}
+		}
+
+		public void ignore() {
+			if(counted) {
+				inFlight.decrementAndGet();
+			}
+		}
+	}
+}
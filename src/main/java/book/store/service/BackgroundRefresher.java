@@ -0,0 +1,125 @@
+package book.store.service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+
+/* BackgroundRefresher is the base of the services that keep something derived from the database up to date in
+ * the background (HotCatalog, MembershipIndex, StoreSimilarityEngine, StoreLocator): one daemon thread runs
+ * rebuildAll right away and then every rebuildInterval, and refreshChanges every refreshInterval. Both run on that
+ * thread, so they never overlap.
+ *
+ * The writes on this instance are recorded as changed IDs in concurrent sets. refreshChanges takes them out with
+ * PendingChanges.take; when it throws, every ID it took is put back, so the next refresh tries them again. A
+ * failed rebuild keeps whatever the subclass had before.
+ */
+
+@Slf4j
+abstract class BackgroundRefresher {
+
+private ScheduledExecutorService refresher;
+
+protected void startRefreshing(String threadName, Duration rebuildInterval, Duration refreshInterval) {
+	refresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, threadName);
+		thread.setDaemon(true);
+		return thread;
+	});
+	refresher.scheduleWithFixedDelay(this::rebuild, 0, rebuildInterval.toMillis(), TimeUnit.MILLISECONDS);
+	refresher.scheduleWithFixedDelay(this::refresh, refreshInterval.toMillis(), refreshInterval.toMillis(),
+		TimeUnit.MILLISECONDS);
+}
+
+/* Queues a rebuild after the one that is running, if any. */
+
+protected void requestRebuild() {
+	if(refresher == null) {
+		throw new IllegalStateException(getClass().getSimpleName() + " is not enabled");
+	}
+	refresher.execute(this::rebuild);
+}
+
+@PreDestroy
+void stop() {
+	if(refresher != null) {
+		refresher.shutdownNow();
+	}
+}
+
+/* Reads everything again. Called from the refresher thread only. */
+
+protected abstract void rebuildAll();
+
+/* Whether rebuildAll has built something that changes can be applied to. */
+
+protected abstract boolean isReady();
+
+/* Applies the changed IDs taken from pending. */
+
+protected abstract void refreshChanges(PendingChanges pending);
+
+void rebuild() {
+	try {
+		rebuildAll();
+	}
+	catch(RuntimeException e) {
+		log.warn("{} rebuild failed, keeping the previous data", getClass().getSimpleName(), e);
+	}
+}
+
+void refresh() {
+	if(!isReady()) {
+		return;
+	}
+
+	PendingChanges pending = new PendingChanges();
+
+	try {
+		refreshChanges(pending);
+	}
+	catch(RuntimeException e) {
+		log.warn("{} refresh failed, retrying the changes next time: {}", getClass().getSimpleName(), e.toString());
+		pending.putBack();
+	}
+}
+
+/* The changed IDs one refresh has taken, and where each of them came from. */
+
+protected static class PendingChanges {
+	private final List<Runnable> putBack = new ArrayList<>();
+	private boolean empty = true;
+
+	/* Removes and returns the IDs in changed. IDs added while it runs are either returned or left for later. */
+
+	public Set<Long> take(Set<Long> changed) {
+		Set<Long> taken = new HashSet<>();
+
+		for(Long id : changed) {
+			if(changed.remove(id)) {
+				taken.add(id);
+			}
+		}
+
+		if(!taken.isEmpty()) {
+			empty = false;
+			putBack.add(() -> changed.addAll(taken));
+		}
+		return taken;
+	}
+
+	public boolean isEmpty() {
+		return empty;
+	}
+
+	private void putBack() {
+		putBack.forEach(Runnable::run);
+	}
+}
+}
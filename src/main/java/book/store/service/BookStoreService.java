@@ -1,33 +1,77 @@
 package book.store.service;
 
-import java.util.LinkedList;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Limit;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.bind.annotation.RequestBody;
+import book.store.config.CustomerListingProperties;
+import book.store.config.ReadYourWritesContext;
+import book.store.config.SimilarityProperties;
 import book.store.controller.model.BookStoreCustomer;
+import book.store.controller.model.BookStoreCustomerPage;
 import book.store.controller.model.BookStoreData;
 import book.store.controller.model.BookStorePublisher;
+import book.store.controller.model.PublisherLookup;
+import book.store.controller.model.SimilarBookStore;
 import book.store.dao.BookStoreDao;
+import book.store.dao.BookStoreSimilarityDao;
 import book.store.dao.CustomerDao;
+import book.store.dao.IdempotencyKeyDao;
 import book.store.dao.PublisherDao;
 import book.store.entity.BookStore;
 import book.store.entity.Customer;
+import book.store.entity.IdempotencyKey;
 import book.store.entity.Publisher;
+import book.store.service.ConcurrencyLimited.Kind;
+import book.store.service.Sharded.Key;
 
 
 /* The @Service annotation is a specialization of the @Component annotation in Spring. 
  * It is used to indicate that the class provides some business functionalities.
  * public class BookStoreService is the defined class
+ * 
+ * The public methods are annotated with @ConcurrencyLimited(Kind.READ) or @ConcurrencyLimited(Kind.WRITE). When the
+ * database slows down the adaptive read and write limits shrink and extra calls are turned away with a 503 instead
+ * of queuing behind row locks.
+ * 
+ * The methods that work on one publisher or book store are also annotated with @Sharded, so they run against the
+ * shard that publisher or book store lives on. retrieveAllPublishers and retrievePublishersByIds read from all
+ * shards.
+ * 
+ * In hot catalog mode the publisher reads are answered from the HotCatalog's in-memory snapshot. Every write tells
+ * CatalogChanges which publisher, book store or customers it changed.
+ * 
+ * A publisher's book stores carry their customerCount; only stores with at most book-store.customers.embed-limit
+ * customers also carry the customers themselves. The rest are read a page at a time with retrieveCustomers.
  */
 
 @Service
 public class BookStoreService {
 
+// Most IDs sent in one IN list by retrievePublishersByIds
+private static final int IN_LIST_SIZE = 1000;
+
 /* The @Autowired annotation is used in the Spring Framework to automatically inject a dependency into a class. 
 * The following lines declares private field book store. This allows the class to use bookStoreDao to perform data access
 * operations without having to manually instantiate or configure it. 
@@ -44,6 +88,48 @@ private CustomerDao customerDao;
 //This line declares a private field publisher
 private PublisherDao publisherDao;
 
+@Autowired
+//Remembers the Idempotency-Key of customer requests that were already handled
+private IdempotencyKeyDao idempotencyKeyDao;
+
+/* The transaction manager is used to open the read-only transaction for a coalesced publisher load on the
+ * leader's thread only. The requests that join the load never open a transaction or borrow a connection.
+ */
+
+@Autowired
+private PlatformTransactionManager transactionManager;
+
+@Autowired
+//Shares one in-flight load between concurrent reads of the same publisher ID and embedCustomers flag
+private SingleFlight<PublisherRead, BookStorePublisher> publisherReadFlight;
+
+@Autowired
+//Knows which shard every publisher and book store lives on
+private ShardRouter shardRouter;
+
+@Autowired
+//In-memory snapshot of the catalog used for reads when book-store.catalog.enabled is on
+private HotCatalog hotCatalog;
+
+@Autowired
+//Tells the HotCatalog and the response cache what a write changed, once it has committed
+private CatalogChanges catalogChanges;
+
+@Autowired
+//Page sizes for retrieveCustomers and the largest book store whose customers are embedded
+private CustomerListingProperties customerListingProperties;
+
+@Autowired
+//The similar book stores written by the StoreSimilarityEngine
+private BookStoreSimilarityDao bookStoreSimilarityDao;
+
+@Autowired
+private SimilarityProperties similarityProperties;
+
+@Autowired
+//Latitude and longitude of every zip code, for the coordinates of a saved book store
+private ZipCentroids zipCentroids;
+
 /*This method is designed to update a BookStore object with the corresponding data from a BookStoreData object,
  * effectively copying the fields from one to the other.
  */
@@ -68,7 +154,7 @@ private void copyCustomerFields(Customer customer,
   customer.setCustomerId(bookStoreCustomer.getCustomerId());
   customer.setCustomerFirstName(bookStoreCustomer.getCustomerFirstName());
   customer.setCustomerLastName(bookStoreCustomer.getCustomerLastName());
-  customer.setCustomerEmail(bookStoreCustomer.getCustomerEmail());
+  customer.setCustomerEmail(normalizeEmail(bookStoreCustomer.getCustomerEmail()));
 }
 
 /* This method is designed to update a Publisher object with the corresponding data from a PublisherData object, 
@@ -180,6 +266,8 @@ private BookStore findBookStoreByID(Long bookStoreId) {
  * from the database.
  */
 
+@Sharded(Key.PUBLISHER)
+@ConcurrencyLimited(Kind.WRITE)
 @Transactional
 public BookStorePublisher savePublisher(BookStorePublisher bookStorePublisher) {
 	
@@ -189,88 +277,500 @@ public BookStorePublisher savePublisher(BookStorePublisher bookStorePublisher) {
 	copyPublisherFields(publisher, bookStorePublisher);
 	
 	Publisher dbPublisher = publisherDao.save(publisher);
+	catalogChanges.publisherChanged(dbPublisher.getPublisherId());
 	
-	return new BookStorePublisher(dbPublisher);
+	return withCustomers(new BookStorePublisher(dbPublisher), false);
 	
 }
 
 /* The @Transactional annotation indicates that the method should be executed within a transaction.
  * 
- * The method findBookStoreByID starts by finding a BookStore object using the bookStoreId provided as a parameter
- * It retrieves the customer ID from the BookStoreCustomer object passed as a parameter.
- * The method then attempts to find an existing Customer using the bookStoreId and customerId. If the customer does not exist, 
- * it creates a new one. This is handled by the findOrCreateCustomer method.
+ * The method saveCustomer adds a customer to the book store with the given bookStoreId and returns the saved customer.
+ * 
+ * Idempotency: when the request carries an Idempotency-Key header, the method first checks whether a request with that
+ * key was already handled. If it was, the customer it produced is returned again without writing anything. If the key
+ * was used for a different request an IdempotencyKeyReusedException is thrown. Otherwise the key is stored together with
+ * the customer ID in the same transaction as the customer.
  * 
- * The method updates the relationship between the Customer and the BookStore by adding the BookStore
- * to the customer's list of bookstores and vice versa. the Customer object is then saved to the database using a customerDao.save method. 
+ * New customers (no customerId) with an email are saved with upsertCustomer, so sending the same email twice (a retry,
+ * or an import that runs again) updates the existing customer instead of creating a duplicate.
  * 
- * The last method returns a new BookStoreCustomer object that wraps the saved Customer object, reflecting any updates made during the process.
+ * Customers with a customerId are updated as before: findOrCreateCustomer checks that the customer exists and is a member of
+ * the book store, the fields are copied over and the relationship between the Customer and the BookStore is updated on both
+ * sides before the customer is saved with customerDao.save.
  */
 
+@Sharded(Key.BOOK_STORE)
+@ConcurrencyLimited(Kind.WRITE)
 @Transactional
-public BookStoreCustomer saveCustomer(Long bookStoreId, BookStoreCustomer bookStoreCustomer) {
-	BookStore bookStore = findBookStoreByID(bookStoreId);
-	Long customerId = bookStoreCustomer.getCustomerId();
-	Customer customer = findOrCreateCustomer(bookStoreId, customerId);
-	
-	copyCustomerFields(customer, bookStoreCustomer);
-	
-	customer.getBookStores().add(bookStore);
-	bookStore.getCustomers().add(customer);
-	
-	Customer dbCustomer = customerDao.save(customer);
-	
-	return new BookStoreCustomer(dbCustomer);	
+public BookStoreCustomer saveCustomer(Long bookStoreId, BookStoreCustomer bookStoreCustomer, String idempotencyKey) {
+	String requestHash = null;
+
+	if(Objects.nonNull(idempotencyKey)) {
+		requestHash = requestHash(bookStoreId, bookStoreCustomer);
+		Optional<IdempotencyKey> previous = idempotencyKeyDao.findById(idempotencyKey);
+
+		if(previous.isPresent()) {
+			return replay(previous.get(), requestHash);
+		}
+	}
+
+	BookStoreCustomer result;
+
+	if(Objects.isNull(bookStoreCustomer.getCustomerId())
+		&& Objects.nonNull(normalizeEmail(bookStoreCustomer.getCustomerEmail()))) {
+		result = upsertCustomer(bookStoreId, bookStoreCustomer);
+	}
+	else {
+		BookStore bookStore = findBookStoreByID(bookStoreId);
+		Long customerId = bookStoreCustomer.getCustomerId();
+		Customer customer = findOrCreateCustomer(bookStoreId, customerId);
+		
+		copyCustomerFields(customer, bookStoreCustomer);
+		
+		customer.getBookStores().add(bookStore);
+		bookStore.getCustomers().add(customer);
+		
+		result = new BookStoreCustomer(customerDao.save(customer));
+	}
+
+	if(Objects.nonNull(idempotencyKey)) {
+		IdempotencyKey key = new IdempotencyKey();
+		key.setIdempotencyKey(idempotencyKey);
+		key.setBookStoreId(bookStoreId);
+		key.setRequestHash(requestHash);
+		key.setCustomerId(result.getCustomerId());
+		key.setCreatedAt(Instant.now());
+		idempotencyKeyDao.save(key);
+	}
+
+	catalogChanges.bookStoreChanged(bookStoreId);
+	catalogChanges.customersChanged(List.of(result.getCustomerId()));
+	catalogChanges.membershipsAdded(bookStoreId, List.of(result.getCustomerId()));
+	return result;
 }
 
+/* The method upsertCustomer saves a new customer by its natural key, the email address. customerDao.upsertByEmail inserts the
+ * customer or updates the names of the customer that already has this email in a single statement, and addToBookStore adds the
+ * membership unless it already exists. The book store is looked up first so an unknown bookStoreId still results in a 404.
+ */
+
+private BookStoreCustomer upsertCustomer(Long bookStoreId, BookStoreCustomer bookStoreCustomer) {
+	findBookStoreByID(bookStoreId);
 
-/* Retrieve Publishers: The method starts by calling publisherDao.findAll(), which presumably retrieves a 
- * list of all Publisher objects from a data source, such as a database. This list is stored in the variable publishers.
- * 
- * Initialize Result List: An empty LinkedList of BookStorePublisher objects is created and assigned to the variable result. 
- * This list will store the transformed Publisher objects.
+	String email = normalizeEmail(bookStoreCustomer.getCustomerEmail());
+	Long customerId = customerDao.upsertByEmail(email, bookStoreCustomer.getCustomerFirstName(),
+		bookStoreCustomer.getCustomerLastName());
+	customerDao.addToBookStore(bookStoreId, customerId);
+
+	BookStoreCustomer result = new BookStoreCustomer();
+	result.setCustomerId(customerId);
+	result.setCustomerFirstName(bookStoreCustomer.getCustomerFirstName());
+	result.setCustomerLastName(bookStoreCustomer.getCustomerLastName());
+	result.setCustomerEmail(email);
+	return result;
+}
+
+/* The method saveCustomersInBatch is used by the CustomerEnrollmentQueue in group-commit mode. It writes the enrollments
+ * of many requests, grouped by book store, in one transaction so they share a single commit.
  * 
- * Transform and Clear BookStores: The method iterates over each Publisher object in the publishers list. For each Publisher, 
- * it creates a new BookStorePublisher object using the Publisher as a parameter to the constructor. It then calls bsp.getBookStores().clear(),
- * which clears any existing bookstore associations from the BookStorePublisher object.
+ * All book stores are checked first; if one of them does not exist a NoSuchElementException fails the whole batch and the
+ * queue falls back to saving each enrollment on its own. Then all customers of the batch are upserted by email with one
+ * JDBC batch and all memberships are added with a second one, so a batch costs the same four statements whatever its size.
  * 
- * Add to Result List: The newly created BookStorePublisher object, with its bookstore list cleared, is added to the result list.
+ * The returned map has, for every book store, the saved customers in the same order as the request list.
  * 
- * Return Result: The method returns the result list, which contains all the BookStorePublisher objects with cleared bookstore associations.
+ * All of the book stores have to be on the shard set in the ShardContext; the queue calls this method once per shard.
+ * A book store that is being moved to another shard fails the batch, and its enrollments are then turned away one by one.
  */
 
-public List<BookStorePublisher> retrieveAllPublishers() {
-	 List<Publisher> publishers = publisherDao.findAll();	
-	  
-	  List<BookStorePublisher> result = new LinkedList<>();
-		
-	  for(Publisher publisher : publishers) {
-		BookStorePublisher bsp = new BookStorePublisher(publisher);
-		bsp.getBookStores().clear();
-		    
-	    result.add(bsp);
+@Transactional
+public Map<Long, List<BookStoreCustomer>> saveCustomersInBatch(Map<Long, List<BookStoreCustomer>> customersByBookStore) {
+	Set<Long> bookStoreIds = customersByBookStore.keySet();
+	bookStoreIds.forEach(bookStoreId -> shardRouter.requireWritable(Key.BOOK_STORE, bookStoreId));
+
+	List<BookStore> bookStores = bookStoreDao.findAllById(bookStoreIds);
+
+	if(bookStores.size() != bookStoreIds.size()) {
+		throw new NoSuchElementException("Book Store with ID in " + bookStoreIds + " was not found");
+	}
+
+	List<Customer> customers = new ArrayList<>();
+
+	customersByBookStore.values().forEach(bookStoreCustomers -> bookStoreCustomers.forEach(bookStoreCustomer -> {
+		Customer customer = new Customer();
+		customer.setCustomerFirstName(bookStoreCustomer.getCustomerFirstName());
+		customer.setCustomerLastName(bookStoreCustomer.getCustomerLastName());
+		customer.setCustomerEmail(normalizeEmail(bookStoreCustomer.getCustomerEmail()));
+		customers.add(customer);
+	}));
+
+	Map<String, Long> customerIds = customerDao.upsertAllByEmail(customers);
+	Map<Long, List<BookStoreCustomer>> result = new HashMap<>();
+	Map<Long, Set<Long>> memberships = new HashMap<>();
+	Iterator<Customer> upserted = customers.iterator();
+
+	customersByBookStore.forEach((bookStoreId, bookStoreCustomers) -> {
+		List<BookStoreCustomer> saved = new ArrayList<>(bookStoreCustomers.size());
+		Set<Long> members = new LinkedHashSet<>();
+
+		for(int index = 0; index < bookStoreCustomers.size(); index++) {
+			Customer customer = upserted.next();
+			customer.setCustomerId(customerIds.get(customer.getCustomerEmail()));
+
+			saved.add(new BookStoreCustomer(customer));
+			members.add(customer.getCustomerId());
+		}
+
+		memberships.put(bookStoreId, members);
+		catalogChanges.bookStoreChanged(bookStoreId);
+		catalogChanges.membershipsAdded(bookStoreId, members);
+		result.put(bookStoreId, saved);
+	});
+
+	customerDao.addAllToBookStores(memberships);
+	catalogChanges.customersChanged(customerIds.values());
+	return result;
+}
+
+/* The method replay answers a retried request from its stored IdempotencyKey with the customer the first request produced. */
+
+private BookStoreCustomer replay(IdempotencyKey previous, String requestHash) {
+	if(!previous.getRequestHash().equals(requestHash)) {
+		throw new IdempotencyKeyReusedException("Idempotency-Key " + previous.getIdempotencyKey()
+			+ " was already used for a different request.");
+	}
+
+	return customerDao.findById(previous.getCustomerId()).map(BookStoreCustomer::new)
+		.orElseThrow(() -> new NoSuchElementException(
+			"Customer with Id=" + previous.getCustomerId() + " was not found."));
 }
-	  return result;
+
+/* The method requestHash builds a SHA-256 fingerprint of everything that decides the outcome of saveCustomer, so a reused
+ * Idempotency-Key can be told apart from a genuine retry.
+ */
+
+private String requestHash(Long bookStoreId, BookStoreCustomer bookStoreCustomer) {
+	String request = String.join("\u0000", String.valueOf(bookStoreId),
+		String.valueOf(bookStoreCustomer.getCustomerId()),
+		String.valueOf(bookStoreCustomer.getCustomerFirstName()),
+		String.valueOf(bookStoreCustomer.getCustomerLastName()),
+		String.valueOf(normalizeEmail(bookStoreCustomer.getCustomerEmail())));
+
+	try {
+		MessageDigest digest = MessageDigest.getInstance("SHA-256");
+		return HexFormat.of().formatHex(digest.digest(request.getBytes(StandardCharsets.UTF_8)));
+	}
+	catch(NoSuchAlgorithmException e) {
+		throw new IllegalStateException(e);
+	}
+}
+
+/* Emails are compared trimmed and in lower case, the same form CustomerDedupeJob stored existing emails in. Blank emails
+ * count as no email. The CustomerEnrollmentQueue uses it too, to decide which requests can be group committed.
+ */
+
+static String normalizeEmail(String email) {
+	if(Objects.isNull(email) || email.isBlank()) {
+		return null;
+	}
+	return email.trim().toLowerCase(Locale.ROOT);
 }
 
 
-/* This annotation indicates that the method retrievPublisherById is transactional, meaning it will be executed
- * within a transaction context. The readOnly = true attribute specifies that the transaction is read-only,
+/* The method retrieveAllPublishers returns the publishers, without their book stores, ordered by ID.
  * 
- * The public BookStorePublisher retrievPublisherById(Long publisherId), method is public. It returns an object 
- * of type BookStorePublisher. The method takes a single parameter, publisherId, which is of type Long.
+ * Paging is by keyset: the page holds the publishers with an ID greater than afterPublisherId (all of them when it
+ * is null), at most limit of them (no limit when it is null). A client asks for the next page by passing the last
+ * ID it received as afterPublisherId.
  * 
- * The method body return new BookStorePublisher(findPublisherById(publisherId)) calls another method, findPublisherById,
- * passing the publisherId as an argument.
+ * Scatter-gather: every shard is asked for its own page in a read-only transaction, in parallel, and because each
+ * shard returns its publishers in ID order the pages are merged by ID and cut to limit. A publisher that is in the
+ * middle of being moved can briefly be on two shards, so duplicate IDs are dropped.
+ * 
+ * When the HotCatalog has a snapshot the page is read from it instead, unless the client has just written
+ * something.
+ */
+
+@ConcurrencyLimited(Kind.READ)
+public List<BookStorePublisher> retrieveAllPublishers(Long afterPublisherId, Integer limit) {
+	if(!ReadYourWritesContext.isPinnedToPrimary()) {
+		Optional<List<BookStorePublisher>> fromCatalog = hotCatalog.listPublishers(afterPublisherId, limit);
+
+		if(fromCatalog.isPresent()) {
+			return fromCatalog.get();
+		}
+	}
+
+	Long after = Objects.isNull(afterPublisherId) ? 0L : afterPublisherId;
+	Limit pageLimit = Objects.isNull(limit) ? Limit.unlimited() : Limit.of(Math.max(1, limit));
+
+	List<List<BookStorePublisher>> pages = shardRouter.onEveryShard(shard -> readOnlyTransaction()
+		.execute(status -> publisherDao.findByPublisherIdGreaterThanOrderByPublisherIdAsc(after, pageLimit)
+			.stream().map(this::toPublisherSummary).toList()));
+
+	Set<Long> seen = new HashSet<>();
+
+	return pages.stream()
+		.flatMap(List::stream)
+		.sorted(Comparator.comparing(BookStorePublisher::getPublisherId))
+		.filter(publisher -> seen.add(publisher.getPublisherId()))
+		.limit(pageLimit.isLimited() ? pageLimit.max() : Long.MAX_VALUE)
+		.toList();
+}
+
+/* The method toPublisherSummary copies only the publisher's own fields, so listing publishers does not load the
+ * book stores and customers of each one.
+ */
+
+private BookStorePublisher toPublisherSummary(Publisher publisher) {
+	BookStorePublisher summary = new BookStorePublisher();
+	summary.setPublisherId(publisher.getPublisherId());
+	summary.setPublisherName(publisher.getPublisherName());
+	summary.setPublisherPhone(publisher.getPublisherPhone());
+	summary.setPublisherEmail(publisher.getPublisherEmail());
+	return summary;
+}
+
+
+/* The method retrievPublisherById returns a publisher and its book stores for the given publisherId. The customers
+ * of the small book stores are only read when embedCustomers is set (see withCustomers).
+ * 
+ * Concurrent requests for the same publisherId and embedCustomers are coalesced by publisherReadFlight: the first request runs
+ * findPublisherById inside a read-only transaction (built with a TransactionTemplate so it is only opened by
+ * the request that actually loads), and every request for the same ID that arrives while that load is running
+ * waits for and returns the same BookStorePublisher. If the load throws, for example a NoSuchElementException
+ * for an unknown ID, all of the waiting requests get that exception.
+ *
+ * The BookStorePublisher returned may be shared between requests, so callers must not modify it.
+ *
+ * A client that has just written something is pinned to the primary database (see ReadYourWritesContext). Its
+ * read is not coalesced, because the shared load might be running against a replica that is behind.
  *
- * FindPublisherById is a method that retrieves a publisher's data from a data source, is then used to create a new 
- * instance of BookStorePublisher. BookStorePublisher is a class that represents a publisher entity, and the constructor
- * of this class is being used to initialize it with the data retrieved by findPublisherById.
+ * Everyone else is answered from the HotCatalog when it is enabled and already has the publisher.
+ */
+
+@Sharded(value = Key.PUBLISHER, readOnly = true)
+@ConcurrencyLimited(Kind.READ)
+public BookStorePublisher retrievPublisherById(Long publisherId, boolean embedCustomers) {
+	if(ReadYourWritesContext.isPinnedToPrimary()) {
+		return loadPublisher(publisherId, embedCustomers);
+	}
+
+	Optional<BookStorePublisher> fromCatalog = hotCatalog.findPublisher(publisherId, embedCustomers);
+
+	if(fromCatalog.isPresent()) {
+		return fromCatalog.get();
+	}
+	return publisherReadFlight.execute(new PublisherRead(publisherId, embedCustomers),
+		() -> loadPublisher(publisherId, embedCustomers));
+}
+
+private BookStorePublisher loadPublisher(Long publisherId, boolean embedCustomers) {
+	return readOnlyTransaction().execute(
+		status -> withCustomers(new BookStorePublisher(findPublisherById(publisherId)), embedCustomers));
+}
+
+/* The method withCustomers fills in the customerCount of every book store of the publishers with one grouped
+ * count over the book_store_customer join table. With embedCustomers it then loads the customers of the stores that
+ * are small enough to embed with a second query; without it the customers are not read at all. Any number of
+ * publishers cost the same number of statements however many stores they have.
+ * 
+ * Changing a BookStoreData changes its hashCode, so every publisher's set of book stores is rebuilt at the end.
+ */
+
+private BookStorePublisher withCustomers(BookStorePublisher publisher, boolean embedCustomers) {
+	withCustomers(List.of(publisher), embedCustomers);
+	return publisher;
+}
+
+private void withCustomers(List<BookStorePublisher> publishers, boolean embedCustomers) {
+	Map<Long, BookStoreData> bookStores = new HashMap<>();
+
+	for(BookStorePublisher publisher : publishers) {
+		for(BookStoreData bookStore : publisher.getBookStores()) {
+			bookStore.setCustomerCount(0L);
+			bookStores.put(bookStore.getBookStoreId(), bookStore);
+		}
+	}
+
+	if(bookStores.isEmpty()) {
+		return;
+	}
+
+	for(Object[] row : bookStoreDao.countCustomers(bookStores.keySet())) {
+		bookStores.get(((Number)row[0]).longValue()).setCustomerCount(((Number)row[1]).longValue());
+	}
+
+	int embedLimit = embedCustomers ? customerListingProperties.getEmbedLimit() : 0;
+	List<Long> smallBookStoreIds = new ArrayList<>();
+
+	for(BookStoreData bookStore : bookStores.values()) {
+		if(embedLimit > 0 && bookStore.getCustomerCount() <= embedLimit) {
+			bookStore.setCustomers(new HashSet<>());
+
+			if(bookStore.getCustomerCount() > 0) {
+				smallBookStoreIds.add(bookStore.getBookStoreId());
+			}
+		}
+	}
+
+	if(!smallBookStoreIds.isEmpty()) {
+		for(Object[] row : bookStoreDao.findCustomers(smallBookStoreIds)) {
+			bookStores.get((Long)row[0]).getCustomers().add(new BookStoreCustomer((Customer)row[1]));
+		}
+	}
+
+	for(BookStorePublisher publisher : publishers) {
+		publisher.setBookStores(new HashSet<>(publisher.getBookStores()));
+	}
+}
+
+/* The method retrievePublishersByIds is the multi-get behind GET /publisher?ids=... and POST /publisher/query. It
+ * returns one PublisherLookup per requested ID, in request order (an ID asked for twice is answered twice), and an
+ * unknown ID only makes its own entry not found instead of failing the call with a 404.
+ * 
+ * The IDs the HotCatalog can answer are taken from it, unless the client has just written something. The rest are
+ * grouped by shard and every shard is read in one read-only transaction, in parallel: one query for the publishers
+ * with their book stores (per IN_LIST_SIZE IDs), one for the customer counts and, with embedCustomers, one for the
+ * customers of the small stores. The number of statements does not grow with the number of publishers.
+ */
+
+@ConcurrencyLimited(Kind.READ)
+public List<PublisherLookup> retrievePublishersByIds(List<Long> publisherIds, boolean embedCustomers) {
+	Map<Long, BookStorePublisher> found = new HashMap<>();
+	Map<Long, String> notFound = new HashMap<>();
+	Map<Integer, List<Long>> idsByShard = new HashMap<>();
+
+	for(Long publisherId : new LinkedHashSet<>(publisherIds)) {
+		if(Objects.isNull(publisherId)) {
+			continue;
+		}
+
+		if(!ReadYourWritesContext.isPinnedToPrimary()) {
+			Optional<BookStorePublisher> fromCatalog = hotCatalog.findPublisher(publisherId, embedCustomers);
+
+			if(fromCatalog.isPresent()) {
+				found.put(publisherId, fromCatalog.get());
+				continue;
+			}
+		}
+
+		try {
+			idsByShard.computeIfAbsent(shardRouter.shardForPublisher(publisherId), shard -> new ArrayList<>())
+				.add(publisherId);
+		}
+		catch(NoSuchElementException e) {
+			notFound.put(publisherId, e.getMessage());
+		}
+	}
+
+	if(!idsByShard.isEmpty()) {
+		List<List<BookStorePublisher>> loaded = shardRouter.onEveryShard(shard -> idsByShard.containsKey(shard)
+			? readOnlyTransaction().execute(status -> loadPublishers(idsByShard.get(shard), embedCustomers))
+			: List.<BookStorePublisher>of());
+
+		for(List<BookStorePublisher> publishers : loaded) {
+			for(BookStorePublisher publisher : publishers) {
+				found.put(publisher.getPublisherId(), publisher);
+			}
+		}
+	}
+
+	List<PublisherLookup> results = new ArrayList<>(publisherIds.size());
+
+	for(Long publisherId : publisherIds) {
+		if(Objects.isNull(publisherId)) {
+			continue;
+		}
+
+		PublisherLookup lookup = new PublisherLookup();
+		lookup.setPublisherId(publisherId);
+		lookup.setPublisher(found.get(publisherId));
+		lookup.setFound(Objects.nonNull(lookup.getPublisher()));
+
+		if(!lookup.isFound()) {
+			lookup.setMessage(notFound.getOrDefault(publisherId, "Publisher with Id=" + publisherId + " was not found."));
+		}
+		results.add(lookup);
+	}
+	return results;
+}
+
+private List<BookStorePublisher> loadPublishers(List<Long> publisherIds, boolean embedCustomers) {
+	List<BookStorePublisher> publishers = new ArrayList<>();
+
+	for(int start = 0; start < publisherIds.size(); start += IN_LIST_SIZE) {
+		List<Long> chunk = publisherIds.subList(start, Math.min(publisherIds.size(), start + IN_LIST_SIZE));
+
+		for(Publisher publisher : publisherDao.findWithBookStoresByPublisherIdIn(chunk)) {
+			publishers.add(new BookStorePublisher(publisher));
+		}
+	}
+
+	withCustomers(publishers, embedCustomers);
+	return publishers;
+}
+
+/* The method retrieveCustomers returns one page of the customers of a book store, in customerId order.
+ * 
+ * Paging is by keyset, like retrieveAllPublishers: the page holds the members with an ID greater than
+ * afterCustomerId (from the start when it is null). limit defaults to book-store.customers.default-page-size and is
+ * capped at max-page-size. One extra row is read to tell whether there is a next page, and nextAfterCustomerId is
+ * only set when there is.
+ * 
+ * An unknown bookStoreId results in a NoSuchElementException, the same 404 as the other book store requests.
+ */
+
+@Sharded(Key.BOOK_STORE)
+@ConcurrencyLimited(Kind.READ)
+@Transactional(readOnly = true)
+public BookStoreCustomerPage retrieveCustomers(Long bookStoreId, Long afterCustomerId, Integer limit) {
+	findBookStoreByID(bookStoreId);
+
+	int pageSize = Objects.isNull(limit) ? customerListingProperties.getDefaultPageSize()
+		: Math.max(1, Math.min(limit, customerListingProperties.getMaxPageSize()));
+	Long after = Objects.isNull(afterCustomerId) ? 0L : afterCustomerId;
+
+	List<Customer> customers = customerDao.findPageOfBookStore(bookStoreId, after, Limit.of(pageSize + 1));
+
+	BookStoreCustomerPage page = new BookStoreCustomerPage();
+	page.setBookStoreId(bookStoreId);
+
+	for(Customer customer : customers.subList(0, Math.min(pageSize, customers.size()))) {
+		page.getCustomers().add(new BookStoreCustomer(customer));
+	}
+
+	if(customers.size() > pageSize) {
+		page.setNextAfterCustomerId(customers.get(pageSize - 1).getCustomerId());
+	}
+	return page;
+}
+
+/* The method retrieveSimilarBookStores returns the book stores whose customers overlap most with those of the given
+ * book store, most similar first, as last computed by the StoreSimilarityEngine. limit defaults to, and is capped
+ * at, the number of similar stores the engine keeps. The list is empty until the engine has run.
  */
 
+@Sharded(Key.BOOK_STORE)
+@ConcurrencyLimited(Kind.READ)
 @Transactional(readOnly = true)
-public BookStorePublisher retrievPublisherById(Long publisherId) {
-	return new BookStorePublisher (findPublisherById(publisherId));
+public List<SimilarBookStore> retrieveSimilarBookStores(Long bookStoreId, Integer limit) {
+	findBookStoreByID(bookStoreId);
+
+	int topK = similarityProperties.getTopK();
+	return bookStoreSimilarityDao.findSimilar(bookStoreId,
+		Objects.isNull(limit) ? topK : Math.max(1, Math.min(limit, topK)));
+}
+
+/* Creates a TransactionTemplate for a read-only transaction, the programmatic equivalent of
+ * @Transactional(readOnly = true).
+ */
+
+private TransactionTemplate readOnlyTransaction() {
+	TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+	transactionTemplate.setReadOnly(true);
+	return transactionTemplate;
 }
 
 /* @Transactional(readOnly = false)
@@ -290,10 +790,13 @@ public BookStorePublisher retrievPublisherById(Long publisherId) {
  * argument. This operation is responsible for removing the publisher record from the database.
  */
 
+@Sharded(Key.PUBLISHER)
+@ConcurrencyLimited(Kind.WRITE)
 @Transactional(readOnly = false)
 public void deletePublisherById(Long publisherId) {
 	Publisher publisher = findPublisherById(publisherId);
 	publisherDao.delete(publisher);
+	catalogChanges.publisherChanged(publisherId);
 }
 
 /* The method is annotated with @Transactional(readOnly = false), indicating that it is transactional and can modify the database.
@@ -318,6 +821,8 @@ public void deletePublisherById(Long publisherId) {
  * 
  */
 
+@Sharded(Key.PUBLISHER)
+@ConcurrencyLimited(Kind.WRITE)
 @Transactional(readOnly = false)
 public BookStoreData saveBookStore(Long publisherId, BookStoreData bookStoreData) {
 	Publisher publisher = findPublisherById(publisherId);
@@ -325,11 +830,26 @@ public BookStoreData saveBookStore(Long publisherId, BookStoreData bookStoreData
 	  BookStore bookStore = findOrCreateBookStore(bookStoreId, publisherId);
 	  
 	  copyBookStoreFields(bookStore, bookStoreData);
+	  locateBookStore(bookStore);
 	  bookStore.setPublisher(publisher);
 	  publisher.getBookStores().add(bookStore);
-	  return new BookStoreData(bookStoreDao.save(bookStore));
+	  catalogChanges.publisherChanged(publisherId);
+	  
+	  BookStoreData saved = new BookStoreData(bookStoreDao.save(bookStore));
+	  saved.setCustomerCount((long)bookStore.getCustomers().size());
+	  return saved;
 	}
 
+/* The method locateBookStore sets the coordinates of the book store to the centroid of its zip code, for the
+ * StoreLocator, or clears them when the zip code is not in the centroid file.
+ */
+
+private void locateBookStore(BookStore bookStore) {
+	Optional<double[]> location = zipCentroids.find(bookStore.getBookStoreZip());
+	bookStore.setBookStoreLatitude(location.map(coordinates -> coordinates[0]).orElse(null));
+	bookStore.setBookStoreLongitude(location.map(coordinates -> coordinates[1]).orElse(null));
+}
+
 /* Method is named findOrCreateBookStore, it is private and takes two parameters: bookStoreId and publisherId
  * The method is intended to either find an existing BookStore object or create a new one based on the provided bookStoreId.
  * 
@@ -0,0 +1,26 @@
+package book.store.service;
+
+import java.util.Collection;
+
+/* A CatalogChangeListener is told, after the transaction commits, which publishers, book stores and customers a
+ * write changed. CatalogChanges calls every listener bean: the HotCatalog reloads those publishers, the
+ * PublisherResponseCache drops their cached responses, the MembershipIndex updates its bitmaps and the StoreLocator
+ * reloads the locations of their book stores.
+ *
+ * Customer IDs are only unique within a shard, so they come with the shard they were written on.
+ *
+ * membershipsAdded reports customers that were added to a book store. Only the MembershipIndex needs it, so the
+ * other listeners keep the empty default.
+ */
+
+public interface CatalogChangeListener {
+
+	void publishersChanged(Collection<Long> publisherIds);
+
+	void bookStoresChanged(Collection<Long> bookStoreIds);
+
+	void customersChanged(int shard, Collection<Long> customerIds);
+
+	default void membershipsAdded(int shard, Long bookStoreId, Collection<Long> customerIds) {
+	}
+}
@@ -0,0 +1,64 @@
+package book.store.service;
+
+import java.util.Collection;
+import java.util.List;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import book.store.config.ShardContext;
+
+/* CatalogChanges is called by the write paths of BookStoreService and the ShardRebalancer and passes each change
+ * on to every CatalogChangeListener.
+ *
+ * A change is only passed on once its transaction has committed. A listener that reloads or drops data at that
+ * point can never read the state from before the change and then forget about it. Outside a transaction the
+ * listeners are called straight away.
+ */
+
+@Component
+public class CatalogChanges {
+
+@Autowired
+private List<CatalogChangeListener> listeners;
+
+public void publisherChanged(Long publisherId) {
+	List<Long> ids = List.of(publisherId);
+	afterCommit(() -> listeners.forEach(listener -> listener.publishersChanged(ids)));
+}
+
+public void bookStoreChanged(Long bookStoreId) {
+	List<Long> ids = List.of(bookStoreId);
+	afterCommit(() -> listeners.forEach(listener -> listener.bookStoresChanged(ids)));
+}
+
+/* The customers are taken to be on the shard set in the ShardContext, the one the calling write runs on. */
+
+public void customersChanged(Collection<Long> customerIds) {
+	int shard = ShardContext.currentShard();
+	List<Long> ids = List.copyOf(customerIds);
+	afterCommit(() -> listeners.forEach(listener -> listener.customersChanged(shard, ids)));
+}
+
+/* The customers were added to the book store, on the shard set in the ShardContext. */
+
+public void membershipsAdded(Long bookStoreId, Collection<Long> customerIds) {
+	int shard = ShardContext.currentShard();
+	List<Long> ids = List.copyOf(customerIds);
+	afterCommit(() -> listeners.forEach(listener -> listener.membershipsAdded(shard, bookStoreId, ids)));
+}
+
+private void afterCommit(Runnable action) {
+	if(TransactionSynchronizationManager.isSynchronizationActive()) {
+		TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+			@Override
+			public void afterCommit() {
+				action.run();
+			}
+		});
+	}
+	else {
+		action.run();
+	}
+}
+}
@@ -0,0 +1,148 @@
+package book.store.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.sql.DataSource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Component;
+import book.store.config.CatalogProperties;
+import book.store.service.CatalogSegment.CustomerRow;
+import book.store.service.CatalogSegment.PublisherRow;
+import book.store.service.CatalogSegment.StoreRow;
+import jakarta.annotation.PostConstruct;
+
+/* The CatalogLoader reads publishers, book stores, customers and memberships for the HotCatalog with plain JDBC,
+ * four flat queries per shard, and puts them together as PublisherRow trees. It always reads the shard set in the
+ * ShardContext, inside the caller's transaction.
+ *
+ * loadAll reads a whole shard for a rebuild. loadPublishers reads only the given publishers, and the
+ * publishersOf methods find the publishers whose subtree a write to a book store or customer touched.
+ */
+
+@Component
+public class CatalogLoader {
+
+private static final int IN_LIST_SIZE = 500;
+
+private static final String PUBLISHERS = "SELECT publisher_id, publisher_name, publisher_phone, publisher_email "
+	+ "FROM publisher";
+private static final String STORES = "SELECT book_store_id, book_store_name, book_store_address, book_store_city, "
+	+ "book_store_state, book_store_zip, book_store_phone, publisher_id FROM book_store";
+private static final String CUSTOMERS = "SELECT customer_id, customer_first_name, customer_last_name, "
+	+ "customer_email FROM customer";
+private static final String MEMBERS = "SELECT m.book_store_id, m.customer_id FROM book_store_customer m";
+
+@Autowired
+private DataSource dataSource;
+
+@Autowired
+private CatalogProperties properties;
+
+private NamedParameterJdbcTemplate jdbcTemplate;
+
+@PostConstruct
+void start() {
+	JdbcTemplate template = new JdbcTemplate(dataSource);
+	template.setFetchSize(properties.getFetchSize());
+	jdbcTemplate = new NamedParameterJdbcTemplate(template);
+}
+
+List<PublisherRow> loadAll() {
+	return load(PUBLISHERS, STORES, CUSTOMERS, MEMBERS, new MapSqlParameterSource());
+}
+
+List<PublisherRow> loadPublishers(Collection<Long> publisherIds) {
+	List<PublisherRow> result = new ArrayList<>();
+
+	for(List<Long> chunk : chunks(publisherIds)) {
+		MapSqlParameterSource parameters = new MapSqlParameterSource("ids", chunk);
+		String ofPublishers = " JOIN book_store b ON b.book_store_id = m.book_store_id WHERE b.publisher_id IN (:ids)";
+
+		result.addAll(load(PUBLISHERS + " WHERE publisher_id IN (:ids)",
+			STORES + " WHERE publisher_id IN (:ids)",
+			CUSTOMERS + " WHERE customer_id IN (SELECT m.customer_id FROM book_store_customer m" + ofPublishers + ")",
+			MEMBERS + ofPublishers,
+			parameters));
+	}
+	return result;
+}
+
+Set<Long> publishersOfBookStores(Collection<Long> bookStoreIds) {
+	return publishers("SELECT DISTINCT publisher_id FROM book_store WHERE book_store_id IN (:ids)", bookStoreIds);
+}
+
+Set<Long> publishersOfCustomers(Collection<Long> customerIds) {
+	return publishers("SELECT DISTINCT b.publisher_id FROM book_store_customer m "
+		+ "JOIN book_store b ON b.book_store_id = m.book_store_id WHERE m.customer_id IN (:ids)", customerIds);
+}
+
+private Set<Long> publishers(String sql, Collection<Long> ids) {
+	Set<Long> result = new HashSet<>();
+
+	for(List<Long> chunk : chunks(ids)) {
+		result.addAll(jdbcTemplate.queryForList(sql, new MapSqlParameterSource("ids", chunk), Long.class));
+	}
+	return result;
+}
+
+private List<PublisherRow> load(String publisherSql, String storeSql, String customerSql, String memberSql,
+	MapSqlParameterSource parameters) {
+	Map<Long, CustomerRow> customers = new HashMap<>();
+
+	jdbcTemplate.query(customerSql, parameters, rs -> {
+		customers.put(rs.getLong(1), new CustomerRow(rs.getLong(1), rs.getString(2), rs.getString(3),
+			rs.getString(4)));
+	});
+
+	Map<Long, List<CustomerRow>> customersByStore = new HashMap<>();
+
+	jdbcTemplate.query(memberSql, parameters, rs -> {
+		CustomerRow customer = customers.get(rs.getLong(2));
+
+		if(customer != null) {
+			customersByStore.computeIfAbsent(rs.getLong(1), id -> new ArrayList<>()).add(customer);
+		}
+	});
+
+	Map<Long, List<StoreRow>> storesByPublisher = new HashMap<>();
+
+	jdbcTemplate.query(storeSql, parameters, rs -> {
+		long bookStoreId = rs.getLong(1);
+		List<CustomerRow> storeCustomers = customersByStore.getOrDefault(bookStoreId, new ArrayList<>());
+		storeCustomers.sort((a, b) -> Long.compare(a.customerId(), b.customerId()));
+
+		storesByPublisher.computeIfAbsent(rs.getLong(8), id -> new ArrayList<>()).add(new StoreRow(bookStoreId,
+			rs.getString(2), rs.getString(3), rs.getString(4), rs.getString(5), rs.getString(6), rs.getString(7),
+			storeCustomers));
+	});
+
+	List<PublisherRow> publishers = new ArrayList<>();
+
+	jdbcTemplate.query(publisherSql, parameters, rs -> {
+		long publisherId = rs.getLong(1);
+		List<StoreRow> stores = storesByPublisher.getOrDefault(publisherId, new ArrayList<>());
+		stores.sort((a, b) -> Long.compare(a.bookStoreId(), b.bookStoreId()));
+
+		publishers.add(new PublisherRow(publisherId, rs.getString(2), rs.getString(3), rs.getString(4), stores));
+	});
+	return publishers;
+}
+
+private static List<List<Long>> chunks(Collection<Long> ids) {
+	List<Long> all = new ArrayList<>(ids);
+	List<List<Long>> result = new ArrayList<>();
+
+	for(int start = 0; start < all.size(); start += IN_LIST_SIZE) {
+		result.add(all.subList(start, Math.min(all.size(), start + IN_LIST_SIZE)));
+	}
+	return result;
+}
+}
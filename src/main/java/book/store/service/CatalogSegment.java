@@ -0,0 +1,298 @@
+package book.store.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import book.store.controller.model.BookStoreCustomer;
+import book.store.controller.model.BookStoreData;
+import book.store.controller.model.BookStorePublisher;
+
+/* A CatalogSegment is an immutable, column-oriented block of the hot catalog holding a run of publishers in ID
+ * order, their book stores and the customers of those stores.
+ *
+ * Every field of every row is stored in its own array. IDs are primitive long arrays and text columns are arrays
+ * of interned strings, so repeated values such as cities and states exist only once. Children are found by
+ * offset instead of through collections: the book stores of publisher p are rows storeStart[p] up to
+ * storeStart[p + 1], and the customers of book store s are members[memberStart[s]] up to memberStart[s + 1], each
+ * an index into the customer columns. A customer that belongs to several stores of the segment is stored once.
+ *
+ * Segments are built from PublisherRow trees, either loaded from the database or decoded from an older segment.
+ */
+
+final class CatalogSegment {
+
+private static final int REFERENCE_BYTES = 4;
+private static final int ARRAY_HEADER_BYTES = 16;
+private static final int STRING_OVERHEAD_BYTES = 40;
+
+private final long[] publisherIds;
+private final String[] publisherNames;
+private final String[] publisherPhones;
+private final String[] publisherEmails;
+private final int[] storeStart;
+
+private final long[] storeIds;
+private final String[] storeNames;
+private final String[] storeAddresses;
+private final String[] storeCities;
+private final String[] storeStates;
+private final String[] storeZips;
+private final String[] storePhones;
+private final int[] memberStart;
+private final int[] members;
+
+private final long[] customerIds;
+private final String[] customerFirstNames;
+private final String[] customerLastNames;
+private final String[] customerEmails;
+
+private final long estimatedBytes;
+
+/* Builds a segment from publishers that are already sorted by ID. */
+
+CatalogSegment(List<PublisherRow> publishers) {
+	int storeCount = 0;
+	int memberCount = 0;
+
+	for(PublisherRow publisher : publishers) {
+		storeCount += publisher.stores().size();
+
+		for(StoreRow store : publisher.stores()) {
+			memberCount += store.customers().size();
+		}
+	}
+
+	publisherIds = new long[publishers.size()];
+	publisherNames = new String[publishers.size()];
+	publisherPhones = new String[publishers.size()];
+	publisherEmails = new String[publishers.size()];
+	storeStart = new int[publishers.size() + 1];
+
+	storeIds = new long[storeCount];
+	storeNames = new String[storeCount];
+	storeAddresses = new String[storeCount];
+	storeCities = new String[storeCount];
+	storeStates = new String[storeCount];
+	storeZips = new String[storeCount];
+	storePhones = new String[storeCount];
+	memberStart = new int[storeCount + 1];
+	members = new int[memberCount];
+
+	Map<CustomerRow, Integer> customerIndex = new IdentityHashMap<>();
+	List<CustomerRow> customers = new ArrayList<>();
+	int store = 0;
+	int member = 0;
+
+	for(int p = 0; p < publishers.size(); p++) {
+		PublisherRow publisher = publishers.get(p);
+		publisherIds[p] = publisher.publisherId();
+		publisherNames[p] = intern(publisher.name());
+		publisherPhones[p] = intern(publisher.phone());
+		publisherEmails[p] = intern(publisher.email());
+		storeStart[p] = store;
+
+		for(StoreRow storeRow : publisher.stores()) {
+			storeIds[store] = storeRow.bookStoreId();
+			storeNames[store] = intern(storeRow.name());
+			storeAddresses[store] = intern(storeRow.address());
+			storeCities[store] = intern(storeRow.city());
+			storeStates[store] = intern(storeRow.state());
+			storeZips[store] = intern(storeRow.zip());
+			storePhones[store] = intern(storeRow.phone());
+			memberStart[store] = member;
+
+			for(CustomerRow customer : storeRow.customers()) {
+				members[member++] = customerIndex.computeIfAbsent(customer, row -> {
+					customers.add(row);
+					return customers.size() - 1;
+				});
+			}
+			store++;
+		}
+	}
+	storeStart[publishers.size()] = store;
+	memberStart[storeCount] = member;
+
+	customerIds = new long[customers.size()];
+	customerFirstNames = new String[customers.size()];
+	customerLastNames = new String[customers.size()];
+	customerEmails = new String[customers.size()];
+
+	for(int c = 0; c < customers.size(); c++) {
+		CustomerRow customer = customers.get(c);
+		customerIds[c] = customer.customerId();
+		customerFirstNames[c] = intern(customer.firstName());
+		customerLastNames[c] = intern(customer.lastName());
+		customerEmails[c] = intern(customer.email());
+	}
+
+	estimatedBytes = estimateBytes();
+}
+
+private static String intern(String value) {
+	return value == null ? null : value.intern();
+}
+
+int publisherCount() {
+	return publisherIds.length;
+}
+
+int storeCount() {
+	return storeIds.length;
+}
+
+int memberCount() {
+	return members.length;
+}
+
+int customerCount() {
+	return customerIds.length;
+}
+
+long estimatedBytes() {
+	return estimatedBytes;
+}
+
+long firstPublisherId() {
+	return publisherIds[0];
+}
+
+long publisherId(int index) {
+	return publisherIds[index];
+}
+
+/* Returns the row of the publisher, or a negative number if it is not in this segment. */
+
+int indexOf(long publisherId) {
+	return Arrays.binarySearch(publisherIds, publisherId);
+}
+
+/* Returns the row of the first publisher with an ID greater than publisherId. */
+
+int indexAfter(long publisherId) {
+	int index = Arrays.binarySearch(publisherIds, publisherId);
+	return index >= 0 ? index + 1 : -index - 1;
+}
+
+/* Builds the full publisher. Every book store gets its customerCount; only the stores with at most embedLimit
+ * customers also get the customers themselves, the same as BookStoreService reads them from the database.
+ */
+
+BookStorePublisher toPublisher(int index, int embedLimit) {
+	BookStorePublisher publisher = toPublisherSummary(index);
+
+	for(int store = storeStart[index]; store < storeStart[index + 1]; store++) {
+		BookStoreData bookStore = new BookStoreData();
+		bookStore.setBookStoreId(storeIds[store]);
+		bookStore.setBookStoreName(storeNames[store]);
+		bookStore.setBookStoreAddress(storeAddresses[store]);
+		bookStore.setBookStoreCity(storeCities[store]);
+		bookStore.setBookStoreState(storeStates[store]);
+		bookStore.setBookStoreZip(storeZips[store]);
+		bookStore.setBookStorePhone(storePhones[store]);
+
+		int customerCount = memberStart[store + 1] - memberStart[store];
+		bookStore.setCustomerCount((long)customerCount);
+
+		if(embedLimit > 0 && customerCount <= embedLimit) {
+			bookStore.setCustomers(new HashSet<>());
+
+			for(int member = memberStart[store]; member < memberStart[store + 1]; member++) {
+				int c = members[member];
+				BookStoreCustomer customer = new BookStoreCustomer();
+				customer.setCustomerId(customerIds[c]);
+				customer.setCustomerFirstName(customerFirstNames[c]);
+				customer.setCustomerLastName(customerLastNames[c]);
+				customer.setCustomerEmail(customerEmails[c]);
+				bookStore.getCustomers().add(customer);
+			}
+		}
+		publisher.getBookStores().add(bookStore);
+	}
+	return publisher;
+}
+
+BookStorePublisher toPublisherSummary(int index) {
+	BookStorePublisher publisher = new BookStorePublisher();
+	publisher.setPublisherId(publisherIds[index]);
+	publisher.setPublisherName(publisherNames[index]);
+	publisher.setPublisherPhone(publisherPhones[index]);
+	publisher.setPublisherEmail(publisherEmails[index]);
+	return publisher;
+}
+
+/* Turns the segment back into rows, so an incremental refresh can rebuild it with some publishers replaced.
+ * Customers shared between stores are decoded to one CustomerRow, so they stay shared in the new segment.
+ */
+
+List<PublisherRow> toRows() {
+	CustomerRow[] customers = new CustomerRow[customerIds.length];
+
+	for(int c = 0; c < customers.length; c++) {
+		customers[c] = new CustomerRow(customerIds[c], customerFirstNames[c], customerLastNames[c], customerEmails[c]);
+	}
+
+	List<PublisherRow> rows = new ArrayList<>(publisherIds.length);
+
+	for(int p = 0; p < publisherIds.length; p++) {
+		List<StoreRow> stores = new ArrayList<>(storeStart[p + 1] - storeStart[p]);
+
+		for(int store = storeStart[p]; store < storeStart[p + 1]; store++) {
+			List<CustomerRow> storeCustomers = new ArrayList<>(memberStart[store + 1] - memberStart[store]);
+
+			for(int member = memberStart[store]; member < memberStart[store + 1]; member++) {
+				storeCustomers.add(customers[members[member]]);
+			}
+			stores.add(new StoreRow(storeIds[store], storeNames[store], storeAddresses[store], storeCities[store],
+				storeStates[store], storeZips[store], storePhones[store], storeCustomers));
+		}
+		rows.add(new PublisherRow(publisherIds[p], publisherNames[p], publisherPhones[p], publisherEmails[p], stores));
+	}
+	return rows;
+}
+
+/* Shallow size of the arrays plus the strings they point to. Interned strings that are shared with other
+ * segments are counted in each of them, so the estimate errs on the high side.
+ */
+
+private long estimateBytes() {
+	long bytes = longArray(publisherIds) + longArray(storeIds) + longArray(customerIds)
+		+ intArray(storeStart) + intArray(memberStart) + intArray(members);
+
+	String[][] columns = {publisherNames, publisherPhones, publisherEmails, storeNames, storeAddresses, storeCities,
+		storeStates, storeZips, storePhones, customerFirstNames, customerLastNames, customerEmails};
+	Map<String, Boolean> counted = new IdentityHashMap<>();
+
+	for(String[] column : columns) {
+		bytes += ARRAY_HEADER_BYTES + (long)column.length * REFERENCE_BYTES;
+
+		for(String value : column) {
+			if(value != null && counted.put(value, Boolean.TRUE) == null) {
+				bytes += STRING_OVERHEAD_BYTES + value.length();
+			}
+		}
+	}
+	return bytes;
+}
+
+private static long longArray(long[] array) {
+	return ARRAY_HEADER_BYTES + (long)array.length * Long.BYTES;
+}
+
+private static long intArray(int[] array) {
+	return ARRAY_HEADER_BYTES + (long)array.length * Integer.BYTES;
+}
+
+record PublisherRow(long publisherId, String name, String phone, String email, List<StoreRow> stores) {
+}
+
+record StoreRow(long bookStoreId, String name, String address, String city, String state, String zip,
+	String phone, List<CustomerRow> customers) {
+}
+
+record CustomerRow(long customerId, String firstName, String lastName, String email) {
+}
+}
@@ -0,0 +1,216 @@
+package book.store.service;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import book.store.controller.model.BookStorePublisher;
+import book.store.service.CatalogSegment.PublisherRow;
+
+/* A CatalogSnapshot is one immutable version of the hot catalog: a list of CatalogSegments ordered by publisher
+ * ID, and the index of their first IDs used to find the segment of a publisher with a binary search.
+ *
+ * A snapshot is never changed. withChanges returns a new snapshot that reuses every segment the changes do not
+ * touch, and the HotCatalog swaps it in with a single reference update, so readers always see either the old or
+ * the new version as a whole.
+ */
+
+final class CatalogSnapshot {
+
+private final List<CatalogSegment> segments;
+private final long[] firstIds;
+private final Instant dataAsOf;
+
+private final int publisherCount;
+private final int storeCount;
+private final int memberCount;
+private final int customerCount;
+private final long estimatedBytes;
+
+private CatalogSnapshot(List<CatalogSegment> segments, Instant dataAsOf) {
+	this.segments = List.copyOf(segments);
+	this.dataAsOf = dataAsOf;
+	this.firstIds = new long[segments.size()];
+
+	int publishers = 0;
+	int stores = 0;
+	int memberships = 0;
+	int customers = 0;
+	long bytes = 0;
+
+	for(int index = 0; index < segments.size(); index++) {
+		CatalogSegment segment = segments.get(index);
+		firstIds[index] = segment.firstPublisherId();
+		publishers += segment.publisherCount();
+		stores += segment.storeCount();
+		memberships += segment.memberCount();
+		customers += segment.customerCount();
+		bytes += segment.estimatedBytes();
+	}
+
+	this.publisherCount = publishers;
+	this.storeCount = stores;
+	this.memberCount = memberships;
+	this.customerCount = customers;
+	this.estimatedBytes = bytes + 16 + (long)firstIds.length * (Long.BYTES + 4);
+}
+
+/* Builds a snapshot from all publishers, sorted by ID, cut into segments of segmentSize publishers. dataAsOf is
+ * the time the database was read.
+ */
+
+static CatalogSnapshot build(List<PublisherRow> publishers, int segmentSize, Instant dataAsOf) {
+	return new CatalogSnapshot(cut(publishers, segmentSize), dataAsOf);
+}
+
+/* Returns a new snapshot in which the publishers in changes are replaced. A present value is the publisher as it
+ * is now in the database, an empty one means the publisher no longer exists. Only the segments the changed IDs
+ * fall into are rebuilt; a segment that grows past twice segmentSize is split.
+ */
+
+CatalogSnapshot withChanges(NavigableMap<Long, Optional<PublisherRow>> changes, int segmentSize, Instant dataAsOf) {
+	if(segments.isEmpty()) {
+		List<PublisherRow> rows = new ArrayList<>();
+		changes.values().forEach(row -> row.ifPresent(rows::add));
+		return build(rows, segmentSize, dataAsOf);
+	}
+
+	List<CatalogSegment> result = new ArrayList<>(segments.size() + 1);
+
+	for(int index = 0; index < segments.size(); index++) {
+		CatalogSegment segment = segments.get(index);
+		Long from = index == 0 ? null : firstIds[index];
+		Long to = index == segments.size() - 1 ? null : firstIds[index + 1];
+		NavigableMap<Long, Optional<PublisherRow>> segmentChanges = from == null && to == null ? changes
+			: from == null ? changes.headMap(to, false)
+			: to == null ? changes.tailMap(from, true)
+			: changes.subMap(from, true, to, false);
+
+		if(segmentChanges.isEmpty()) {
+			result.add(segment);
+			continue;
+		}
+
+		List<PublisherRow> rows = merge(segment.toRows(), segmentChanges);
+
+		if(rows.size() > 2 * segmentSize) {
+			result.addAll(cut(rows, segmentSize));
+		}
+		else if(!rows.isEmpty()) {
+			result.add(new CatalogSegment(rows));
+		}
+	}
+	return new CatalogSnapshot(result, dataAsOf);
+}
+
+private static List<PublisherRow> merge(List<PublisherRow> rows, Map<Long, Optional<PublisherRow>> changes) {
+	List<PublisherRow> merged = new ArrayList<>(rows.size() + changes.size());
+	Iterator<Map.Entry<Long, Optional<PublisherRow>>> pending = changes.entrySet().iterator();
+	Map.Entry<Long, Optional<PublisherRow>> change = pending.hasNext() ? pending.next() : null;
+
+	for(PublisherRow row : rows) {
+		while(change != null && change.getKey() < row.publisherId()) {
+			change.getValue().ifPresent(merged::add);
+			change = pending.hasNext() ? pending.next() : null;
+		}
+
+		if(change != null && change.getKey() == row.publisherId()) {
+			change.getValue().ifPresent(merged::add);
+			change = pending.hasNext() ? pending.next() : null;
+		}
+		else {
+			merged.add(row);
+		}
+	}
+
+	while(change != null) {
+		change.getValue().ifPresent(merged::add);
+		change = pending.hasNext() ? pending.next() : null;
+	}
+	return merged;
+}
+
+private static List<CatalogSegment> cut(List<PublisherRow> rows, int segmentSize) {
+	List<CatalogSegment> result = new ArrayList<>();
+
+	for(int start = 0; start < rows.size(); start += segmentSize) {
+		result.add(new CatalogSegment(rows.subList(start, Math.min(rows.size(), start + segmentSize))));
+	}
+	return result;
+}
+
+Optional<BookStorePublisher> findPublisher(long publisherId, int embedLimit) {
+	int segmentIndex = segmentFor(publisherId);
+
+	if(segmentIndex < 0) {
+		return Optional.empty();
+	}
+
+	CatalogSegment segment = segments.get(segmentIndex);
+	int index = segment.indexOf(publisherId);
+	return index < 0 ? Optional.empty() : Optional.of(segment.toPublisher(index, embedLimit));
+}
+
+/* Publishers with an ID after afterPublisherId, in ID order, without their book stores. */
+
+List<BookStorePublisher> listPublishers(long afterPublisherId, long limit) {
+	if(segments.isEmpty()) {
+		return Collections.emptyList();
+	}
+
+	List<BookStorePublisher> result = new ArrayList<>();
+	int segmentIndex = Math.max(0, segmentFor(afterPublisherId));
+	int index = segments.get(segmentIndex).indexAfter(afterPublisherId);
+
+	while(segmentIndex < segments.size() && result.size() < limit) {
+		CatalogSegment segment = segments.get(segmentIndex);
+
+		for(; index < segment.publisherCount() && result.size() < limit; index++) {
+			result.add(segment.toPublisherSummary(index));
+		}
+		segmentIndex++;
+		index = 0;
+	}
+	return result;
+}
+
+/* The segment whose first ID is the greatest one not above publisherId, or -1 if it is before all segments. */
+
+private int segmentFor(long publisherId) {
+	int index = Arrays.binarySearch(firstIds, publisherId);
+	return index >= 0 ? index : -index - 2;
+}
+
+Instant getDataAsOf() {
+	return dataAsOf;
+}
+
+int getSegmentCount() {
+	return segments.size();
+}
+
+int getPublisherCount() {
+	return publisherCount;
+}
+
+int getStoreCount() {
+	return storeCount;
+}
+
+int getMemberCount() {
+	return memberCount;
+}
+
+int getCustomerCount() {
+	return customerCount;
+}
+
+long getEstimatedBytes() {
+	return estimatedBytes;
+}
+}
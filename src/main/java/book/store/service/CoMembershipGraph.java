@@ -0,0 +1,230 @@
+package book.store.service;
+
+import java.util.Arrays;
+
+/* The CoMembershipGraph is the customer-store graph of one shard, held in two compressed sparse row tables made of
+ * primitive arrays only: for every book store the indexes of its customers, and for every customer the indexes of
+ * its book stores. Stores and customers are numbered 0..n-1 in ID order, so an index is found again by binary search.
+ *
+ * It is built once per run of the StoreSimilarityEngine and only read afterwards, so the fork/join workers share
+ * it without any locking.
+ *
+ * An incremental run only loads part of the shard, so a store's row may hold fewer customers than it has. Such a
+ * store is added with its real customer count, which is what customerCount returns and the Jaccard index uses.
+ */
+
+final class CoMembershipGraph {
+
+private final long[] storeIds;
+private final int[] customerCounts;
+private final int[] storeStart;
+private final int[] storeCustomers;
+private final int[] customerStart;
+private final int[] customerStores;
+
+private CoMembershipGraph(long[] storeIds, int[] customerCounts, int[] storeStart, int[] storeCustomers,
+	int[] customerStart, int[] customerStores) {
+	this.storeIds = storeIds;
+	this.customerCounts = customerCounts;
+	this.storeStart = storeStart;
+	this.storeCustomers = storeCustomers;
+	this.customerStart = customerStart;
+	this.customerStores = customerStores;
+}
+
+int storeCount() {
+	return storeIds.length;
+}
+
+long storeId(int store) {
+	return storeIds[store];
+}
+
+/* Returns the index of the book store, or a negative number if it is not in the graph. */
+
+int indexOf(long bookStoreId) {
+	return Arrays.binarySearch(storeIds, bookStoreId);
+}
+
+int customerCount(int store) {
+	return customerCounts[store];
+}
+
+int firstMember(int store) {
+	return storeStart[store];
+}
+
+int endOfMembers(int store) {
+	return storeStart[store + 1];
+}
+
+int customerAt(int member) {
+	return storeCustomers[member];
+}
+
+int firstStore(int customer) {
+	return customerStart[customer];
+}
+
+int endOfStores(int customer) {
+	return customerStart[customer + 1];
+}
+
+int storeAt(int position) {
+	return customerStores[position];
+}
+
+/* Returns the given stores together with every store that shares a customer with one of them, leaving out
+ * customers with more than maxStoresPerCustomer stores. These are the stores whose similarity lists can change
+ * when the customers of the given stores change.
+ */
+
+int[] neighbourhood(int[] stores, int maxStoresPerCustomer) {
+	boolean[] marked = new boolean[storeIds.length];
+
+	for(int store : stores) {
+		marked[store] = true;
+
+		for(int member = storeStart[store]; member < storeStart[store + 1]; member++) {
+			int customer = storeCustomers[member];
+
+			if(customerStart[customer + 1] - customerStart[customer] > maxStoresPerCustomer) {
+				continue;
+			}
+
+			for(int position = customerStart[customer]; position < customerStart[customer + 1]; position++) {
+				marked[customerStores[position]] = true;
+			}
+		}
+	}
+
+	int count = 0;
+
+	for(boolean mark : marked) {
+		if(mark) {
+			count++;
+		}
+	}
+
+	int[] result = new int[count];
+	int next = 0;
+
+	for(int store = 0; store < marked.length; store++) {
+		if(marked[store]) {
+			result[next++] = store;
+		}
+	}
+	return result;
+}
+
+/* Collects the book stores and memberships of a shard as they are read and then builds the graph. Memberships of
+ * stores that were not added are ignored.
+ */
+
+static final class Builder {
+	private long[] stores = new long[1024];
+	private int[] storeSizes = new int[1024];
+	private int storeCount;
+	private long[] memberStores = new long[1024];
+	private long[] memberCustomers = new long[1024];
+	private int memberCount;
+
+	/* Adds a store whose memberships are all added, so its customers are counted from them. */
+
+	void addStore(long bookStoreId) {
+		addStore(bookStoreId, -1);
+	}
+
+	void addStore(long bookStoreId, int customerCount) {
+		if(storeCount == stores.length) {
+			stores = Arrays.copyOf(stores, stores.length * 2);
+			storeSizes = Arrays.copyOf(storeSizes, storeSizes.length * 2);
+		}
+		stores[storeCount] = bookStoreId;
+		storeSizes[storeCount] = customerCount;
+		storeCount++;
+	}
+
+	void addMembership(long bookStoreId, long customerId) {
+		if(memberCount == memberStores.length) {
+			memberStores = Arrays.copyOf(memberStores, memberStores.length * 2);
+			memberCustomers = Arrays.copyOf(memberCustomers, memberCustomers.length * 2);
+		}
+		memberStores[memberCount] = bookStoreId;
+		memberCustomers[memberCount] = customerId;
+		memberCount++;
+	}
+
+	CoMembershipGraph build() {
+		long[] storeIds = distinctSorted(Arrays.copyOf(stores, storeCount));
+		long[] customerIds = distinctSorted(Arrays.copyOf(memberCustomers, memberCount));
+
+		int[] storeOfMember = new int[memberCount];
+		int[] customerOfMember = new int[memberCount];
+		int[] storeStart = new int[storeIds.length + 1];
+		int[] customerStart = new int[customerIds.length + 1];
+
+		for(int member = 0; member < memberCount; member++) {
+			int store = Arrays.binarySearch(storeIds, memberStores[member]);
+			storeOfMember[member] = store;
+
+			if(store >= 0) {
+				int customer = Arrays.binarySearch(customerIds, memberCustomers[member]);
+				customerOfMember[member] = customer;
+				storeStart[store + 1]++;
+				customerStart[customer + 1]++;
+			}
+		}
+
+		for(int store = 0; store < storeIds.length; store++) {
+			storeStart[store + 1] += storeStart[store];
+		}
+
+		for(int customer = 0; customer < customerIds.length; customer++) {
+			customerStart[customer + 1] += customerStart[customer];
+		}
+
+		int[] storeCustomers = new int[storeStart[storeIds.length]];
+		int[] customerStores = new int[customerStart[customerIds.length]];
+		int[] storeNext = Arrays.copyOf(storeStart, storeIds.length);
+		int[] customerNext = Arrays.copyOf(customerStart, customerIds.length);
+
+		for(int member = 0; member < memberCount; member++) {
+			int store = storeOfMember[member];
+
+			if(store >= 0) {
+				int customer = customerOfMember[member];
+				storeCustomers[storeNext[store]++] = customer;
+				customerStores[customerNext[customer]++] = store;
+			}
+		}
+
+		int[] customerCounts = new int[storeIds.length];
+
+		for(int store = 0; store < storeIds.length; store++) {
+			customerCounts[store] = storeStart[store + 1] - storeStart[store];
+		}
+
+		for(int added = 0; added < storeCount; added++) {
+			if(storeSizes[added] >= 0) {
+				customerCounts[Arrays.binarySearch(storeIds, stores[added])] = storeSizes[added];
+			}
+		}
+
+		return new CoMembershipGraph(storeIds, customerCounts, storeStart, storeCustomers, customerStart,
+			customerStores);
+	}
+
+	private static long[] distinctSorted(long[] values) {
+		Arrays.sort(values);
+		int count = 0;
+
+		for(int index = 0; index < values.length; index++) {
+			if(index == 0 || values[index] != values[index - 1]) {
+				values[count++] = values[index];
+			}
+		}
+		return Arrays.copyOf(values, count);
+	}
+}
+}
@@ -0,0 +1,55 @@
+package book.store.service;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.stereotype.Component;
+
+/* The ConcurrencyLimitAspect wraps every method annotated with @ConcurrencyLimited.
+ *
+ * It runs before the transaction interceptor (the transaction advisor has the lowest precedence), so the permit is
+ * taken before a connection is borrowed and given back after the transaction has committed. The latency it
+ * reports to the limiter therefore includes the commit.
+ *
+ * A TransientDataAccessException (lock wait timeout, query timeout, connection pool exhausted and so on) means the
+ * database is overloaded, so the limit is cut. Any other exception gives the permit back without a latency sample.
+ */
+
+@Aspect
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 100)
+public class ConcurrencyLimitAspect {
+
+@Autowired
+private AdaptiveConcurrencyLimiter readConcurrencyLimiter;
+
+@Autowired
+private AdaptiveConcurrencyLimiter writeConcurrencyLimiter;
+
+@Around("@annotation(concurrencyLimited)")
+public Object limit(ProceedingJoinPoint joinPoint, ConcurrencyLimited concurrencyLimited) throws Throwable {
+	AdaptiveConcurrencyLimiter limiter = concurrencyLimited.value() == ConcurrencyLimited.Kind.READ
+		? readConcurrencyLimiter
+		: writeConcurrencyLimiter;
+
+	AdaptiveConcurrencyLimiter.Permit permit = limiter.acquire();
+
+	try {
+		Object result = joinPoint.proceed();
+		permit.release();
+		return result;
+	}
+	catch(TransientDataAccessException e) {
+		permit.dropped();
+		throw e;
+	}
+	catch(Throwable e) {
+		permit.ignore();
+		throw e;
+	}
+}
+}
@@ -0,0 +1,22 @@
+package book.store.service;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/* @ConcurrencyLimited marks a service method that must get a permit from the read or write
+ * AdaptiveConcurrencyLimiter before it runs. The ConcurrencyLimitAspect applies it outside of @Transactional,
+ * so a rejected call never opens a transaction or borrows a database connection.
+ */
+
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface ConcurrencyLimited {
+
+	Kind value();
+
+	enum Kind {
+		READ, WRITE
+	}
+}
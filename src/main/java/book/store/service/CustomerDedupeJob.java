@@ -0,0 +1,62 @@
+package book.store.service;
+
+import java.util.List;
+import org.springframework.jdbc.core.JdbcTemplate;
+import lombok.extern.slf4j.Slf4j;
+
+/* CustomerDedupeJob merges customers that share an email address, ignoring case and surrounding spaces.
+ *
+ * For every group of duplicates the customer with the lowest ID is kept. The store memberships of the other
+ * customers are copied to it (INSERT IGNORE skips stores it already belongs to), then their memberships and the
+ * duplicate customer rows are deleted. Groups are handled one at a time so each statement only touches a few rows
+ * instead of locking the whole customer table. Finally every email is stored in its normalized form, which is
+ * the form BookStoreService looks customers up by.
+ *
+ * It runs from the V2 Flyway migration, before the unique index on customer_email is created.
+ */
+
+@Slf4j
+public class CustomerDedupeJob {
+
+private final JdbcTemplate jdbcTemplate;
+
+public CustomerDedupeJob(JdbcTemplate jdbcTemplate) {
+	this.jdbcTemplate = jdbcTemplate;
+}
+
+/* Merges all duplicate groups and returns the number of customer rows that were removed. */
+
+public int run() {
+	List<String> duplicateEmails = jdbcTemplate.queryForList(
+		"SELECT LOWER(TRIM(customer_email)) FROM customer WHERE customer_email IS NOT NULL "
+		+ "GROUP BY LOWER(TRIM(customer_email)) HAVING COUNT(*) > 1", String.class);
+
+	int removed = 0;
+
+	for(String email : duplicateEmails) {
+		removed += mergeGroup(email);
+	}
+
+	jdbcTemplate.update("UPDATE customer SET customer_email = LOWER(TRIM(customer_email)) "
+		+ "WHERE customer_email IS NOT NULL");
+
+	log.info("Merged {} duplicate email groups, removed {} duplicate customers", duplicateEmails.size(), removed);
+	return removed;
+}
+
+private int mergeGroup(String email) {
+	List<Long> customerIds = jdbcTemplate.queryForList(
+		"SELECT customer_id FROM customer WHERE LOWER(TRIM(customer_email)) = ? ORDER BY customer_id",
+		Long.class, email);
+
+	Long keepId = customerIds.get(0);
+
+	for(Long duplicateId : customerIds.subList(1, customerIds.size())) {
+		jdbcTemplate.update("INSERT IGNORE INTO book_store_customer (book_store_id, customer_id) "
+			+ "SELECT book_store_id, ? FROM book_store_customer WHERE customer_id = ?", keepId, duplicateId);
+		jdbcTemplate.update("DELETE FROM book_store_customer WHERE customer_id = ?", duplicateId);
+		jdbcTemplate.update("DELETE FROM customer WHERE customer_id = ?", duplicateId);
+	}
+	return customerIds.size() - 1;
+}
+}
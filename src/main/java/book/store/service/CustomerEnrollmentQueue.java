@@ -0,0 +1,294 @@
+package book.store.service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import book.store.config.GroupCommitProperties;
+import book.store.config.ShardContext;
+import book.store.controller.model.BookStoreCustomer;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+
+/* The CustomerEnrollmentQueue is the entry point for POST /publisher/{bookStoreId}/customer.
+ *
+ * With book-store.group-commit.enabled off, or for requests that cannot be batched (an update of an existing
+ * customer, a customer without an email, or a request with an Idempotency-Key), it simply calls
+ * BookStoreService.saveCustomer and returns the result as an already completed future.
+ *
+ * With group commit on, new customers are put on a bounded queue and the request thread is released. Writer
+ * threads take up to maxBatchSize enrollments (waiting at most maxDelay for the batch to fill), group them by shard
+ * and book store and write each shard's part with BookStoreService.saveCustomersInBatch in one transaction. Every
+ * caller's future is only
+ * completed after that transaction has committed, so a 201 still means the customer is durably saved. If the batch
+ * fails, each of its enrollments is retried on its own with saveCustomer so one bad request cannot fail the
+ * others. No future is ever left pending: if a writer fails outside of that, the whole batch fails with the error.
+ *
+ * The running flag and the offer onto the queue are guarded by one lock, so an enrollment is either queued before
+ * stop() flips the flag or goes the direct path after it. stop() lets the writers finish what is queued, and fails
+ * anything still left once they have stopped with a ServiceUnavailableException.
+ *
+ * Batch sizes, flush times, the time callers wait and the queue depth are published as Micrometer meters.
+ */
+
+@Service
+@Slf4j
+public class CustomerEnrollmentQueue {
+
+@Autowired
+private BookStoreService bookStoreService;
+
+@Autowired
+private GroupCommitProperties properties;
+
+@Autowired
+private ShardRouter shardRouter;
+
+@Autowired
+private MeterRegistry meterRegistry;
+
+private BlockingQueue<Enrollment> queue;
+private final List<Thread> writers = new ArrayList<>();
+private final Object lifecycle = new Object();
+private boolean running;
+
+private DistributionSummary batchSizes;
+private Timer flushTimer;
+private Timer waitTimer;
+private Counter rejected;
+private Counter fallbacks;
+
+@PostConstruct
+void start() {
+	if(!properties.isEnabled()) {
+		return;
+	}
+
+	queue = new ArrayBlockingQueue<>(properties.getQueueCapacity());
+	batchSizes = DistributionSummary.builder("bookstore.group.commit.batch.size")
+		.description("Enrollments written per transaction").register(meterRegistry);
+	flushTimer = Timer.builder("bookstore.group.commit.flush")
+		.description("Time to write and commit one batch").register(meterRegistry);
+	waitTimer = Timer.builder("bookstore.group.commit.wait")
+		.description("Time from queuing an enrollment until its batch committed").register(meterRegistry);
+	rejected = Counter.builder("bookstore.group.commit.rejected")
+		.description("Enrollments rejected because the queue was full").register(meterRegistry);
+	fallbacks = Counter.builder("bookstore.group.commit.fallbacks")
+		.description("Batches that failed and were retried one enrollment at a time").register(meterRegistry);
+	Gauge.builder("bookstore.group.commit.queue.depth", queue, BlockingQueue::size)
+		.description("Enrollments waiting to be written").register(meterRegistry);
+
+	synchronized(lifecycle) {
+		running = true;
+	}
+
+	for(int index = 0; index < properties.getWriterThreads(); index++) {
+		Thread writer = new Thread(this::writeBatches, "enrollment-writer-" + index);
+		writer.setDaemon(true);
+		writer.start();
+		writers.add(writer);
+	}
+}
+
+@PreDestroy
+void stop() throws InterruptedException {
+	synchronized(lifecycle) {
+		if(!running) {
+			return;
+		}
+		running = false;
+	}
+
+	for(Thread writer : writers) {
+		writer.join(TimeUnit.SECONDS.toMillis(10));
+	}
+
+	List<Enrollment> left = new ArrayList<>();
+	queue.drainTo(left);
+	left.forEach(enrollment -> enrollment.result.completeExceptionally(
+		new ServiceUnavailableException("The enrollment queue is shutting down",
+			Math.max(1, properties.getRetryAfter().toSeconds()))));
+}
+
+/* Adds a customer to a book store, either straight away or through the group-commit queue. The returned future
+ * completes with the saved customer, or exceptionally with the same exceptions saveCustomer would throw.
+ */
+
+public CompletableFuture<BookStoreCustomer> enroll(Long bookStoreId, BookStoreCustomer bookStoreCustomer,
+	String idempotencyKey) {
+	if(Objects.isNull(idempotencyKey) && Objects.isNull(bookStoreCustomer.getCustomerId())
+		&& Objects.nonNull(BookStoreService.normalizeEmail(bookStoreCustomer.getCustomerEmail()))) {
+		Enrollment enrollment = new Enrollment(bookStoreId, bookStoreCustomer);
+
+		synchronized(lifecycle) {
+			if(running) {
+				if(!queue.offer(enrollment)) {
+					rejected.increment();
+					throw new ServiceUnavailableException("The enrollment queue is full",
+						Math.max(1, properties.getRetryAfter().toSeconds()));
+				}
+				return enrollment.result;
+			}
+		}
+	}
+
+	return CompletableFuture.completedFuture(
+		bookStoreService.saveCustomer(bookStoreId, bookStoreCustomer, idempotencyKey));
+}
+
+private boolean isRunning() {
+	synchronized(lifecycle) {
+		return running;
+	}
+}
+
+private void writeBatches() {
+	while(isRunning() || !queue.isEmpty()) {
+		List<Enrollment> batch = new ArrayList<>();
+
+		try {
+			nextBatch(batch);
+
+			if(!batch.isEmpty()) {
+				write(batch);
+			}
+		}
+		catch(InterruptedException e) {
+			batch.forEach(enrollment -> enrollment.result.completeExceptionally(e));
+			Thread.currentThread().interrupt();
+			return;
+		}
+		catch(RuntimeException e) {
+			log.error("Enrollment writer failed on a batch of {}", batch.size(), e);
+			batch.forEach(enrollment -> enrollment.result.completeExceptionally(e));
+		}
+	}
+}
+
+/* Waits for the first enrollment, then keeps collecting into the batch until it is full or the first enrollment
+ * has waited maxDelay. The caller owns the list, so it can fail what was collected if the wait is interrupted.
+ */
+
+private void nextBatch(List<Enrollment> batch) throws InterruptedException {
+	Enrollment first = queue.poll(100, TimeUnit.MILLISECONDS);
+
+	if(first == null) {
+		return;
+	}
+
+	batch.add(first);
+	long deadline = first.queuedAtNanos + properties.getMaxDelay().toNanos();
+
+	while(batch.size() < properties.getMaxBatchSize()) {
+		long remaining = deadline - System.nanoTime();
+
+		if(remaining <= 0) {
+			queue.drainTo(batch, properties.getMaxBatchSize() - batch.size());
+			break;
+		}
+
+		Enrollment next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+
+		if(next == null) {
+			break;
+		}
+		batch.add(next);
+	}
+}
+
+/* A transaction only ever covers one shard, so the batch is split by the shard of each enrollment's book store. */
+
+private void write(List<Enrollment> batch) {
+	Map<Integer, List<Enrollment>> byShard = new LinkedHashMap<>();
+
+	for(Enrollment enrollment : batch) {
+		try {
+			byShard.computeIfAbsent(shardRouter.shardForBookStore(enrollment.bookStoreId), shard -> new ArrayList<>())
+				.add(enrollment);
+		}
+		catch(RuntimeException e) {
+			enrollment.result.completeExceptionally(e);
+		}
+	}
+
+	byShard.forEach((shard, enrollments) -> ShardContext.callOn(shard, () -> {
+		writeShard(enrollments);
+		return null;
+	}));
+}
+
+private void writeShard(List<Enrollment> batch) {
+	Map<Long, List<Enrollment>> byBookStore = new LinkedHashMap<>();
+
+	for(Enrollment enrollment : batch) {
+		byBookStore.computeIfAbsent(enrollment.bookStoreId, id -> new ArrayList<>()).add(enrollment);
+	}
+
+	Map<Long, List<BookStoreCustomer>> request = new LinkedHashMap<>();
+	byBookStore.forEach((bookStoreId, enrollments) -> request.put(bookStoreId,
+		enrollments.stream().map(enrollment -> enrollment.customer).toList()));
+
+	Map<Long, List<BookStoreCustomer>> saved;
+	long start = System.nanoTime();
+
+	try {
+		saved = bookStoreService.saveCustomersInBatch(request);
+	}
+	catch(RuntimeException e) {
+		log.warn("Group commit of {} enrollments failed, saving them one at a time: {}", batch.size(), e.toString());
+		fallbacks.increment();
+		batch.forEach(this::writeAlone);
+		return;
+	}
+
+	flushTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+	batchSizes.record(batch.size());
+
+	byBookStore.forEach((bookStoreId, enrollments) -> {
+		List<BookStoreCustomer> customers = saved.get(bookStoreId);
+
+		for(int index = 0; index < enrollments.size(); index++) {
+			complete(enrollments.get(index), customers.get(index));
+		}
+	});
+}
+
+private void writeAlone(Enrollment enrollment) {
+	try {
+		complete(enrollment, bookStoreService.saveCustomer(enrollment.bookStoreId, enrollment.customer, null));
+	}
+	catch(RuntimeException e) {
+		enrollment.result.completeExceptionally(e);
+	}
+}
+
+private void complete(Enrollment enrollment, BookStoreCustomer customer) {
+	waitTimer.record(System.nanoTime() - enrollment.queuedAtNanos, TimeUnit.NANOSECONDS);
+	enrollment.result.complete(customer);
+}
+
+private static class Enrollment {
+	private final Long bookStoreId;
+	private final BookStoreCustomer customer;
+	private final long queuedAtNanos = System.nanoTime();
+	private final CompletableFuture<BookStoreCustomer> result = new CompletableFuture<>();
+
+	private Enrollment(Long bookStoreId, BookStoreCustomer customer) {
+		this.bookStoreId = bookStoreId;
+		this.customer = customer;
+	}
+}
+}
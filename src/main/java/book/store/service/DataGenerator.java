@@ -0,0 +1,467 @@
+package book.store.service;
+
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.jdbc.core.ArgumentPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
+import org.springframework.stereotype.Component;
+import book.store.config.DataGeneratorProperties;
+import lombok.extern.slf4j.Slf4j;
+
+/* The DataGenerator fills the database with synthetic publishers, book stores, customers and memberships for load
+ * tests when book-store.data-generator.enabled is on. It runs once after the application has started and writes
+ * straight to the tables with multi-row INSERT statements, bypassing JPA.
+ *
+ * Publishers and customers are spread evenly over the shards. On every shard:
+ *
+ * 1. The number of book stores of every publisher is drawn, and blocks of publisher and book store IDs are reserved
+ *    from that shard's id_sequence (SELECT ... FOR UPDATE, then moving next_val past the block), so the new rows
+ *    are routed to the shard by their IDs and never collide with IDs the application hands out.
+ * 2. Publishers and their book stores are written in chunks, in parallel.
+ * 3. Customers are written in chunks, in parallel, each chunk together with its memberships. The database assigns
+ *    their IDs like it does for customers saved by the application, and the memberships use the IDs the INSERT
+ *    returns. The book stores a customer joins are drawn from a Zipf distribution over a shuffled popularity
+ *    ranking. A customer's email holds the first publisher ID of its shard's block, which no other run gets, and
+ *    the customer's number within the run.
+ *
+ * Every chunk draws its data from its own random generator, seeded from the seed, the shard and the chunk number,
+ * so the data does not depend on the number of threads or the order in which the chunks run. Only the order of the
+ * customer IDs does.
+ *
+ * If a chunk fails the generator stops; the chunks that were already committed stay in the database.
+ *
+ * The rows do not go through CatalogChanges, so the in-memory views (hot catalog, membership index, similarity)
+ * pick them up at their next scheduled rebuild.
+ */
+
+@Component
+@Slf4j
+public class DataGenerator implements ApplicationRunner {
+
+private static final int MAX_PARAMETERS = 65_535;
+private static final long PUBLISHER_STREAM = 1L << 32;
+private static final long CUSTOMER_STREAM = 2L << 32;
+
+private static final Map<String, State> STATES = new LinkedHashMap<>();
+
+static {
+	for(State state : List.of(new State("CA", "Sacramento", 90001, 96162), new State("TX", "Austin", 73301, 79999),
+		new State("FL", "Tallahassee", 32003, 34997), new State("NY", "Albany", 10001, 14925),
+		new State("PA", "Harrisburg", 15001, 19640), new State("IL", "Springfield", 60001, 62999),
+		new State("OH", "Columbus", 43001, 45999), new State("GA", "Atlanta", 30002, 31999),
+		new State("NC", "Raleigh", 27006, 28909), new State("MI", "Lansing", 48001, 49971),
+		new State("WA", "Olympia", 98001, 99403), new State("AZ", "Phoenix", 85001, 86556),
+		new State("MA", "Boston", 1001, 2791), new State("CO", "Denver", 80001, 81658),
+		new State("ID", "Boise", 83201, 83877))) {
+		STATES.put(state.code(), state);
+	}
+}
+
+private static final String[] FIRST_NAMES = {"James", "Mary", "John", "Patricia", "Robert", "Jennifer", "Michael",
+	"Linda", "David", "Elizabeth", "William", "Susan", "Richard", "Jessica", "Joseph", "Sarah", "Thomas", "Karen",
+	"Daniel", "Nancy"};
+private static final String[] LAST_NAMES = {"Smith", "Johnson", "Williams", "Brown", "Jones", "Garcia", "Miller",
+	"Davis", "Rodriguez", "Martinez", "Hernandez", "Lopez", "Gonzalez", "Wilson", "Anderson", "Thomas", "Taylor",
+	"Moore", "Jackson", "Martin"};
+private static final String[] STREETS = {"Main", "Oak", "Pine", "Maple", "Cedar", "Elm", "Washington", "Lake",
+	"Hill", "Park"};
+private static final String[] STORE_NAMES = {"Books", "Book Nook", "Readers", "Pages", "Booksellers",
+	"Book Exchange", "Paperbacks", "Chapters"};
+
+@Autowired
+private DataGeneratorProperties properties;
+
+@Autowired
+private ShardRouter shardRouter;
+
+@Autowired
+private JdbcTemplate jdbcTemplate;
+
+@Autowired
+private PrimaryTransactions primaryTransactions;
+
+private final AtomicLong publishersWritten = new AtomicLong();
+private final AtomicLong bookStoresWritten = new AtomicLong();
+private final AtomicLong customersWritten = new AtomicLong();
+private final AtomicLong membershipsWritten = new AtomicLong();
+
+@Override
+public void run(ApplicationArguments args) throws InterruptedException {
+	if(!properties.isEnabled()) {
+		return;
+	}
+
+	validate();
+
+	int threads = properties.getThreads() > 0 ? properties.getThreads() : Runtime.getRuntime().availableProcessors();
+	AtomicInteger threadNumber = new AtomicInteger();
+	ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+		Thread thread = new Thread(runnable, "data-generator-" + threadNumber.incrementAndGet());
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	long start = System.nanoTime();
+	int shardCount = shardRouter.getShardCount();
+
+	try {
+		for(int shard = 0; shard < shardCount; shard++) {
+			generateShard(shard, share(properties.getPublishers(), shard, shardCount),
+				share(properties.getCustomers(), shard, shardCount), executor);
+		}
+	}
+	finally {
+		executor.shutdownNow();
+	}
+
+	long millis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+	long rows = publishersWritten.get() + bookStoresWritten.get() + customersWritten.get() + membershipsWritten.get();
+	log.info("Generated {} publishers, {} book stores, {} customers and {} memberships on {} shards in {} ms "
+		+ "({} rows/s) with seed {}", publishersWritten, bookStoresWritten, customersWritten, membershipsWritten,
+		shardCount, millis, rows * 1000 / millis, properties.getSeed());
+}
+
+private void validate() {
+	if(properties.getMinStoresPerPublisher() < 0
+		|| properties.getMaxStoresPerPublisher() < properties.getMinStoresPerPublisher()) {
+		throw new IllegalArgumentException("book-store.data-generator needs 0 <= min-stores-per-publisher "
+			+ "<= max-stores-per-publisher");
+	}
+
+	if(properties.getStates().isEmpty()) {
+		throw new IllegalArgumentException("book-store.data-generator.states must not be empty");
+	}
+
+	for(String state : properties.getStates()) {
+		if(!STATES.containsKey(state)) {
+			throw new IllegalArgumentException("Unknown state " + state + " in book-store.data-generator.states; "
+				+ "known states are " + STATES.keySet());
+		}
+	}
+}
+
+private static int share(int total, int shard, int shardCount) {
+	return total / shardCount + (shard < total % shardCount ? 1 : 0);
+}
+
+private void generateShard(int shard, int publisherCount, int customerCount, ExecutorService executor)
+	throws InterruptedException {
+	SplittableRandom random = random(shard, 0);
+	int[] storesPerPublisher = new int[publisherCount];
+	long[] firstStoreOffset = new long[publisherCount + 1];
+	int storeRange = properties.getMaxStoresPerPublisher() - properties.getMinStoresPerPublisher() + 1;
+
+	for(int publisher = 0; publisher < publisherCount; publisher++) {
+		storesPerPublisher[publisher] = properties.getMinStoresPerPublisher() + random.nextInt(storeRange);
+		firstStoreOffset[publisher + 1] = firstStoreOffset[publisher] + storesPerPublisher[publisher];
+	}
+
+	long storeCount = firstStoreOffset[publisherCount];
+
+	if(storeCount > Integer.MAX_VALUE) {
+		throw new IllegalArgumentException("Too many book stores for one shard: " + storeCount);
+	}
+
+	/* At least one publisher ID is taken, as the customers' emails need it even when there are no publishers. */
+
+	long firstPublisherId = primaryTransactions.callOn(shard,
+		() -> reserve(ShardRouter.PUBLISHER, Math.max(1, publisherCount)));
+	long firstBookStoreId = primaryTransactions.callOn(shard, () -> reserve(ShardRouter.BOOK_STORE, storeCount));
+
+	log.info("Generating {} publishers from ID {}, {} book stores from ID {} and {} customers on shard {}",
+		publisherCount, firstPublisherId, storeCount, firstBookStoreId, customerCount, shard);
+
+	int publishersPerChunk = Math.max(1, properties.getChunkSize() / Math.max(1, properties.getMaxStoresPerPublisher()));
+	List<Future<?>> publisherChunks = new ArrayList<>();
+
+	for(int from = 0, chunk = 0; from < publisherCount; from += publishersPerChunk, chunk++) {
+		int first = from;
+		int last = Math.min(publisherCount, from + publishersPerChunk);
+		SplittableRandom chunkRandom = random(shard, PUBLISHER_STREAM + chunk);
+
+		publisherChunks.add(executor.submit(() -> primaryTransactions.callOn(shard, () -> writePublishers(chunkRandom,
+			first, last, firstPublisherId, firstBookStoreId, storesPerPublisher, firstStoreOffset))));
+	}
+	await(publisherChunks);
+
+	Popularity popularity = new Popularity((int)storeCount, properties.getStoreZipfExponent(), random);
+	List<Future<?>> customerChunks = new ArrayList<>();
+
+	for(int from = 0, chunk = 0; from < customerCount; from += properties.getChunkSize(), chunk++) {
+		int first = from;
+		int last = Math.min(customerCount, from + properties.getChunkSize());
+		SplittableRandom chunkRandom = random(shard, CUSTOMER_STREAM + chunk);
+
+		customerChunks.add(executor.submit(() -> primaryTransactions.callOn(shard, () -> writeCustomers(chunkRandom,
+			first, last, "generated." + firstPublisherId + ".", firstBookStoreId, popularity))));
+	}
+	await(customerChunks);
+}
+
+/* Every chunk gets a generator of its own. The shard and stream are spread over the seed with two large odd
+ * constants, so neighbouring chunks do not get overlapping sequences.
+ */
+
+private SplittableRandom random(int shard, long stream) {
+	return new SplittableRandom(properties.getSeed() ^ (shard + 1) * 0x9E3779B97F4A7C15L
+		^ (stream + 1) * 0xC2B2AE3D27D4EB4FL);
+}
+
+/* Takes count IDs from the id_sequence row, the same row the JPA table generator reads and updates. */
+
+private long reserve(String sequenceName, long count) {
+	Long next = jdbcTemplate.queryForObject("SELECT next_val FROM id_sequence WHERE sequence_name = ? FOR UPDATE",
+		Long.class, sequenceName);
+	jdbcTemplate.update("UPDATE id_sequence SET next_val = ? WHERE sequence_name = ?", next + count, sequenceName);
+	return next;
+}
+
+private Void writePublishers(SplittableRandom random, int first, int last, long firstPublisherId,
+	long firstBookStoreId, int[] storesPerPublisher, long[] firstStoreOffset) {
+	List<Object[]> publishers = new ArrayList<>(last - first);
+	List<Object[]> bookStores = new ArrayList<>();
+	Popularity states = new Popularity(properties.getStates().size(), properties.getStateZipfExponent(), null);
+
+	for(int publisher = first; publisher < last; publisher++) {
+		long publisherId = firstPublisherId + publisher;
+		String lastName = pick(random, LAST_NAMES);
+
+		publishers.add(new Object[] {publisherId, lastName + " Publishing " + publisherId, phone(random),
+			"contact@publisher" + publisherId + ".example"});
+
+		for(int store = 0; store < storesPerPublisher[publisher]; store++) {
+			long bookStoreId = firstBookStoreId + firstStoreOffset[publisher] + store;
+			State state = STATES.get(properties.getStates().get(states.rank(random)));
+
+			bookStores.add(new Object[] {bookStoreId, lastName + " " + pick(random, STORE_NAMES) + " " + bookStoreId,
+				(1 + random.nextInt(9999)) + " " + pick(random, STREETS) + " St", state.city(), state.code(),
+				String.format("%05d", state.zipFrom() + random.nextInt(state.zipTo() - state.zipFrom() + 1)),
+				phone(random), publisherId});
+		}
+	}
+
+	publishersWritten.addAndGet(insert("publisher",
+		"publisher_id, publisher_name, publisher_phone, publisher_email", 4, publishers));
+	bookStoresWritten.addAndGet(insert("book_store", "book_store_id, book_store_name, book_store_address, "
+		+ "book_store_city, book_store_state, book_store_zip, book_store_phone, publisher_id", 8, bookStores));
+	return null;
+}
+
+/* Customers number first..last-1 of the shard. The memberships are drawn first and refer to a customer by its row,
+ * until the INSERT has returned the customer IDs.
+ */
+
+private Void writeCustomers(SplittableRandom random, int first, int last, String emailPrefix,
+	long firstBookStoreId, Popularity popularity) {
+	List<Object[]> customers = new ArrayList<>(last - first);
+	List<long[]> joins = new ArrayList<>();
+	int maxStores = Math.min(properties.getMaxStoresPerCustomer(), popularity.size());
+	int[] joined = new int[Math.max(0, maxStores)];
+
+	for(int customer = first; customer < last; customer++) {
+		customers.add(new Object[] {pick(random, FIRST_NAMES), pick(random, LAST_NAMES),
+			emailPrefix + customer + "@example.test"});
+
+		int storeCount = Math.min(maxStores, storesOfCustomer(random));
+		int joinedCount = 0;
+
+		for(int attempt = 0; joinedCount < storeCount && attempt < storeCount * 4; attempt++) {
+			int store = popularity.sample(random);
+
+			if(!contains(joined, joinedCount, store)) {
+				joined[joinedCount++] = store;
+				joins.add(new long[] {firstBookStoreId + store, customer - first});
+			}
+		}
+	}
+
+	long[] customerIds = new long[customers.size()];
+	customersWritten.addAndGet(insert("customer", "customer_first_name, customer_last_name, customer_email", 3,
+		customers, "customer_id", customerIds));
+
+	List<Object[]> memberships = new ArrayList<>(joins.size());
+
+	for(long[] join : joins) {
+		memberships.add(new Object[] {join[0], customerIds[(int)join[1]]});
+	}
+
+	membershipsWritten.addAndGet(insert("book_store_customer", "book_store_id, customer_id", 2, memberships));
+	return null;
+}
+
+/* At least one store, plus a geometrically distributed number of extra stores so the mean is
+ * meanStoresPerCustomer.
+ */
+
+private int storesOfCustomer(SplittableRandom random) {
+	double extra = properties.getMeanStoresPerCustomer() - 1;
+
+	if(extra <= 0) {
+		return 1;
+	}
+
+	double p = 1 / (extra + 1);
+	return 1 + (int)Math.floor(Math.log(1 - random.nextDouble()) / Math.log(1 - p));
+}
+
+private static boolean contains(int[] values, int count, int value) {
+	for(int index = 0; index < count; index++) {
+		if(values[index] == value) {
+			return true;
+		}
+	}
+	return false;
+}
+
+private static String pick(SplittableRandom random, String[] values) {
+	return values[random.nextInt(values.length)];
+}
+
+private static String phone(SplittableRandom random) {
+	return String.format("%03d-555-%04d", 200 + random.nextInt(800), random.nextInt(10_000));
+}
+
+private int insert(String table, String columns, int columnCount, List<Object[]> rows) {
+	return insert(table, columns, columnCount, rows, null, null);
+}
+
+/* Writes the rows with as few statements as possible: rowsPerStatement rows per INSERT, and never more bind
+ * parameters in one statement than the MySQL protocol allows. When generatedColumn is given, the IDs the database
+ * assigns to it are put into generatedIds in the order of the rows.
+ */
+
+private int insert(String table, String columns, int columnCount, List<Object[]> rows, String generatedColumn,
+	long[] generatedIds) {
+	int rowsPerStatement = Math.max(1, Math.min(properties.getRowsPerStatement(), MAX_PARAMETERS / columnCount));
+	String fullSql = insertSql(table, columns, columnCount, Math.min(rowsPerStatement, rows.size()));
+
+	for(int start = 0; start < rows.size(); start += rowsPerStatement) {
+		int end = Math.min(rows.size(), start + rowsPerStatement);
+		Object[] arguments = new Object[(end - start) * columnCount];
+
+		for(int row = start; row < end; row++) {
+			System.arraycopy(rows.get(row), 0, arguments, (row - start) * columnCount, columnCount);
+		}
+
+		String sql = end - start == rowsPerStatement || start == 0 ? fullSql
+			: insertSql(table, columns, columnCount, end - start);
+
+		if(generatedColumn == null) {
+			jdbcTemplate.update(sql, arguments);
+			continue;
+		}
+
+		KeyHolder keyHolder = new GeneratedKeyHolder();
+		jdbcTemplate.update(connection -> {
+			PreparedStatement statement = connection.prepareStatement(sql, new String[] {generatedColumn});
+			new ArgumentPreparedStatementSetter(arguments).setValues(statement);
+			return statement;
+		}, keyHolder);
+
+		List<Map<String, Object>> keys = keyHolder.getKeyList();
+
+		if(keys.size() != end - start) {
+			throw new IllegalStateException("Expected " + (end - start) + " generated " + generatedColumn
+				+ " values from one INSERT into " + table + " but got " + keys.size());
+		}
+
+		for(int row = start; row < end; row++) {
+			generatedIds[row] = ((Number)keys.get(row - start).values().iterator().next()).longValue();
+		}
+	}
+	return rows.size();
+}
+
+private static String insertSql(String table, String columns, int columnCount, int rowCount) {
+	String row = "(" + String.join(", ", Collections.nCopies(columnCount, "?")) + ")";
+	StringBuilder sql = new StringBuilder("INSERT INTO ").append(table).append(" (").append(columns)
+		.append(") VALUES ");
+
+	for(int index = 0; index < rowCount; index++) {
+		sql.append(index == 0 ? "" : ", ").append(row);
+	}
+	return sql.toString();
+}
+
+private static void await(List<Future<?>> futures) throws InterruptedException {
+	try {
+		for(Future<?> future : futures) {
+			future.get();
+		}
+	}
+	catch(ExecutionException e) {
+		futures.forEach(future -> future.cancel(true));
+		throw new IllegalStateException("Generating data failed", e.getCause());
+	}
+}
+
+/* A Zipf distribution over ranks 0..size-1 (rank r is drawn with a probability proportional to
+ * 1 / (r + 1)^exponent), mapped onto the items through a shuffled order when a random generator is given, so the
+ * most popular book stores are not simply the ones with the lowest IDs. Sampling is a binary search in the
+ * cumulative distribution.
+ */
+
+private static final class Popularity {
+	private final double[] cumulative;
+	private final int[] items;
+
+	private Popularity(int size, double exponent, SplittableRandom shuffle) {
+		cumulative = new double[size];
+		items = new int[size];
+		double total = 0;
+
+		for(int rank = 0; rank < size; rank++) {
+			total += 1 / Math.pow(rank + 1, exponent);
+			cumulative[rank] = total;
+			items[rank] = rank;
+		}
+
+		for(int rank = 0; rank < size; rank++) {
+			cumulative[rank] /= total;
+		}
+
+		if(shuffle != null) {
+			for(int index = size - 1; index > 0; index--) {
+				int other = shuffle.nextInt(index + 1);
+				int item = items[index];
+				items[index] = items[other];
+				items[other] = item;
+			}
+		}
+	}
+
+	private int size() {
+		return items.length;
+	}
+
+	private int rank(SplittableRandom random) {
+		int index = Arrays.binarySearch(cumulative, random.nextDouble());
+		return Math.min(cumulative.length - 1, index < 0 ? -index - 1 : index);
+	}
+
+	private int sample(SplittableRandom random) {
+		return items[rank(random)];
+	}
+}
+
+private record State(String code, String city, int zipFrom, int zipTo) {
+}
+}
@@ -0,0 +1,456 @@
+package book.store.service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import book.store.config.ExportProperties;
+import book.store.controller.model.ExportStatus;
+import book.store.controller.model.ExportStatus.State;
+import book.store.dao.CustomerDao;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+
+/* The ExportService runs the CSV exports of all customers with their book store memberships in the background, so
+ * the request that asks for one returns straight away and no request thread waits for minutes.
+ *
+ * An export reads one shard after the other in a transaction on the shard's primary (PrimaryTransactions), so the
+ * file holds every customer saved before it started, streaming the rows with a bounded JDBC fetch size, and writes one line per customer: the shard, the customer's columns and the IDs of its book stores
+ * separated by semicolons. Customer IDs are only unique within a shard, which is why the shard is part of the line.
+ * The lines are collected in a direct buffer that is written to a FileChannel whenever it is full, so memory use
+ * does not depend on the number of customers.
+ *
+ * The file is written as {exportId}.csv.part and renamed to {exportId}.csv once it is complete; a file with the
+ * final name is always whole. A cancelled or failed export deletes its part file. A cancel is seen at the next row,
+ * which cancels the statement, so the database stops sending the rest of the shard.
+ *
+ * Jobs are kept in memory on the instance that runs them, together with their files in book-store.exports.directory.
+ * They are forgotten, and their files deleted, retention after they finished; files left behind by an earlier run
+ * of the application are deleted once they are older than the retention as well.
+ *
+ * Meters: bookstore.export.rows and the bookstore.export.run timer.
+ */
+
+@Service
+@Slf4j
+public class ExportService {
+
+private static final String HEADER =
+	"shard,customer_id,customer_email,customer_first_name,customer_last_name,book_store_ids\n";
+private static final String PART_SUFFIX = ".part";
+
+@Autowired
+private ExportProperties properties;
+
+@Autowired
+private CustomerDao customerDao;
+
+@Autowired
+private ShardRouter shardRouter;
+
+@Autowired
+private PrimaryTransactions primaryTransactions;
+
+@Autowired
+private MeterRegistry meterRegistry;
+
+private final Map<String, ExportJob> jobs = new ConcurrentHashMap<>();
+
+private Path directory;
+private ExecutorService executor;
+private Counter rowsExported;
+private Timer runTimer;
+
+@PostConstruct
+void start() throws IOException {
+	directory = Path.of(properties.getDirectory()).toAbsolutePath();
+	Files.createDirectories(directory);
+
+	AtomicInteger threadNumber = new AtomicInteger();
+	executor = Executors.newFixedThreadPool(Math.max(1, properties.getMaxConcurrentJobs()), runnable -> {
+		Thread thread = new Thread(runnable, "export-" + threadNumber.incrementAndGet());
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	rowsExported = Counter.builder("bookstore.export.rows").description("Customer lines written to export files")
+		.register(meterRegistry);
+	runTimer = Timer.builder("bookstore.export.run").description("Time to write one complete export file")
+		.register(meterRegistry);
+}
+
+/* Running exports see the cancel flag at their next row and clean up after themselves. */
+
+@PreDestroy
+void stop() {
+	jobs.values().forEach(job -> job.cancelRequested = true);
+	executor.shutdown();
+}
+
+/* Queues a new export and returns its status. It starts as soon as fewer than maxConcurrentJobs exports run. */
+
+public ExportStatus startExport() {
+	ExportJob job = new ExportJob(UUID.randomUUID().toString());
+	jobs.put(job.id, job);
+	executor.execute(() -> run(job));
+
+	log.info("Queued export {}", job.id);
+	return job.toStatus();
+}
+
+public ExportStatus retrieveExport(String exportId) {
+	return findJob(exportId).toStatus();
+}
+
+/* Cancels a queued or running export. An export that has already ended is forgotten and its file deleted. */
+
+public ExportStatus cancelExport(String exportId) {
+	ExportJob job = findJob(exportId);
+
+	synchronized(job) {
+		if(job.state == State.QUEUED) {
+			job.cancelRequested = true;
+			job.end(State.CANCELLED, "Cancelled before it started");
+		}
+		else if(job.state == State.RUNNING) {
+			job.cancelRequested = true;
+		}
+		else {
+			jobs.remove(exportId);
+			deleteQuietly(fileOf(exportId));
+		}
+		return job.toStatus();
+	}
+}
+
+/* Returns the file of a finished export. While the export still runs the caller is told when to look again, going
+ * by the rate it has written rows at so far.
+ */
+
+public Path retrieveExportFile(String exportId) {
+	ExportJob job = findJob(exportId);
+	ExportStatus status = job.toStatus();
+
+	switch(status.getState()) {
+	case FINISHED:
+		return fileOf(exportId);
+
+	case QUEUED:
+	case RUNNING:
+		long retryAfter = 5;
+
+		if(status.getTotalRows() != null && status.getRowsPerSecond() != null && status.getRowsPerSecond() > 0) {
+			retryAfter = Math.max(1, (long)((status.getTotalRows() - status.getRowsWritten()) / status.getRowsPerSecond()));
+		}
+		throw new ServiceUnavailableException("Export with ID=" + exportId + " is not finished yet", retryAfter);
+
+	default:
+		throw new NoSuchElementException("Export with ID=" + exportId + " has no file: " + status.getState());
+	}
+}
+
+private ExportJob findJob(String exportId) {
+	ExportJob job = jobs.get(exportId);
+
+	if(job == null) {
+		throw new NoSuchElementException("Export with ID=" + exportId + " was not found");
+	}
+	return job;
+}
+
+private Path fileOf(String exportId) {
+	return directory.resolve(exportId + ".csv");
+}
+
+private void run(ExportJob job) {
+	synchronized(job) {
+		if(job.cancelRequested) {
+			return;
+		}
+		job.state = State.RUNNING;
+		job.startedAt = Instant.now();
+		job.startNanos = System.nanoTime();
+	}
+
+	Path part = directory.resolve(job.id + ".csv" + PART_SUFFIX);
+
+	try {
+		try(FileChannel channel = FileChannel.open(part, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+			CsvWriter writer = new CsvWriter(channel, (int)properties.getBufferSize().toBytes(), job);
+			writer.write(HEADER);
+
+			job.totalRows = shardRouter.onEveryShard(shard -> primaryTransactions.call(customerDao::count)).stream()
+				.mapToLong(Long::longValue).sum();
+
+			for(int shard = 0; shard < shardRouter.getShardCount(); shard++) {
+				int current = shard;
+
+				primaryTransactions.callOn(current, () -> {
+					customerDao.streamWithBookStores(properties.getFetchSize(), rs -> writer.row(current, rs));
+					return null;
+				});
+			}
+
+			writer.endCustomer();
+			writer.drain();
+			channel.force(false);
+		}
+
+		Files.move(part, fileOf(job.id), StandardCopyOption.ATOMIC_MOVE);
+		runTimer.record(System.nanoTime() - job.startNanos, TimeUnit.NANOSECONDS);
+		job.end(State.FINISHED, null);
+		log.info("Export {} finished: {} customers, {} bytes", job.id, job.rowsWritten, job.bytesWritten);
+	}
+	catch(CancellationException e) {
+		deleteQuietly(part);
+		job.end(State.CANCELLED, "Cancelled after " + job.rowsWritten + " customers");
+		log.info("Export {} cancelled after {} customers", job.id, job.rowsWritten);
+	}
+	catch(IOException | RuntimeException e) {
+		deleteQuietly(part);
+		job.end(State.FAILED, e.toString());
+		log.warn("Export {} failed", job.id, e);
+	}
+}
+
+/* Forgets the exports that ended more than retention ago and deletes export files nobody knows about any more. */
+
+@Scheduled(fixedDelay = 60 * 60 * 1000, initialDelay = 60 * 1000)
+public void removeExpiredExports() {
+	Instant cutoff = Instant.now().minus(properties.getRetention());
+
+	jobs.values().removeIf(job -> {
+		if(job.finishedAt == null || job.finishedAt.isAfter(cutoff)) {
+			return false;
+		}
+
+		deleteQuietly(fileOf(job.id));
+		return true;
+	});
+
+	try(Stream<Path> files = Files.list(directory)) {
+		files.filter(file -> !jobs.containsKey(file.getFileName().toString().split("\\.")[0]))
+			.filter(file -> lastModified(file).isBefore(cutoff)).forEach(ExportService::deleteQuietly);
+	}
+	catch(IOException e) {
+		log.warn("Could not list export directory {}: {}", directory, e.toString());
+	}
+}
+
+private static Instant lastModified(Path file) {
+	try {
+		return Files.getLastModifiedTime(file).toInstant();
+	}
+	catch(IOException e) {
+		return Instant.MAX;
+	}
+}
+
+private static void deleteQuietly(Path file) {
+	try {
+		Files.deleteIfExists(file);
+	}
+	catch(IOException e) {
+		log.warn("Could not delete export file {}: {}", file, e.toString());
+	}
+}
+
+/* The state of one export. Only the thread running the export writes the counters; the volatile fields let
+ * status requests read them without locking. State changes are made while holding the job's monitor.
+ */
+
+private static final class ExportJob {
+	private final String id;
+	private final Instant createdAt = Instant.now();
+	private volatile State state = State.QUEUED;
+	private volatile Instant startedAt;
+	private volatile Instant finishedAt;
+	private volatile long startNanos;
+	private volatile long rowsWritten;
+	private volatile long bytesWritten;
+	private volatile Long totalRows;
+	private volatile String message;
+	private volatile boolean cancelRequested;
+
+	private ExportJob(String id) {
+		this.id = id;
+	}
+
+	private synchronized void end(State endState, String endMessage) {
+		state = endState;
+		message = endMessage;
+		finishedAt = Instant.now();
+	}
+
+	private synchronized ExportStatus toStatus() {
+		ExportStatus status = new ExportStatus();
+		status.setExportId(id);
+		status.setState(state);
+		status.setCreatedAt(createdAt);
+		status.setStartedAt(startedAt);
+		status.setFinishedAt(finishedAt);
+		status.setRowsWritten(rowsWritten);
+		status.setTotalRows(totalRows);
+		status.setBytesWritten(bytesWritten);
+		status.setMessage(message);
+
+		if(totalRows != null) {
+			status.setPercentComplete(state == State.FINISHED || totalRows == 0 ? 100.0
+				: Math.min(100.0, rowsWritten * 100.0 / totalRows));
+		}
+
+		if(startedAt != null) {
+			Instant end = finishedAt != null ? finishedAt : Instant.now();
+			double seconds = Duration.between(startedAt, end).toNanos() / 1e9;
+			status.setRowsPerSecond(seconds > 0 ? rowsWritten / seconds : null);
+		}
+
+		if(state == State.FINISHED) {
+			status.setDownloadUrl("/exports/" + id + "/file");
+		}
+		return status;
+	}
+}
+
+/* Turns the membership rows into CSV lines, one per customer, and writes them through a direct buffer. Rows of
+ * the same customer arrive one after the other, so only the current customer is held.
+ */
+
+private final class CsvWriter {
+	private final FileChannel channel;
+	private final ByteBuffer buffer;
+	private final ExportJob job;
+	private final StringBuilder line = new StringBuilder(256);
+	private final StringBuilder bookStoreIds = new StringBuilder(64);
+	private int shard = -1;
+	private long customerId;
+
+	private CsvWriter(FileChannel channel, int bufferSize, ExportJob job) {
+		this.channel = channel;
+		this.buffer = ByteBuffer.allocateDirect(Math.max(4096, bufferSize));
+		this.job = job;
+	}
+
+	/* A cancel cancels the statement before the exception unwinds: on MySQL, closing the streaming result would
+	 * otherwise read the rest of the shard first.
+	 */
+
+	private void row(int rowShard, ResultSet rs) throws SQLException {
+		if(job.cancelRequested) {
+			rs.getStatement().cancel();
+			throw new CancellationException();
+		}
+
+		long rowCustomerId = rs.getLong(1);
+
+		if(rowShard != shard || rowCustomerId != customerId) {
+			endCustomer();
+			shard = rowShard;
+			customerId = rowCustomerId;
+
+			line.append(shard).append(',').append(customerId).append(',');
+			appendField(rs.getString(2));
+			line.append(',');
+			appendField(rs.getString(3));
+			line.append(',');
+			appendField(rs.getString(4));
+			line.append(',');
+		}
+
+		long bookStoreId = rs.getLong(5);
+
+		if(!rs.wasNull()) {
+			bookStoreIds.append(bookStoreIds.length() == 0 ? "" : ";").append(bookStoreId);
+		}
+	}
+
+	private void endCustomer() {
+		if(line.length() == 0) {
+			return;
+		}
+
+		if(job.cancelRequested) {
+			throw new CancellationException();
+		}
+
+		line.append(bookStoreIds).append('\n');
+		write(line.toString());
+		line.setLength(0);
+		bookStoreIds.setLength(0);
+		job.rowsWritten++;
+		rowsExported.increment();
+	}
+
+	/* Quotes a field that holds a comma, quote or line break, doubling the quotes inside it. */
+
+	private void appendField(String value) {
+		if(value == null) {
+			return;
+		}
+
+		if(value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+			line.append(value);
+			return;
+		}
+		line.append('"').append(value.replace("\"", "\"\"")).append('"');
+	}
+
+	private void write(String text) {
+		byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+
+		try {
+			if(bytes.length > buffer.remaining()) {
+				drain();
+			}
+
+			if(bytes.length > buffer.capacity()) {
+				writeFully(ByteBuffer.wrap(bytes));
+			}
+			else {
+				buffer.put(bytes);
+			}
+		}
+		catch(IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private void drain() throws IOException {
+		buffer.flip();
+		writeFully(buffer);
+		buffer.clear();
+	}
+
+	private void writeFully(ByteBuffer source) throws IOException {
+		while(source.hasRemaining()) {
+			job.bytesWritten += channel.write(source);
+		}
+	}
+}
+}
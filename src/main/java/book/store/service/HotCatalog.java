@@ -0,0 +1,296 @@
+package book.store.service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.ToIntFunction;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import book.store.config.CatalogProperties;
+import book.store.config.CustomerListingProperties;
+import book.store.controller.model.BookStorePublisher;
+import book.store.service.CatalogSegment.PublisherRow;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+
+/* The HotCatalog serves publisher reads from an immutable in-memory CatalogSnapshot when book-store.catalog.enabled
+ * is on. BookStoreService asks it first and only goes to the database when the catalog is off, has not finished
+ * its first build, does not have the publisher yet, or the client is inside its read-your-writes window.
+ *
+ * A single background thread (see BackgroundRefresher) keeps the snapshot current:
+ *
+ * - Every rebuildInterval the whole catalog is read from every shard and a new snapshot is built. This is the
+ *   only way changes made through other instances reach this one.
+ * - Every refreshInterval the publishers touched by writes on this instance are reloaded and only the segments
+ *   they fall into are rebuilt. CatalogChanges reports those writes after their transaction commits, as a
+ *   changed publisher, book store or customer; a changed customer refreshes every publisher with a store the
+ *   customer belongs to, so a new name shows up everywhere.
+ *
+ * Either way the new snapshot replaces the old one with a single reference swap, so a read never sees half of an
+ * update. Both read through PrimaryTransactions. After a swap
+ * the PublisherResponseCache drops the bodies of the publishers that changed (all of them after a rebuild).
+ *
+ * Meters: bookstore.catalog.bytes (estimated footprint), bookstore.catalog.publishers,
+ * bookstore.catalog.staleness (seconds since the data of the last refresh was read, which bounds how late this
+ * instance's own writes show up), bookstore.catalog.age (seconds since the last full rebuild, which bounds how
+ * late other instances' writes show up), bookstore.catalog.pending.changes, bookstore.catalog.reads (tagged hit
+ * or miss) and the bookstore.catalog.rebuild and bookstore.catalog.refresh timers.
+ */
+
+@Service
+@Slf4j
+public class HotCatalog extends BackgroundRefresher implements CatalogChangeListener {
+
+@Autowired
+private CatalogProperties properties;
+
+@Autowired
+private CatalogLoader catalogLoader;
+
+@Autowired
+private ShardRouter shardRouter;
+
+@Autowired
+private PrimaryTransactions primaryTransactions;
+
+@Autowired
+private MeterRegistry meterRegistry;
+
+@Autowired
+private PublisherResponseCache publisherResponseCache;
+
+@Autowired
+private CustomerListingProperties customerListingProperties;
+
+private final AtomicReference<CatalogSnapshot> current = new AtomicReference<>();
+private final Set<Long> changedPublishers = ConcurrentHashMap.newKeySet();
+private final Set<Long> changedBookStores = ConcurrentHashMap.newKeySet();
+private final Map<Integer, Set<Long>> changedCustomers = new ConcurrentHashMap<>();
+
+private volatile Instant rebuiltAt;
+private volatile Instant refreshedAt;
+
+private Timer rebuildTimer;
+private Timer refreshTimer;
+private Counter hits;
+private Counter misses;
+
+@PostConstruct
+void start() {
+	if(!properties.isEnabled()) {
+		return;
+	}
+
+	rebuildTimer = Timer.builder("bookstore.catalog.rebuild")
+		.description("Time to read and build the whole catalog").register(meterRegistry);
+	refreshTimer = Timer.builder("bookstore.catalog.refresh")
+		.description("Time to reload changed publishers into the catalog").register(meterRegistry);
+	hits = Counter.builder("bookstore.catalog.reads").tag("result", "hit").register(meterRegistry);
+	misses = Counter.builder("bookstore.catalog.reads").tag("result", "miss").register(meterRegistry);
+	Gauge.builder("bookstore.catalog.bytes", current, ref -> ref.get() == null ? 0 : ref.get().getEstimatedBytes())
+		.description("Estimated memory used by the catalog snapshot").baseUnit("bytes").register(meterRegistry);
+	Gauge.builder("bookstore.catalog.publishers", current, ref -> ref.get() == null ? 0 : ref.get().getPublisherCount())
+		.register(meterRegistry);
+	Gauge.builder("bookstore.catalog.staleness", this, catalog -> secondsSince(catalog.refreshedAt))
+		.description("Seconds since the data of the last catalog refresh was read").baseUnit("seconds")
+		.register(meterRegistry);
+	Gauge.builder("bookstore.catalog.age", this, catalog -> secondsSince(catalog.rebuiltAt))
+		.description("Seconds since the last full catalog rebuild read its data").baseUnit("seconds")
+		.register(meterRegistry);
+	Gauge.builder("bookstore.catalog.pending.changes", this, HotCatalog::pendingChanges)
+		.description("Changed publishers, book stores and customers waiting for the next refresh")
+		.register(meterRegistry);
+
+	startRefreshing("hot-catalog", properties.getRebuildInterval(), properties.getRefreshInterval());
+}
+
+/* Returns the publisher with its book stores, and with embedCustomers also the customers of its small stores, or
+ * empty if the catalog cannot answer and the database has to be asked.
+ */
+
+public Optional<BookStorePublisher> findPublisher(Long publisherId, boolean embedCustomers) {
+	CatalogSnapshot snapshot = current.get();
+
+	if(snapshot == null) {
+		return Optional.empty();
+	}
+
+	Optional<BookStorePublisher> publisher = snapshot.findPublisher(publisherId,
+		embedCustomers ? customerListingProperties.getEmbedLimit() : 0);
+	(publisher.isPresent() ? hits : misses).increment();
+	return publisher;
+}
+
+/* Returns a keyset page of publishers without their book stores, or empty if there is no snapshot yet. */
+
+public Optional<List<BookStorePublisher>> listPublishers(Long afterPublisherId, Integer limit) {
+	CatalogSnapshot snapshot = current.get();
+
+	if(snapshot == null) {
+		return Optional.empty();
+	}
+
+	hits.increment();
+	return Optional.of(snapshot.listPublishers(afterPublisherId == null ? 0 : afterPublisherId,
+		limit == null ? Long.MAX_VALUE : Math.max(1, limit)));
+}
+
+/* Changes arrive from CatalogChanges after their transaction committed and are applied by the next refresh. */
+
+@Override
+public void publishersChanged(Collection<Long> publisherIds) {
+	if(properties.isEnabled()) {
+		changedPublishers.addAll(publisherIds);
+	}
+}
+
+@Override
+public void bookStoresChanged(Collection<Long> bookStoreIds) {
+	if(properties.isEnabled()) {
+		changedBookStores.addAll(bookStoreIds);
+	}
+}
+
+@Override
+public void customersChanged(int shard, Collection<Long> customerIds) {
+	if(properties.isEnabled()) {
+		changedCustomers.computeIfAbsent(shard, key -> ConcurrentHashMap.newKeySet()).addAll(customerIds);
+	}
+}
+
+@Override
+protected void rebuildAll() {
+	Instant startedAt = Instant.now();
+	long start = System.nanoTime();
+	List<PublisherRow> rows = new ArrayList<>();
+
+	shardRouter.onEveryShard(shard -> primaryTransactions.call(() -> catalogLoader.loadAll().stream()
+		.filter(row -> shardRouter.shardForPublisher(row.publisherId()) == shard)
+		.toList()))
+		.forEach(rows::addAll);
+	rows.sort(Comparator.comparingLong(PublisherRow::publisherId));
+
+	CatalogSnapshot snapshot = CatalogSnapshot.build(rows, properties.getSegmentSize(), startedAt);
+	current.set(snapshot);
+	publisherResponseCache.invalidateAll();
+	rebuiltAt = startedAt;
+
+	if(refreshedAt == null || refreshedAt.isBefore(startedAt)) {
+		refreshedAt = startedAt;
+	}
+
+	rebuildTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+	log.info("Catalog rebuilt: {} publishers, {} book stores, {} memberships in {} segments, about {} bytes",
+		snapshot.getPublisherCount(), snapshot.getStoreCount(), snapshot.getMemberCount(),
+		snapshot.getSegmentCount(), snapshot.getEstimatedBytes());
+}
+
+@Override
+protected boolean isReady() {
+	return current.get() != null;
+}
+
+@Override
+protected void refreshChanges(PendingChanges pending) {
+	CatalogSnapshot snapshot = current.get();
+	Instant startedAt = Instant.now();
+	long start = System.nanoTime();
+
+	Set<Long> affected = new HashSet<>(pending.take(changedPublishers));
+	Set<Long> bookStores = pending.take(changedBookStores);
+	Map<Integer, Set<Long>> customers = new HashMap<>();
+
+	for(Map.Entry<Integer, Set<Long>> entry : changedCustomers.entrySet()) {
+		customers.put(entry.getKey(), pending.take(entry.getValue()));
+	}
+
+	if(pending.isEmpty()) {
+		refreshedAt = startedAt;
+		return;
+	}
+
+	byShard(bookStores, shardRouter::shardForBookStore).forEach((shard, ids) -> affected.addAll(
+		primaryTransactions.callOn(shard, () -> catalogLoader.publishersOfBookStores(ids))));
+	customers.forEach((shard, ids) -> {
+		if(!ids.isEmpty()) {
+			affected.addAll(primaryTransactions.callOn(shard, () -> catalogLoader.publishersOfCustomers(ids)));
+		}
+	});
+
+	NavigableMap<Long, Optional<PublisherRow>> changes = new TreeMap<>();
+	affected.forEach(publisherId -> changes.put(publisherId, Optional.empty()));
+
+	byShard(affected, shardRouter::shardForPublisher).forEach((shard, ids) -> primaryTransactions
+		.callOn(shard, () -> catalogLoader.loadPublishers(ids))
+		.forEach(row -> changes.put(row.publisherId(), Optional.of(row))));
+
+	current.set(snapshot.withChanges(changes, properties.getSegmentSize(), startedAt));
+	publisherResponseCache.publishersChanged(changes.keySet());
+	refreshedAt = startedAt;
+	refreshTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+}
+
+private static Map<Integer, List<Long>> byShard(Collection<Long> ids, ToIntFunction<Long> shardOf) {
+	Map<Integer, List<Long>> result = new HashMap<>();
+
+	for(Long id : ids) {
+		result.computeIfAbsent(shardOf.applyAsInt(id), shard -> new ArrayList<>()).add(id);
+	}
+	return result;
+}
+
+private int pendingChanges() {
+	int pending = changedPublishers.size() + changedBookStores.size();
+
+	for(Set<Long> ids : changedCustomers.values()) {
+		pending += ids.size();
+	}
+	return pending;
+}
+
+private static double secondsSince(Instant instant) {
+	return instant == null ? Double.NaN : Duration.between(instant, Instant.now()).toMillis() / 1000.0;
+}
+
+/* Describes the current snapshot for the catalog actuator endpoint. */
+
+public Map<String, Object> describe() {
+	Map<String, Object> result = new LinkedHashMap<>();
+	CatalogSnapshot snapshot = current.get();
+
+	result.put("enabled", properties.isEnabled());
+	result.put("ready", snapshot != null);
+
+	if(snapshot != null) {
+		result.put("publishers", snapshot.getPublisherCount());
+		result.put("bookStores", snapshot.getStoreCount());
+		result.put("memberships", snapshot.getMemberCount());
+		result.put("customers", snapshot.getCustomerCount());
+		result.put("segments", snapshot.getSegmentCount());
+		result.put("estimatedBytes", snapshot.getEstimatedBytes());
+		result.put("rebuiltAt", rebuiltAt);
+		result.put("refreshedAt", refreshedAt);
+		result.put("stalenessSeconds", secondsSince(refreshedAt));
+		result.put("pendingChanges", pendingChanges());
+	}
+	return result;
+}
+}
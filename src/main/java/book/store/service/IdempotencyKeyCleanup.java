@@ -0,0 +1,46 @@
+package book.store.service;
+
+import java.time.Instant;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import book.store.config.IdempotencyProperties;
+import book.store.dao.IdempotencyKeyDao;
+import lombok.extern.slf4j.Slf4j;
+
+/* The IdempotencyKeyCleanup task runs once an hour and deletes the Idempotency-Key records that are older than the
+ * configured retention, so the idempotency_key table only holds keys a client could still retry with.
+ *
+ * Keys are stored on the shard of their book store, so the delete runs on every shard, each in its own transaction.
+ */
+
+@Component
+@Slf4j
+public class IdempotencyKeyCleanup {
+
+@Autowired
+private IdempotencyKeyDao idempotencyKeyDao;
+
+@Autowired
+private IdempotencyProperties idempotencyProperties;
+
+@Autowired
+private ShardRouter shardRouter;
+
+@Autowired
+private PlatformTransactionManager transactionManager;
+
+@Scheduled(fixedDelay = 60 * 60 * 1000, initialDelay = 60 * 1000)
+public void deleteExpiredKeys() {
+	Instant cutoff = Instant.now().minus(idempotencyProperties.getRetention());
+	TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+
+	int deleted = shardRouter.onEveryShard(shard -> transactionTemplate
+		.execute(status -> idempotencyKeyDao.deleteCreatedBefore(cutoff)))
+		.stream().mapToInt(Integer::intValue).sum();
+
+	log.info("Deleted {} expired idempotency keys", deleted);
+}
+}
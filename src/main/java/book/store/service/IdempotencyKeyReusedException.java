@@ -0,0 +1,15 @@
+package book.store.service;
+
+/* IdempotencyKeyReusedException is thrown when a request arrives with an Idempotency-Key that was already used for
+ * a different request (another book store or different customer details). The GlobalErrorHandler answers it with
+ * 422 (Unprocessable Entity) because retrying the same request can never succeed.
+ */
+
+public class IdempotencyKeyReusedException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	public IdempotencyKeyReusedException(String message) {
+		super(message);
+	}
+}
@@ -0,0 +1,15 @@
+package book.store.service;
+
+/* InvalidAudienceQueryException is thrown by the MembershipIndex for an audience query that cannot be answered as
+ * it was asked, for example one without any book stores to start from or one that mixes book stores of different
+ * shards. The GlobalErrorHandler answers it with 400 (Bad Request).
+ */
+
+public class InvalidAudienceQueryException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	public InvalidAudienceQueryException(String message) {
+		super(message);
+	}
+}
@@ -0,0 +1,475 @@
+package book.store.service;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+import javax.sql.DataSource;
+import org.roaringbitmap.FastAggregation;
+import org.roaringbitmap.PeekableIntIterator;
+import org.roaringbitmap.RoaringBitmap;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+import book.store.config.CustomerListingProperties;
+import book.store.config.MembershipIndexProperties;
+import book.store.controller.model.AudienceQuery;
+import book.store.controller.model.AudienceResult;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+
+/* The MembershipIndex keeps, for every book store, a compressed (Roaring) bitmap of the IDs of its customers when
+ * book-store.membership-index.enabled is on, and answers audience queries such as "members of store A and B but
+ * not C" with bitmap AND, OR and ANDNOT instead of walking the BookStore.customers collections.
+ *
+ * The whole index is built from book_store and book_store_customer on every shard at start-up and again every
+ * rebuildInterval, reading through PrimaryTransactions on the BackgroundRefresher thread. Customers added by saveCustomer on this instance arrive through CatalogChanges.membershipsAdded
+ * after their transaction committed and are added straight away. A book store's bitmap is never changed in place:
+ * the change is made to a copy that replaces it, so a query always works on bitmaps nobody is writing to.
+ *
+ * Changed publishers (new or deleted book stores, moves to another shard) and stores the index did not know about
+ * yet are loaded by a refresh every refreshInterval. Changes that arrive while a rebuild or refresh is reading the
+ * database are recorded and applied again once its result is in, so they cannot be overwritten by older data.
+ *
+ * Customer IDs are only unique within a shard, so the book stores of one query have to be on the same shard. The
+ * bitmaps hold 32-bit values, so customers with an ID above 4294967295 are not indexed; they are counted in
+ * bookstore.membership.index.skipped.
+ *
+ * Meters: bookstore.membership.index.stores, bookstore.membership.index.memberships, bookstore.membership.index.bytes,
+ * bookstore.membership.index.skipped and the bookstore.membership.index.rebuild and bookstore.membership.query timers.
+ */
+
+@Service
+@Slf4j
+public class MembershipIndex extends BackgroundRefresher implements CatalogChangeListener {
+
+private static final long MAX_CUSTOMER_ID = 0xFFFF_FFFFL;
+private static final int IN_LIST_SIZE = 500;
+
+private static final String STORES = "SELECT book_store_id, publisher_id FROM book_store";
+private static final String MEMBERS = "SELECT book_store_id, customer_id FROM book_store_customer";
+
+@Autowired
+private MembershipIndexProperties properties;
+
+@Autowired
+private CustomerListingProperties customerListingProperties;
+
+@Autowired
+private ShardRouter shardRouter;
+
+@Autowired
+private DataSource dataSource;
+
+@Autowired
+private PrimaryTransactions primaryTransactions;
+
+@Autowired
+private MeterRegistry meterRegistry;
+
+private final Object writeLock = new Object();
+private volatile Map<Long, StoreMembers> stores;
+private List<Consumer<Map<Long, StoreMembers>>> recordedChanges;
+
+private final Set<Long> changedPublishers = ConcurrentHashMap.newKeySet();
+private final Set<Long> unknownBookStores = ConcurrentHashMap.newKeySet();
+
+private NamedParameterJdbcTemplate jdbcTemplate;
+private Timer rebuildTimer;
+private Timer queryTimer;
+private Counter skipped;
+
+@PostConstruct
+void start() {
+	if(!properties.isEnabled()) {
+		return;
+	}
+
+	JdbcTemplate template = new JdbcTemplate(dataSource);
+	template.setFetchSize(properties.getFetchSize());
+	jdbcTemplate = new NamedParameterJdbcTemplate(template);
+
+	rebuildTimer = Timer.builder("bookstore.membership.index.rebuild")
+		.description("Time to read and build the whole membership index").register(meterRegistry);
+	queryTimer = Timer.builder("bookstore.membership.query")
+		.description("Time to answer an audience query from the membership index").register(meterRegistry);
+	skipped = Counter.builder("bookstore.membership.index.skipped")
+		.description("Memberships not indexed because the customer ID does not fit in 32 bits").register(meterRegistry);
+	Gauge.builder("bookstore.membership.index.stores", this, index -> index.sum(members -> 1))
+		.register(meterRegistry);
+	Gauge.builder("bookstore.membership.index.memberships", this,
+		index -> index.sum(members -> members.customers().getLongCardinality())).register(meterRegistry);
+	Gauge.builder("bookstore.membership.index.bytes", this,
+		index -> index.sum(members -> members.customers().getLongSizeInBytes()))
+		.description("Serialized size of the membership bitmaps").baseUnit("bytes").register(meterRegistry);
+
+	startRefreshing("membership-index", properties.getRebuildInterval(), properties.getRefreshInterval());
+}
+
+/* Answers an audience query: (all of allOf) and (any of anyOf) and not (any of noneOf), with the count of all
+ * matching customers and one page of their IDs.
+ */
+
+public AudienceResult query(AudienceQuery query) {
+	Map<Long, StoreMembers> index = stores;
+
+	if(index == null) {
+		throw new ServiceUnavailableException("The membership index is not ready",
+			Math.max(1, properties.getRefreshInterval().toSeconds()));
+	}
+
+	long start = System.nanoTime();
+	Set<Integer> shards = new HashSet<>();
+
+	List<RoaringBitmap> allOf = resolve(index, query.getAllOf(), query.getAllOfPublisherId(), shards);
+	List<RoaringBitmap> anyOf = resolve(index, query.getAnyOf(), query.getAnyOfPublisherId(), shards);
+	List<RoaringBitmap> noneOf = resolve(index, query.getNoneOf(), null, shards);
+
+	if(allOf.isEmpty() && anyOf.isEmpty()) {
+		throw new InvalidAudienceQueryException("An audience query needs at least one book store in allOf or anyOf");
+	}
+
+	if(shards.size() > 1) {
+		throw new InvalidAudienceQueryException("The book stores are on shards " + shards
+			+ "; customer IDs can only be compared within one shard");
+	}
+
+	AudienceResult result = page(evaluate(allOf, anyOf, noneOf), query.getAfterCustomerId(), query.getLimit());
+	queryTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+	return result;
+}
+
+private List<RoaringBitmap> resolve(Map<Long, StoreMembers> index, List<Long> bookStoreIds, Long publisherId,
+	Set<Integer> shards) {
+	List<RoaringBitmap> result = new ArrayList<>();
+
+	for(Long bookStoreId : Objects.requireNonNullElse(bookStoreIds, List.<Long>of())) {
+		StoreMembers members = index.get(bookStoreId);
+
+		if(members == null) {
+			throw new NoSuchElementException("Book Store with ID=" + bookStoreId + " was not found");
+		}
+
+		shards.add(members.shard());
+		result.add(members.customers());
+	}
+
+	if(Objects.nonNull(publisherId)) {
+		int before = result.size();
+
+		for(StoreMembers members : index.values()) {
+			if(members.publisherId() == publisherId) {
+				shards.add(members.shard());
+				result.add(members.customers());
+			}
+		}
+
+		if(result.size() == before) {
+			throw new NoSuchElementException("Publisher with Id=" + publisherId + " has no book stores");
+		}
+	}
+	return result;
+}
+
+/* Only the static RoaringBitmap operations are used, which always return a new bitmap, so the bitmaps of the
+ * index are never changed. The intersection starts with the smallest store, which keeps every step small.
+ */
+
+private static RoaringBitmap evaluate(List<RoaringBitmap> allOf, List<RoaringBitmap> anyOf,
+	List<RoaringBitmap> noneOf) {
+	RoaringBitmap result = null;
+
+	if(!allOf.isEmpty()) {
+		List<RoaringBitmap> smallestFirst = new ArrayList<>(allOf);
+		smallestFirst.sort(Comparator.comparingLong(RoaringBitmap::getLongCardinality));
+
+		for(RoaringBitmap members : smallestFirst) {
+			result = result == null ? members : RoaringBitmap.and(result, members);
+
+			if(result.isEmpty()) {
+				return result;
+			}
+		}
+	}
+
+	if(!anyOf.isEmpty()) {
+		RoaringBitmap union = FastAggregation.or(anyOf.iterator());
+		result = result == null ? union : RoaringBitmap.and(result, union);
+	}
+
+	if(!noneOf.isEmpty() && !result.isEmpty()) {
+		result = RoaringBitmap.andNot(result, FastAggregation.or(noneOf.iterator()));
+	}
+	return result;
+}
+
+private AudienceResult page(RoaringBitmap customers, Long afterCustomerId, Integer limit) {
+	int pageSize = Objects.isNull(limit) ? customerListingProperties.getDefaultPageSize()
+		: Math.max(0, Math.min(limit, customerListingProperties.getMaxPageSize()));
+	long after = Objects.isNull(afterCustomerId) ? 0 : Math.max(0, afterCustomerId);
+
+	AudienceResult result = new AudienceResult();
+	result.setCount(customers.getLongCardinality());
+
+	if(pageSize == 0 || after >= MAX_CUSTOMER_ID) {
+		return result;
+	}
+
+	PeekableIntIterator iterator = customers.getIntIterator();
+	iterator.advanceIfNeeded((int)(after + 1));
+
+	while(iterator.hasNext() && result.getCustomerIds().size() < pageSize) {
+		result.getCustomerIds().add(Integer.toUnsignedLong(iterator.next()));
+	}
+
+	if(iterator.hasNext()) {
+		result.setNextAfterCustomerId(result.getCustomerIds().get(pageSize - 1));
+	}
+	return result;
+}
+
+@Override
+public void publishersChanged(Collection<Long> publisherIds) {
+	if(properties.isEnabled()) {
+		changedPublishers.addAll(publisherIds);
+	}
+}
+
+/* Book store and customer changes that matter to the index always come with membershipsAdded. */
+
+@Override
+public void bookStoresChanged(Collection<Long> bookStoreIds) {
+}
+
+@Override
+public void customersChanged(int shard, Collection<Long> customerIds) {
+}
+
+@Override
+public void membershipsAdded(int shard, Long bookStoreId, Collection<Long> customerIds) {
+	if(!properties.isEnabled()) {
+		return;
+	}
+
+	synchronized(writeLock) {
+		if(stores != null) {
+			addMembers(stores, shard, bookStoreId, customerIds);
+		}
+
+		if(recordedChanges != null) {
+			recordedChanges.add(index -> addMembers(index, shard, bookStoreId, customerIds));
+		}
+	}
+}
+
+/* A store the index does not have yet, or has on another shard, is left for the next refresh to load. */
+
+private void addMembers(Map<Long, StoreMembers> index, int shard, Long bookStoreId, Collection<Long> customerIds) {
+	StoreMembers current = index.get(bookStoreId);
+
+	if(current == null || current.shard() != shard) {
+		unknownBookStores.add(bookStoreId);
+		return;
+	}
+
+	RoaringBitmap customers = current.customers().clone();
+
+	for(Long customerId : customerIds) {
+		add(customers, customerId);
+	}
+	index.put(bookStoreId, new StoreMembers(current.publisherId(), shard, customers));
+}
+
+private void add(RoaringBitmap customers, long customerId) {
+	if(customerId < 0 || customerId > MAX_CUSTOMER_ID) {
+		skipped.increment();
+		return;
+	}
+	customers.add((int)customerId);
+}
+
+@Override
+protected void rebuildAll() {
+	Instant startedAt = Instant.now();
+	long start = System.nanoTime();
+
+	Map<Long, StoreMembers> index = whileRecording(() -> {
+		Map<Long, StoreMembers> loaded = new ConcurrentHashMap<>();
+		shardRouter.onEveryShard(shard -> primaryTransactions.call(() -> load(shard, "",
+			new MapSqlParameterSource()))).forEach(loaded::putAll);
+		return loaded;
+	}, loaded -> stores = loaded);
+
+	rebuildTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+	log.info("Membership index rebuilt from data read at {}: {} book stores, {} memberships, {} bytes",
+		startedAt, index.size(), sum(members -> members.customers().getLongCardinality()),
+		sum(members -> members.customers().getLongSizeInBytes()));
+}
+
+@Override
+protected boolean isReady() {
+	return stores != null;
+}
+
+@Override
+protected void refreshChanges(PendingChanges pending) {
+	for(Long publisherId : pending.take(changedPublishers)) {
+		refreshPublisher(publisherId);
+	}
+
+	Map<Integer, List<Long>> byShard = new HashMap<>();
+
+	for(Long bookStoreId : pending.take(unknownBookStores)) {
+		byShard.computeIfAbsent(shardRouter.shardForBookStore(bookStoreId), shard -> new ArrayList<>())
+			.add(bookStoreId);
+	}
+	byShard.forEach(this::reloadBookStores);
+}
+
+/* Drops the publisher's book stores that no longer exist and loads the ones the index does not have, or has on
+ * another shard. The members of the stores it already has are kept current by membershipsAdded.
+ */
+
+private void refreshPublisher(Long publisherId) {
+	int shard = shardRouter.shardForPublisher(publisherId);
+	List<Long> bookStoreIds = primaryTransactions.callOn(shard, () -> jdbcTemplate.queryForList(
+		"SELECT book_store_id FROM book_store WHERE publisher_id = :id", new MapSqlParameterSource("id", publisherId),
+		Long.class));
+	Set<Long> current = new HashSet<>(bookStoreIds);
+	Map<Long, StoreMembers> index = stores;
+
+	synchronized(writeLock) {
+		index.entrySet().removeIf(entry -> entry.getValue().publisherId() == publisherId
+			&& !current.contains(entry.getKey()));
+	}
+
+	List<Long> missing = new ArrayList<>();
+
+	for(Long bookStoreId : bookStoreIds) {
+		StoreMembers members = index.get(bookStoreId);
+
+		if(members == null || members.shard() != shard) {
+			missing.add(bookStoreId);
+		}
+	}
+
+	if(!missing.isEmpty()) {
+		reloadBookStores(shard, missing);
+	}
+}
+
+private void reloadBookStores(int shard, List<Long> bookStoreIds) {
+	for(int start = 0; start < bookStoreIds.size(); start += IN_LIST_SIZE) {
+		List<Long> chunk = bookStoreIds.subList(start, Math.min(bookStoreIds.size(), start + IN_LIST_SIZE));
+
+		whileRecording(() -> primaryTransactions.callOn(shard, () -> load(shard,
+			" WHERE book_store_id IN (:ids)", new MapSqlParameterSource("ids", chunk))), loaded -> {
+				for(Long bookStoreId : chunk) {
+					StoreMembers members = loaded.get(bookStoreId);
+
+					if(members == null) {
+						stores.remove(bookStoreId);
+					}
+					else {
+						stores.put(bookStoreId, members);
+					}
+				}
+			});
+	}
+}
+
+/* Reads data from the database and then, under the write lock, installs it and applies again every change that
+ * arrived while it was being read.
+ */
+
+private <T> T whileRecording(Supplier<T> read, Consumer<T> install) {
+	synchronized(writeLock) {
+		recordedChanges = new ArrayList<>();
+	}
+
+	try {
+		T result = read.get();
+
+		synchronized(writeLock) {
+			install.accept(result);
+			recordedChanges.forEach(change -> change.accept(stores));
+		}
+		return result;
+	}
+	finally {
+		synchronized(writeLock) {
+			recordedChanges = null;
+		}
+	}
+}
+
+/* Reads the book stores that belong to the shard, and their members, with the given filter on book_store_id. The
+ * members come back in primary key order, so consecutive rows nearly always go to the same bitmap.
+ */
+
+private Map<Long, StoreMembers> load(int shard, String filter, MapSqlParameterSource parameters) {
+	Map<Long, Long> publisherOfStore = new HashMap<>();
+
+	jdbcTemplate.query(STORES + filter, parameters, rs -> {
+		long bookStoreId = rs.getLong(1);
+
+		if(shardRouter.shardForBookStore(bookStoreId) == shard) {
+			publisherOfStore.put(bookStoreId, rs.getLong(2));
+		}
+	});
+
+	Map<Long, RoaringBitmap> members = new HashMap<>();
+	RoaringBitmap[] current = new RoaringBitmap[1];
+	long[] currentId = {Long.MIN_VALUE};
+
+	jdbcTemplate.query(MEMBERS + filter, parameters, rs -> {
+		long bookStoreId = rs.getLong(1);
+
+		if(bookStoreId != currentId[0]) {
+			currentId[0] = bookStoreId;
+			current[0] = publisherOfStore.containsKey(bookStoreId)
+				? members.computeIfAbsent(bookStoreId, id -> new RoaringBitmap())
+				: null;
+		}
+
+		if(current[0] != null) {
+			add(current[0], rs.getLong(2));
+		}
+	});
+
+	Map<Long, StoreMembers> result = new HashMap<>();
+
+	publisherOfStore.forEach((bookStoreId, publisherId) -> {
+		RoaringBitmap customers = members.getOrDefault(bookStoreId, new RoaringBitmap());
+		customers.runOptimize();
+		result.put(bookStoreId, new StoreMembers(publisherId, shard, customers));
+	});
+	return result;
+}
+
+private long sum(ToLongFunction<StoreMembers> value) {
+	Map<Long, StoreMembers> index = stores;
+	return index == null ? 0 : index.values().stream().mapToLong(value).sum();
+}
+
+private record StoreMembers(long publisherId, int shard, RoaringBitmap customers) {
+}
+}
@@ -0,0 +1,33 @@
+package book.store.service;
+
+import java.util.function.Supplier;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import book.store.config.ShardContext;
+
+/* PrimaryTransactions runs work in a programmatic transaction on the primary database of the current shard, or of
+ * the given one.
+ *
+ * The transactions are not read-only, so ReadWriteRoutingDataSource never sends them to a replica, even when the
+ * work only reads. The background jobs that copy the database into memory read through here: they are told about
+ * a write as soon as it commits, and a replica that has not applied it yet would hand them the rows from before
+ * it, which nothing would read again until their next full rebuild. Request reads that may see a replica use a
+ * read-only transaction instead (see BookStoreService.readOnlyTransaction).
+ */
+
+@Component
+public class PrimaryTransactions {
+
+@Autowired
+private PlatformTransactionManager transactionManager;
+
+public <T> T call(Supplier<T> work) {
+	return new TransactionTemplate(transactionManager).execute(status -> work.get());
+}
+
+public <T> T callOn(int shard, Supplier<T> work) {
+	return ShardContext.callOn(shard, () -> call(work));
+}
+}
@@ -0,0 +1,13 @@
+package book.store.service;
+
+/* PublisherRead is the key of the publisherReadFlight: a read of one publisher, with or without the customers of
+ * its small book stores. The two reads load different data, so they are coalesced separately.
+ */
+
+public record PublisherRead(Long publisherId, boolean embedCustomers) {
+
+@Override
+public String toString() {
+	return embedCustomers ? publisherId + "+customers" : String.valueOf(publisherId);
+}
+}
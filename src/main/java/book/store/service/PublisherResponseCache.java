@@ -0,0 +1,423 @@
+package book.store.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.zip.GZIPOutputStream;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import book.store.config.ReadYourWritesContext;
+import book.store.config.ResponseCacheProperties;
+import book.store.controller.model.BookStoreCustomer;
+import book.store.controller.model.BookStoreData;
+import book.store.controller.model.BookStorePublisher;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+
+/* The PublisherResponseCache keeps the finished response bodies of GET /publisher/{publisherId}: the JSON bytes,
+ * or the gzip-compressed JSON bytes for clients that accept gzip, for every field selection that was asked for,
+ * with or without the embedded customers of small book stores.
+ * A hit skips the BookStorePublisher mapping, Jackson and compression altogether, and the controller writes the
+ * bytes to the response as they are.
+ *
+ * Invalidation: every cached publisher remembers its book stores and the customers embedded in them. When CatalogChanges
+ * reports a committed write to the publisher, one of those book stores or one of those customers, all of the
+ * publisher's cached bodies are dropped. The HotCatalog also drops them when it swaps in newer data, because
+ * until then a miss would have cached the old snapshot again.
+ *
+ * A body is built from data read before it is stored, so a write can commit in between. Every invalidation gets a
+ * sequence number; a body is only kept if no invalidation of its publisher happened after its data was read. A miss
+ * reads through the publisherReadFlight, so an invalidation also makes the flight forget the publisher's running
+ * load: a miss that starts after the write has committed never joins a load that began before it.
+ *
+ * A miss may still be answered by a replica that has not applied the write yet (see ReadYourWritesContext). Its
+ * body is then cached and served for up to the ttl, so the ttl is also the longest a replica's lag can be seen
+ * through the cache after the write's read-your-writes window has ended.
+ *
+ * Cached publishers are evicted oldest first when the bodies grow past maxSize. Every cached publisher has its own
+ * place in cacheOrder, which is given up as soon as the publisher leaves the cache for any reason.
+ *
+ * Requests in their read-your-writes window neither read nor fill the cache.
+ *
+ * Meters: bookstore.response.cache.requests (tagged hit, miss or bypass), bookstore.response.cache.bytes,
+ * bookstore.response.cache.publishers, bookstore.response.cache.body.size and bookstore.response.cache.evictions.
+ */
+
+@Service
+public class PublisherResponseCache implements CatalogChangeListener {
+
+private static final int MAX_TRACKED_INVALIDATIONS = 100_000;
+
+public enum Format {
+	JSON, JSON_GZIP;
+
+	/* Picks the format for an Accept-Encoding header: gzip when the header gives gzip (or its old name x-gzip) a
+	 * non-zero q-value, either by name or through "*". A listed coding wins over "*", so "*, gzip;q=0" is plain JSON.
+	 * Without a header, or with a q-value that cannot be read, the body is sent uncompressed.
+	 */
+
+	public static Format forAcceptEncoding(String acceptEncoding) {
+		if(Objects.isNull(acceptEncoding)) {
+			return JSON;
+		}
+
+		Double gzip = null;
+		Double any = null;
+
+		for(String element : acceptEncoding.split(",")) {
+			String[] parts = element.split(";");
+			String coding = parts[0].trim().toLowerCase(Locale.ROOT);
+			double quality = quality(parts);
+
+			if(coding.equals("gzip") || coding.equals("x-gzip")) {
+				gzip = gzip == null ? quality : Math.max(gzip, quality);
+			}
+			else if(coding.equals("*")) {
+				any = quality;
+			}
+		}
+
+		double accepted = gzip != null ? gzip : any != null ? any : 0;
+		return accepted > 0 ? JSON_GZIP : JSON;
+	}
+
+	private static double quality(String[] parts) {
+		for(int index = 1; index < parts.length; index++) {
+			String parameter = parts[index].trim();
+
+			if(parameter.length() > 2 && parameter.substring(0, 2).equalsIgnoreCase("q=")) {
+				try {
+					return Double.parseDouble(parameter.substring(2).trim());
+				}
+				catch(NumberFormatException e) {
+					return 0;
+				}
+			}
+		}
+		return 1;
+	}
+}
+
+@Autowired
+private ResponseCacheProperties properties;
+
+@Autowired
+private ObjectMapper objectMapper;
+
+@Autowired
+private ShardRouter shardRouter;
+
+@Autowired
+private MeterRegistry meterRegistry;
+
+@Autowired
+//The coalesced publisher loads that a miss reads through
+private SingleFlight<PublisherRead, BookStorePublisher> publisherReadFlight;
+
+private final Map<Long, CachedPublisher> publishers = new ConcurrentHashMap<>();
+private final Map<Long, Long> publisherOfBookStore = new ConcurrentHashMap<>();
+private final Map<CustomerKey, Set<Long>> publishersOfCustomer = new ConcurrentHashMap<>();
+private final ConcurrentSkipListMap<Long, Long> cacheOrder = new ConcurrentSkipListMap<>();
+private final AtomicLong cachePosition = new AtomicLong();
+private final AtomicLong cachedBytes = new AtomicLong();
+
+private final AtomicLong invalidationSequence = new AtomicLong();
+private final Map<Long, Long> invalidatedAt = new ConcurrentHashMap<>();
+private volatile long invalidatedAllAt;
+
+private Counter hits;
+private Counter misses;
+private Counter bypasses;
+private Counter evictions;
+private DistributionSummary bodySizes;
+
+@PostConstruct
+void start() {
+	hits = Counter.builder("bookstore.response.cache.requests").tag("result", "hit").register(meterRegistry);
+	misses = Counter.builder("bookstore.response.cache.requests").tag("result", "miss").register(meterRegistry);
+	bypasses = Counter.builder("bookstore.response.cache.requests").tag("result", "bypass").register(meterRegistry);
+	evictions = Counter.builder("bookstore.response.cache.evictions")
+		.description("Publishers dropped to stay within the cache size").register(meterRegistry);
+	bodySizes = DistributionSummary.builder("bookstore.response.cache.body.size")
+		.description("Size of the cached response bodies").baseUnit("bytes").register(meterRegistry);
+	Gauge.builder("bookstore.response.cache.bytes", cachedBytes, AtomicLong::get)
+		.description("Total size of the cached response bodies").baseUnit("bytes").register(meterRegistry);
+	Gauge.builder("bookstore.response.cache.publishers", publishers, Map::size).register(meterRegistry);
+}
+
+/* Returns the response body for the publisher in the given format with the given fields (a comma separated list
+ * of top-level field names, or null for all of them). loader is only called on a miss, and must read the customers
+ * of the book stores only when embedCustomers is set; the flag is part of the cache key.
+ */
+
+public byte[] get(Long publisherId, Format format, String fields, boolean embedCustomers,
+	Supplier<BookStorePublisher> loader) {
+	String selection = normalizeFields(fields);
+
+	if(!properties.isEnabled() || ReadYourWritesContext.isPinnedToPrimary()) {
+		bypasses.increment();
+		return serialize(loader.get(), format, selection);
+	}
+
+	Variant variant = new Variant(format, selection, embedCustomers);
+	CachedPublisher cached = publishers.get(publisherId);
+
+	if(cached != null) {
+		if(System.nanoTime() - cached.cachedAtNanos > properties.getTtl().toNanos()) {
+			remove(publisherId, cached);
+		}
+		else {
+			byte[] body = cached.bodies.get(variant);
+
+			if(body != null) {
+				hits.increment();
+				return body;
+			}
+		}
+	}
+
+	misses.increment();
+	long readAt = invalidationSequence.get();
+	BookStorePublisher publisher = loader.get();
+	byte[] body = serialize(publisher, format, selection);
+
+	store(publisherId, variant, body, publisher, readAt);
+	return body;
+}
+
+private void store(Long publisherId, Variant variant, byte[] body, BookStorePublisher publisher, long readAt) {
+	if(isInvalidatedSince(publisherId, readAt)) {
+		return;
+	}
+
+	CachedPublisher cached = publishers.computeIfAbsent(publisherId, id -> {
+		CachedPublisher created = new CachedPublisher(shardRouter.shardForPublisher(id), cachePosition.incrementAndGet());
+		cacheOrder.put(created.position, id);
+		return created;
+	});
+
+	link(publisherId, cached, publisher);
+
+	byte[] previous = cached.bodies.put(variant, body);
+	long added = body.length - (previous == null ? 0 : previous.length);
+	cached.bytes.addAndGet(added);
+	cachedBytes.addAndGet(added);
+	bodySizes.record(body.length);
+
+	if(isInvalidatedSince(publisherId, readAt)) {
+		remove(publisherId, cached);
+	}
+
+	evictIfFull();
+}
+
+private boolean isInvalidatedSince(Long publisherId, long readAt) {
+	return invalidatedAllAt > readAt || invalidatedAt.getOrDefault(publisherId, 0L) > readAt;
+}
+
+private void evictIfFull() {
+	long maxBytes = properties.getMaxSize().toBytes();
+
+	while(cachedBytes.get() > maxBytes) {
+		Map.Entry<Long, Long> oldest = cacheOrder.pollFirstEntry();
+
+		if(oldest == null) {
+			return;
+		}
+
+		CachedPublisher cached = publishers.get(oldest.getValue());
+
+		if(cached != null && cached.position == oldest.getKey() && remove(oldest.getValue(), cached)) {
+			evictions.increment();
+		}
+	}
+}
+
+private boolean remove(Long publisherId, CachedPublisher cached) {
+	if(!publishers.remove(publisherId, cached)) {
+		return false;
+	}
+
+	cachedBytes.addAndGet(-cached.bytes.get());
+	cacheOrder.remove(cached.position);
+
+	for(Long bookStoreId : cached.bookStoreIds) {
+		publisherOfBookStore.remove(bookStoreId, publisherId);
+	}
+
+	for(Long customerId : cached.customerIds) {
+		publishersOfCustomer.computeIfPresent(new CustomerKey(cached.shard, customerId), (key, ids) -> {
+			ids.remove(publisherId);
+			return ids.isEmpty() ? null : ids;
+		});
+	}
+	return true;
+}
+
+/* Indexes the book stores and customers in a body that is being stored. The bodies of one publisher differ in what
+ * they contain (only the embedCustomers bodies have customers), so every body adds the IDs the earlier ones did not.
+ */
+
+private void link(Long publisherId, CachedPublisher cached, BookStorePublisher publisher) {
+	for(BookStoreData bookStore : publisher.getBookStores()) {
+		if(cached.bookStoreIds.add(bookStore.getBookStoreId())) {
+			publisherOfBookStore.put(bookStore.getBookStoreId(), publisherId);
+		}
+
+		if(bookStore.getCustomers() == null) {
+			continue;
+		}
+
+		for(BookStoreCustomer customer : bookStore.getCustomers()) {
+			if(cached.customerIds.add(customer.getCustomerId())) {
+				publishersOfCustomer.computeIfAbsent(new CustomerKey(cached.shard, customer.getCustomerId()),
+					key -> ConcurrentHashMap.newKeySet()).add(publisherId);
+			}
+		}
+	}
+}
+
+/* Drops every cached body of the publisher and makes sure a body read before this moment is not stored. The
+ * running load is forgotten first, so a miss that has not taken its read sequence yet starts a load of its own.
+ */
+
+public void invalidate(Long publisherId) {
+	publisherReadFlight.forget(new PublisherRead(publisherId, false));
+	publisherReadFlight.forget(new PublisherRead(publisherId, true));
+
+	if(invalidatedAt.size() >= MAX_TRACKED_INVALIDATIONS) {
+		invalidatedAllAt = invalidationSequence.incrementAndGet();
+		invalidatedAt.clear();
+	}
+
+	invalidatedAt.put(publisherId, invalidationSequence.incrementAndGet());
+
+	CachedPublisher cached = publishers.get(publisherId);
+
+	if(cached != null) {
+		remove(publisherId, cached);
+	}
+}
+
+public void invalidateAll() {
+	publisherReadFlight.forgetAll();
+	invalidatedAllAt = invalidationSequence.incrementAndGet();
+
+	for(Map.Entry<Long, CachedPublisher> entry : publishers.entrySet()) {
+		remove(entry.getKey(), entry.getValue());
+	}
+}
+
+@Override
+public void publishersChanged(Collection<Long> publisherIds) {
+	publisherIds.forEach(this::invalidate);
+}
+
+@Override
+public void bookStoresChanged(Collection<Long> bookStoreIds) {
+	for(Long bookStoreId : bookStoreIds) {
+		Long publisherId = publisherOfBookStore.get(bookStoreId);
+
+		if(publisherId != null) {
+			invalidate(publisherId);
+		}
+	}
+}
+
+@Override
+public void customersChanged(int shard, Collection<Long> customerIds) {
+	for(Long customerId : customerIds) {
+		Set<Long> publisherIds = publishersOfCustomer.get(new CustomerKey(shard, customerId));
+
+		if(publisherIds != null) {
+			List.copyOf(publisherIds).forEach(this::invalidate);
+		}
+	}
+}
+
+/* The field selection is part of the cache key, so "publisherName,publisherId" and "publisherId, publisherName"
+ * share one entry.
+ */
+
+private static String normalizeFields(String fields) {
+	if(Objects.isNull(fields) || fields.isBlank()) {
+		return null;
+	}
+
+	Set<String> names = new TreeSet<>();
+
+	for(String name : fields.split(",")) {
+		if(!name.isBlank()) {
+			names.add(name.trim());
+		}
+	}
+	return names.isEmpty() ? null : String.join(",", names);
+}
+
+private byte[] serialize(BookStorePublisher publisher, Format format, String selection) {
+	try {
+		byte[] json;
+
+		if(selection == null) {
+			json = objectMapper.writeValueAsBytes(publisher);
+		}
+		else {
+			ObjectNode node = objectMapper.valueToTree(publisher);
+			node.retain(Arrays.asList(selection.split(",")));
+			json = objectMapper.writeValueAsBytes(node);
+		}
+
+		if(format == Format.JSON) {
+			return json;
+		}
+
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream(json.length / 4 + 64);
+
+		try(GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+			gzip.write(json);
+		}
+		return compressed.toByteArray();
+	}
+	catch(IOException e) {
+		throw new UncheckedIOException(e);
+	}
+}
+
+private record Variant(Format format, String fields, boolean embedCustomers) {
+}
+
+private record CustomerKey(int shard, long customerId) {
+}
+
+private static class CachedPublisher {
+	private final int shard;
+	private final long position;
+	private final long cachedAtNanos = System.nanoTime();
+	private final Map<Variant, byte[]> bodies = new ConcurrentHashMap<>();
+	private final AtomicLong bytes = new AtomicLong();
+	private final Set<Long> bookStoreIds = ConcurrentHashMap.newKeySet();
+	private final Set<Long> customerIds = ConcurrentHashMap.newKeySet();
+
+	private CachedPublisher(int shard, long position) {
+		this.shard = shard;
+		this.position = position;
+	}
+}
+}
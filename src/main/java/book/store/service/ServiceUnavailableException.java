@@ -0,0 +1,23 @@
+package book.store.service;
+
+/* ServiceUnavailableException is thrown by the service layer when a request cannot be answered right now but
+ * could succeed if the client tries again later, for example when a shared database load takes longer than the
+ * allowed wait. The GlobalErrorHandler turns it into a 503 (Service Unavailable) with a Retry-After header built
+ * from retryAfterSeconds.
+ */
+
+public class ServiceUnavailableException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final long retryAfterSeconds;
+
+	public ServiceUnavailableException(String message, long retryAfterSeconds) {
+		super(message);
+		this.retryAfterSeconds = retryAfterSeconds;
+	}
+
+	public long getRetryAfterSeconds() {
+		return retryAfterSeconds;
+	}
+}
@@ -0,0 +1,335 @@
+package book.store.service;
+
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
+import org.springframework.stereotype.Service;
+import book.store.config.ShardingProperties;
+import book.store.dao.CustomerDao;
+import book.store.entity.Customer;
+import lombok.extern.slf4j.Slf4j;
+
+/* The ShardRebalancer moves a publisher, with its book stores, their customers, memberships and idempotency keys,
+ * from one shard to another. It is run from the shards actuator endpoint.
+ *
+ * The move has four steps:
+ *
+ * 1. The publisher and its book stores are marked moving in shard_assignment on shard 0 and the move waits
+ *    moveSettleTime, so that every instance has reloaded the assignments and turns writes to them away with a 503,
+ *    and writes that were already running have committed. Reads keep going to the source shard. A book store
+ *    created just before the mark is found when the subtree is read again, and the mark and wait are repeated.
+ * 2. The subtree is copied to the target shard. The publisher and book stores keep their IDs (the target's
+ *    id_sequence is not affected by rows inserted with an explicit ID). Customers are matched by email, so a
+ *    customer that already exists on the target is reused; customers without an email get a new ID there. The
+ *    idempotency keys are copied with the customer IDs of the target, so a retry after the move still replays.
+ * 3. The new shard of the publisher and of each book store is written to shard_assignment, which also clears the
+ *    moving mark, and the ShardRouter of this instance is refreshed. Other instances pick it up within
+ *    assignmentRefreshInterval.
+ * 4. The subtree is deleted from the source shard, together with the customers that no longer belong to any book
+ *    store there.
+ *
+ * Moves of the same publisher through this instance run one after the other; the second one finds the publisher
+ * on its new shard. Moves should all be started through one instance.
+ *
+ * If the copy fails the moving mark is taken off again and nothing else has changed. If the assignment fails the
+ * publisher stays marked (its writes are still turned away), and running the move again finishes it: the copy is
+ * one transaction, so a publisher row on the target means the whole subtree is already there and the copy is
+ * skipped (copying it again would duplicate the customers without an email). If only the delete fails, the rows
+ * left on the source shard are no longer routed to and must be removed by hand before the publisher is ever moved
+ * back to that shard.
+ */
+
+@Service
+@Slf4j
+public class ShardRebalancer {
+
+@Autowired
+private ShardRouter shardRouter;
+
+@Autowired
+private JdbcTemplate jdbcTemplate;
+
+@Autowired
+private CustomerDao customerDao;
+
+@Autowired
+private PrimaryTransactions primaryTransactions;
+
+@Autowired
+private ShardingProperties shardingProperties;
+
+@Autowired
+private CatalogChanges catalogChanges;
+
+// One lock per publisher that was ever moved through this instance, so moves of the same publisher take turns
+private final Map<Long, Object> moveLocks = new ConcurrentHashMap<>();
+
+public Map<String, Object> movePublisher(Long publisherId, int targetShard) {
+	if(targetShard < 0 || targetShard >= shardRouter.getShardCount()) {
+		throw new IllegalArgumentException("Shard " + targetShard + " is not configured; there are "
+			+ shardRouter.getShardCount() + " shards.");
+	}
+
+	synchronized(moveLocks.computeIfAbsent(publisherId, id -> new Object())) {
+		return move(publisherId, targetShard);
+	}
+}
+
+private Map<String, Object> move(Long publisherId, int targetShard) {
+	int sourceShard = shardRouter.shardForPublisher(publisherId);
+	Map<String, Object> result = new LinkedHashMap<>();
+	result.put("publisherId", publisherId);
+	result.put("sourceShard", sourceShard);
+	result.put("targetShard", targetShard);
+
+	if(sourceShard == targetShard) {
+		result.put("moved", false);
+		return result;
+	}
+
+	Subtree subtree = markMovingAndSettle(publisherId, sourceShard);
+
+	try {
+		primaryTransactions.callOn(targetShard, () -> copySubtree(subtree));
+	}
+	catch(RuntimeException e) {
+		clearMoving(subtree, sourceShard);
+		throw e;
+	}
+
+	primaryTransactions.callOn(0, () -> assignShard(subtree, targetShard, false));
+	shardRouter.refreshAssignments();
+	primaryTransactions.callOn(sourceShard, () -> deleteSubtree(subtree));
+	catalogChanges.publisherChanged(publisherId);
+
+	log.info("Moved publisher {} with {} book stores and {} customers from shard {} to shard {}", publisherId,
+		subtree.bookStores.size(), subtree.customers.size(), sourceShard, targetShard);
+
+	result.put("moved", true);
+	result.put("bookStores", subtree.bookStores.size());
+	result.put("customers", subtree.customers.size());
+	result.put("memberships", subtree.memberships.size());
+	return result;
+}
+
+/* Marks the publisher and its book stores as moving, waits for the other instances and running writes, and then
+ * reads the subtree that is to be copied. If a book store appeared in the meantime it is marked too.
+ */
+
+private Subtree markMovingAndSettle(Long publisherId, int sourceShard) {
+	Set<Long> marked = null;
+
+	while(true) {
+		Subtree subtree = primaryTransactions.callOn(sourceShard, () -> readSubtree(publisherId));
+		Set<Long> bookStoreIds = subtree.bookStoreIds();
+
+		if(marked != null && marked.containsAll(bookStoreIds)) {
+			return subtree;
+		}
+
+		primaryTransactions.callOn(0, () -> assignShard(subtree, sourceShard, true));
+		shardRouter.refreshAssignments();
+		marked = bookStoreIds;
+
+		try {
+			Thread.sleep(shardingProperties.getMoveSettleTime().toMillis());
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			clearMoving(subtree, sourceShard);
+			throw new IllegalStateException("Interrupted while moving publisher " + publisherId, e);
+		}
+	}
+}
+
+private void clearMoving(Subtree subtree, int sourceShard) {
+	try {
+		primaryTransactions.callOn(0, () -> assignShard(subtree, sourceShard, false));
+		shardRouter.refreshAssignments();
+	}
+	catch(RuntimeException e) {
+		log.error("Publisher {} stays marked as moving; run the move again to finish it",
+			subtree.publisher.get("publisher_id"), e);
+	}
+}
+
+private Subtree readSubtree(Long publisherId) {
+	Subtree subtree = new Subtree();
+
+	try {
+		subtree.publisher = jdbcTemplate.queryForMap("SELECT publisher_id, publisher_name, publisher_phone, "
+			+ "publisher_email FROM publisher WHERE publisher_id = ?", publisherId);
+	}
+	catch(EmptyResultDataAccessException e) {
+		throw new NoSuchElementException("Publisher with Id=" + publisherId + " was not found.");
+	}
+
+	subtree.bookStores = jdbcTemplate.queryForList("SELECT book_store_id, book_store_name, book_store_address, "
+		+ "book_store_city, book_store_state, book_store_zip, book_store_phone, book_store_latitude, "
+		+ "book_store_longitude FROM book_store WHERE publisher_id = ?", publisherId);
+	subtree.customers = jdbcTemplate.queryForList("SELECT DISTINCT c.customer_id, c.customer_first_name, "
+		+ "c.customer_last_name, c.customer_email FROM customer c "
+		+ "JOIN book_store_customer m ON m.customer_id = c.customer_id "
+		+ "JOIN book_store b ON b.book_store_id = m.book_store_id WHERE b.publisher_id = ?", publisherId);
+	subtree.memberships = jdbcTemplate.query("SELECT m.book_store_id, m.customer_id FROM book_store_customer m "
+		+ "JOIN book_store b ON b.book_store_id = m.book_store_id WHERE b.publisher_id = ?",
+		(rs, rowNum) -> new long[] {rs.getLong(1), rs.getLong(2)}, publisherId);
+	subtree.idempotencyKeys = jdbcTemplate.queryForList("SELECT k.idempotency_key, k.book_store_id, k.request_hash, "
+		+ "k.customer_id, k.created_at FROM idempotency_key k "
+		+ "JOIN book_store b ON b.book_store_id = k.book_store_id WHERE b.publisher_id = ?", publisherId);
+	return subtree;
+}
+
+private Void copySubtree(Subtree subtree) {
+	Map<String, Object> publisher = subtree.publisher;
+	Integer copied = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM publisher WHERE publisher_id = ?",
+		Integer.class, publisher.get("publisher_id"));
+
+	if(copied > 0) {
+		log.info("Publisher {} is already on the target shard, skipping the copy", publisher.get("publisher_id"));
+		return null;
+	}
+
+	jdbcTemplate.update("INSERT INTO publisher (publisher_id, publisher_name, publisher_phone, "
+		+ "publisher_email) VALUES (?, ?, ?, ?)", publisher.get("publisher_id"), publisher.get("publisher_name"),
+		publisher.get("publisher_phone"), publisher.get("publisher_email"));
+
+	List<Object[]> bookStoreRows = new ArrayList<>();
+
+	for(Map<String, Object> bookStore : subtree.bookStores) {
+		bookStoreRows.add(new Object[] {bookStore.get("book_store_id"), bookStore.get("book_store_name"),
+			bookStore.get("book_store_address"), bookStore.get("book_store_city"), bookStore.get("book_store_state"),
+			bookStore.get("book_store_zip"), bookStore.get("book_store_phone"), bookStore.get("book_store_latitude"),
+			bookStore.get("book_store_longitude"), publisher.get("publisher_id")});
+	}
+	jdbcTemplate.batchUpdate("INSERT IGNORE INTO book_store (book_store_id, book_store_name, book_store_address, "
+		+ "book_store_city, book_store_state, book_store_zip, book_store_phone, book_store_latitude, "
+		+ "book_store_longitude, publisher_id) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)", bookStoreRows);
+
+	Map<Long, Long> customerIds = new HashMap<>();
+	List<Customer> withEmail = new ArrayList<>();
+
+	for(Map<String, Object> row : subtree.customers) {
+		Customer customer = new Customer();
+		customer.setCustomerId(((Number)row.get("customer_id")).longValue());
+		customer.setCustomerFirstName((String)row.get("customer_first_name"));
+		customer.setCustomerLastName((String)row.get("customer_last_name"));
+		customer.setCustomerEmail((String)row.get("customer_email"));
+
+		if(Objects.nonNull(customer.getCustomerEmail())) {
+			withEmail.add(customer);
+		}
+		else {
+			customerIds.put(customer.getCustomerId(),
+				insertCustomer(customer.getCustomerFirstName(), customer.getCustomerLastName()));
+		}
+	}
+
+	if(!withEmail.isEmpty()) {
+		Map<String, Long> targetIds = customerDao.upsertAllByEmail(withEmail);
+		withEmail.forEach(customer -> customerIds.put(customer.getCustomerId(),
+			targetIds.get(customer.getCustomerEmail())));
+	}
+
+	List<Object[]> membershipRows = new ArrayList<>();
+
+	for(long[] membership : subtree.memberships) {
+		membershipRows.add(new Object[] {membership[0], customerIds.get(membership[1])});
+	}
+	jdbcTemplate.batchUpdate("INSERT IGNORE INTO book_store_customer (book_store_id, customer_id) VALUES (?, ?)",
+		membershipRows);
+
+	List<Object[]> keyRows = new ArrayList<>();
+
+	for(Map<String, Object> key : subtree.idempotencyKeys) {
+		Long customerId = customerIds.get(((Number)key.get("customer_id")).longValue());
+
+		// The key's customer has left the book store since; a retry with it could not be replayed anyway
+		if(Objects.nonNull(customerId)) {
+			keyRows.add(new Object[] {key.get("idempotency_key"), key.get("book_store_id"), key.get("request_hash"),
+				customerId, key.get("created_at")});
+		}
+	}
+	jdbcTemplate.batchUpdate("INSERT IGNORE INTO idempotency_key (idempotency_key, book_store_id, request_hash, "
+		+ "customer_id, created_at) VALUES (?, ?, ?, ?, ?)", keyRows);
+	return null;
+}
+
+private Long insertCustomer(String firstName, String lastName) {
+	KeyHolder keyHolder = new GeneratedKeyHolder();
+
+	jdbcTemplate.update(connection -> {
+		PreparedStatement statement = connection.prepareStatement(
+			"INSERT INTO customer (customer_first_name, customer_last_name) VALUES (?, ?)",
+			Statement.RETURN_GENERATED_KEYS);
+		statement.setString(1, firstName);
+		statement.setString(2, lastName);
+		return statement;
+	}, keyHolder);
+	return keyHolder.getKey().longValue();
+}
+
+/* Writes the shard of the publisher and its book stores to shard_assignment, marked as moving or not. */
+
+private Void assignShard(Subtree subtree, int shard, boolean moving) {
+	String sql = "INSERT INTO shard_assignment (entity_type, entity_id, shard, moving) VALUES (?, ?, ?, ?) "
+		+ "ON DUPLICATE KEY UPDATE shard = VALUES(shard), moving = VALUES(moving)";
+	List<Object[]> rows = new ArrayList<>();
+	rows.add(new Object[] {ShardRouter.PUBLISHER, subtree.publisher.get("publisher_id"), shard, moving});
+
+	for(Map<String, Object> bookStore : subtree.bookStores) {
+		rows.add(new Object[] {ShardRouter.BOOK_STORE, bookStore.get("book_store_id"), shard, moving});
+	}
+	jdbcTemplate.batchUpdate(sql, rows);
+	return null;
+}
+
+private Void deleteSubtree(Subtree subtree) {
+	List<Object[]> bookStoreIds = new ArrayList<>();
+
+	for(Map<String, Object> bookStore : subtree.bookStores) {
+		bookStoreIds.add(new Object[] {bookStore.get("book_store_id")});
+	}
+
+	List<Object[]> customerIds = new ArrayList<>();
+
+	for(Map<String, Object> customer : subtree.customers) {
+		customerIds.add(new Object[] {customer.get("customer_id"), customer.get("customer_id")});
+	}
+
+	jdbcTemplate.batchUpdate("DELETE FROM idempotency_key WHERE book_store_id = ?", bookStoreIds);
+	jdbcTemplate.batchUpdate("DELETE FROM book_store_customer WHERE book_store_id = ?", bookStoreIds);
+	jdbcTemplate.batchUpdate("DELETE FROM book_store WHERE book_store_id = ?", bookStoreIds);
+	jdbcTemplate.update("DELETE FROM publisher WHERE publisher_id = ?", subtree.publisher.get("publisher_id"));
+	jdbcTemplate.batchUpdate("DELETE FROM customer WHERE customer_id = ? AND NOT EXISTS "
+		+ "(SELECT 1 FROM book_store_customer m WHERE m.customer_id = ?)", customerIds);
+	return null;
+}
+
+private static class Subtree {
+	private Map<String, Object> publisher;
+	private List<Map<String, Object>> bookStores;
+	private List<Map<String, Object>> customers;
+	private List<long[]> memberships;
+	private List<Map<String, Object>> idempotencyKeys;
+
+	private Set<Long> bookStoreIds() {
+		return bookStores.stream().map(bookStore -> ((Number)bookStore.get("book_store_id")).longValue())
+			.collect(Collectors.toSet());
+	}
+}
+}
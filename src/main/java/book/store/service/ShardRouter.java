@@ -0,0 +1,225 @@
+package book.store.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import book.store.config.ReadYourWritesContext;
+import book.store.config.ShardContext;
+import book.store.config.ShardRoutingDataSource;
+import book.store.config.ShardingProperties;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+
+/* The ShardRouter decides which shard a publisher or book store lives on.
+ *
+ * Publisher and book store IDs are generated from the id_sequence of the shard they are created on, and shard n
+ * hands out IDs from n << idRangeBits upwards, so the shard is normally the ID shifted right by idRangeBits. IDs
+ * created before sharding was turned on are all below 1 << idRangeBits and so stay on shard 0. Publishers and book
+ * stores that the ShardRebalancer moved are listed in the shard_assignment table on shard 0; those assignments are
+ * kept in memory and reloaded every assignmentRefreshInterval. So are the publishers and book stores that are
+ * being moved right now: requireWritable turns writes to them away with a 503 until the move is done.
+ *
+ * New publishers are spread over the shards round robin. Their book stores, and the customers of those stores,
+ * are always written to the publisher's shard.
+ *
+ * onEveryShard runs the same work on every shard at the same time, for the scatter-gather of GET /publisher.
+ */
+
+@Service
+@Slf4j
+public class ShardRouter {
+
+static final String PUBLISHER = "publisher";
+static final String BOOK_STORE = "book_store";
+
+@Autowired
+private ShardRoutingDataSource shardRoutingDataSource;
+
+@Autowired
+private ShardingProperties shardingProperties;
+
+@Autowired
+private JdbcTemplate jdbcTemplate;
+
+private final AtomicInteger nextShard = new AtomicInteger();
+private volatile Map<Long, Integer> publisherAssignments = Map.of();
+private volatile Map<Long, Integer> bookStoreAssignments = Map.of();
+private volatile Set<Long> movingPublishers = Set.of();
+private volatile Set<Long> movingBookStores = Set.of();
+private ExecutorService scatterExecutor;
+
+@PostConstruct
+void start() {
+	if(getShardCount() > 1) {
+		AtomicInteger threadNumber = new AtomicInteger();
+
+		scatterExecutor = Executors.newFixedThreadPool(shardingProperties.getScatterThreads(), runnable -> {
+			Thread thread = new Thread(runnable, "shard-scatter-" + threadNumber.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+	refreshAssignments();
+}
+
+@PreDestroy
+void stop() {
+	if(scatterExecutor != null) {
+		scatterExecutor.shutdownNow();
+	}
+}
+
+public int getShardCount() {
+	return shardRoutingDataSource.getShardCount();
+}
+
+public int shardForPublisher(Long publisherId) {
+	Integer assigned = publisherAssignments.get(publisherId);
+	return assigned == null ? shardOfId(publisherId) : assigned;
+}
+
+public int shardForBookStore(Long bookStoreId) {
+	Integer assigned = bookStoreAssignments.get(bookStoreId);
+	return assigned == null ? shardOfId(bookStoreId) : assigned;
+}
+
+public int shardForNewPublisher() {
+	return Math.floorMod(nextShard.getAndIncrement(), getShardCount());
+}
+
+/* Throws a ServiceUnavailableException if the publisher or book store is being moved to another shard. A write
+ * that went to the source shard now could be lost when the source rows are deleted at the end of the move.
+ */
+
+public void requireWritable(Sharded.Key key, Long id) {
+	Set<Long> moving = key == Sharded.Key.BOOK_STORE ? movingBookStores : movingPublishers;
+
+	if(id != null && moving.contains(id)) {
+		throw new ServiceUnavailableException((key == Sharded.Key.BOOK_STORE ? "Book store " : "Publisher ") + id
+			+ " is being moved to another shard", Math.max(1, shardingProperties.getAssignmentRefreshInterval()
+				.toSeconds()));
+	}
+}
+
+/* The shard an ID was generated on. An ID from a range with no configured shard cannot be routed anywhere, so it
+ * is reported as not found, the same as an ID that does not exist.
+ */
+
+private int shardOfId(Long id) {
+	Objects.requireNonNull(id, "id");
+	long shard = id >>> shardingProperties.getIdRangeBits();
+
+	if(shard >= getShardCount()) {
+		throw new NoSuchElementException("ID " + id + " belongs to shard " + shard
+			+ ", which is not configured.");
+	}
+	return (int)shard;
+}
+
+/* Reloads the publishers and book stores that were moved away from the shard of their ID, and the ones being
+ * moved.
+ */
+
+@Scheduled(fixedDelayString = "${book-store.sharding.assignment-refresh-interval:30s}",
+	initialDelayString = "${book-store.sharding.assignment-refresh-interval:30s}")
+public void refreshAssignments() {
+	Map<Long, Integer> publishers = new HashMap<>();
+	Map<Long, Integer> bookStores = new HashMap<>();
+	Set<Long> publishersMoving = new HashSet<>();
+	Set<Long> bookStoresMoving = new HashSet<>();
+
+	try {
+		ShardContext.callOn(0, () -> {
+			jdbcTemplate.query("SELECT entity_type, entity_id, shard, moving FROM shard_assignment", rs -> {
+				boolean publisher = PUBLISHER.equals(rs.getString(1));
+				(publisher ? publishers : bookStores).put(rs.getLong(2), rs.getInt(3));
+
+				if(rs.getBoolean(4)) {
+					(publisher ? publishersMoving : bookStoresMoving).add(rs.getLong(2));
+				}
+			});
+			return null;
+		});
+	}
+	catch(DataAccessException e) {
+		log.warn("Could not load shard assignments, keeping the previous ones: {}", e.toString());
+		return;
+	}
+
+	publisherAssignments = Map.copyOf(publishers);
+	bookStoreAssignments = Map.copyOf(bookStores);
+	movingPublishers = Set.copyOf(publishersMoving);
+	movingBookStores = Set.copyOf(bookStoresMoving);
+}
+
+/* Runs work on every shard and returns the results in shard order. With more than one shard the shards are
+ * queried in parallel; the calling request's read-your-writes pin is carried over to the worker threads so they
+ * route their reads the same way the request would.
+ */
+
+public <T> List<T> onEveryShard(IntFunction<T> work) {
+	int shardCount = getShardCount();
+
+	if(scatterExecutor == null) {
+		List<T> results = new ArrayList<>(shardCount);
+
+		for(int shard = 0; shard < shardCount; shard++) {
+			int current = shard;
+			results.add(ShardContext.callOn(current, () -> work.apply(current)));
+		}
+		return results;
+	}
+
+	boolean pinnedToPrimary = ReadYourWritesContext.isPinnedToPrimary();
+	List<CompletableFuture<T>> futures = new ArrayList<>(shardCount);
+
+	for(int shard = 0; shard < shardCount; shard++) {
+		int current = shard;
+
+		futures.add(CompletableFuture.supplyAsync(() -> {
+			if(pinnedToPrimary) {
+				ReadYourWritesContext.pinToPrimary();
+			}
+
+			try {
+				return ShardContext.callOn(current, () -> work.apply(current));
+			}
+			finally {
+				ReadYourWritesContext.clear();
+			}
+		}, scatterExecutor));
+	}
+
+	List<T> results = new ArrayList<>(shardCount);
+
+	try {
+		for(CompletableFuture<T> future : futures) {
+			results.add(future.join());
+		}
+	}
+	catch(CompletionException e) {
+		if(e.getCause() instanceof RuntimeException cause) {
+			throw cause;
+		}
+		throw e;
+	}
+	return results;
+}
+}
@@ -0,0 +1,31 @@
+package book.store.service;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/* @Sharded marks a service method whose database work belongs to one shard. The ShardingAspect takes the shard
+ * key from the method's first argument and sets the ShardContext for the duration of the call.
+ *
+ * PUBLISHER: the first argument is the publisher ID, or a BookStorePublisher whose ID is used. A publisher without
+ * an ID is new and is placed on a shard by the ShardRouter.
+ *
+ * BOOK_STORE: the first argument is the book store ID.
+ *
+ * Unless readOnly is set, the method writes, and the ShardingAspect turns it away while the publisher or book store
+ * is being moved to another shard.
+ */
+
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Sharded {
+
+	Key value();
+
+	boolean readOnly() default false;
+
+	enum Key {
+		PUBLISHER, BOOK_STORE
+	}
+}
@@ -0,0 +1,58 @@
+package book.store.service;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import book.store.config.ShardContext;
+import book.store.controller.model.BookStorePublisher;
+
+/* The ShardingAspect wraps every method annotated with @Sharded and runs it with the ShardContext set to the shard
+ * of its publisher or book store.
+ *
+ * It runs before the concurrency limiter and the transaction interceptor, so the shard is known before the
+ * transaction's first statement asks for a connection. The previous shard is put back afterwards, so a sharded
+ * method called from another one (or from the ShardRebalancer) does not leave its shard behind.
+ *
+ * A method that writes is rejected with a 503 while its publisher or book store is being moved.
+ */
+
+@Aspect
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 50)
+public class ShardingAspect {
+
+@Autowired
+private ShardRouter shardRouter;
+
+@Around("@annotation(sharded)")
+public Object route(ProceedingJoinPoint joinPoint, Sharded sharded) throws Throwable {
+	Object key = joinPoint.getArgs()[0];
+	int shard;
+
+	Long id = key instanceof BookStorePublisher publisher ? publisher.getPublisherId() : (Long)key;
+
+	if(sharded.value() == Sharded.Key.BOOK_STORE) {
+		shard = shardRouter.shardForBookStore(id);
+	}
+	else {
+		shard = id == null ? shardRouter.shardForNewPublisher() : shardRouter.shardForPublisher(id);
+	}
+
+	if(!sharded.readOnly()) {
+		shardRouter.requireWritable(sharded.value(), id);
+	}
+
+	Integer previous = ShardContext.use(shard);
+
+	try {
+		return joinPoint.proceed();
+	}
+	finally {
+		ShardContext.restore(previous);
+	}
+}
+}
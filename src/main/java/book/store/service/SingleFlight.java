@@ -0,0 +1,193 @@
+package book.store.service;
+
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/* SingleFlight collapses concurrent calls for the same key into one load. The first caller for a key becomes the
+ * leader and runs the loader on its own thread; every caller that arrives while that load is still running joins
+ * it and waits (at most waitTimeout) for the same result or exception. Once the load finishes the key is removed,
+ * so the next request after that triggers a fresh load. Nothing is cached beyond the lifetime of one load.
+ *
+ * The value handed to the followers is the same object the leader got back, so callers must treat it as read only.
+ *
+ * Totals are published as Micrometer counters tagged with the name of the flight. The number of collapsed
+ * requests is also kept per key (up to maxTrackedKeys distinct keys, the rest are summed under "other") so the
+ * coalescing actuator endpoint can show which IDs are hot.
+ */
+
+public class SingleFlight<K, V> {
+
+	private final String name;
+	private final boolean enabled;
+	private final Duration waitTimeout;
+	private final int maxTrackedKeys;
+
+	private final Map<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+	private final Map<K, LongAdder> collapsedByKey = new ConcurrentHashMap<>();
+	private final LongAdder collapsedOther = new LongAdder();
+
+	private final Counter loads;
+	private final Counter collapsed;
+	private final Counter timeouts;
+
+	public SingleFlight(String name, boolean enabled, Duration waitTimeout, int maxTrackedKeys,
+			MeterRegistry meterRegistry) {
+		this.name = name;
+		this.enabled = enabled;
+		this.waitTimeout = waitTimeout;
+		this.maxTrackedKeys = maxTrackedKeys;
+
+		loads = Counter.builder("bookstore.coalescing.loads").tag("flight", name)
+				.description("Loads that actually ran against the database").register(meterRegistry);
+		collapsed = Counter.builder("bookstore.coalescing.collapsed").tag("flight", name)
+				.description("Requests that shared another request's in-flight load").register(meterRegistry);
+		timeouts = Counter.builder("bookstore.coalescing.timeouts").tag("flight", name)
+				.description("Followers that gave up waiting for the shared load").register(meterRegistry);
+		Gauge.builder("bookstore.coalescing.in.flight", inFlight, Map::size).tag("flight", name)
+				.description("Keys currently being loaded").register(meterRegistry);
+	}
+
+/* The execute method returns the value for key, either by running loader itself or by waiting on the load that is
+ * already running for the same key. Runtime exceptions thrown by the loader (for example NoSuchElementException for
+ * an unknown publisher) are rethrown to the leader and to every follower, so they all get the same error response.
+ */
+
+	public V execute(K key, Supplier<V> loader) {
+		if(!enabled) {
+			return loader.get();
+		}
+
+		CompletableFuture<V> created = new CompletableFuture<>();
+		CompletableFuture<V> existing = inFlight.putIfAbsent(key, created);
+
+		if(existing == null) {
+			return lead(key, created, loader);
+		}
+
+		collapsed.increment();
+		countCollapsed(key);
+		return follow(key, existing);
+	}
+
+	private V lead(K key, CompletableFuture<V> created, Supplier<V> loader) {
+		loads.increment();
+		try {
+			V value = loader.get();
+			created.complete(value);
+			return value;
+		}
+		catch(RuntimeException | Error e) {
+			created.completeExceptionally(e);
+			throw e;
+		}
+		finally {
+			inFlight.remove(key, created);
+		}
+	}
+
+	private V follow(K key, CompletableFuture<V> existing) {
+		try {
+			return existing.get(waitTimeout.toMillis(), TimeUnit.MILLISECONDS);
+		}
+		catch(TimeoutException e) {
+			timeouts.increment();
+			throw new ServiceUnavailableException("Timed out waiting for the " + name + " load of key=" + key,
+					Math.max(1, waitTimeout.toSeconds()));
+		}
+		catch(ExecutionException e) {
+			Throwable cause = e.getCause();
+			if(cause instanceof RuntimeException runtimeException) {
+				throw runtimeException;
+			}
+			if(cause instanceof Error error) {
+				throw error;
+			}
+			throw new IllegalStateException(cause);
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for the " + name + " load of key=" + key, e);
+		}
+	}
+
+	private void countCollapsed(K key) {
+		LongAdder counter = collapsedByKey.get(key);
+
+		if(counter == null && collapsedByKey.size() < maxTrackedKeys) {
+			counter = collapsedByKey.computeIfAbsent(key, k -> new LongAdder());
+		}
+
+		if(counter == null) {
+			collapsedOther.increment();
+		}
+		else {
+			counter.increment();
+		}
+	}
+
+/* Returns the keys with the most collapsed requests, highest first, limited to the given number of entries. */
+
+	public Map<K, Long> topCollapsedKeys(int limit) {
+		Map<K, Long> result = new LinkedHashMap<>();
+
+		collapsedByKey.entrySet().stream()
+				.sorted(Comparator.comparingLong((Map.Entry<K, LongAdder> entry) -> entry.getValue().sum()).reversed())
+				.limit(limit)
+				.forEach(entry -> result.put(entry.getKey(), entry.getValue().sum()));
+
+		return result;
+	}
+
+/* Makes the next caller for key start a fresh load instead of joining the one that is running. Callers that already
+ * joined it still get its result. Used when the data behind key has changed, so nobody new waits for a load that
+ * may have read the old data.
+ */
+
+	public void forget(K key) {
+		inFlight.remove(key);
+	}
+
+	public void forgetAll() {
+		inFlight.clear();
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public long getLoadCount() {
+		return (long)loads.count();
+	}
+
+	public long getCollapsedCount() {
+		return (long)collapsed.count();
+	}
+
+	public long getTimeoutCount() {
+		return (long)timeouts.count();
+	}
+
+	public long getCollapsedUntrackedCount() {
+		return collapsedOther.sum();
+	}
+
+	public int getInFlightCount() {
+		return inFlight.size();
+	}
+}
@@ -0,0 +1,243 @@
+package book.store.service;
+
+import java.util.Arrays;
+
+/* The StoreKdTree is a three dimensional k-d tree over book store locations. Latitude and longitude are turned into
+ * points on the unit sphere, so the straight-line (chord) distance between two points grows with the great circle
+ * distance and nothing special happens at the poles or at the 180th meridian.
+ *
+ * The tree is implicit: order holds the point numbers so that for every range [lo, hi) the point in the middle
+ * splits the rest on the axis of its depth, lower values to the left. It is built once and only read afterwards,
+ * so concurrent queries need no locking. A query walks down to the query point and only visits the other side of a
+ * split when that side can still hold a point closer than the k-th best found so far.
+ */
+
+final class StoreKdTree {
+
+private static final double EARTH_RADIUS_MILES = 3958.8;
+
+private final double[][] coordinates;
+private final int[] order;
+
+StoreKdTree(double[] latitudes, double[] longitudes) {
+	int size = latitudes.length;
+	coordinates = new double[3][size];
+	order = new int[size];
+
+	for(int point = 0; point < size; point++) {
+		double[] xyz = toUnitVector(latitudes[point], longitudes[point]);
+		coordinates[0][point] = xyz[0];
+		coordinates[1][point] = xyz[1];
+		coordinates[2][point] = xyz[2];
+		order[point] = point;
+	}
+	build(0, size, 0);
+}
+
+int size() {
+	return order.length;
+}
+
+/* Returns the numbers of the k points nearest to the location, nearest first, with their distances in miles in
+ * the second array.
+ */
+
+Nearest nearest(double latitude, double longitude, int k) {
+	double[] query = toUnitVector(latitude, longitude);
+	Best best = new Best(Math.min(k, order.length));
+
+	if(best.capacity > 0) {
+		search(0, order.length, 0, query, best);
+	}
+	return best.sorted();
+}
+
+private void build(int lo, int hi, int depth) {
+	if(hi - lo < 2) {
+		return;
+	}
+
+	int mid = (lo + hi) >>> 1;
+	select(lo, hi - 1, mid, coordinates[depth % 3]);
+	build(lo, mid, depth + 1);
+	build(mid + 1, hi, depth + 1);
+}
+
+/* Quickselect: moves the point with the k-th smallest coordinate to position k, smaller ones before it and larger
+ * ones after it.
+ */
+
+private void select(int left, int right, int k, double[] axis) {
+	while(right > left) {
+		double pivot = axis[order[(left + right) >>> 1]];
+		int i = left;
+		int j = right;
+
+		while(i <= j) {
+			while(axis[order[i]] < pivot) {
+				i++;
+			}
+
+			while(axis[order[j]] > pivot) {
+				j--;
+			}
+
+			if(i <= j) {
+				int swap = order[i];
+				order[i++] = order[j];
+				order[j--] = swap;
+			}
+		}
+
+		if(k <= j) {
+			right = j;
+		}
+		else if(k >= i) {
+			left = i;
+		}
+		else {
+			return;
+		}
+	}
+}
+
+private void search(int lo, int hi, int depth, double[] query, Best best) {
+	if(lo >= hi) {
+		return;
+	}
+
+	int mid = (lo + hi) >>> 1;
+	int point = order[mid];
+	double dx = coordinates[0][point] - query[0];
+	double dy = coordinates[1][point] - query[1];
+	double dz = coordinates[2][point] - query[2];
+	best.offer(point, dx * dx + dy * dy + dz * dz);
+
+	double split = query[depth % 3] - coordinates[depth % 3][point];
+
+	if(split < 0) {
+		search(lo, mid, depth + 1, query, best);
+
+		if(split * split < best.worst()) {
+			search(mid + 1, hi, depth + 1, query, best);
+		}
+	}
+	else {
+		search(mid + 1, hi, depth + 1, query, best);
+
+		if(split * split < best.worst()) {
+			search(lo, mid, depth + 1, query, best);
+		}
+	}
+}
+
+private static double[] toUnitVector(double latitude, double longitude) {
+	double lat = Math.toRadians(latitude);
+	double lon = Math.toRadians(longitude);
+	double cosLat = Math.cos(lat);
+	return new double[] {cosLat * Math.cos(lon), cosLat * Math.sin(lon), Math.sin(lat)};
+}
+
+/* Turns a squared chord length on the unit sphere into miles along the surface. */
+
+private static double miles(double squaredChord) {
+	double chord = Math.sqrt(squaredChord);
+	return 2 * Math.asin(Math.min(1, chord / 2)) * EARTH_RADIUS_MILES;
+}
+
+record Nearest(int[] points, double[] miles) {
+}
+
+/* The k best points so far as a max-heap on the squared distance, so the worst of them is at the top. */
+
+private static final class Best {
+	private final int capacity;
+	private final int[] points;
+	private final double[] distances;
+	private int size;
+
+	private Best(int capacity) {
+		this.capacity = capacity;
+		this.points = new int[capacity];
+		this.distances = new double[capacity];
+	}
+
+	private double worst() {
+		return size < capacity ? Double.POSITIVE_INFINITY : distances[0];
+	}
+
+	private void offer(int point, double distance) {
+		if(size < capacity) {
+			points[size] = point;
+			distances[size] = distance;
+			siftUp(size++);
+		}
+		else if(distance < distances[0]) {
+			points[0] = point;
+			distances[0] = distance;
+			siftDown(0);
+		}
+	}
+
+	private void siftUp(int index) {
+		while(index > 0) {
+			int parent = (index - 1) / 2;
+
+			if(distances[parent] >= distances[index]) {
+				return;
+			}
+			swap(parent, index);
+			index = parent;
+		}
+	}
+
+	private void siftDown(int index) {
+		while(true) {
+			int largest = index;
+			int left = 2 * index + 1;
+			int right = left + 1;
+
+			if(left < size && distances[left] > distances[largest]) {
+				largest = left;
+			}
+
+			if(right < size && distances[right] > distances[largest]) {
+				largest = right;
+			}
+
+			if(largest == index) {
+				return;
+			}
+			swap(index, largest);
+			index = largest;
+		}
+	}
+
+	private void swap(int a, int b) {
+		int point = points[a];
+		points[a] = points[b];
+		points[b] = point;
+		double distance = distances[a];
+		distances[a] = distances[b];
+		distances[b] = distance;
+	}
+
+	private Nearest sorted() {
+		Integer[] byDistance = new Integer[size];
+
+		for(int index = 0; index < size; index++) {
+			byDistance[index] = index;
+		}
+		Arrays.sort(byDistance, (a, b) -> Double.compare(distances[a], distances[b]));
+
+		int[] nearestPoints = new int[size];
+		double[] nearestMiles = new double[size];
+
+		for(int index = 0; index < size; index++) {
+			nearestPoints[index] = points[byDistance[index]];
+			nearestMiles[index] = miles(distances[byDistance[index]]);
+		}
+		return new Nearest(nearestPoints, nearestMiles);
+	}
+}
+}
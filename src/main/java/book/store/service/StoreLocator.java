@@ -0,0 +1,302 @@
+package book.store.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
+import javax.sql.DataSource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+import book.store.config.StoreLocatorProperties;
+import book.store.controller.model.NearbyBookStore;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+
+/* The StoreLocator answers "the k book stores nearest to this zip code" from a StoreKdTree of every located book
+ * store on every shard, when book-store.store-locator.enabled is on.
+ *
+ * A store is located by the coordinates saveBookStore stored with it, or else by the centroid of its zip code, so
+ * stores written before the coordinates existed (or by the DataGenerator) are found too. Stores whose zip code is
+ * not in the centroid file are left out.
+ *
+ * The index is built from book_store at start-up and again every rebuildInterval. Publishers and book stores
+ * changed on this instance arrive through CatalogChanges after their transaction committed and are loaded again by
+ * a refresh every refreshInterval, which then builds a new tree. The rebuild and the refresh are those of a
+ * BackgroundRefresher, whose thread is the only one that changes the stores, and read through PrimaryTransactions.
+ * Queries read the tree that was last put in place without any locking.
+ *
+ * Meters: bookstore.store.locator.stores and the bookstore.store.locator.query timer.
+ */
+
+@Service
+@Slf4j
+public class StoreLocator extends BackgroundRefresher implements CatalogChangeListener {
+
+private static final int IN_LIST_SIZE = 500;
+
+private static final String STORES = "SELECT book_store_id, publisher_id, book_store_name, book_store_city, "
+	+ "book_store_state, book_store_zip, book_store_latitude, book_store_longitude FROM book_store";
+
+@Autowired
+private StoreLocatorProperties properties;
+
+@Autowired
+private ZipCentroids zipCentroids;
+
+@Autowired
+private ShardRouter shardRouter;
+
+@Autowired
+private DataSource dataSource;
+
+@Autowired
+private PrimaryTransactions primaryTransactions;
+
+@Autowired
+private MeterRegistry meterRegistry;
+
+private final Set<Long> changedPublishers = ConcurrentHashMap.newKeySet();
+private final Set<Long> changedBookStores = ConcurrentHashMap.newKeySet();
+
+private Map<Long, LocatedStore> stores;
+private volatile Index index;
+
+private NamedParameterJdbcTemplate jdbcTemplate;
+private Timer queryTimer;
+
+@PostConstruct
+void start() {
+	if(!properties.isEnabled()) {
+		return;
+	}
+
+	if(!zipCentroids.isLoaded()) {
+		log.warn("The store locator is enabled without book-store.store-locator.zip-centroids; "
+			+ "GET /bookStore/near answers 503 until a centroid file is configured");
+	}
+
+	jdbcTemplate = new NamedParameterJdbcTemplate(dataSource);
+	queryTimer = Timer.builder("bookstore.store.locator.query")
+		.description("Time to find the book stores nearest to a zip code").register(meterRegistry);
+	Gauge.builder("bookstore.store.locator.stores", this, locator -> {
+		Index current = locator.index;
+		return current == null ? 0 : current.stores().length;
+	}).description("Book stores in the store locator index").register(meterRegistry);
+
+	startRefreshing("store-locator", properties.getRebuildInterval(), properties.getRefreshInterval());
+}
+
+/* Returns the k book stores nearest to the centroid of the zip code, nearest first. k defaults to
+ * defaultResults and is capped at maxResults. An unknown zip code is a NoSuchElementException. While the locator
+ * is off, has not built its index yet or has no zip code centroid file to look the zip code up in, the answer is a
+ * 503.
+ */
+
+public List<NearbyBookStore> findNearest(String zip, Integer k) {
+	Index current = index;
+
+	if(current == null) {
+		throw new ServiceUnavailableException("The store locator is not ready",
+			Math.max(1, properties.getRefreshInterval().toSeconds()));
+	}
+
+	if(!zipCentroids.isLoaded()) {
+		throw new ServiceUnavailableException("The store locator has no zip code centroid file",
+			Math.max(1, properties.getRebuildInterval().toSeconds()));
+	}
+
+	double[] location = zipCentroids.find(zip)
+		.orElseThrow(() -> new NoSuchElementException("Zip code " + zip + " was not found"));
+	int count = Objects.isNull(k) ? properties.getDefaultResults()
+		: Math.max(1, Math.min(k, properties.getMaxResults()));
+
+	long start = System.nanoTime();
+	StoreKdTree.Nearest nearest = current.tree().nearest(location[0], location[1], count);
+	List<NearbyBookStore> result = new ArrayList<>(nearest.points().length);
+
+	for(int position = 0; position < nearest.points().length; position++) {
+		LocatedStore store = current.stores()[nearest.points()[position]];
+		NearbyBookStore nearby = new NearbyBookStore();
+		nearby.setBookStoreId(store.bookStoreId());
+		nearby.setPublisherId(store.publisherId());
+		nearby.setBookStoreName(store.name());
+		nearby.setBookStoreCity(store.city());
+		nearby.setBookStoreState(store.state());
+		nearby.setBookStoreZip(store.zip());
+		nearby.setLatitude(store.latitude());
+		nearby.setLongitude(store.longitude());
+		nearby.setDistanceMiles(nearest.miles()[position]);
+		result.add(nearby);
+	}
+
+	queryTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+	return result;
+}
+
+@Override
+public void publishersChanged(Collection<Long> publisherIds) {
+	if(properties.isEnabled()) {
+		changedPublishers.addAll(publisherIds);
+	}
+}
+
+@Override
+public void bookStoresChanged(Collection<Long> bookStoreIds) {
+	if(properties.isEnabled()) {
+		changedBookStores.addAll(bookStoreIds);
+	}
+}
+
+@Override
+public void customersChanged(int shard, Collection<Long> customerIds) {
+}
+
+@Override
+protected void rebuildAll() {
+	long start = System.nanoTime();
+	Map<Long, LocatedStore> loaded = new HashMap<>();
+	shardRouter.onEveryShard(shard -> primaryTransactions.call(() -> load(shard, "", new MapSqlParameterSource())))
+		.forEach(loaded::putAll);
+
+	stores = loaded;
+	install();
+	log.info("Store locator index rebuilt with {} located book stores in {} ms", loaded.size(),
+		TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+}
+
+@Override
+protected boolean isReady() {
+	return stores != null;
+}
+
+/* A failed reload leaves stores as it was before, so applying the changes again on the next refresh is safe. */
+
+@Override
+protected void refreshChanges(PendingChanges pending) {
+	Set<Long> publishers = pending.take(changedPublishers);
+	Set<Long> bookStores = pending.take(changedBookStores);
+
+	if(pending.isEmpty()) {
+		return;
+	}
+
+	reload(publishers, "publisher_id", this::shardOfPublisher, LocatedStore::publisherId);
+	reload(bookStores, "book_store_id", this::shardOfBookStore, LocatedStore::bookStoreId);
+	install();
+}
+
+/* Drops the stores that belong to the given publishers or have the given IDs and loads them again from their
+ * shards. An ID that cannot be routed to any shard any more just loses its stores.
+ */
+
+private void reload(Set<Long> ids, String column, ToIntFunction<Long> shardOf, ToLongFunction<LocatedStore> key) {
+	if(ids.isEmpty()) {
+		return;
+	}
+
+	Map<Integer, List<Long>> byShard = new HashMap<>();
+
+	for(Long id : ids) {
+		int shard = shardOf.applyAsInt(id);
+
+		if(shard >= 0) {
+			byShard.computeIfAbsent(shard, unused -> new ArrayList<>()).add(id);
+		}
+	}
+
+	Map<Long, LocatedStore> loaded = new HashMap<>();
+
+	byShard.forEach((shard, shardIds) -> {
+		for(int start = 0; start < shardIds.size(); start += IN_LIST_SIZE) {
+			List<Long> chunk = shardIds.subList(start, Math.min(shardIds.size(), start + IN_LIST_SIZE));
+			loaded.putAll(primaryTransactions.callOn(shard, () -> load(shard, " WHERE " + column + " IN (:ids)",
+				new MapSqlParameterSource("ids", chunk))));
+		}
+	});
+
+	stores.values().removeIf(store -> ids.contains(key.applyAsLong(store)));
+	stores.putAll(loaded);
+}
+
+private int shardOfPublisher(Long publisherId) {
+	try {
+		return shardRouter.shardForPublisher(publisherId);
+	}
+	catch(NoSuchElementException e) {
+		return -1;
+	}
+}
+
+private int shardOfBookStore(Long bookStoreId) {
+	try {
+		return shardRouter.shardForBookStore(bookStoreId);
+	}
+	catch(NoSuchElementException e) {
+		return -1;
+	}
+}
+
+/* Builds a new tree from the current stores and puts it in place for the queries. */
+
+private void install() {
+	LocatedStore[] located = stores.values().toArray(LocatedStore[]::new);
+	double[] latitudes = new double[located.length];
+	double[] longitudes = new double[located.length];
+
+	for(int point = 0; point < located.length; point++) {
+		latitudes[point] = located[point].latitude();
+		longitudes[point] = located[point].longitude();
+	}
+	index = new Index(new StoreKdTree(latitudes, longitudes), located);
+}
+
+/* Reads the book stores that belong to the shard, with the given filter, and locates each one. */
+
+private Map<Long, LocatedStore> load(int shard, String filter, MapSqlParameterSource parameters) {
+	Map<Long, LocatedStore> loaded = new HashMap<>();
+
+	jdbcTemplate.query(STORES + filter, parameters, rs -> {
+		long bookStoreId = rs.getLong(1);
+
+		if(shardRouter.shardForBookStore(bookStoreId) != shard) {
+			return;
+		}
+
+		String zip = rs.getString(6);
+		double latitude = rs.getDouble(7);
+		boolean located = !rs.wasNull();
+		double longitude = rs.getDouble(8);
+		Optional<double[]> location = located && !rs.wasNull() ? Optional.of(new double[] {latitude, longitude})
+			: zipCentroids.find(zip);
+
+		if(location.isPresent()) {
+			loaded.put(bookStoreId, new LocatedStore(bookStoreId, rs.getLong(2), rs.getString(3), rs.getString(4),
+				rs.getString(5), zip, location.get()[0], location.get()[1]));
+		}
+	});
+	return loaded;
+}
+
+private record LocatedStore(long bookStoreId, long publisherId, String name, String city, String state, String zip,
+	double latitude, double longitude) {
+}
+
+/* The tree and the stores its point numbers refer to, always replaced together. */
+
+private record Index(StoreKdTree tree, LocatedStore[] stores) {
+}
+}
@@ -0,0 +1,518 @@
+package book.store.service;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import javax.sql.DataSource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+import book.store.config.SimilarityProperties;
+import book.store.dao.BookStoreSimilarityDao;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+
+/* The StoreSimilarityEngine works out, for every book store, the topK book stores whose customers overlap most with
+ * its own, and keeps them in the book_store_similarity table for GET /bookStore/{bookStoreId}/similar. It runs when
+ * book-store.similarity.enabled is on.
+ *
+ * A run reads the book stores and memberships of a shard into a CoMembershipGraph and splits the stores to compute
+ * into slices for a ForkJoinPool. For each store a worker counts, in a plain int array indexed by store, how many
+ * customers it shares with every other store reachable through its customers, and turns the counts into Jaccard
+ * indexes (shared / (customers of one + customers of the other - shared)). The best topK are kept in small
+ * primitive arrays, so the inner loops create no objects at all. The lists are then written back in batches, one
+ * transaction per 500 stores.
+ *
+ * Every fullInterval all stores are computed again. In between, saveCustomer reports the stores that got new
+ * customers through CatalogChanges.membershipsAdded, and every incrementalInterval only those stores and the stores
+ * sharing a customer with them (the only ones whose lists can have changed) are computed again. An incremental run
+ * only reads that neighbourhood: the memberships of the customers of those stores, and the customer counts of the
+ * stores they lead to. Both kinds of run are the rebuild and refresh of a BackgroundRefresher and read through
+ * PrimaryTransactions.
+ *
+ * Customer IDs are only unique within a shard, so stores are only compared with stores of the same shard.
+ *
+ * Meters: the bookstore.similarity.run timer (tagged full or incremental), bookstore.similarity.stores (lists
+ * written) and bookstore.similarity.pending.changes.
+ */
+
+@Service
+@Slf4j
+public class StoreSimilarityEngine extends BackgroundRefresher implements CatalogChangeListener {
+
+private static final int WRITE_CHUNK = 500;
+private static final int IN_LIST_SIZE = 1000;
+
+@Autowired
+private SimilarityProperties properties;
+
+@Autowired
+private ShardRouter shardRouter;
+
+@Autowired
+private DataSource dataSource;
+
+@Autowired
+private PrimaryTransactions primaryTransactions;
+
+@Autowired
+private BookStoreSimilarityDao bookStoreSimilarityDao;
+
+@Autowired
+private MeterRegistry meterRegistry;
+
+private final Map<Integer, Set<Long>> changedBookStores = new ConcurrentHashMap<>();
+
+private JdbcTemplate jdbcTemplate;
+private NamedParameterJdbcTemplate namedJdbcTemplate;
+private ForkJoinPool pool;
+private Timer fullTimer;
+private Timer incrementalTimer;
+private Counter storesComputed;
+
+private volatile Instant fullRunAt;
+private volatile Instant incrementalRunAt;
+private volatile int lastRunStores;
+
+@PostConstruct
+void start() {
+	if(!properties.isEnabled()) {
+		return;
+	}
+
+	jdbcTemplate = new JdbcTemplate(dataSource);
+	jdbcTemplate.setFetchSize(properties.getFetchSize());
+	namedJdbcTemplate = new NamedParameterJdbcTemplate(jdbcTemplate);
+
+	fullTimer = Timer.builder("bookstore.similarity.run").tag("mode", "full")
+		.description("Time to compute and write the similar book stores").register(meterRegistry);
+	incrementalTimer = Timer.builder("bookstore.similarity.run").tag("mode", "incremental")
+		.description("Time to compute and write the similar book stores").register(meterRegistry);
+	storesComputed = Counter.builder("bookstore.similarity.stores")
+		.description("Similarity lists computed and written").register(meterRegistry);
+	Gauge.builder("bookstore.similarity.pending.changes", this, StoreSimilarityEngine::pendingChanges)
+		.description("Book stores with new customers waiting for the next incremental run").register(meterRegistry);
+
+	int parallelism = properties.getParallelism() > 0 ? properties.getParallelism()
+		: Runtime.getRuntime().availableProcessors();
+	pool = new ForkJoinPool(parallelism);
+
+	startRefreshing("store-similarity", properties.getFullInterval(), properties.getIncrementalInterval());
+}
+
+@PreDestroy
+void stopPool() {
+	if(pool != null) {
+		pool.shutdownNow();
+	}
+}
+
+/* Queues a full run after the one that is running, if any. Used by the similarity actuator endpoint. */
+
+public void requestFullRun() {
+	requestRebuild();
+}
+
+@Override
+public void membershipsAdded(int shard, Long bookStoreId, Collection<Long> customerIds) {
+	if(properties.isEnabled()) {
+		changedBookStores.computeIfAbsent(shard, key -> ConcurrentHashMap.newKeySet()).add(bookStoreId);
+	}
+}
+
+/* Renamed publishers and book stores do not change any similarity, and a new book store has no customers yet. */
+
+@Override
+public void publishersChanged(Collection<Long> publisherIds) {
+}
+
+@Override
+public void bookStoresChanged(Collection<Long> bookStoreIds) {
+}
+
+@Override
+public void customersChanged(int shard, Collection<Long> customerIds) {
+}
+
+/* A full run computes every store, so the changes reported so far are covered by it. */
+
+@Override
+protected void rebuildAll() {
+	long start = System.nanoTime();
+	int stores = 0;
+
+	for(int shard = 0; shard < shardRouter.getShardCount(); shard++) {
+		Set<Long> changed = changedBookStores.get(shard);
+
+		if(changed != null) {
+			changed.clear();
+		}
+
+		try {
+			int current = shard;
+			stores += compute(shard, primaryTransactions.callOn(shard, () -> loadGraph(current)), null);
+		}
+		catch(RuntimeException e) {
+			log.warn("Computing the similar book stores of shard {} failed", shard, e);
+		}
+	}
+
+	fullTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+	fullRunAt = Instant.now();
+	lastRunStores = stores;
+	log.info("Similar book stores computed for {} book stores in {} ms", stores,
+		TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+}
+
+@Override
+protected boolean isReady() {
+	return fullRunAt != null;
+}
+
+@Override
+protected void refreshChanges(PendingChanges pending) {
+	long start = System.nanoTime();
+	int stores = 0;
+
+	for(Map.Entry<Integer, Set<Long>> entry : changedBookStores.entrySet()) {
+		int shard = entry.getKey();
+		Set<Long> changed = pending.take(entry.getValue());
+
+		if(!changed.isEmpty()) {
+			stores += compute(shard, primaryTransactions.callOn(shard, () -> loadNeighbourhood(shard, changed)),
+				changed);
+		}
+	}
+
+	if(stores > 0) {
+		incrementalTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+		incrementalRunAt = Instant.now();
+		lastRunStores = stores;
+	}
+}
+
+/* Computes and writes the lists of one shard: of every store of the graph when changed is null, otherwise of the
+ * changed stores and their neighbourhood. Returns the number of lists written.
+ */
+
+private int compute(int shard, CoMembershipGraph graph, Set<Long> changed) {
+	int[] targets;
+
+	if(changed == null) {
+		targets = new int[graph.storeCount()];
+
+		for(int store = 0; store < targets.length; store++) {
+			targets[store] = store;
+		}
+	}
+	else {
+		targets = graph.neighbourhood(changed.stream().mapToInt(id -> graph.indexOf(id)).filter(index -> index >= 0)
+			.toArray(), properties.getMaxStoresPerCustomer());
+	}
+
+	if(targets.length == 0) {
+		return 0;
+	}
+
+	TopSimilar[] results = new TopSimilar[targets.length];
+	int slice = Math.max(16, targets.length / (pool.getParallelism() * 8));
+	pool.invoke(new SimilarityTask(graph, targets, results, 0, targets.length, slice));
+
+	write(shard, graph, targets, results, Timestamp.from(Instant.now()));
+	storesComputed.increment(targets.length);
+	return targets.length;
+}
+
+private CoMembershipGraph loadGraph(int shard) {
+	CoMembershipGraph.Builder builder = new CoMembershipGraph.Builder();
+
+	jdbcTemplate.query("SELECT book_store_id FROM book_store", rs -> {
+		long bookStoreId = rs.getLong(1);
+
+		if(shardRouter.shardForBookStore(bookStoreId) == shard) {
+			builder.addStore(bookStoreId);
+		}
+	});
+	jdbcTemplate.query("SELECT book_store_id, customer_id FROM book_store_customer",
+		rs -> {
+			builder.addMembership(rs.getLong(1), rs.getLong(2));
+		});
+
+	return builder.build();
+}
+
+/* Loads the part of the shard's graph that the lists of the changed stores and their neighbours are computed from:
+ * the customers of the changed stores lead to the neighbours, and the customers of the neighbours lead to every
+ * store they can be compared with. Only the memberships of those customers are read, leaving out customers with
+ * more than maxStoresPerCustomer stores, as the computation skips them anyway. The stores are added with their
+ * real customer counts, which still include those customers.
+ */
+
+private CoMembershipGraph loadNeighbourhood(int shard, Set<Long> changed) {
+	List<long[]> memberships = new ArrayList<>();
+	Set<Long> neighbours = new HashSet<>(changed);
+
+	for(long[] membership : membershipsOf(lightCustomers(customersOf(changed)))) {
+		neighbours.add(membership[0]);
+	}
+
+	Set<Long> stores = new HashSet<>(neighbours);
+
+	for(long[] membership : membershipsOf(lightCustomers(customersOf(neighbours)))) {
+		stores.add(membership[0]);
+		memberships.add(membership);
+	}
+
+	CoMembershipGraph.Builder builder = new CoMembershipGraph.Builder();
+	Map<Long, Integer> customerCounts = new HashMap<>();
+
+	inLists(stores, ids -> namedJdbcTemplate.query("SELECT book_store_id, COUNT(*) FROM book_store_customer "
+		+ "WHERE book_store_id IN (:ids) GROUP BY book_store_id", Map.of("ids", ids), rs -> {
+			customerCounts.put(rs.getLong(1), rs.getInt(2));
+		}));
+
+	for(Long bookStoreId : stores) {
+		if(shardRouter.shardForBookStore(bookStoreId) == shard) {
+			builder.addStore(bookStoreId, customerCounts.getOrDefault(bookStoreId, 0));
+		}
+	}
+
+	for(long[] membership : memberships) {
+		builder.addMembership(membership[0], membership[1]);
+	}
+	return builder.build();
+}
+
+private Set<Long> customersOf(Set<Long> bookStoreIds) {
+	Set<Long> customerIds = new HashSet<>();
+
+	inLists(bookStoreIds, ids -> namedJdbcTemplate.query("SELECT customer_id FROM book_store_customer "
+		+ "WHERE book_store_id IN (:ids)", Map.of("ids", ids), rs -> {
+			customerIds.add(rs.getLong(1));
+		}));
+	return customerIds;
+}
+
+private Set<Long> lightCustomers(Set<Long> customerIds) {
+	Set<Long> light = new HashSet<>();
+
+	inLists(customerIds, ids -> namedJdbcTemplate.query("SELECT customer_id FROM book_store_customer "
+		+ "WHERE customer_id IN (:ids) GROUP BY customer_id HAVING COUNT(*) <= :max",
+		Map.of("ids", ids, "max", properties.getMaxStoresPerCustomer()), rs -> {
+			light.add(rs.getLong(1));
+		}));
+	return light;
+}
+
+/* Returns every membership of the customers as {bookStoreId, customerId}. */
+
+private List<long[]> membershipsOf(Set<Long> customerIds) {
+	List<long[]> memberships = new ArrayList<>();
+
+	inLists(customerIds, ids -> namedJdbcTemplate.query("SELECT book_store_id, customer_id FROM book_store_customer "
+		+ "WHERE customer_id IN (:ids)", Map.of("ids", ids), rs -> {
+			memberships.add(new long[] {rs.getLong(1), rs.getLong(2)});
+		}));
+	return memberships;
+}
+
+private static void inLists(Collection<Long> ids, Consumer<List<Long>> query) {
+	List<Long> all = new ArrayList<>(ids);
+
+	for(int start = 0; start < all.size(); start += IN_LIST_SIZE) {
+		query.accept(all.subList(start, Math.min(all.size(), start + IN_LIST_SIZE)));
+	}
+}
+
+private void write(int shard, CoMembershipGraph graph, int[] targets, TopSimilar[] results, Timestamp computedAt) {
+	for(int start = 0; start < targets.length; start += WRITE_CHUNK) {
+		int end = Math.min(targets.length, start + WRITE_CHUNK);
+		List<Long> bookStoreIds = new ArrayList<>(end - start);
+		List<Object[]> rows = new ArrayList<>();
+
+		for(int index = start; index < end; index++) {
+			long bookStoreId = graph.storeId(targets[index]);
+			TopSimilar top = results[index];
+			bookStoreIds.add(bookStoreId);
+
+			for(int rank = 0; rank < top.count; rank++) {
+				rows.add(new Object[] {bookStoreId, graph.storeId(top.stores[rank]), top.scores[rank],
+					top.shared[rank], computedAt});
+			}
+		}
+
+		try {
+			primaryTransactions.callOn(shard, () -> {
+				bookStoreSimilarityDao.replace(bookStoreIds, rows);
+				return null;
+			});
+		}
+		catch(RuntimeException e) {
+			log.warn("Writing the similar book stores of {} book stores on shard {} failed: {}", bookStoreIds.size(),
+				shard, e.toString());
+		}
+	}
+}
+
+private int pendingChanges() {
+	int pending = 0;
+
+	for(Set<Long> ids : changedBookStores.values()) {
+		pending += ids.size();
+	}
+	return pending;
+}
+
+/* Describes the engine for the similarity actuator endpoint. */
+
+public Map<String, Object> describe() {
+	Map<String, Object> result = new LinkedHashMap<>();
+	result.put("enabled", properties.isEnabled());
+	result.put("topK", properties.getTopK());
+	result.put("fullRunAt", fullRunAt);
+	result.put("incrementalRunAt", incrementalRunAt);
+	result.put("lastRunStores", lastRunStores);
+	result.put("pendingChanges", pendingChanges());
+	return result;
+}
+
+/* Computes the lists of targets[from..to). Slices larger than sliceSize are split in two; each leaf has its own
+ * count arrays, so the workers never share anything they write to except their own slots of results.
+ */
+
+private class SimilarityTask extends RecursiveAction {
+	private static final long serialVersionUID = 1L;
+
+	private final CoMembershipGraph graph;
+	private final int[] targets;
+	private final TopSimilar[] results;
+	private final int from;
+	private final int to;
+	private final int sliceSize;
+
+	private SimilarityTask(CoMembershipGraph graph, int[] targets, TopSimilar[] results, int from, int to,
+		int sliceSize) {
+		this.graph = graph;
+		this.targets = targets;
+		this.results = results;
+		this.from = from;
+		this.to = to;
+		this.sliceSize = sliceSize;
+	}
+
+	@Override
+	protected void compute() {
+		if(to - from > sliceSize) {
+			int middle = (from + to) >>> 1;
+			invokeAll(new SimilarityTask(graph, targets, results, from, middle, sliceSize),
+				new SimilarityTask(graph, targets, results, middle, to, sliceSize));
+			return;
+		}
+
+		int maxStoresPerCustomer = properties.getMaxStoresPerCustomer();
+		int minShared = Math.max(1, properties.getMinSharedCustomers());
+		int[] counts = new int[graph.storeCount()];
+		int[] touched = new int[graph.storeCount()];
+
+		for(int index = from; index < to; index++) {
+			int store = targets[index];
+			int touchedCount = 0;
+
+			for(int member = graph.firstMember(store); member < graph.endOfMembers(store); member++) {
+				int customer = graph.customerAt(member);
+				int first = graph.firstStore(customer);
+				int end = graph.endOfStores(customer);
+
+				if(end - first > maxStoresPerCustomer) {
+					continue;
+				}
+
+				for(int position = first; position < end; position++) {
+					int other = graph.storeAt(position);
+
+					if(other != store && counts[other]++ == 0) {
+						touched[touchedCount++] = other;
+					}
+				}
+			}
+
+			TopSimilar top = new TopSimilar(properties.getTopK());
+			int size = graph.customerCount(store);
+
+			for(int next = 0; next < touchedCount; next++) {
+				int other = touched[next];
+				int shared = counts[other];
+				counts[other] = 0;
+
+				if(shared >= minShared) {
+					top.offer(other, graph.storeId(other), shared / (double)(size + graph.customerCount(other) - shared),
+						shared);
+				}
+			}
+			results[index] = top;
+		}
+	}
+}
+
+/* The best k stores seen so far, most similar first, in parallel primitive arrays. Ties go to the lower book
+ * store ID so a run always writes the same lists for the same data.
+ */
+
+private static class TopSimilar {
+	private final int[] stores;
+	private final long[] storeIds;
+	private final double[] scores;
+	private final int[] shared;
+	private int count;
+
+	private TopSimilar(int k) {
+		stores = new int[k];
+		storeIds = new long[k];
+		scores = new double[k];
+		shared = new int[k];
+	}
+
+	private void offer(int store, long storeId, double score, int sharedCustomers) {
+		if(stores.length == 0 || (count == stores.length && !better(score, storeId, count - 1))) {
+			return;
+		}
+
+		int position = count == stores.length ? count - 1 : count++;
+
+		while(position > 0 && better(score, storeId, position - 1)) {
+			stores[position] = stores[position - 1];
+			storeIds[position] = storeIds[position - 1];
+			scores[position] = scores[position - 1];
+			shared[position] = shared[position - 1];
+			position--;
+		}
+
+		stores[position] = store;
+		storeIds[position] = storeId;
+		scores[position] = score;
+		shared[position] = sharedCustomers;
+	}
+
+	private boolean better(double score, long storeId, int position) {
+		return score > scores[position] || (score == scores[position] && storeId < storeIds[position]);
+	}
+}
+}
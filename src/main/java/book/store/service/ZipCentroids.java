@@ -0,0 +1,153 @@
+package book.store.service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Optional;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.stereotype.Component;
+import book.store.config.StoreLocatorProperties;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+
+/* ZipCentroids holds the latitude and longitude of every five digit zip code in the file named by
+ * book-store.store-locator.zip-centroids, read once at start-up. No file comes with the application; without one
+ * every lookup is empty.
+ *
+ * The coordinates sit in two arrays indexed by the zip code itself, so a lookup is two array reads. ZIP+4 codes and
+ * zip codes written with the extension ("83702-1234") are located by their first five digits.
+ */
+
+@Component
+@Slf4j
+public class ZipCentroids {
+
+private static final int ZIP_CODES = 100_000;
+
+@Autowired
+private StoreLocatorProperties properties;
+
+@Autowired
+private ResourceLoader resourceLoader;
+
+private float[] latitudes;
+private float[] longitudes;
+
+@PostConstruct
+void load() throws IOException {
+	if(Objects.isNull(properties.getZipCentroids()) || properties.getZipCentroids().isBlank()) {
+		log.info("No zip code centroid file configured; book stores will not be located");
+		return;
+	}
+
+	Resource resource = resourceLoader.getResource(properties.getZipCentroids());
+	float[] lat = new float[ZIP_CODES];
+	float[] lon = new float[ZIP_CODES];
+	Arrays.fill(lat, Float.NaN);
+	Arrays.fill(lon, Float.NaN);
+	int count = 0;
+
+	try(BufferedReader reader = new BufferedReader(
+		new InputStreamReader(resource.getInputStream(), StandardCharsets.UTF_8))) {
+		String header = reader.readLine();
+
+		if(header == null) {
+			throw new IllegalStateException("Zip code centroid file " + resource + " is empty");
+		}
+
+		String separator = header.indexOf('\t') >= 0 ? "\t" : ",";
+		String[] columns = header.split(separator);
+		int zipColumn = column(columns, resource, "GEOID", "ZCTA5", "ZIP");
+		int latitudeColumn = column(columns, resource, "INTPTLAT", "LATITUDE", "LAT");
+		int longitudeColumn = column(columns, resource, "INTPTLONG", "LONGITUDE", "LNG", "LON");
+
+		for(String line = reader.readLine(); line != null; line = reader.readLine()) {
+			String[] fields = line.split(separator);
+
+			if(fields.length <= Math.max(zipColumn, Math.max(latitudeColumn, longitudeColumn))) {
+				continue;
+			}
+
+			int zip = parseZip(fields[zipColumn]);
+
+			if(zip < 0) {
+				continue;
+			}
+
+			try {
+				lat[zip] = Float.parseFloat(fields[latitudeColumn].trim());
+				lon[zip] = Float.parseFloat(fields[longitudeColumn].trim());
+				count++;
+			}
+			catch(NumberFormatException e) {
+				lat[zip] = Float.NaN;
+				lon[zip] = Float.NaN;
+			}
+		}
+	}
+
+	latitudes = lat;
+	longitudes = lon;
+	log.info("Loaded {} zip code centroids from {}", count, resource);
+}
+
+private static int column(String[] columns, Resource resource, String... names) {
+	for(int index = 0; index < columns.length; index++) {
+		String column = columns[index].trim().toUpperCase(Locale.ROOT);
+
+		for(String name : names) {
+			if(column.equals(name)) {
+				return index;
+			}
+		}
+	}
+	throw new IllegalStateException("Zip code centroid file " + resource + " has no " + names[0] + " column");
+}
+
+/* Returns the zip code as a number, or -1 when the text does not start with five digits. */
+
+static int parseZip(String text) {
+	if(Objects.isNull(text)) {
+		return -1;
+	}
+
+	String zip = text.trim().replace("\"", "");
+
+	if(zip.length() < 5 || (zip.length() > 5 && Character.isDigit(zip.charAt(5)) && zip.length() != 9)) {
+		return -1;
+	}
+
+	int value = 0;
+
+	for(int index = 0; index < 5; index++) {
+		char digit = zip.charAt(index);
+
+		if(digit < '0' || digit > '9') {
+			return -1;
+		}
+		value = value * 10 + digit - '0';
+	}
+	return value;
+}
+
+public boolean isLoaded() {
+	return latitudes != null;
+}
+
+/* Returns {latitude, longitude} of the zip code's centroid, or empty when the zip code is not in the file. */
+
+public Optional<double[]> find(String zip) {
+	int code = parseZip(zip);
+
+	if(latitudes == null || code < 0 || Float.isNaN(latitudes[code])) {
+		return Optional.empty();
+	}
+	return Optional.of(new double[] {latitudes[code], longitudes[code]});
+}
+}
@@ -0,0 +1,23 @@
+package db.migration;
+
+import org.flywaydb.core.api.migration.BaseJavaMigration;
+import org.flywaydb.core.api.migration.Context;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import book.store.service.CustomerDedupeJob;
+
+/* Version 2 of the schema makes customer_email the natural key of a customer. The existing duplicates have to be
+ * merged first (see CustomerDedupeJob), otherwise the unique index cannot be created.
+ */
+
+public class V2__Merge_duplicate_customers extends BaseJavaMigration {
+
+	@Override
+	public void migrate(Context context) throws Exception {
+		JdbcTemplate jdbcTemplate = new JdbcTemplate(new SingleConnectionDataSource(context.getConnection(), true));
+
+		new CustomerDedupeJob(jdbcTemplate).run();
+
+		jdbcTemplate.execute("CREATE UNIQUE INDEX uk_customer_email ON customer (customer_email)");
+	}
+}
@@ -0,0 +1,70 @@
+-- Schema for the embedded replica used by the local profile. Matches the tables Hibernate creates on the primary.
+
+CREATE TABLE IF NOT EXISTS publisher (
+  publisher_id BIGINT AUTO_INCREMENT PRIMARY KEY,
+  publisher_name VARCHAR(255),
+  publisher_phone VARCHAR(255),
+  publisher_email VARCHAR(255)
+);
+
+CREATE TABLE IF NOT EXISTS book_store (
+  book_store_id BIGINT AUTO_INCREMENT PRIMARY KEY,
+  book_store_name VARCHAR(255),
+  book_store_address VARCHAR(255),
+  book_store_city VARCHAR(255),
+  book_store_state VARCHAR(255),
+  book_store_zip VARCHAR(255),
+  book_store_phone VARCHAR(255),
+  book_store_latitude DOUBLE,
+  book_store_longitude DOUBLE,
+  publisher_id BIGINT,
+  FOREIGN KEY (publisher_id) REFERENCES publisher (publisher_id)
+);
+
+CREATE TABLE IF NOT EXISTS customer (
+  customer_id BIGINT AUTO_INCREMENT PRIMARY KEY,
+  customer_first_name VARCHAR(255),
+  customer_last_name VARCHAR(255),
+  customer_email VARCHAR(255)
+);
+
+CREATE TABLE IF NOT EXISTS book_store_customer (
+  book_store_id BIGINT NOT NULL,
+  customer_id BIGINT NOT NULL,
+  PRIMARY KEY (book_store_id, customer_id),
+  FOREIGN KEY (book_store_id) REFERENCES book_store (book_store_id),
+  FOREIGN KEY (customer_id) REFERENCES customer (customer_id)
+);
+
+CREATE UNIQUE INDEX IF NOT EXISTS uk_customer_email ON customer (customer_email);
+
+CREATE TABLE IF NOT EXISTS idempotency_key (
+  idempotency_key VARCHAR(255) NOT NULL PRIMARY KEY,
+  book_store_id BIGINT NOT NULL,
+  request_hash VARCHAR(64) NOT NULL,
+  customer_id BIGINT NOT NULL,
+  created_at TIMESTAMP(6) NOT NULL
+);
+
+CREATE TABLE IF NOT EXISTS id_sequence (
+  sequence_name VARCHAR(64) NOT NULL PRIMARY KEY,
+  next_val BIGINT NOT NULL
+);
+
+CREATE TABLE IF NOT EXISTS shard_assignment (
+  entity_type VARCHAR(32) NOT NULL,
+  entity_id BIGINT NOT NULL,
+  shard INT NOT NULL,
+  PRIMARY KEY (entity_type, entity_id)
+);
+
+CREATE TABLE IF NOT EXISTS book_store_similarity (
+  book_store_id BIGINT NOT NULL,
+  similar_book_store_id BIGINT NOT NULL,
+  similarity DOUBLE NOT NULL,
+  shared_customers INT NOT NULL,
+  computed_at TIMESTAMP(6) NOT NULL,
+  PRIMARY KEY (book_store_id, similar_book_store_id),
+  FOREIGN KEY (book_store_id) REFERENCES book_store (book_store_id) ON DELETE CASCADE,
+  FOREIGN KEY (similar_book_store_id) REFERENCES book_store (book_store_id) ON DELETE CASCADE
+);
@@ -0,0 +1,40 @@
+-- Baseline schema for the book store, the same tables Hibernate's ddl-auto used to create.
+-- Databases that were created by ddl-auto before migrations existed are baselined at version 1
+-- (spring.flyway.baseline-on-migrate), so this script only runs against an empty schema.
+
+CREATE TABLE publisher (
+  publisher_id BIGINT NOT NULL AUTO_INCREMENT,
+  publisher_email VARCHAR(255),
+  publisher_name VARCHAR(255),
+  publisher_phone VARCHAR(255),
+  PRIMARY KEY (publisher_id)
+);
+
+CREATE TABLE book_store (
+  book_store_id BIGINT NOT NULL AUTO_INCREMENT,
+  book_store_address VARCHAR(255),
+  book_store_city VARCHAR(255),
+  book_store_name VARCHAR(255),
+  book_store_phone VARCHAR(255),
+  book_store_state VARCHAR(255),
+  book_store_zip VARCHAR(255),
+  publisher_id BIGINT,
+  PRIMARY KEY (book_store_id),
+  CONSTRAINT fk_book_store_publisher FOREIGN KEY (publisher_id) REFERENCES publisher (publisher_id)
+);
+
+CREATE TABLE customer (
+  customer_id BIGINT NOT NULL AUTO_INCREMENT,
+  customer_email VARCHAR(255),
+  customer_first_name VARCHAR(255),
+  customer_last_name VARCHAR(255),
+  PRIMARY KEY (customer_id)
+);
+
+CREATE TABLE book_store_customer (
+  book_store_id BIGINT NOT NULL,
+  customer_id BIGINT NOT NULL,
+  PRIMARY KEY (book_store_id, customer_id),
+  CONSTRAINT fk_book_store_customer_book_store FOREIGN KEY (book_store_id) REFERENCES book_store (book_store_id),
+  CONSTRAINT fk_book_store_customer_customer FOREIGN KEY (customer_id) REFERENCES customer (customer_id)
+);
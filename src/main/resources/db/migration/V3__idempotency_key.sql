@@ -0,0 +1,13 @@
+-- Remembers the outcome of POST /publisher/{bookStoreId}/customer requests sent with an Idempotency-Key header,
+-- so a retry of the same request returns the same customer instead of doing the work again.
+
+CREATE TABLE idempotency_key (
+  idempotency_key VARCHAR(255) NOT NULL,
+  book_store_id BIGINT NOT NULL,
+  request_hash VARCHAR(64) NOT NULL,
+  customer_id BIGINT NOT NULL,
+  created_at DATETIME(6) NOT NULL,
+  PRIMARY KEY (idempotency_key)
+);
+
+CREATE INDEX ix_idempotency_key_created_at ON idempotency_key (created_at);
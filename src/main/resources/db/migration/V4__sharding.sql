@@ -0,0 +1,30 @@
+-- Sharding support. Runs on every shard.
+--
+-- id_sequence hands out publisher and book store IDs. Unlike AUTO_INCREMENT it is not moved forward when rows are
+-- inserted with an explicit ID, so a publisher moved here from another shard keeps its ID without changing the
+-- range this shard generates IDs from. The sequences start after the existing rows; on shard n they are raised to
+-- the start of that shard's range when the application starts.
+--
+-- shard_assignment is only read on shard 0. It records the publishers and book stores that were moved away from
+-- the shard their ID belongs to. While the ShardRebalancer moves a publisher, its rows are marked moving and
+-- writes to the publisher and its book stores are turned away.
+
+CREATE TABLE id_sequence (
+  sequence_name VARCHAR(64) NOT NULL,
+  next_val BIGINT NOT NULL,
+  PRIMARY KEY (sequence_name)
+);
+
+INSERT INTO id_sequence (sequence_name, next_val)
+SELECT 'publisher', COALESCE(MAX(publisher_id), 0) + 1 FROM publisher;
+
+INSERT INTO id_sequence (sequence_name, next_val)
+SELECT 'book_store', COALESCE(MAX(book_store_id), 0) + 1 FROM book_store;
+
+CREATE TABLE shard_assignment (
+  entity_type VARCHAR(32) NOT NULL,
+  entity_id BIGINT NOT NULL,
+  shard INT NOT NULL,
+  moving BOOLEAN NOT NULL DEFAULT FALSE,
+  PRIMARY KEY (entity_type, entity_id)
+);
@@ -0,0 +1,19 @@
+-- "Stores like this": the top K most similar book stores of every book store, written by the
+-- StoreSimilarityEngine. Similarity is the Jaccard index of the two stores' customer sets, and shared_customers
+-- is the size of their overlap. Both stores are always on the same shard, because customers are.
+--
+-- The foreign keys cascade, so deleting a book store (or moving it to another shard) also removes every row
+-- that mentions it; the next run of the engine fills the lists up again.
+
+CREATE TABLE book_store_similarity (
+  book_store_id BIGINT NOT NULL,
+  similar_book_store_id BIGINT NOT NULL,
+  similarity DOUBLE NOT NULL,
+  shared_customers INT NOT NULL,
+  computed_at TIMESTAMP(6) NOT NULL,
+  PRIMARY KEY (book_store_id, similar_book_store_id),
+  CONSTRAINT fk_book_store_similarity_book_store FOREIGN KEY (book_store_id)
+    REFERENCES book_store (book_store_id) ON DELETE CASCADE,
+  CONSTRAINT fk_book_store_similarity_similar FOREIGN KEY (similar_book_store_id)
+    REFERENCES book_store (book_store_id) ON DELETE CASCADE
+);
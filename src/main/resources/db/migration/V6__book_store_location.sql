@@ -0,0 +1,6 @@
+-- The centroid of a book store's zip code, set by saveBookStore from the zip code centroid file, for the store
+-- locator. NULL when the zip code is unknown or no centroid file is configured; the StoreLocator then looks the
+-- zip code up itself when it builds its index.
+
+ALTER TABLE book_store ADD COLUMN book_store_latitude DOUBLE NULL;
+ALTER TABLE book_store ADD COLUMN book_store_longitude DOUBLE NULL;
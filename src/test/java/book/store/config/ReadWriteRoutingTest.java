@@ -0,0 +1,57 @@
+package book.store.config;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/* Checks where the ReadWriteRoutingDataSource sends a transaction, using the two H2 databases of the local profile
+ * that stand in for the primary and its replica. H2's DATABASE() names the database the connection came from.
+ */
+
+@SpringBootTest
+@ActiveProfiles("local")
+class ReadWriteRoutingTest {
+
+private static final String PRIMARY = "PRIMARY";
+private static final String REPLICA = "REPLICA";
+
+@Autowired
+private JdbcTemplate jdbcTemplate;
+
+@Autowired
+private PlatformTransactionManager transactionManager;
+
+@AfterEach
+void unpin() {
+	ReadYourWritesContext.clear();
+}
+
+@Test
+void readOnlyTransactionUsesTheReplica() {
+	assertThat(databaseOf(true)).isEqualTo(REPLICA);
+}
+
+@Test
+void readWriteTransactionUsesThePrimary() {
+	assertThat(databaseOf(false)).isEqualTo(PRIMARY);
+}
+
+@Test
+void readOnlyTransactionOfAPinnedClientUsesThePrimary() {
+	ReadYourWritesContext.pinToPrimary();
+
+	assertThat(databaseOf(true)).isEqualTo(PRIMARY);
+}
+
+private String databaseOf(boolean readOnly) {
+	TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+	transactionTemplate.setReadOnly(readOnly);
+	return transactionTemplate.execute(status -> jdbcTemplate.queryForObject("SELECT DATABASE()", String.class));
+}
+}
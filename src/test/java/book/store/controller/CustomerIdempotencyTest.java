@@ -0,0 +1,107 @@
+package book.store.controller;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.ResultMatcher;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/* Sends the same customer to POST /publisher/{bookStoreId}/customer more than once, by email and by
+ * Idempotency-Key, and checks that no duplicate customer or membership is written.
+ */
+
+@SpringBootTest
+@AutoConfigureMockMvc
+@ActiveProfiles({"local", "test"})
+class CustomerIdempotencyTest {
+
+@Autowired
+private MockMvc mockMvc;
+
+@Autowired
+private ObjectMapper objectMapper;
+
+@Autowired
+private JdbcTemplate jdbcTemplate;
+
+private long bookStoreId;
+
+@BeforeEach
+void createBookStore() throws Exception {
+	long publisherId = id(mockMvc.perform(post("/publisher").contentType(MediaType.APPLICATION_JSON)
+		.content("{\"publisherName\": \"Shore Rock\"}")).andReturn(), "publisherId");
+	bookStoreId = id(mockMvc.perform(post("/publisher/{publisherId}/bookStore", publisherId)
+		.contentType(MediaType.APPLICATION_JSON).content("{\"bookStoreName\": \"Downtown\"}")).andReturn(),
+		"bookStoreId");
+}
+
+@Test
+void sameEmailAgainReturnsTheExistingCustomer() throws Exception {
+	long first = addCustomer(null, "Tony", "Parnoodle", "tony@noodles.example", status().isCreated());
+	long second = addCustomer(null, "Anthony", "Parnoodle", "  Tony@Noodles.Example ", status().isCreated());
+
+	assertThat(second).isEqualTo(first);
+	assertThat(count("SELECT COUNT(*) FROM customer WHERE customer_email = 'tony@noodles.example'")).isEqualTo(1);
+	assertThat(count("SELECT COUNT(*) FROM book_store_customer WHERE customer_id = " + first)).isEqualTo(1);
+	assertThat(jdbcTemplate.queryForObject("SELECT customer_first_name FROM customer WHERE customer_id = ?",
+		String.class, first)).isEqualTo("Anthony");
+}
+
+@Test
+void retryWithTheSameIdempotencyKeyReplaysTheCustomer() throws Exception {
+	long first = addCustomer("retry-key-1", "Nora", "Nameless", null, status().isCreated());
+	long second = addCustomer("retry-key-1", "Nora", "Nameless", null, status().isCreated());
+
+	assertThat(second).isEqualTo(first);
+	assertThat(count("SELECT COUNT(*) FROM book_store_customer WHERE book_store_id = " + bookStoreId))
+		.isEqualTo(1);
+}
+
+@Test
+void idempotencyKeyReusedForAnotherRequestIsRejected() throws Exception {
+	addCustomer("reused-key-1", "Nora", "Nameless", null, status().isCreated());
+	addCustomer("reused-key-1", "Someone", "Else", null, status().isUnprocessableEntity());
+}
+
+private long addCustomer(String idempotencyKey, String firstName, String lastName, String email,
+	ResultMatcher expectedStatus) throws Exception {
+	MockHttpServletRequestBuilder request = post("/publisher/{bookStoreId}/customer", bookStoreId)
+		.contentType(MediaType.APPLICATION_JSON)
+		.content(objectMapper.writeValueAsString(new CustomerRequest(firstName, lastName, email)));
+
+	if(idempotencyKey != null) {
+		request.header("Idempotency-Key", idempotencyKey);
+	}
+
+	MvcResult result = mockMvc.perform(request).andReturn();
+
+	if(result.getRequest().isAsyncStarted()) {
+		result = mockMvc.perform(asyncDispatch(result)).andReturn();
+	}
+	expectedStatus.match(result);
+	return result.getResponse().getStatus() == 201 ? id(result, "customerId") : -1;
+}
+
+private long id(MvcResult result, String field) throws Exception {
+	return objectMapper.readTree(result.getResponse().getContentAsString()).get(field).asLong();
+}
+
+private int count(String sql) {
+	return jdbcTemplate.queryForObject(sql, Integer.class);
+}
+
+private record CustomerRequest(String customerFirstName, String customerLastName, String customerEmail) {
+}
+}
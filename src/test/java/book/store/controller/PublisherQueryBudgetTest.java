@@ -0,0 +1,117 @@
+package book.store.controller;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.http.Cookie;
+
+/* Runs GET /publisher/{publisherId} on the local H2 databases with budget-mode: fail and counts its statements,
+ * with and without embedCustomers. The count must not depend on how many book stores and customers the publisher
+ * has, so an N+1 on the publisher read fails here, and the customers must not be read unless they are embedded.
+ */
+
+@SpringBootTest
+@AutoConfigureMockMvc
+@ActiveProfiles({"local", "test"})
+class PublisherQueryBudgetTest {
+
+private static final String PUBLISHER_ENDPOINT = "GET /publisher/{publisherId}";
+
+// The publisher, its book stores and the customer counts of all of those stores
+private static final int PUBLISHER_READ_STATEMENTS = 3;
+
+// The same, plus the customers of all of the stores small enough to embed
+private static final int EMBEDDED_PUBLISHER_READ_STATEMENTS = 4;
+
+@Autowired
+private MockMvc mockMvc;
+
+@Autowired
+private ObjectMapper objectMapper;
+
+@Autowired
+private MeterRegistry meterRegistry;
+
+@Test
+void publisherReadRunsTheSameStatementsForAnyNumberOfBookStores() throws Exception {
+	assertThat(statementsToRead(createPublisher(1, 1), 1, false)).isEqualTo(PUBLISHER_READ_STATEMENTS);
+	assertThat(statementsToRead(createPublisher(4, 3), 4, false)).isEqualTo(PUBLISHER_READ_STATEMENTS);
+}
+
+@Test
+void embeddingCustomersAddsOneStatementForAnyNumberOfBookStores() throws Exception {
+	assertThat(statementsToRead(createPublisher(1, 1), 1, true)).isEqualTo(EMBEDDED_PUBLISHER_READ_STATEMENTS);
+	assertThat(statementsToRead(createPublisher(4, 3), 4, true)).isEqualTo(EMBEDDED_PUBLISHER_READ_STATEMENTS);
+}
+
+/* Creates a publisher with the given number of book stores and customers in each store. The cookie of the writes
+ * keeps the reads on the primary; the replica of the local profile stays empty.
+ */
+
+private TestPublisher createPublisher(int bookStores, int customersPerStore) throws Exception {
+	MvcResult created = mockMvc.perform(post("/publisher").contentType(MediaType.APPLICATION_JSON)
+		.content("{\"publisherName\": \"Shore Rock\", \"publisherPhone\": \"(480) 582-5314\"}"))
+		.andExpect(status().isCreated())
+		.andReturn();
+	long publisherId = objectMapper.readTree(created.getResponse().getContentAsString()).get("publisherId").asLong();
+	Cookie[] cookies = created.getResponse().getCookies();
+
+	for(int store = 1; store <= bookStores; store++) {
+		MvcResult bookStore = mockMvc.perform(post("/publisher/{publisherId}/bookStore", publisherId)
+			.cookie(cookies).contentType(MediaType.APPLICATION_JSON)
+			.content("{\"bookStoreName\": \"Store " + store + "\", \"bookStoreZip\": \"83702\"}"))
+			.andExpect(status().isCreated())
+			.andReturn();
+		long bookStoreId = objectMapper.readTree(bookStore.getResponse().getContentAsString())
+			.get("bookStoreId").asLong();
+
+		for(int customer = 1; customer <= customersPerStore; customer++) {
+			mockMvc.perform(addCustomer(bookStoreId).cookie(cookies).contentType(MediaType.APPLICATION_JSON)
+				.content("{\"customerFirstName\": \"Tony\", \"customerLastName\": \"Parnoodle\"}"))
+				.andExpect(status().isCreated());
+		}
+	}
+	return new TestPublisher(publisherId, cookies);
+}
+
+private MockHttpServletRequestBuilder addCustomer(long bookStoreId) {
+	return post("/publisher/{bookStoreId}/customer", bookStoreId);
+}
+
+private double statementsToRead(TestPublisher publisher, int bookStores, boolean embedCustomers) throws Exception {
+	double before = statementsSoFar();
+
+	mockMvc.perform(get("/publisher/{publisherId}", publisher.publisherId()).cookie(publisher.cookies())
+		.param("embedCustomers", String.valueOf(embedCustomers)))
+		.andExpect(status().isOk())
+		.andExpect(jsonPath("$.publisherId").value(publisher.publisherId()))
+		.andExpect(jsonPath("$.bookStores.length()").value(bookStores))
+		.andExpect(embedCustomers ? jsonPath("$.bookStores[0].customers").exists()
+			: jsonPath("$.bookStores[0].customers").doesNotExist());
+
+	return statementsSoFar() - before;
+}
+
+private double statementsSoFar() {
+	DistributionSummary queries = meterRegistry.find("bookstore.request.queries")
+		.tag("endpoint", PUBLISHER_ENDPOINT).summary();
+	return queries == null ? 0 : queries.totalAmount();
+}
+
+private record TestPublisher(long publisherId, Cookie[] cookies) {
+}
+}
@@ -0,0 +1,105 @@
+package book.store.dao;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import book.store.config.QueryTracker;
+import book.store.entity.Customer;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/* Runs the customer upserts on the local H2 primary, which accepts the MySQL statements in MySQL mode. */
+
+@SpringBootTest
+@ActiveProfiles({"local", "test"})
+class CustomerDaoCustomImplTest {
+
+@Autowired
+private CustomerDao customerDao;
+
+@Autowired
+private JdbcTemplate jdbcTemplate;
+
+@Autowired
+private PlatformTransactionManager transactionManager;
+
+@Autowired
+private QueryTracker queryTracker;
+
+@Autowired
+private MeterRegistry meterRegistry;
+
+@Test
+void upsertInsertsANewCustomer() {
+	Long customerId = upsert("new.customer@example.com", "Ada", "Lovelace");
+
+	assertThat(customer(customerId)).containsEntry("CUSTOMER_EMAIL", "new.customer@example.com")
+		.containsEntry("CUSTOMER_FIRST_NAME", "Ada").containsEntry("CUSTOMER_LAST_NAME", "Lovelace");
+}
+
+@Test
+void upsertOfAKnownEmailUpdatesAndReturnsTheExistingCustomer() {
+	Long customerId = upsert("known.customer@example.com", "Grace", "Hopper");
+
+	assertThat(upsert("known.customer@example.com", "Grace", "Murray Hopper")).isEqualTo(customerId);
+	assertThat(customer(customerId)).containsEntry("CUSTOMER_LAST_NAME", "Murray Hopper");
+	assertThat(customersWithEmail("known.customer@example.com")).isEqualTo(1);
+}
+
+@Test
+void replayingTheSameUpsertChangesNothing() {
+	Long customerId = upsert("replayed.customer@example.com", "Alan", "Turing");
+
+	assertThat(upsert("replayed.customer@example.com", "Alan", "Turing")).isEqualTo(customerId);
+	assertThat(customersWithEmail("replayed.customer@example.com")).isEqualTo(1);
+}
+
+@Test
+void batchUpsertReturnsNewAndExistingIdsInTwoStatements() {
+	Long existingId = upsert("batch.known@example.com", "Grace", "Hopper");
+	List<Customer> customers = List.of(customer("batch.known@example.com", "Grace", "Murray Hopper"),
+		customer("batch.new.1@example.com", "Ada", "Lovelace"), customer("batch.new.2@example.com", "Alan", "Turing"),
+		customer("batch.new.1@example.com", "Ada", "King"));
+
+	queryTracker.startRequest("upsertAllByEmail");
+	Map<String, Long> customerIds = new TransactionTemplate(transactionManager)
+		.execute(status -> customerDao.upsertAllByEmail(customers));
+	queryTracker.endRequest();
+
+	assertThat(meterRegistry.get("bookstore.request.queries").tag("endpoint", "upsertAllByEmail").summary().max())
+		.isEqualTo(2);
+	assertThat(customerIds).hasSize(3).containsEntry("batch.known@example.com", existingId);
+	assertThat(customer(customerIds.get("batch.new.1@example.com"))).containsEntry("CUSTOMER_LAST_NAME", "King");
+	assertThat(customer(existingId)).containsEntry("CUSTOMER_LAST_NAME", "Murray Hopper");
+	assertThat(customersWithEmail("batch.new.1@example.com")).isEqualTo(1);
+}
+
+private Customer customer(String email, String firstName, String lastName) {
+	Customer customer = new Customer();
+	customer.setCustomerEmail(email);
+	customer.setCustomerFirstName(firstName);
+	customer.setCustomerLastName(lastName);
+	return customer;
+}
+
+private Long upsert(String email, String firstName, String lastName) {
+	return new TransactionTemplate(transactionManager)
+		.execute(status -> customerDao.upsertByEmail(email, firstName, lastName));
+}
+
+private Map<String, Object> customer(Long customerId) {
+	return jdbcTemplate.queryForMap("SELECT customer_email, customer_first_name, customer_last_name FROM customer "
+		+ "WHERE customer_id = ?", customerId);
+}
+
+private int customersWithEmail(String email) {
+	return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM customer WHERE customer_email = ?", Integer.class,
+		email);
+}
+}
@@ -0,0 +1,161 @@
+package book.store.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.stream.LongStream;
+import org.junit.jupiter.api.Test;
+import book.store.controller.model.BookStoreData;
+import book.store.controller.model.BookStorePublisher;
+import book.store.service.CatalogSegment.CustomerRow;
+import book.store.service.CatalogSegment.PublisherRow;
+import book.store.service.CatalogSegment.StoreRow;
+
+/* Builds hot catalog snapshots from hand-made publisher rows: how they are cut into segments, finding a publisher
+ * and paging through them with the binary searches, and merging changes into a new snapshot.
+ */
+
+class CatalogSnapshotTest {
+
+private static final Instant NOW = Instant.parse("2026-01-01T00:00:00Z");
+private static final int EMBED_LIMIT = 50;
+
+@Test
+void publishersAreCutIntoSegmentsAndFoundByBinarySearch() {
+	CatalogSnapshot snapshot = CatalogSnapshot.build(publishers(10, 20, 30, 40, 50), 2, NOW);
+
+	assertThat(snapshot.getSegmentCount()).isEqualTo(3);
+	assertThat(snapshot.getPublisherCount()).isEqualTo(5);
+	assertThat(snapshot.getStoreCount()).isEqualTo(10);
+
+	for(long publisherId : new long[] {10, 20, 30, 40, 50}) {
+		assertThat(snapshot.findPublisher(publisherId, EMBED_LIMIT)).map(BookStorePublisher::getPublisherName)
+			.contains("Publisher " + publisherId);
+	}
+
+	for(long missing : new long[] {1, 15, 21, 45, 51, Long.MAX_VALUE}) {
+		assertThat(snapshot.findPublisher(missing, EMBED_LIMIT)).isEmpty();
+	}
+}
+
+@Test
+void customerSharedByTwoStoresIsStoredOnceAndDecodedIntoBoth() {
+	CustomerRow shared = new CustomerRow(7, "Tony", "Parnoodle", "tony@noodles.example");
+	PublisherRow publisher = new PublisherRow(1, "Shore Rock", null, null, List.of(
+		new StoreRow(11, "Downtown", null, "Boise", "ID", "83702", null, List.of(shared)),
+		new StoreRow(12, "Uptown", null, "Boise", "ID", "83702", null, List.of(shared))));
+
+	CatalogSnapshot snapshot = CatalogSnapshot.build(List.of(publisher), 16, NOW);
+
+	assertThat(snapshot.getMemberCount()).isEqualTo(2);
+	assertThat(snapshot.getCustomerCount()).isEqualTo(1);
+
+	BookStorePublisher found = snapshot.findPublisher(1, EMBED_LIMIT).orElseThrow();
+	assertThat(found.getBookStores()).hasSize(2).allSatisfy(store -> assertThat(store.getCustomers())
+		.singleElement().satisfies(customer -> assertThat(customer.getCustomerId()).isEqualTo(7)));
+
+	assertThat(snapshot.findPublisher(1, 0).orElseThrow().getBookStores()).hasSize(2)
+		.allSatisfy(store -> {
+			assertThat(store.getCustomerCount()).isEqualTo(1);
+			assertThat(store.getCustomers()).isNull();
+		});
+}
+
+@Test
+void pagesRunAcrossSegmentBoundaries() {
+	CatalogSnapshot snapshot = CatalogSnapshot.build(publishers(10, 20, 30, 40, 50), 2, NOW);
+
+	assertThat(ids(snapshot.listPublishers(0, Long.MAX_VALUE))).containsExactly(10L, 20L, 30L, 40L, 50L);
+	assertThat(ids(snapshot.listPublishers(15, 3))).containsExactly(20L, 30L, 40L);
+	assertThat(ids(snapshot.listPublishers(20, 2))).containsExactly(30L, 40L);
+	assertThat(ids(snapshot.listPublishers(50, 10))).isEmpty();
+	assertThat(snapshot.listPublishers(0, 1).get(0).getBookStores()).isEmpty();
+}
+
+@Test
+void withChangesUpdatesAddsAndDeletesPublishersInANewSnapshot() {
+	CatalogSnapshot before = CatalogSnapshot.build(publishers(10, 20, 30, 40, 50), 2, NOW);
+	NavigableMap<Long, Optional<PublisherRow>> changes = new TreeMap<>();
+	changes.put(5L, Optional.of(publisher(5)));
+	changes.put(20L, Optional.of(new PublisherRow(20, "Renamed", null, null, List.of())));
+	changes.put(30L, Optional.empty());
+	changes.put(35L, Optional.of(publisher(35)));
+	changes.put(60L, Optional.of(publisher(60)));
+	changes.put(99L, Optional.empty());
+
+	CatalogSnapshot after = before.withChanges(changes, 2, NOW.plusSeconds(1));
+
+	assertThat(ids(after.listPublishers(0, Long.MAX_VALUE))).containsExactly(5L, 10L, 20L, 35L, 40L, 50L, 60L);
+	assertThat(after.findPublisher(20, EMBED_LIMIT)).map(BookStorePublisher::getPublisherName).contains("Renamed");
+	assertThat(after.findPublisher(20, EMBED_LIMIT).orElseThrow().getBookStores()).isEmpty();
+	assertThat(after.findPublisher(30, EMBED_LIMIT)).isEmpty();
+	assertThat(after.findPublisher(40, EMBED_LIMIT).orElseThrow().getBookStores()).extracting(BookStoreData::getBookStoreId)
+		.containsExactlyInAnyOrder(401L, 402L);
+	assertThat(after.getDataAsOf()).isEqualTo(NOW.plusSeconds(1));
+
+	assertThat(ids(before.listPublishers(0, Long.MAX_VALUE))).containsExactly(10L, 20L, 30L, 40L, 50L);
+	assertThat(before.findPublisher(30, EMBED_LIMIT)).isPresent();
+}
+
+@Test
+void segmentLeftEmptyByDeletesIsDroppedAndAnOverfullOneIsSplit() {
+	CatalogSnapshot snapshot = CatalogSnapshot.build(publishers(10, 20, 30, 40, 50), 2, NOW);
+	NavigableMap<Long, Optional<PublisherRow>> deletes = new TreeMap<>();
+	deletes.put(30L, Optional.empty());
+	deletes.put(40L, Optional.empty());
+
+	CatalogSnapshot fewer = snapshot.withChanges(deletes, 2, NOW);
+	assertThat(fewer.getSegmentCount()).isEqualTo(2);
+	assertThat(ids(fewer.listPublishers(0, Long.MAX_VALUE))).containsExactly(10L, 20L, 50L);
+
+	NavigableMap<Long, Optional<PublisherRow>> inserts = new TreeMap<>();
+	LongStream.rangeClosed(51, 55).forEach(id -> inserts.put(id, Optional.of(publisher(id))));
+
+	CatalogSnapshot more = fewer.withChanges(inserts, 2, NOW);
+	assertThat(more.getSegmentCount()).isEqualTo(4);
+	assertThat(ids(more.listPublishers(20, Long.MAX_VALUE))).containsExactly(50L, 51L, 52L, 53L, 54L, 55L);
+	assertThat(more.findPublisher(53, EMBED_LIMIT)).isPresent();
+}
+
+@Test
+void changesToAnEmptySnapshotBuildAFreshOne() {
+	CatalogSnapshot empty = CatalogSnapshot.build(List.of(), 2, NOW);
+	NavigableMap<Long, Optional<PublisherRow>> changes = new TreeMap<>();
+	changes.put(1L, Optional.of(publisher(1)));
+	changes.put(2L, Optional.empty());
+
+	assertThat(empty.findPublisher(1, EMBED_LIMIT)).isEmpty();
+	assertThat(empty.listPublishers(0, 10)).isEmpty();
+	assertThat(ids(empty.withChanges(changes, 2, NOW).listPublishers(0, 10))).containsExactly(1L);
+}
+
+private static List<PublisherRow> publishers(long... publisherIds) {
+	List<PublisherRow> rows = new ArrayList<>();
+
+	for(long publisherId : publisherIds) {
+		rows.add(publisher(publisherId));
+	}
+	return rows;
+}
+
+/* A publisher with two book stores, IDs publisherId * 10 + 1 and + 2, with one customer each. */
+
+private static PublisherRow publisher(long publisherId) {
+	List<StoreRow> stores = new ArrayList<>();
+
+	for(long store = 1; store <= 2; store++) {
+		long bookStoreId = publisherId * 10 + store;
+		stores.add(new StoreRow(bookStoreId, "Store " + bookStoreId, null, "Boise", "ID", "83702", null,
+			List.of(new CustomerRow(bookStoreId * 10, "Customer", String.valueOf(bookStoreId), null))));
+	}
+	return new PublisherRow(publisherId, "Publisher " + publisherId, null, null, stores);
+}
+
+private static List<Long> ids(List<BookStorePublisher> publishers) {
+	return publishers.stream().map(BookStorePublisher::getPublisherId).toList();
+}
+}
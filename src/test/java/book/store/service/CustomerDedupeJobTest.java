@@ -0,0 +1,73 @@
+package book.store.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import org.flywaydb.core.Flyway;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+/* Migrates a fresh H2 database to version 1, writes duplicate customers the way the application did before emails
+ * were unique, and then runs the V2 migration and the CustomerDedupeJob on it.
+ */
+
+class CustomerDedupeJobTest {
+
+private DriverManagerDataSource dataSource;
+private JdbcTemplate jdbcTemplate;
+
+@BeforeEach
+void migrateToVersionOne() {
+	dataSource = new DriverManagerDataSource("jdbc:h2:mem:dedupe-" + System.nanoTime()
+		+ ";DB_CLOSE_DELAY=-1;MODE=MySQL", "sa", "");
+	jdbcTemplate = new JdbcTemplate(dataSource);
+	migrateTo("1");
+
+	jdbcTemplate.update("INSERT INTO publisher (publisher_id, publisher_name) VALUES (1, 'Shore Rock')");
+	jdbcTemplate.update("INSERT INTO book_store (book_store_id, book_store_name, publisher_id) VALUES (1, 'A', 1)");
+	jdbcTemplate.update("INSERT INTO book_store (book_store_id, book_store_name, publisher_id) VALUES (2, 'B', 1)");
+	jdbcTemplate.update("INSERT INTO customer (customer_id, customer_email) VALUES (10, 'tony@noodles.example')");
+	jdbcTemplate.update("INSERT INTO customer (customer_id, customer_email) VALUES (11, ' Tony@Noodles.Example')");
+	jdbcTemplate.update("INSERT INTO customer (customer_id, customer_email) VALUES (12, 'TONY@NOODLES.EXAMPLE ')");
+	jdbcTemplate.update("INSERT INTO customer (customer_id, customer_email) VALUES (20, 'Nora@Example.com')");
+	jdbcTemplate.update("INSERT INTO customer (customer_id) VALUES (30)");
+	jdbcTemplate.update("INSERT INTO customer (customer_id) VALUES (31)");
+	jdbcTemplate.update("INSERT INTO book_store_customer (book_store_id, customer_id) VALUES (1, 10)");
+	jdbcTemplate.update("INSERT INTO book_store_customer (book_store_id, customer_id) VALUES (1, 11)");
+	jdbcTemplate.update("INSERT INTO book_store_customer (book_store_id, customer_id) VALUES (2, 12)");
+	jdbcTemplate.update("INSERT INTO book_store_customer (book_store_id, customer_id) VALUES (2, 20)");
+}
+
+@Test
+void migrationMergesDuplicatesIntoTheLowestIdAndAddsTheUniqueIndex() {
+	migrateTo("2");
+
+	assertThat(jdbcTemplate.queryForList("SELECT customer_id FROM customer ORDER BY customer_id", Long.class))
+		.containsExactly(10L, 20L, 30L, 31L);
+	assertThat(jdbcTemplate.queryForList("SELECT book_store_id FROM book_store_customer WHERE customer_id = 10 "
+		+ "ORDER BY book_store_id", Long.class)).containsExactly(1L, 2L);
+	assertThat(jdbcTemplate.queryForObject("SELECT customer_email FROM customer WHERE customer_id = 20",
+		String.class)).isEqualTo("nora@example.com");
+
+	assertThatThrownBy(() -> jdbcTemplate.update(
+		"INSERT INTO customer (customer_email) VALUES ('tony@noodles.example')"))
+		.isInstanceOf(DataIntegrityViolationException.class);
+}
+
+@Test
+void runningTheJobAgainFindsNothingToMerge() {
+	CustomerDedupeJob job = new CustomerDedupeJob(jdbcTemplate);
+
+	assertThat(job.run()).isEqualTo(2);
+	assertThat(job.run()).isZero();
+	assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM book_store_customer", Integer.class))
+		.isEqualTo(3);
+}
+
+private void migrateTo(String version) {
+	Flyway.configure().dataSource(dataSource).locations("classpath:db/migration").target(version).load()
+		.migrate();
+}
+}
@@ -0,0 +1,129 @@
+package book.store.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import book.store.config.GroupCommitProperties;
+import book.store.controller.model.BookStoreCustomer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/* Drives the CustomerEnrollmentQueue against a mocked BookStoreService, with every book store on shard 0: batching,
+ * how a failed batch reaches the callers' futures, and what happens to queued enrollments on shutdown.
+ */
+
+class CustomerEnrollmentQueueTest {
+
+private final BookStoreService bookStoreService = mock(BookStoreService.class);
+private final ShardRouter shardRouter = mock(ShardRouter.class);
+private final GroupCommitProperties properties = new GroupCommitProperties();
+private final CustomerEnrollmentQueue queue = new CustomerEnrollmentQueue();
+
+@AfterEach
+void stopQueue() throws InterruptedException {
+	queue.stop();
+}
+
+@Test
+void enrollmentsQueuedTogetherAreWrittenInOneBatch() throws Exception {
+	when(bookStoreService.saveCustomersInBatch(anyMap())).thenAnswer(invocation -> saved(invocation.getArgument(0)));
+	start(1, Duration.ofSeconds(5), 3);
+
+	List<CompletableFuture<BookStoreCustomer>> results = List.of(queue.enroll(1L, customer("a@example.com"), null),
+		queue.enroll(1L, customer("b@example.com"), null), queue.enroll(2L, customer("c@example.com"), null));
+
+	assertThat(results.get(0).get(5, TimeUnit.SECONDS).getCustomerEmail()).isEqualTo("a@example.com");
+	assertThat(results.get(1).get(5, TimeUnit.SECONDS).getCustomerEmail()).isEqualTo("b@example.com");
+	assertThat(results.get(2).get(5, TimeUnit.SECONDS).getCustomerEmail()).isEqualTo("c@example.com");
+	verify(bookStoreService, times(1)).saveCustomersInBatch(anyMap());
+}
+
+@Test
+void failedBatchIsRetriedOneEnrollmentAtATime() throws Exception {
+	when(bookStoreService.saveCustomersInBatch(anyMap())).thenThrow(new NoSuchElementException("Book Store 2"));
+	when(bookStoreService.saveCustomer(eq(1L), any(), isNull())).thenAnswer(invocation -> invocation.getArgument(1));
+	when(bookStoreService.saveCustomer(eq(2L), any(), isNull())).thenThrow(new NoSuchElementException("Book Store 2"));
+	start(1, Duration.ofSeconds(5), 2);
+
+	CompletableFuture<BookStoreCustomer> good = queue.enroll(1L, customer("a@example.com"), null);
+	CompletableFuture<BookStoreCustomer> bad = queue.enroll(2L, customer("b@example.com"), null);
+
+	assertThat(good.get(5, TimeUnit.SECONDS).getCustomerEmail()).isEqualTo("a@example.com");
+	assertThatThrownBy(() -> bad.get(5, TimeUnit.SECONDS)).isInstanceOf(ExecutionException.class)
+		.hasCauseInstanceOf(NoSuchElementException.class);
+}
+
+@Test
+void batchThatCannotBeMatchedToItsCallersFailsEveryFuture() {
+	when(bookStoreService.saveCustomersInBatch(anyMap())).thenReturn(Map.of());
+	start(1, Duration.ofSeconds(5), 2);
+
+	CompletableFuture<BookStoreCustomer> first = queue.enroll(1L, customer("a@example.com"), null);
+	CompletableFuture<BookStoreCustomer> second = queue.enroll(1L, customer("b@example.com"), null);
+
+	assertThatThrownBy(() -> first.get(5, TimeUnit.SECONDS)).isInstanceOf(ExecutionException.class);
+	assertThatThrownBy(() -> second.get(5, TimeUnit.SECONDS)).isInstanceOf(ExecutionException.class);
+}
+
+@Test
+void stopFailsWhatIsStillQueuedAndLaterEnrollmentsAreSavedDirectly() throws Exception {
+	start(0, Duration.ofMillis(5), 10);
+
+	CompletableFuture<BookStoreCustomer> queued = queue.enroll(1L, customer("a@example.com"), null);
+	queue.stop();
+
+	assertThatThrownBy(() -> queued.get(5, TimeUnit.SECONDS)).isInstanceOf(ExecutionException.class)
+		.hasCauseInstanceOf(ServiceUnavailableException.class);
+
+	BookStoreCustomer late = customer("b@example.com");
+	when(bookStoreService.saveCustomer(1L, late, null)).thenReturn(late);
+
+	assertThat(queue.enroll(1L, late, null).get()).isSameAs(late);
+	verify(bookStoreService, times(0)).saveCustomersInBatch(anyMap());
+}
+
+private void start(int writerThreads, Duration maxDelay, int maxBatchSize) {
+	properties.setEnabled(true);
+	properties.setWriterThreads(writerThreads);
+	properties.setMaxDelay(maxDelay);
+	properties.setMaxBatchSize(maxBatchSize);
+
+	ReflectionTestUtils.setField(queue, "bookStoreService", bookStoreService);
+	ReflectionTestUtils.setField(queue, "shardRouter", shardRouter);
+	ReflectionTestUtils.setField(queue, "properties", properties);
+	ReflectionTestUtils.setField(queue, "meterRegistry", new SimpleMeterRegistry());
+	queue.start();
+}
+
+private Map<Long, List<BookStoreCustomer>> saved(Map<Long, List<BookStoreCustomer>> request) {
+	Map<Long, List<BookStoreCustomer>> saved = new HashMap<>();
+	request.forEach((bookStoreId, customers) -> saved.put(bookStoreId, new ArrayList<>(customers)));
+	return saved;
+}
+
+private BookStoreCustomer customer(String email) {
+	BookStoreCustomer customer = new BookStoreCustomer();
+	customer.setCustomerFirstName("Tony");
+	customer.setCustomerLastName("Parnoodle");
+	customer.setCustomerEmail(email);
+	return customer;
+}
+}
@@ -0,0 +1,119 @@
+package book.store.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import book.store.config.DataGeneratorProperties;
+import book.store.config.ReadYourWritesContext;
+
+/* Runs the DataGenerator on the local H2 database several times and compares what each run wrote. The IDs differ
+ * from run to run, so the rows are compared with every ID replaced by its offset from the first ID of the run, and
+ * customers by their number in the run.
+ */
+
+@SpringBootTest(properties = {"book-store.data-generator.publishers=4",
+	"book-store.data-generator.min-stores-per-publisher=1", "book-store.data-generator.max-stores-per-publisher=3",
+	"book-store.data-generator.customers=40", "book-store.data-generator.chunk-size=7",
+	"book-store.data-generator.rows-per-statement=5"})
+@ActiveProfiles({"local", "test"})
+class DataGeneratorTest {
+
+@Autowired
+private DataGenerator dataGenerator;
+
+@Autowired
+private DataGeneratorProperties properties;
+
+@Autowired
+private JdbcTemplate jdbcTemplate;
+
+@BeforeEach
+void pin() {
+	ReadYourWritesContext.pinToPrimary();
+}
+
+@AfterEach
+void unpin() {
+	ReadYourWritesContext.clear();
+	properties.setEnabled(false);
+}
+
+@Test
+void sameSeedWritesTheSameRowsWithAnyNumberOfThreads() throws InterruptedException {
+	List<List<Object>> first = generate(7, 1);
+	List<List<Object>> second = generate(7, 4);
+
+	assertThat(first).filteredOn(row -> row.get(0).equals("customer")).hasSize(40);
+	assertThat(first).filteredOn(row -> row.get(0).equals("membership")).hasSizeGreaterThanOrEqualTo(40);
+	assertThat(second).isEqualTo(first);
+	assertThat(generate(8, 4)).isNotEqualTo(first);
+}
+
+/* Runs the generator and returns the rows it wrote, in a fixed order. */
+
+private List<List<Object>> generate(long seed, int threads) throws InterruptedException {
+	long firstPublisherId = nextId(ShardRouter.PUBLISHER);
+	long firstBookStoreId = nextId(ShardRouter.BOOK_STORE);
+
+	properties.setEnabled(true);
+	properties.setSeed(seed);
+	properties.setThreads(threads);
+	dataGenerator.run(null);
+
+	String emailPrefix = "generated." + firstPublisherId + ".";
+	List<List<Object>> rows = new ArrayList<>();
+
+	jdbcTemplate.query("SELECT publisher_id, publisher_name, publisher_phone, publisher_email FROM publisher "
+		+ "WHERE publisher_id >= ? ORDER BY publisher_id", rs -> {
+			long publisherId = rs.getLong(1);
+			rows.add(List.of("publisher", publisherId - firstPublisherId,
+				rs.getString(2).replace(String.valueOf(publisherId), "#"), rs.getString(3),
+				rs.getString(4).replace(String.valueOf(publisherId), "#")));
+		}, firstPublisherId);
+	jdbcTemplate.query("SELECT book_store_id, book_store_name, book_store_address, book_store_city, "
+		+ "book_store_state, book_store_zip, book_store_phone, publisher_id FROM book_store "
+		+ "WHERE book_store_id >= ? ORDER BY book_store_id", rs -> {
+			long bookStoreId = rs.getLong(1);
+			rows.add(List.of("book store", bookStoreId - firstBookStoreId,
+				rs.getString(2).replace(String.valueOf(bookStoreId), "#"), rs.getString(3), rs.getString(4),
+				rs.getString(5), rs.getString(6), rs.getString(7), rs.getLong(8) - firstPublisherId));
+		}, firstBookStoreId);
+
+	List<List<Object>> customers = new ArrayList<>();
+	jdbcTemplate.query("SELECT customer_email, customer_first_name, customer_last_name FROM customer "
+		+ "WHERE customer_email LIKE ?", rs -> {
+			customers.add(List.of("customer", number(rs.getString(1), emailPrefix), rs.getString(2),
+				rs.getString(3)));
+		}, emailPrefix + "%");
+
+	List<List<Object>> memberships = new ArrayList<>();
+	jdbcTemplate.query("SELECT c.customer_email, m.book_store_id FROM book_store_customer m JOIN customer c "
+		+ "ON c.customer_id = m.customer_id WHERE c.customer_email LIKE ?", rs -> {
+			memberships.add(List.of("membership", number(rs.getString(1), emailPrefix),
+				rs.getLong(2) - firstBookStoreId));
+		}, emailPrefix + "%");
+
+	customers.sort((a, b) -> Integer.compare((Integer)a.get(1), (Integer)b.get(1)));
+	memberships.sort((a, b) -> a.get(1).equals(b.get(1)) ? Long.compare((Long)a.get(2), (Long)b.get(2))
+		: Integer.compare((Integer)a.get(1), (Integer)b.get(1)));
+	rows.addAll(customers);
+	rows.addAll(memberships);
+	return rows;
+}
+
+private long nextId(String sequenceName) {
+	return jdbcTemplate.queryForObject("SELECT next_val FROM id_sequence WHERE sequence_name = ?", Long.class,
+		sequenceName);
+}
+
+private static int number(String email, String emailPrefix) {
+	return Integer.parseInt(email.substring(emailPrefix.length(), email.indexOf('@')));
+}
+}
@@ -0,0 +1,131 @@
+package book.store.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.test.util.ReflectionTestUtils;
+import book.store.config.ExportProperties;
+import book.store.controller.model.ExportStatus;
+import book.store.controller.model.ExportStatus.State;
+import book.store.dao.CustomerDao;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/* Runs an export against a mocked CustomerDao on one shard whose stream would go on for a million customers, and
+ * cancels it from inside the stream after the first hundred rows: the export has to cancel the statement and stop
+ * at the next row, and leave no file behind.
+ */
+
+class ExportServiceTest {
+
+private static final int ROWS_BEFORE_CANCEL = 100;
+
+private final CustomerDao customerDao = mock(CustomerDao.class);
+private final ShardRouter shardRouter = mock(ShardRouter.class);
+private final PrimaryTransactions primaryTransactions = mock(PrimaryTransactions.class);
+private final ExportProperties properties = new ExportProperties();
+private final ExportService exportService = new ExportService();
+
+@TempDir
+private Path directory;
+
+@BeforeEach
+@SuppressWarnings("unchecked")
+void start() throws IOException {
+	when(shardRouter.getShardCount()).thenReturn(1);
+	when(shardRouter.onEveryShard(any())).thenAnswer(invocation ->
+		List.of(invocation.getArgument(0, IntFunction.class).apply(0)));
+	when(primaryTransactions.call(any())).thenAnswer(invocation -> invocation.getArgument(0, Supplier.class).get());
+	when(primaryTransactions.callOn(anyInt(), any()))
+		.thenAnswer(invocation -> invocation.getArgument(1, Supplier.class).get());
+	when(customerDao.count()).thenReturn(1_000_000L);
+
+	properties.setDirectory(directory.toString());
+	ReflectionTestUtils.setField(exportService, "properties", properties);
+	ReflectionTestUtils.setField(exportService, "customerDao", customerDao);
+	ReflectionTestUtils.setField(exportService, "shardRouter", shardRouter);
+	ReflectionTestUtils.setField(exportService, "primaryTransactions", primaryTransactions);
+	ReflectionTestUtils.setField(exportService, "meterRegistry", new SimpleMeterRegistry());
+	exportService.start();
+}
+
+@AfterEach
+void stop() {
+	exportService.stop();
+}
+
+@Test
+void cancelStopsTheStreamAtTheNextRowAndCancelsTheStatement() throws Exception {
+	ResultSet rs = mock(ResultSet.class);
+	Statement statement = mock(Statement.class);
+	AtomicLong customerId = new AtomicLong();
+	AtomicLong rowsStreamed = new AtomicLong();
+	CompletableFuture<String> exportId = new CompletableFuture<>();
+
+	when(rs.getStatement()).thenReturn(statement);
+	when(rs.getLong(1)).thenAnswer(invocation -> customerId.get());
+	when(rs.getLong(5)).thenReturn(7L);
+	when(rs.getString(anyInt())).thenReturn("value");
+
+	doAnswer(invocation -> {
+		RowCallbackHandler handler = invocation.getArgument(1);
+
+		for(long row = 1; row <= 1_000_000; row++) {
+			if(row == ROWS_BEFORE_CANCEL + 1) {
+				exportService.cancelExport(exportId.get());
+			}
+
+			customerId.set(row);
+			handler.processRow(rs);
+			rowsStreamed.incrementAndGet();
+		}
+		return null;
+	}).when(customerDao).streamWithBookStores(anyInt(), any());
+
+	exportId.complete(exportService.startExport().getExportId());
+	ExportStatus status = awaitEnd(exportId.get());
+
+	assertThat(status.getState()).isEqualTo(State.CANCELLED);
+	assertThat(rowsStreamed.get()).isEqualTo(ROWS_BEFORE_CANCEL);
+	assertThat(status.getRowsWritten()).isLessThan(ROWS_BEFORE_CANCEL);
+	verify(statement).cancel();
+
+	try(Stream<Path> files = Files.list(directory)) {
+		assertThat(files).isEmpty();
+	}
+}
+
+private ExportStatus awaitEnd(String exportId) throws InterruptedException {
+	long deadline = System.nanoTime() + 10_000_000_000L;
+
+	while(true) {
+		ExportStatus status = exportService.retrieveExport(exportId);
+
+		if(status.getState() != State.QUEUED && status.getState() != State.RUNNING) {
+			return status;
+		}
+
+		assertThat(System.nanoTime()).as("export ended").isLessThan(deadline);
+		Thread.sleep(20);
+	}
+}
+}
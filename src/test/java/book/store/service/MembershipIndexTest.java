@@ -0,0 +1,179 @@
+package book.store.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import book.store.controller.model.AudienceQuery;
+import book.store.controller.model.AudienceResult;
+import book.store.controller.model.BookStoreCustomer;
+import book.store.controller.model.BookStoreData;
+import book.store.controller.model.BookStorePublisher;
+
+/* Enables the membership index on the local H2 database, gives one publisher three book stores with overlapping
+ * customers, waits for the index to pick them up and then checks the audience queries and their paging:
+ *
+ * store A: c1 c2 c3 c4
+ * store B:    c2 c3    c5
+ * store C:       c3       c6
+ */
+
+@SpringBootTest(properties = {"book-store.membership-index.enabled=true",
+	"book-store.membership-index.refresh-interval=100ms"})
+@ActiveProfiles({"local", "test"})
+class MembershipIndexTest {
+
+@Autowired
+private MembershipIndex membershipIndex;
+
+@Autowired
+private BookStoreService bookStoreService;
+
+private Long publisherId;
+private Long storeA;
+private Long storeB;
+private Long storeC;
+private final List<Long> c = new ArrayList<>();
+
+@BeforeEach
+void createStores() throws InterruptedException {
+	BookStorePublisher publisher = new BookStorePublisher();
+	publisher.setPublisherName("Audience");
+	publisherId = bookStoreService.savePublisher(publisher).getPublisherId();
+	storeA = createBookStore("A");
+	storeB = createBookStore("B");
+	storeC = createBookStore("C");
+
+	String prefix = "audience." + publisherId + ".";
+
+	for(int customer = 1; customer <= 6; customer++) {
+		Long bookStoreId = customer == 5 ? storeB : customer == 6 ? storeC : storeA;
+		c.add(addCustomer(bookStoreId, prefix + customer + "@example.com"));
+	}
+
+	addCustomer(storeB, prefix + "2@example.com");
+	addCustomer(storeB, prefix + "3@example.com");
+	addCustomer(storeC, prefix + "3@example.com");
+
+	awaitIndexed(anyOf(storeA, storeB, storeC), 6);
+}
+
+@Test
+void queriesCombineTheStoresWithAndOrAndNot() {
+	assertThat(membershipIndex.query(allOf(storeA, storeB)).getCustomerIds()).containsExactly(c(2), c(3));
+	assertThat(membershipIndex.query(anyOf(storeB, storeC)).getCustomerIds())
+		.containsExactly(c(2), c(3), c(5), c(6));
+
+	AudienceQuery notC = allOf(storeA, storeB);
+	notC.setNoneOf(List.of(storeC));
+	assertThat(membershipIndex.query(notC).getCustomerIds()).containsExactly(c(2));
+
+	AudienceQuery aAndBOrC = allOf(storeA);
+	aAndBOrC.setAnyOf(List.of(storeB, storeC));
+	assertThat(membershipIndex.query(aAndBOrC).getCustomerIds()).containsExactly(c(2), c(3));
+
+	AudienceQuery allStores = new AudienceQuery();
+	allStores.setAllOfPublisherId(publisherId);
+	assertThat(membershipIndex.query(allStores).getCustomerIds()).containsExactly(c(3));
+
+	AudienceQuery nobody = allOf(storeB);
+	nobody.setNoneOf(List.of(storeA, storeB));
+	AudienceResult empty = membershipIndex.query(nobody);
+	assertThat(empty.getCount()).isZero();
+	assertThat(empty.getCustomerIds()).isEmpty();
+	assertThat(empty.getNextAfterCustomerId()).isNull();
+}
+
+@Test
+void pagesFollowNextAfterCustomerIdUntilTheLastOne() {
+	AudienceQuery query = new AudienceQuery();
+	query.setAnyOfPublisherId(publisherId);
+	query.setLimit(4);
+
+	AudienceResult first = membershipIndex.query(query);
+	assertThat(first.getCount()).isEqualTo(6);
+	assertThat(first.getCustomerIds()).containsExactly(c(1), c(2), c(3), c(4));
+	assertThat(first.getNextAfterCustomerId()).isEqualTo(c(4));
+
+	query.setAfterCustomerId(first.getNextAfterCustomerId());
+	AudienceResult second = membershipIndex.query(query);
+	assertThat(second.getCount()).isEqualTo(6);
+	assertThat(second.getCustomerIds()).containsExactly(c(5), c(6));
+	assertThat(second.getNextAfterCustomerId()).isNull();
+
+	query.setLimit(2);
+	query.setAfterCustomerId(c(2));
+	assertThat(membershipIndex.query(query).getNextAfterCustomerId()).isEqualTo(c(4));
+
+	query.setAfterCustomerId(c(6));
+	assertThat(membershipIndex.query(query).getCustomerIds()).isEmpty();
+}
+
+@Test
+void queriesWithoutStoresOrWithUnknownStoresAreRejected() {
+	AudienceQuery onlyNoneOf = new AudienceQuery();
+	onlyNoneOf.setNoneOf(List.of(storeA));
+
+	assertThatThrownBy(() -> membershipIndex.query(onlyNoneOf)).isInstanceOf(InvalidAudienceQueryException.class);
+	assertThatThrownBy(() -> membershipIndex.query(allOf(storeA, Long.MAX_VALUE)))
+		.isInstanceOf(NoSuchElementException.class);
+}
+
+/* The stores were created after the index was built, so they arrive with the next refresh. */
+
+private void awaitIndexed(AudienceQuery query, long count) throws InterruptedException {
+	long deadline = System.nanoTime() + 10_000_000_000L;
+
+	while(true) {
+		try {
+			if(membershipIndex.query(query).getCount() == count) {
+				return;
+			}
+		}
+		catch(NoSuchElementException | ServiceUnavailableException e) {
+			if(System.nanoTime() > deadline) {
+				throw e;
+			}
+		}
+
+		assertThat(System.nanoTime()).as("membership index caught up").isLessThan(deadline);
+		Thread.sleep(50);
+	}
+}
+
+private Long c(int customer) {
+	return c.get(customer - 1);
+}
+
+private static AudienceQuery allOf(Long... bookStoreIds) {
+	AudienceQuery query = new AudienceQuery();
+	query.setAllOf(List.of(bookStoreIds));
+	return query;
+}
+
+private static AudienceQuery anyOf(Long... bookStoreIds) {
+	AudienceQuery query = new AudienceQuery();
+	query.setAnyOf(List.of(bookStoreIds));
+	return query;
+}
+
+private Long createBookStore(String name) {
+	BookStoreData bookStore = new BookStoreData();
+	bookStore.setBookStoreName(name);
+	return bookStoreService.saveBookStore(publisherId, bookStore).getBookStoreId();
+}
+
+private Long addCustomer(Long bookStoreId, String email) {
+	BookStoreCustomer customer = new BookStoreCustomer();
+	customer.setCustomerFirstName("Tony");
+	customer.setCustomerLastName("Parnoodle");
+	customer.setCustomerEmail(email);
+	return bookStoreService.saveCustomer(bookStoreId, customer, null).getCustomerId();
+}
+}
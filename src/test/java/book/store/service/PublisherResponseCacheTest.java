@@ -0,0 +1,174 @@
+package book.store.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+import java.util.zip.GZIPInputStream;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.unit.DataSize;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import book.store.config.ResponseCacheProperties;
+import book.store.controller.model.BookStoreCustomer;
+import book.store.controller.model.BookStoreData;
+import book.store.controller.model.BookStorePublisher;
+import book.store.service.PublisherResponseCache.Format;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/* Fills a PublisherResponseCache from counting loaders and checks when a loader is called again: hits in both
+ * formats, publishers evicted oldest first, a write that commits while a miss is loading, and a change to a
+ * customer that only an embedCustomers body contains. Also picks the
+ * format for a few Accept-Encoding headers.
+ */
+
+class PublisherResponseCacheTest {
+
+private final ObjectMapper objectMapper = new ObjectMapper();
+private final ResponseCacheProperties properties = new ResponseCacheProperties();
+private final ShardRouter shardRouter = mock(ShardRouter.class);
+
+@SuppressWarnings("unchecked")
+private final SingleFlight<PublisherRead, BookStorePublisher> publisherReadFlight = mock(SingleFlight.class);
+
+private final PublisherResponseCache cache = new PublisherResponseCache();
+private final Map<Long, Integer> loads = new HashMap<>();
+
+@BeforeEach
+void start() {
+	properties.setEnabled(true);
+	when(shardRouter.shardForPublisher(anyLong())).thenReturn(0);
+
+	ReflectionTestUtils.setField(cache, "properties", properties);
+	ReflectionTestUtils.setField(cache, "objectMapper", objectMapper);
+	ReflectionTestUtils.setField(cache, "shardRouter", shardRouter);
+	ReflectionTestUtils.setField(cache, "meterRegistry", new SimpleMeterRegistry());
+	ReflectionTestUtils.setField(cache, "publisherReadFlight", publisherReadFlight);
+	cache.start();
+}
+
+@Test
+void hitsReturnTheCachedBodyInBothFormats() throws IOException {
+	byte[] json = cache.get(1L, Format.JSON, null, false, loader(1L));
+	byte[] gzip = cache.get(1L, Format.JSON_GZIP, null, false, loader(1L));
+
+	assertThat(cache.get(1L, Format.JSON, null, false, loader(1L))).isSameAs(json);
+	assertThat(cache.get(1L, Format.JSON_GZIP, null, false, loader(1L))).isSameAs(gzip);
+	assertThat(loads.get(1L)).isEqualTo(2);
+
+	assertThat(objectMapper.readTree(json).get("publisherName").asText()).isEqualTo("Publisher 1");
+	assertThat(objectMapper.readTree(gunzip(gzip))).isEqualTo(objectMapper.readTree(json));
+}
+
+@Test
+void publishersAreEvictedInTheOrderTheyWereCached() {
+	int bodySize = objectMapper.valueToTree(publisher(1L)).toString().length();
+	properties.setMaxSize(DataSize.ofBytes(2L * bodySize));
+
+	cache.get(1L, Format.JSON, null, false, loader(1L));
+	cache.get(2L, Format.JSON, null, false, loader(2L));
+	cache.get(1L, Format.JSON, null, false, loader(1L));
+	cache.get(3L, Format.JSON, null, false, loader(3L));
+
+	cache.get(2L, Format.JSON, null, false, loader(2L));
+	cache.get(3L, Format.JSON, null, false, loader(3L));
+	assertThat(loads).containsEntry(1L, 1).containsEntry(2L, 1).containsEntry(3L, 1);
+
+	cache.get(1L, Format.JSON, null, false, loader(1L));
+	cache.get(3L, Format.JSON, null, false, loader(3L));
+	cache.get(2L, Format.JSON, null, false, loader(2L));
+	assertThat(loads).containsEntry(1L, 2).containsEntry(2L, 2).containsEntry(3L, 1);
+}
+
+@Test
+void bodyLoadedWhileThePublisherIsInvalidatedIsNotKept() {
+	Supplier<BookStorePublisher> racing = () -> {
+		BookStorePublisher publisher = loader(1L).get();
+		cache.invalidate(1L);
+		return publisher;
+	};
+
+	assertThat(cache.get(1L, Format.JSON, null, false, racing)).isNotEmpty();
+	verify(publisherReadFlight).forget(new PublisherRead(1L, false));
+	verify(publisherReadFlight).forget(new PublisherRead(1L, true));
+
+	cache.get(1L, Format.JSON, null, false, loader(1L));
+	cache.get(1L, Format.JSON, null, false, loader(1L));
+	assertThat(loads.get(1L)).isEqualTo(2);
+
+	cache.invalidateAll();
+	cache.get(1L, Format.JSON, null, false, loader(1L));
+	assertThat(loads.get(1L)).isEqualTo(3);
+}
+
+@Test
+void customerEmbeddedInALaterBodyDropsEveryBodyOfThePublisher() {
+	cache.get(1L, Format.JSON, null, false, loader(1L));
+	cache.get(1L, Format.JSON, null, true, () -> {
+		loads.merge(1L, 1, Integer::sum);
+		return withCustomer(publisher(1L), 11L, 7L);
+	});
+
+	cache.customersChanged(0, List.of(7L));
+
+	cache.get(1L, Format.JSON, null, false, loader(1L));
+	assertThat(loads.get(1L)).isEqualTo(3);
+}
+
+@Test
+void formatFollowsTheAcceptEncodingCodingsAndQualities() {
+	assertThat(Format.forAcceptEncoding(null)).isEqualTo(Format.JSON);
+	assertThat(Format.forAcceptEncoding("gzip")).isEqualTo(Format.JSON_GZIP);
+	assertThat(Format.forAcceptEncoding("deflate, GZIP;q=0.5, br")).isEqualTo(Format.JSON_GZIP);
+	assertThat(Format.forAcceptEncoding("x-gzip")).isEqualTo(Format.JSON_GZIP);
+	assertThat(Format.forAcceptEncoding("*")).isEqualTo(Format.JSON_GZIP);
+	assertThat(Format.forAcceptEncoding("gzip;q=0")).isEqualTo(Format.JSON);
+	assertThat(Format.forAcceptEncoding("gzip; q=0.000")).isEqualTo(Format.JSON);
+	assertThat(Format.forAcceptEncoding("*, gzip;q=0")).isEqualTo(Format.JSON);
+	assertThat(Format.forAcceptEncoding("gzip;q=bad")).isEqualTo(Format.JSON);
+	assertThat(Format.forAcceptEncoding("identity, deflate")).isEqualTo(Format.JSON);
+	assertThat(Format.forAcceptEncoding("not-gzip")).isEqualTo(Format.JSON);
+}
+
+private Supplier<BookStorePublisher> loader(Long publisherId) {
+	return () -> {
+		loads.merge(publisherId, 1, Integer::sum);
+		return publisher(publisherId);
+	};
+}
+
+private static BookStorePublisher publisher(Long publisherId) {
+	BookStorePublisher publisher = new BookStorePublisher();
+	publisher.setPublisherId(publisherId);
+	publisher.setPublisherName("Publisher " + publisherId);
+	return publisher;
+}
+
+private static BookStorePublisher withCustomer(BookStorePublisher publisher, Long bookStoreId, Long customerId) {
+	BookStoreCustomer customer = new BookStoreCustomer();
+	customer.setCustomerId(customerId);
+
+	BookStoreData bookStore = new BookStoreData();
+	bookStore.setBookStoreId(bookStoreId);
+	bookStore.setCustomerCount(1L);
+	bookStore.setCustomers(new HashSet<>(Set.of(customer)));
+	publisher.getBookStores().add(bookStore);
+	return publisher;
+}
+
+private static byte[] gunzip(byte[] body) throws IOException {
+	try(GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(body))) {
+		return gzip.readAllBytes();
+	}
+}
+}
@@ -0,0 +1,205 @@
+package book.store.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import book.store.config.ReadYourWritesContext;
+import book.store.config.ShardContext;
+import book.store.controller.model.BookStoreCustomer;
+import book.store.controller.model.BookStoreData;
+import book.store.controller.model.BookStorePublisher;
+
+/* Moves publishers between the H2 shards of the local-sharded profile and checks what ends up on each shard, where
+ * the publisher is routed afterwards, that a move interrupted after its copy can be finished by running it again,
+ * and that writes are turned away while a publisher is being moved.
+ */
+
+@SpringBootTest
+@ActiveProfiles({"local", "local-sharded", "test"})
+class ShardRebalancerTest {
+
+@Autowired
+private ShardRebalancer shardRebalancer;
+
+@Autowired
+private ShardRouter shardRouter;
+
+@Autowired
+private BookStoreService bookStoreService;
+
+@Autowired
+private JdbcTemplate jdbcTemplate;
+
+@BeforeEach
+void pin() {
+	ReadYourWritesContext.pinToPrimary();
+}
+
+@AfterEach
+void unpin() {
+	ReadYourWritesContext.clear();
+}
+
+@Test
+void moveCopiesTheSubtreeAndRoutesToTheTarget() {
+	Long publisherId = createPublisher("Moved");
+	Long firstStore = createBookStore(publisherId, "First");
+	Long secondStore = createBookStore(publisherId, "Second");
+	addCustomer(firstStore, "shared." + publisherId + "@example.com", null);
+	addCustomer(secondStore, "shared." + publisherId + "@example.com", null);
+	addCustomer(secondStore, null, null);
+	String idempotencyKey = "move-" + publisherId;
+	BookStoreCustomer keyed = addCustomer(firstStore, "keyed." + publisherId + "@example.com", idempotencyKey);
+
+	int source = shardRouter.shardForPublisher(publisherId);
+	int target = (source + 1) % shardRouter.getShardCount();
+	Map<String, Object> result = shardRebalancer.movePublisher(publisherId, target);
+
+	assertThat(result).containsEntry("moved", true).containsEntry("bookStores", 2).containsEntry("customers", 3)
+		.containsEntry("memberships", 4);
+	assertThat(count(target, "SELECT COUNT(*) FROM publisher WHERE publisher_id = ?", publisherId)).isEqualTo(1);
+	assertThat(count(target, "SELECT COUNT(*) FROM book_store WHERE publisher_id = ?", publisherId)).isEqualTo(2);
+	assertThat(memberships(target, publisherId)).isEqualTo(4);
+	assertThat(count(target, "SELECT COUNT(*) FROM idempotency_key WHERE idempotency_key = ?", idempotencyKey))
+		.isEqualTo(1);
+
+	assertThat(count(source, "SELECT COUNT(*) FROM publisher WHERE publisher_id = ?", publisherId)).isZero();
+	assertThat(count(source, "SELECT COUNT(*) FROM book_store WHERE publisher_id = ?", publisherId)).isZero();
+	assertThat(count(source, "SELECT COUNT(*) FROM idempotency_key WHERE idempotency_key = ?", idempotencyKey))
+		.isZero();
+
+	assertThat(shardRouter.shardForPublisher(publisherId)).isEqualTo(target);
+	assertThat(shardRouter.shardForBookStore(firstStore)).isEqualTo(target);
+	assertThat(shardRouter.shardForBookStore(secondStore)).isEqualTo(target);
+	assertThat(bookStoreService.retrievPublisherById(publisherId, false).getBookStores()).hasSize(2);
+
+	BookStoreCustomer replayed = addCustomer(firstStore, keyed.getCustomerEmail(), idempotencyKey);
+	assertThat(replayed.getCustomerId()).isEqualTo(ShardContext.callOn(target, () -> jdbcTemplate.queryForObject(
+		"SELECT customer_id FROM customer WHERE customer_email = ?", Long.class, keyed.getCustomerEmail())));
+}
+
+@Test
+void moveThatStoppedAfterTheCopyIsFinishedByRunningItAgain() {
+	Long publisherId = createPublisher("Rerun");
+	Long bookStoreId = createBookStore(publisherId, "Only");
+	addCustomer(bookStoreId, null, null);
+
+	int source = shardRouter.shardForPublisher(publisherId);
+	int target = (source + 1) % shardRouter.getShardCount();
+	copyByHand(publisherId, bookStoreId, source, target);
+
+	assertThat(shardRebalancer.movePublisher(publisherId, target)).containsEntry("moved", true);
+
+	assertThat(memberships(target, publisherId)).isEqualTo(1);
+	assertThat(count(source, "SELECT COUNT(*) FROM book_store WHERE publisher_id = ?", publisherId)).isZero();
+	assertThat(shardRouter.shardForPublisher(publisherId)).isEqualTo(target);
+	assertThat(shardRebalancer.movePublisher(publisherId, target)).containsEntry("moved", false);
+}
+
+@Test
+void writesAreTurnedAwayWhileThePublisherIsMoving() {
+	Long publisherId = createPublisher("Frozen");
+	Long bookStoreId = createBookStore(publisherId, "Frozen Store");
+	int shard = shardRouter.shardForPublisher(publisherId);
+
+	markMoving(ShardRouter.PUBLISHER, publisherId, shard);
+	markMoving(ShardRouter.BOOK_STORE, bookStoreId, shard);
+	shardRouter.refreshAssignments();
+
+	try {
+		assertThatThrownBy(() -> addCustomer(bookStoreId, null, null))
+			.isInstanceOf(ServiceUnavailableException.class);
+		assertThatThrownBy(() -> createBookStore(publisherId, "Another"))
+			.isInstanceOf(ServiceUnavailableException.class);
+		assertThat(bookStoreService.retrievPublisherById(publisherId, false).getBookStores()).hasSize(1);
+	}
+	finally {
+		ShardContext.callOn(0, () -> jdbcTemplate.update("DELETE FROM shard_assignment WHERE entity_id IN (?, ?)",
+			publisherId, bookStoreId));
+		shardRouter.refreshAssignments();
+	}
+
+	assertThat(addCustomer(bookStoreId, null, null).getCustomerId()).isNotNull();
+}
+
+@Test
+void concurrentMovesOfTheSamePublisherTakeTurns() {
+	Long publisherId = createPublisher("Contested");
+	createBookStore(publisherId, "Contested Store");
+	int source = shardRouter.shardForPublisher(publisherId);
+	int shards = shardRouter.getShardCount();
+
+	List<CompletableFuture<Map<String, Object>>> moves = List.of(
+		CompletableFuture.supplyAsync(() -> shardRebalancer.movePublisher(publisherId, (source + 1) % shards)),
+		CompletableFuture.supplyAsync(() -> shardRebalancer.movePublisher(publisherId, (source + 2) % shards)));
+	moves.forEach(CompletableFuture::join);
+
+	int shard = shardRouter.shardForPublisher(publisherId);
+
+	for(int other = 0; other < shards; other++) {
+		assertThat(count(other, "SELECT COUNT(*) FROM book_store WHERE publisher_id = ?", publisherId))
+			.isEqualTo(other == shard ? 1 : 0);
+	}
+}
+
+private Long createPublisher(String name) {
+	BookStorePublisher publisher = new BookStorePublisher();
+	publisher.setPublisherName(name);
+	return bookStoreService.savePublisher(publisher).getPublisherId();
+}
+
+private Long createBookStore(Long publisherId, String name) {
+	BookStoreData bookStore = new BookStoreData();
+	bookStore.setBookStoreName(name);
+	return bookStoreService.saveBookStore(publisherId, bookStore).getBookStoreId();
+}
+
+private BookStoreCustomer addCustomer(Long bookStoreId, String email, String idempotencyKey) {
+	BookStoreCustomer customer = new BookStoreCustomer();
+	customer.setCustomerFirstName("Tony");
+	customer.setCustomerLastName("Parnoodle");
+	customer.setCustomerEmail(email);
+	return bookStoreService.saveCustomer(bookStoreId, customer, idempotencyKey);
+}
+
+/* Leaves the rows the way a move finds them when its copy committed but the assignment did not. */
+
+private void copyByHand(Long publisherId, Long bookStoreId, int source, int target) {
+	Map<String, Object> customer = ShardContext.callOn(source, () -> jdbcTemplate.queryForMap(
+		"SELECT c.customer_first_name, c.customer_last_name FROM customer c JOIN book_store_customer m "
+			+ "ON m.customer_id = c.customer_id WHERE m.book_store_id = ?", bookStoreId));
+
+	ShardContext.callOn(target, () -> {
+		jdbcTemplate.update("INSERT INTO publisher (publisher_id, publisher_name) VALUES (?, 'Rerun')", publisherId);
+		jdbcTemplate.update("INSERT INTO book_store (book_store_id, book_store_name, publisher_id) VALUES (?, 'Only', ?)",
+			bookStoreId, publisherId);
+		jdbcTemplate.update("INSERT INTO customer (customer_first_name, customer_last_name) VALUES (?, ?)",
+			customer.get("customer_first_name"), customer.get("customer_last_name"));
+		return jdbcTemplate.update("INSERT INTO book_store_customer (book_store_id, customer_id) "
+			+ "SELECT ?, MAX(customer_id) FROM customer", bookStoreId);
+	});
+}
+
+private void markMoving(String entityType, Long id, int shard) {
+	ShardContext.callOn(0, () -> jdbcTemplate.update("INSERT INTO shard_assignment (entity_type, entity_id, shard, "
+		+ "moving) VALUES (?, ?, ?, TRUE)", entityType, id, shard));
+}
+
+private int memberships(int shard, Long publisherId) {
+	return count(shard, "SELECT COUNT(*) FROM book_store_customer m JOIN book_store b "
+		+ "ON b.book_store_id = m.book_store_id WHERE b.publisher_id = ?", publisherId);
+}
+
+private int count(int shard, String sql, Object id) {
+	return ShardContext.callOn(shard, () -> jdbcTemplate.queryForObject(sql, Integer.class, id));
+}
+}
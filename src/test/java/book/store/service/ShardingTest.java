@@ -0,0 +1,116 @@
+package book.store.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import book.store.config.ReadYourWritesContext;
+import book.store.config.ShardContext;
+import book.store.config.ShardingProperties;
+import book.store.controller.model.BookStorePublisher;
+
+/* Runs the sharded service methods on the three H2 shards of the local-sharded profile. The tests pin themselves to
+ * the primary, because the replica of shard 0 in the local profile is never written to.
+ */
+
+@SpringBootTest
+@ActiveProfiles({"local", "local-sharded", "test"})
+class ShardingTest {
+
+@Autowired
+private BookStoreService bookStoreService;
+
+@Autowired
+private ShardRouter shardRouter;
+
+@Autowired
+private ShardingProperties shardingProperties;
+
+@Autowired
+private JdbcTemplate jdbcTemplate;
+
+@BeforeEach
+void pin() {
+	ReadYourWritesContext.pinToPrimary();
+}
+
+@AfterEach
+void unpin() {
+	ReadYourWritesContext.clear();
+}
+
+@Test
+void shardedMethodsRunOnThePublishersShard() {
+	assertThat(shardRouter.getShardCount()).isEqualTo(3);
+
+	Set<Integer> shards = new HashSet<>();
+
+	for(Long publisherId : createPublishers(shardRouter.getShardCount(), "Routed")) {
+		int shard = shardRouter.shardForPublisher(publisherId);
+		shards.add(shard);
+
+		assertThat(publisherId >>> shardingProperties.getIdRangeBits()).isEqualTo(shard);
+
+		for(int other = 0; other < shardRouter.getShardCount(); other++) {
+			assertThat(publishersWithId(other, publisherId)).isEqualTo(other == shard ? 1 : 0);
+		}
+
+		assertThat(bookStoreService.retrievPublisherById(publisherId, false).getPublisherId()).isEqualTo(publisherId);
+	}
+
+	assertThat(shards).hasSize(shardRouter.getShardCount());
+}
+
+@Test
+void everyShardPageIsMergedInPublisherIdOrder() {
+	List<Long> created = createPublishers(2 * shardRouter.getShardCount(), "Paged");
+
+	List<Long> all = ids(bookStoreService.retrieveAllPublishers(null, null));
+	assertThat(all).isSorted().doesNotHaveDuplicates().containsAll(created);
+
+	List<Long> paged = new ArrayList<>();
+	Long after = null;
+
+	while(true) {
+		List<Long> page = ids(bookStoreService.retrieveAllPublishers(after, 2));
+
+		if(page.isEmpty()) {
+			break;
+		}
+
+		assertThat(page.size()).isLessThanOrEqualTo(2);
+		paged.addAll(page);
+		after = page.get(page.size() - 1);
+	}
+
+	assertThat(paged).isEqualTo(all);
+}
+
+private List<Long> createPublishers(int count, String name) {
+	List<Long> publisherIds = new ArrayList<>();
+
+	for(int index = 0; index < count; index++) {
+		BookStorePublisher publisher = new BookStorePublisher();
+		publisher.setPublisherName(name + " " + index);
+		publisherIds.add(bookStoreService.savePublisher(publisher).getPublisherId());
+	}
+	return publisherIds;
+}
+
+private int publishersWithId(int shard, Long publisherId) {
+	return ShardContext.callOn(shard, () -> jdbcTemplate.queryForObject(
+		"SELECT COUNT(*) FROM publisher WHERE publisher_id = ?", Integer.class, publisherId));
+}
+
+private static List<Long> ids(List<BookStorePublisher> publishers) {
+	return publishers.stream().map(BookStorePublisher::getPublisherId).toList();
+}
+}
@@ -0,0 +1,84 @@
+package book.store.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+
+/* Compares StoreKdTree.nearest with a brute force search over random points all over the globe, the poles and the
+ * 180th meridian included, for k from one to more than there are points.
+ */
+
+class StoreKdTreeTest {
+
+private static final double EARTH_RADIUS_MILES = 3958.8;
+
+private final Random random = new Random(42);
+
+@Test
+void nearestMatchesBruteForceForEveryK() {
+	double[] latitudes = new double[500];
+	double[] longitudes = new double[500];
+
+	for(int point = 0; point < latitudes.length; point++) {
+		latitudes[point] = randomLatitude();
+		longitudes[point] = random.nextDouble() * 360 - 180;
+	}
+
+	StoreKdTree tree = new StoreKdTree(latitudes, longitudes);
+
+	for(int query = 0; query < 200; query++) {
+		double latitude = query == 0 ? 90 : randomLatitude();
+		double longitude = query == 1 ? 180 : random.nextDouble() * 360 - 180;
+
+		for(int k : new int[] {1, 2, 10, 499, 500, 501, 1000}) {
+			assertNearest(tree, latitudes, longitudes, latitude, longitude, k);
+		}
+	}
+}
+
+@Test
+void emptyAndSinglePointTrees() {
+	assertThat(new StoreKdTree(new double[0], new double[0]).nearest(43.6, -116.2, 5).points()).isEmpty();
+
+	StoreKdTree.Nearest nearest = new StoreKdTree(new double[] {43.6}, new double[] {-116.2}).nearest(43.6, -116.2, 3);
+	assertThat(nearest.points()).containsExactly(0);
+	assertThat(nearest.miles()[0]).isCloseTo(0, within(1e-6));
+}
+
+private void assertNearest(StoreKdTree tree, double[] latitudes, double[] longitudes, double latitude,
+	double longitude, int k) {
+	double[] miles = IntStream.range(0, latitudes.length)
+		.mapToDouble(point -> haversine(latitude, longitude, latitudes[point], longitudes[point])).toArray();
+	int[] expected = IntStream.range(0, latitudes.length).boxed()
+		.sorted(Comparator.comparingDouble(point -> miles[point])).limit(k).mapToInt(Integer::intValue).toArray();
+
+	StoreKdTree.Nearest nearest = tree.nearest(latitude, longitude, k);
+
+	assertThat(nearest.points()).as("k = %d", k).hasSize(Math.min(k, latitudes.length));
+	assertThat(nearest.miles()).hasSize(nearest.points().length);
+
+	for(int position = 0; position < expected.length; position++) {
+		assertThat(nearest.miles()[position]).isCloseTo(miles[expected[position]], within(1e-6));
+		assertThat(miles[nearest.points()[position]]).isCloseTo(miles[expected[position]], within(1e-6));
+	}
+	assertThat(Arrays.stream(nearest.points()).distinct().count()).isEqualTo(nearest.points().length);
+}
+
+/* Uniform over the sphere's surface, so the poles get no more points than their share. */
+
+private double randomLatitude() {
+	return Math.toDegrees(Math.asin(random.nextDouble() * 2 - 1));
+}
+
+private static double haversine(double latitude1, double longitude1, double latitude2, double longitude2) {
+	double dLatitude = Math.toRadians(latitude2 - latitude1);
+	double dLongitude = Math.toRadians(longitude2 - longitude1);
+	double a = Math.pow(Math.sin(dLatitude / 2), 2) + Math.cos(Math.toRadians(latitude1))
+		* Math.cos(Math.toRadians(latitude2)) * Math.pow(Math.sin(dLongitude / 2), 2);
+	return 2 * EARTH_RADIUS_MILES * Math.asin(Math.min(1, Math.sqrt(a)));
+}
+}
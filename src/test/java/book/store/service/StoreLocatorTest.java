@@ -0,0 +1,130 @@
+package book.store.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import java.util.List;
+import java.util.NoSuchElementException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.util.ReflectionTestUtils;
+import book.store.config.ReadYourWritesContext;
+import book.store.controller.model.BookStoreData;
+import book.store.controller.model.BookStorePublisher;
+import book.store.controller.model.NearbyBookStore;
+
+/* Enables the store locator on the local H2 database with a three line centroid file (two Boise zip codes and one
+ * in New York), gives one publisher a store in each and checks what findNearest answers for them, for a zip code
+ * that is not in the file and while there is no centroid file at all.
+ */
+
+@SpringBootTest(properties = {"book-store.store-locator.enabled=true",
+	"book-store.store-locator.zip-centroids=classpath:zip-centroids-test.csv",
+	"book-store.store-locator.refresh-interval=100ms"})
+@ActiveProfiles({"local", "test"})
+class StoreLocatorTest {
+
+@Autowired
+private StoreLocator storeLocator;
+
+@Autowired
+private ZipCentroids zipCentroids;
+
+@Autowired
+private BookStoreService bookStoreService;
+
+private Long publisherId;
+private Long downtown;
+private Long bench;
+private Long manhattan;
+
+@BeforeEach
+void createStores() throws InterruptedException {
+	ReadYourWritesContext.pinToPrimary();
+
+	BookStorePublisher publisher = new BookStorePublisher();
+	publisher.setPublisherName("Located");
+	publisherId = bookStoreService.savePublisher(publisher).getPublisherId();
+	downtown = createBookStore("Downtown", "83702");
+	bench = createBookStore("Bench", "83706");
+	manhattan = createBookStore("Manhattan", "10001");
+
+	awaitLocated(3);
+}
+
+@AfterEach
+void unpin() {
+	ReadYourWritesContext.clear();
+}
+
+@Test
+void storesComeNearestFirstWithTheirDistance() {
+	List<NearbyBookStore> nearby = ours(storeLocator.findNearest("83702", 100));
+
+	assertThat(nearby).extracting(NearbyBookStore::getBookStoreId).containsExactly(downtown, bench, manhattan);
+	assertThat(nearby.get(0).getDistanceMiles()).isLessThan(0.01);
+	assertThat(nearby.get(1).getDistanceMiles()).isBetween(2.0, 4.0);
+	assertThat(nearby.get(2).getDistanceMiles()).isBetween(2000.0, 2200.0);
+
+	assertThat(storeLocator.findNearest("10001-1234", 1)).extracting(NearbyBookStore::getBookStoreId)
+		.containsExactly(manhattan);
+}
+
+@Test
+void zipCodeThatIsNotInTheCentroidFileIsNotFound() {
+	assertThatThrownBy(() -> storeLocator.findNearest("99999", null)).isInstanceOf(NoSuchElementException.class)
+		.hasMessageContaining("99999");
+	assertThatThrownBy(() -> storeLocator.findNearest("not a zip", null))
+		.isInstanceOf(NoSuchElementException.class);
+}
+
+@Test
+void withoutACentroidFileTheAnswerIsA503() {
+	Object latitudes = ReflectionTestUtils.getField(zipCentroids, "latitudes");
+	ReflectionTestUtils.setField(zipCentroids, "latitudes", null);
+
+	try {
+		assertThatThrownBy(() -> storeLocator.findNearest("83702", null))
+			.isInstanceOf(ServiceUnavailableException.class).hasMessageContaining("centroid");
+	}
+	finally {
+		ReflectionTestUtils.setField(zipCentroids, "latitudes", latitudes);
+	}
+}
+
+/* The stores were created after the index was built, so they arrive with the next refresh. */
+
+private void awaitLocated(int count) throws InterruptedException {
+	long deadline = System.nanoTime() + 10_000_000_000L;
+
+	while(true) {
+		try {
+			if(ours(storeLocator.findNearest("83702", 100)).size() == count) {
+				return;
+			}
+		}
+		catch(ServiceUnavailableException e) {
+			if(System.nanoTime() > deadline) {
+				throw e;
+			}
+		}
+
+		assertThat(System.nanoTime()).as("store locator caught up").isLessThan(deadline);
+		Thread.sleep(50);
+	}
+}
+
+private List<NearbyBookStore> ours(List<NearbyBookStore> nearby) {
+	return nearby.stream().filter(store -> store.getPublisherId().equals(publisherId)).toList();
+}
+
+private Long createBookStore(String name, String zip) {
+	BookStoreData bookStore = new BookStoreData();
+	bookStore.setBookStoreName(name);
+	bookStore.setBookStoreZip(zip);
+	return bookStoreService.saveBookStore(publisherId, bookStore).getBookStoreId();
+}
+}
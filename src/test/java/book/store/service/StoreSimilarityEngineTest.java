@@ -0,0 +1,149 @@
+package book.store.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+import java.time.Instant;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import book.store.config.ReadYourWritesContext;
+import book.store.controller.model.BookStoreCustomer;
+import book.store.controller.model.BookStoreData;
+import book.store.controller.model.BookStorePublisher;
+import book.store.controller.model.SimilarBookStore;
+
+/* Enables the StoreSimilarityEngine on the local H2 database with runs that never come due, gives one publisher six
+ * book stores and runs the engine by hand, checking the lists of a full run and then of an incremental run after
+ * c8 joins C and D:
+ *
+ * store A: c1 c2 c3 c4
+ * store B:    c2 c3    c5
+ * store C:       c3       c6    (c8)
+ * store D:                   c7 (c8)
+ * store E: c9
+ * store F: c9
+ */
+
+@SpringBootTest(properties = {"book-store.similarity.enabled=true", "book-store.similarity.full-interval=24h",
+	"book-store.similarity.incremental-interval=24h"})
+@ActiveProfiles({"local", "test"})
+class StoreSimilarityEngineTest {
+
+@Autowired
+private StoreSimilarityEngine storeSimilarityEngine;
+
+@Autowired
+private BookStoreService bookStoreService;
+
+private Long publisherId;
+private Long storeA;
+private Long storeB;
+private Long storeC;
+private Long storeD;
+private Long storeE;
+private Long storeF;
+
+@BeforeEach
+void createStores() throws InterruptedException {
+	ReadYourWritesContext.pinToPrimary();
+	awaitFirstFullRun();
+
+	BookStorePublisher publisher = new BookStorePublisher();
+	publisher.setPublisherName("Similarity");
+	publisherId = bookStoreService.savePublisher(publisher).getPublisherId();
+	storeA = createBookStore("A");
+	storeB = createBookStore("B");
+	storeC = createBookStore("C");
+	storeD = createBookStore("D");
+	storeE = createBookStore("E");
+	storeF = createBookStore("F");
+
+	addCustomers(storeA, 1, 2, 3, 4);
+	addCustomers(storeB, 2, 3, 5);
+	addCustomers(storeC, 3, 6);
+	addCustomers(storeD, 7);
+	addCustomers(storeE, 9);
+	addCustomers(storeF, 9);
+
+	storeSimilarityEngine.rebuild();
+}
+
+@AfterEach
+void unpin() {
+	ReadYourWritesContext.clear();
+}
+
+@Test
+void fullRunListsTheStoresByJaccardIndex() {
+	assertSimilar(storeA, storeB, 0.4, 2, storeC, 0.2, 1);
+	assertSimilar(storeB, storeA, 0.4, 2, storeC, 0.25, 1);
+	assertSimilar(storeC, storeB, 0.25, 1, storeA, 0.2, 1);
+	assertThat(similar(storeD)).isEmpty();
+	assertSimilar(storeE, storeF, 1.0, 1);
+}
+
+@Test
+void incrementalRunRecomputesTheChangedStoresAndTheirNeighbours() {
+	Instant untouched = similar(storeE).get(0).getComputedAt();
+
+	addCustomers(storeC, 8);
+	addCustomers(storeD, 8);
+	storeSimilarityEngine.refresh();
+
+	assertSimilar(storeC, storeD, 0.25, 1, storeB, 0.2, 1, storeA, 1.0 / 6, 1);
+	assertSimilar(storeD, storeC, 0.25, 1);
+	assertSimilar(storeA, storeB, 0.4, 2, storeC, 1.0 / 6, 1);
+	assertSimilar(storeB, storeA, 0.4, 2, storeC, 0.2, 1);
+
+	assertThat(storeSimilarityEngine.describe()).containsEntry("lastRunStores", 4);
+	assertThat(similar(storeE).get(0).getComputedAt()).isEqualTo(untouched);
+}
+
+/* expected holds bookStoreId, similarity and sharedCustomers of each entry, most similar first. */
+
+private void assertSimilar(Long bookStoreId, Object... expected) {
+	List<SimilarBookStore> similar = similar(bookStoreId);
+	assertThat(similar).hasSize(expected.length / 3);
+
+	for(int entry = 0; entry < similar.size(); entry++) {
+		assertThat(similar.get(entry).getBookStoreId()).isEqualTo(expected[entry * 3]);
+		assertThat(similar.get(entry).getSimilarity()).isCloseTo((Double)expected[entry * 3 + 1], within(1e-9));
+		assertThat(similar.get(entry).getSharedCustomers()).isEqualTo(expected[entry * 3 + 2]);
+	}
+}
+
+private List<SimilarBookStore> similar(Long bookStoreId) {
+	return bookStoreService.retrieveSimilarBookStores(bookStoreId, null);
+}
+
+/* The engine starts its first full run when the context starts; the test's own runs come after it. */
+
+private void awaitFirstFullRun() throws InterruptedException {
+	long deadline = System.nanoTime() + 10_000_000_000L;
+
+	while(storeSimilarityEngine.describe().get("fullRunAt") == null) {
+		assertThat(System.nanoTime()).as("first full run finished").isLessThan(deadline);
+		Thread.sleep(50);
+	}
+}
+
+private Long createBookStore(String name) {
+	BookStoreData bookStore = new BookStoreData();
+	bookStore.setBookStoreName(name);
+	return bookStoreService.saveBookStore(publisherId, bookStore).getBookStoreId();
+}
+
+private void addCustomers(Long bookStoreId, int... customers) {
+	for(int number : customers) {
+		BookStoreCustomer customer = new BookStoreCustomer();
+		customer.setCustomerFirstName("Tony");
+		customer.setCustomerLastName("Parnoodle");
+		customer.setCustomerEmail("similarity." + publisherId + "." + number + "@example.com");
+		bookStoreService.saveCustomer(bookStoreId, customer, null);
+	}
+}
+}